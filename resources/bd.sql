@@ -5,6 +5,9 @@ DROP TABLE SERVEUR CASCADE CONSTRAINTS ;
 DROP TABLE RESERVATION CASCADE CONSTRAINTS ;
 DROP TABLE COMMANDE CASCADE CONSTRAINTS ;
 DROP TABLE AFFECTER CASCADE CONSTRAINTS ;
+DROP TABLE MOUVEMENT_STOCK CASCADE CONSTRAINTS ;
+DROP TABLE COMMANDE_JOURNAL CASCADE CONSTRAINTS ;
+DROP TABLE BATTEMENT CASCADE CONSTRAINTS ;
 
 
 
@@ -62,12 +65,12 @@ create table serveur
  primary key(numserv)
 );
 
--- Tuples de Serveur
-insert into serveur values(1,'user1@mail.com','serveur0','Tutus Peter','gestionnaire');
-insert into serveur values(2,'user2@mail.com','serveur1','Lilo Vito','serveur');
-insert into serveur values(3,'user3@mail.com','serveur2','Don Carl','serveur');
-insert into serveur values(4,'user4@mail.com','serveur3','Leo Jon','serveur');
-insert into serveur values(5,'user5@mail.com','serveur4','Dean Geak','gestionnaire');
+-- Tuples de Serveur (passwd : empreinte PBKDF2 des mots de passe serveur0 à serveur4, calculée avec java Main empreinte <mot de passe>)
+insert into serveur values(1,'user1@mail.com','pbkdf2-sha256$310000$+QI1sj8047rZETyS11Yuaw$qudOeVUDDvQ3aKLwtLXdlqh+et+IIo6Pfw+k4UOLLQs','Tutus Peter','gestionnaire');
+insert into serveur values(2,'user2@mail.com','pbkdf2-sha256$310000$IPSSf63DaYS3/BEzFwFh4g$hatuqXuReiDVN63oao/pXME3nmm0ltahJGAHpiAad2U','Lilo Vito','serveur');
+insert into serveur values(3,'user3@mail.com','pbkdf2-sha256$310000$5aI7qehHOYw/ImsSRbpn9Q$lbJ6r2VbUP5juAgOi6kAIxLV+eBkcVPOZ4Yw6RS+Ovw','Don Carl','serveur');
+insert into serveur values(4,'user4@mail.com','pbkdf2-sha256$310000$Y5+QHuBzEKDw4eyAQsjxJw$24jrn2+PU0p1hTG5+NOiDW4LciikcH/1G/5HT5Gehkg','Leo Jon','serveur');
+insert into serveur values(5,'user5@mail.com','pbkdf2-sha256$310000$/+hacDjmIiB2M+4HSGCM7g$X3/IVVxgTV+voRXznwjuUL/nGOo5feEBnYOIfve+9Ms','Dean Geak','gestionnaire');
 
 
 -- Table reservation
@@ -125,13 +128,44 @@ insert into commande values(104,3,1);
 insert into commande values(105,3,2);
 insert into commande values(106,3,2);
 
+-- Montant cumulé des commandes de chaque réservation, tenu à jour à chaque commande.
+-- L'encaissement n'a plus besoin de verrouiller toute la table commande pour faire la somme.
+alter table reservation add (montcours number(8,2) default 0 not null);
+update reservation r set montcours = (select nvl(sum(p.prixunit * c.quantite), 0) from commande c join plat p on c.numplat = p.numplat where c.numres = r.numres);
+
+
+-- Numéro de version de chaque table, incrémenté à chaque réservation : deux réservations simultanées de la même table ne peuvent pas être validées toutes les deux (la seconde est retentée)
+alter table tabl add (version number(10) default 0 not null);
+
+
+-- Table mouvement_stock : quantités commandées en mode registre des stocks (stocks.registre=true), pas encore reportées sur plat.qteservie
+create table mouvement_stock
+(idmouv number GENERATED BY DEFAULT ON NULL AS IDENTITY,
+ numplat number(4),
+ delta number(4),
+ primary key (idmouv));
+
+-- Table commande_journal : identifiants des commandes du journal des commandes (commandes.journal) déjà appliquées, pour ne pas les rejouer après un arrêt brutal
+create table commande_journal
+(idcmd number(19),
+ numres number(4),
+ dateapp date default sysdate,
+ primary key (idcmd));
+
+-- Table battement : heure (en millisecondes) écrite sur la base principale et relue sur la réplique de lecture (lecture.hostname) pour en mesurer le retard
+create table battement
+(id number(1),
+ instant number(19),
+ primary key (id));
+
+insert into battement values(1, 0);
 
 -- Table affecter
 create table affecter
 (numtab number(4),
  dataff date,
  numserv number(2),
- primary key(numtab, numserv) -- Je me suis permis de changer cela, car sur le sujet, il est dit que un seul serveur peut être affecté à une table peu importe la date.
+ primary key(numtab, dataff) -- Un seul serveur par table et par jour : l'affectation courante d'une table est la plus récente, les précédentes forment l'historique.
 );
 
 -- Tuples de Affecter
@@ -158,6 +192,13 @@ alter table commande add (
     foreign key(numres) references reservation(numres));
 alter table commande add (
     foreign key(numplat) references plat(numplat));
+alter table mouvement_stock add (
+    foreign key(numplat) references plat(numplat));
+
+-- Index de l'historique des affectations (pagination par clé (dataff, numtab), du plus récent au plus ancien) et des affectations d'un serveur
+-- (sert aussi la clé étrangère vers serveur)
+create index affecter_date on affecter(dataff, numtab);
+create index affecter_serveur on affecter(numserv, dataff, numtab);
 
 
 
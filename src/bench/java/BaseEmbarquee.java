@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base de données H2 en mémoire (mode de compatibilité Oracle) chargée à partir de resources/bd.sql, pour les mesures de performance.
+ * Le script est adapté à la volée : les DROP sont ignorés, IDENTITY perd son ON NULL et les colonnes entières number(n) sont élargies pour accueillir des volumes plus grands.
+ */
+public class BaseEmbarquee {
+    private static final AtomicInteger NUMERO = new AtomicInteger();
+
+    /**
+     * URL JDBC de la base
+     */
+    private final String url;
+
+    /**
+     * Crée une nouvelle base vide (chaque instance a sa propre base)
+     */
+    public BaseEmbarquee() {
+        this.url = "jdbc:h2:mem:restaurant" + NUMERO.incrementAndGet() + ";MODE=Oracle;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000";
+    }
+
+    /**
+     * @return l'URL JDBC de la base
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @param taille le nombre maximal de connexions
+     * @return un pool de connexions sur cette base
+     */
+    public PoolConnexions creerPool(int taille) {
+        return new PoolConnexions(url, "sa", "", taille, 30000, 30000);
+    }
+
+    /**
+     * @param taille le nombre maximal de connexions
+     * @return un pool de lecture (connexions en lecture seule) sur cette base, qui abandonne après 200 ms d'attente
+     */
+    public PoolConnexions creerPoolLecture(int taille) {
+        return new PoolConnexions(url, "sa", "", taille, 200, 30000, CacheRequetes.CAPACITE_PAR_DEFAUT, true);
+    }
+
+    /**
+     * Crée les tables et le jeu de données de resources/bd.sql
+     * @param script le chemin du script (resources/bd.sql)
+     * @throws IOException si le script ne peut pas être lu
+     * @throws SQLException si une instruction échoue
+     */
+    public void charger(Path script) throws IOException, SQLException {
+        try (Connection conn = DriverManager.getConnection(url, "sa", "");
+             Statement stmt = conn.createStatement()) {
+            for (String instruction : instructions(Files.readString(script, StandardCharsets.UTF_8))) {
+                if (instruction.toUpperCase().startsWith("DROP ")) continue;
+                stmt.execute(adapter(instruction));
+            }
+        }
+    }
+
+    /**
+     * Adapte une instruction Oracle à H2 : IDENTITY sans ON NULL (non reconnu par H2) et colonnes entières élargies
+     */
+    static String adapter(String instruction) {
+        return instruction
+                .replaceAll("(?i)GENERATED BY DEFAULT ON NULL AS IDENTITY", "GENERATED BY DEFAULT AS IDENTITY")
+                .replaceAll("(?i)number\\s*\\((\\d)\\)", "number(9)");
+    }
+
+    /**
+     * Découpe un script SQL en instructions (séparées par des points-virgules) en retirant les commentaires
+     */
+    static List<String> instructions(String script) {
+        StringBuilder sansCommentaires = new StringBuilder();
+        for (String ligne : script.split("\n")) {
+            int debut = commentaire(ligne);
+            sansCommentaires.append(debut >= 0 ? ligne.substring(0, debut) : ligne).append('\n');
+        }
+        List<String> instructions = new ArrayList<>();
+        for (String instruction : sansCommentaires.toString().split(";")) {
+            if (!instruction.isBlank()) instructions.add(instruction.strip());
+        }
+        return instructions;
+    }
+
+    /**
+     * @return la position du début du commentaire (--) de la ligne en dehors d'une chaîne, -1 s'il n'y en a pas
+     */
+    private static int commentaire(String ligne) {
+        boolean dansChaine = false;
+        for (int i = 0; i < ligne.length() - 1; i++) {
+            char c = ligne.charAt(i);
+            if (c == '\'') dansChaine = !dansChaine;
+            else if (!dansChaine && c == '-' && ligne.charAt(i + 1) == '-') return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Ajoute des tables, des réservations (non encaissées) et des lignes de commande générées aléatoirement, et remet les stocks à un niveau élevé.
+     * Les réservations sont réparties sur les soirées (19h-22h) à partir du 1er janvier 2030.
+     * @param nbTables le nombre de tables à ajouter
+     * @param nbReservations le nombre de réservations à ajouter
+     * @param nbCommandes le nombre de lignes de commande à ajouter
+     * @param graine la graine du générateur aléatoire
+     * @return les numéros des réservations ajoutées
+     * @throws SQLException si une insertion échoue
+     */
+    public List<Integer> generer(int nbTables, int nbReservations, int nbCommandes, long graine) throws SQLException {
+        Random random = new Random(graine);
+        List<Integer> numsReservations = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO tabl (numtab, nbplace) VALUES (?, ?)")) {
+                for (int i = 0; i < nbTables; i++) {
+                    pstmt.setInt(1, 1000 + i);
+                    pstmt.setInt(2, 2 + 2 * random.nextInt(4));
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+
+            int nbToutesTables = nbTables + 10;
+            long debut = Timestamp.valueOf("2030-01-01 19:00:00").getTime();
+            try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO reservation (numres, numtab, datres, nbpers, montcours) VALUES (?, ?, ?, ?, 0)")) {
+                for (int i = 0; i < nbReservations; i++) {
+                    int numres = 10000 + i;
+                    int table = i % nbToutesTables;
+                    int numtab = table < 10 ? 10 + table : 1000 + table - 10;
+                    // Une réservation par table et par soirée, à une heure aléatoire entre 19h et 22h
+                    long soiree = i / nbToutesTables;
+                    pstmt.setInt(1, numres);
+                    pstmt.setInt(2, numtab);
+                    pstmt.setTimestamp(3, new Timestamp(debut + soiree * 24 * 3600_000L + random.nextInt(4) * 3600_000L));
+                    pstmt.setInt(4, 2);
+                    pstmt.addBatch();
+                    numsReservations.add(numres);
+                }
+                pstmt.executeBatch();
+            }
+
+            if (!numsReservations.isEmpty()) {
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "MERGE INTO commande c USING (SELECT CAST(? AS NUMBER) AS numres, CAST(? AS NUMBER) AS numplat, CAST(? AS NUMBER) AS quantite FROM dual) n " +
+                                "ON (c.numres = n.numres AND c.numplat = n.numplat) " +
+                                "WHEN MATCHED THEN UPDATE SET c.quantite = c.quantite + n.quantite " +
+                                "WHEN NOT MATCHED THEN INSERT (numres, numplat, quantite) VALUES (n.numres, n.numplat, n.quantite)")) {
+                    for (int i = 0; i < nbCommandes; i++) {
+                        pstmt.setInt(1, numsReservations.get(random.nextInt(numsReservations.size())));
+                        pstmt.setInt(2, 1 + random.nextInt(16));
+                        pstmt.setInt(3, 1 + random.nextInt(3));
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                }
+            }
+
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("UPDATE reservation r SET montcours = (SELECT NVL(SUM(p.prixunit * c.quantite), 0) FROM commande c JOIN plat p ON c.numplat = p.numplat WHERE c.numres = r.numres)");
+                stmt.executeUpdate("UPDATE plat SET qteservie = 100000000");
+                // Les réservations créées pendant les mesures prennent des numéros après ceux générés
+                stmt.execute("ALTER TABLE reservation ALTER COLUMN numres RESTART WITH " + (10000 + nbReservations));
+            }
+            conn.commit();
+        }
+        return numsReservations;
+    }
+
+    /**
+     * Crée un Restaurant (index, carte, registre des stocks...) sur cette base
+     * @param pool le pool de connexions sur cette base
+     * @param config la configuration (stocks.registre, facturation.verification...)
+     * @return le restaurant initialisé
+     * @throws SQLException si le chargement des structures en mémoire échoue
+     * @throws IOException si le fichier du journal des événements ne peut pas être ouvert
+     */
+    public static Restaurant restaurant(PoolConnexions pool, Properties config) throws SQLException, IOException {
+        return restaurant(new StockageJdbc(pool), config);
+    }
+
+    /**
+     * Crée un Restaurant (index, carte, registre des stocks...) sur un stockage de cette base (avec un routage des lectures, par exemple)
+     * @param stockage le stockage sur cette base
+     * @param config la configuration (stocks.registre, facturation.verification...)
+     * @return le restaurant initialisé
+     * @throws SQLException si le chargement des structures en mémoire échoue
+     * @throws IOException si le fichier du journal des événements ne peut pas être ouvert
+     */
+    public static Restaurant restaurant(Stockage stockage, Properties config) throws SQLException, IOException {
+        Restaurant restaurant = new Restaurant(stockage, config);
+        restaurant.initialiser();
+        return restaurant;
+    }
+}
@@ -0,0 +1,105 @@
+import bench.Cible;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Application complète (Restaurant, Gestionnaire, pool de connexions) sur une base H2 embarquée, pilotée par les bancs d'essai
+ */
+public class CibleRestaurant implements Cible {
+    private final BaseEmbarquee base = new BaseEmbarquee();
+    private PoolConnexions pool;
+    private Restaurant restaurant;
+    private Gestionnaire gestionnaire;
+    private List<Integer> reservations;
+    private final List<Integer> tables = new ArrayList<>();
+
+    @Override
+    public void demarrer(int nbTables, int nbReservations, int nbCommandes, int nbConnexions, boolean registreStocks) throws Exception {
+        base.charger(Path.of("resources/bd.sql"));
+        reservations = base.generer(nbTables, nbReservations, nbCommandes, 42);
+
+        pool = base.creerPool(nbConnexions);
+        Properties config = new Properties();
+        config.setProperty("stocks.registre", String.valueOf(registreStocks));
+        restaurant = BaseEmbarquee.restaurant(pool, config);
+
+        // Les affichages ne font pas partie de la mesure
+        PrintStream nulle = new PrintStream(OutputStream.nullOutputStream());
+        gestionnaire = new Gestionnaire("1", "user1@mail.com", "Tutus Peter", restaurant);
+        gestionnaire.setSorties(nulle, nulle);
+
+        try (Connection conn = pool.getConnection();
+             ResultSet rs = conn.createStatement().executeQuery("SELECT numtab FROM tabl ORDER BY numtab")) {
+            while (rs.next()) tables.add(rs.getInt("numtab"));
+        }
+    }
+
+    @Override
+    public void reinitialiser() throws Exception {
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("UPDATE reservation SET montcom = NULL WHERE numres >= 10000");
+            conn.commit();
+        }
+    }
+
+    @Override
+    public List<Integer> reservations() {
+        return reservations;
+    }
+
+    @Override
+    public List<Integer> tables() {
+        return tables;
+    }
+
+    @Override
+    public List<Integer> consulterTablesDispos(String date, int nbPers) throws Exception {
+        try (Connection conn = pool.getConnection()) {
+            return gestionnaire.consulterTablesDispos(conn, date, nbPers, false);
+        }
+    }
+
+    @Override
+    public boolean reserverTable(String date, int nbPers, int numtab) throws Exception {
+        try (Connection conn = pool.getConnection()) {
+            return gestionnaire.reserverTable(conn, date, nbPers, numtab).estReservee();
+        }
+    }
+
+    @Override
+    public void consulterPlatsDispos() throws Exception {
+        try (Connection conn = pool.getConnection()) {
+            gestionnaire.consulterPlatsDispos(conn);
+        }
+    }
+
+    @Override
+    public boolean commanderPlat(int numres, int numplat, int quantite) throws Exception {
+        try (Connection conn = pool.getConnection()) {
+            return gestionnaire.commanderPlats(conn, numres, List.of(new LigneCommande(numplat, quantite)));
+        }
+    }
+
+    @Override
+    public boolean calculerMontantTotal(int numres) throws Exception {
+        try (Connection conn = pool.getConnection()) {
+            return gestionnaire.calculerMontantTotalCommandeEtMajReservation(conn, numres);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (restaurant != null) restaurant.close();
+        if (pool != null) pool.close();
+    }
+}
@@ -0,0 +1,422 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Simulation d'un coup de feu : N serveurs et M gestionnaires (un thread virtuel chacun) utilisent l'application en même temps
+ * sur une base H2 embarquée, avec un mélange d'opérations proche d'un service (réserver, consulter, commander, encaisser).
+ * Les choix de verrouillage de Serveur et Gestionnaire reposent sur des hypothèses (« pas plus de 10-20 serveurs », « moins de 5 gestionnaires ») :
+ * la simulation mesure le débit, la latence (p50, p99, p99.9) de chaque opération, l'attente du pool et des verrous, les rollbacks,
+ * puis vérifie en SQL qu'aucune table n'a été réservée deux fois, qu'aucun plat n'a été vendu au-delà de son stock et que les additions sont justes.
+ * <p>
+ * Options (toutes facultatives) : -serveurs 50 -gestionnaires 5 -duree 30 (secondes) -pool 12 -tables 40 -reservations 20000
+ * -stock 300 (par plat) -reflexion 20 (temps moyen entre deux opérations d'un même employé, en millisecondes) -registre false -jours 3
+ * -journal fichier (journal des événements, désactivé par défaut) -commandes fichier (journal des commandes, désactivé par défaut, active le registre des stocks)
+ * -lecture 4 (pool de lecture pour les consultations, désactivé par défaut) -replique true (le pool de lecture est traité comme une réplique : battement et retard mesuré)
+ * -verrous 2 (attente maximale des verrous des commandes, encaissements et réapprovisionnements : secondes, nowait ou illimitee)
+ */
+public class SimulateurService {
+    /**
+     * Opérations simulées, avec leur poids dans le mélange de chaque rôle
+     */
+    enum Operation {
+        CONSULTER_TABLES(25, 0, true),
+        RESERVER(15, 0, false),
+        CONSULTER_CARTE(25, 0, true),
+        COMMANDER(35, 0, false),
+        ENCAISSER(0, 60, false),
+        CONSULTER_AFFECTATIONS(0, 20, true),
+        REAPPROVISIONNER(0, 20, false);
+
+        final int poidsServeur;
+        final int poidsGestionnaire;
+        /**
+         * true pour une consultation (servie par le pool de lecture s'il y en a un)
+         */
+        final boolean lecture;
+
+        Operation(int poidsServeur, int poidsGestionnaire, boolean lecture) {
+            this.poidsServeur = poidsServeur;
+            this.poidsGestionnaire = poidsGestionnaire;
+            this.lecture = lecture;
+        }
+
+        static Operation tirer(SplittableRandom random, boolean gestionnaire) {
+            int total = 0;
+            for (Operation op : values()) total += gestionnaire ? op.poidsGestionnaire : op.poidsServeur;
+            int tirage = random.nextInt(total);
+            for (Operation op : values()) {
+                tirage -= gestionnaire ? op.poidsGestionnaire : op.poidsServeur;
+                if (tirage < 0) return op;
+            }
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Résultats d'une opération : latence, acceptées, refusées (règle métier ou conflit) et exceptions
+     */
+    static class Resultats {
+        final Histogramme latence = new Histogramme();
+        final LongAdder acceptees = new LongAdder();
+        final LongAdder refusees = new LongAdder();
+        final LongAdder exceptions = new LongAdder();
+    }
+
+    private final Map<String, String> options;
+    private final Map<Operation, Resultats> resultats = new LinkedHashMap<>();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder rollbacks = new LongAdder();
+    /**
+     * Quantités ajoutées par les réapprovisionnements réussis, par plat
+     */
+    private final ConcurrentHashMap<Integer, LongAdder> reapprovisionnements = new ConcurrentHashMap<>();
+
+    private final BaseEmbarquee base = new BaseEmbarquee();
+    private PoolConnexions pool;
+    private Restaurant restaurant;
+    private int[] tables;
+    private int[] reservations;
+    private int[] plats;
+    /**
+     * Les gestionnaires encaissent les réservations dans l'ordre : celles d'indice inférieur sont (en principe) déjà encaissées
+     */
+    private final AtomicInteger prochaineAddition = new AtomicInteger();
+
+    public SimulateurService(Map<String, String> options) {
+        this.options = options;
+        for (Operation op : Operation.values()) resultats.put(op, new Resultats());
+    }
+
+    private int option(String nom, int defaut) {
+        return Integer.parseInt(options.getOrDefault(nom, String.valueOf(defaut)));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("-")) throw new IllegalArgumentException("Option attendue : " + args[i]);
+            options.put(args[i].substring(1), args[i + 1]);
+        }
+        new SimulateurService(options).executer();
+    }
+
+    public void executer() throws Exception {
+        int nbServeurs = option("serveurs", 50);
+        int nbGestionnaires = option("gestionnaires", 5);
+        int dureeS = option("duree", 30);
+        int stock = option("stock", 300);
+
+        base.charger(Path.of("resources/bd.sql"));
+        reservations = base.generer(option("tables", 40), option("reservations", 20000), 0, 42).stream().mapToInt(Integer::intValue).toArray();
+        Map<Integer, Integer> commandesAvant = preparerStocks(stock);
+
+        pool = base.creerPool(option("pool", 12));
+        Properties config = new Properties();
+        config.setProperty("stocks.registre", options.getOrDefault("registre", "false"));
+        if (options.containsKey("journal")) config.setProperty("journal.fichier", options.get("journal"));
+        if (options.containsKey("commandes")) config.setProperty("commandes.journal", options.get("commandes"));
+        if (options.containsKey("verrous")) {
+            for (String operation : List.of("commander", "encaisser", "reapprovisionner")) config.setProperty("verrous." + operation, options.get("verrous"));
+        }
+        RoutageLectures routage = option("lecture", 0) > 0
+                ? new RoutageLectures(pool, base.creerPoolLecture(option("lecture", 0)), Boolean.parseBoolean(options.getOrDefault("replique", "false")), 2000, 500)
+                : null;
+        restaurant = BaseEmbarquee.restaurant(new StockageJdbc(pool, routage), config);
+
+        System.out.println("Simulation : " + nbServeurs + " serveurs, " + nbGestionnaires + " gestionnaires, " + tables.length + " tables, pool de "
+                + option("pool", 12) + " connexions" + (routage != null ? " (+ " + option("lecture", 0) + " de lecture)" : "") + ", " + dureeS
+                + " s, registre des stocks " + (restaurant.getRegistreStocks() != null ? "activé" : "désactivé"));
+
+        // Les traces des erreurs SQL (printStackTrace) sont comptées comme exceptions ou refus, pas affichées
+        PrintStream erreursSysteme = System.err;
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        EchantillonneurVerrous echantillonneur = new EchantillonneurVerrous(base.getUrl());
+        Thread threadEchantillonneur = Thread.ofVirtual().start(echantillonneur);
+
+        long attentePoolAvant = pool.getTempsAttenteTotalMs();
+        long debut = System.nanoTime();
+        long fin = debut + dureeS * 1_000_000_000L;
+        List<Thread> employes = new ArrayList<>();
+        for (int i = 0; i < nbServeurs + nbGestionnaires; i++) {
+            boolean gestionnaire = i >= nbServeurs;
+            long graine = i;
+            employes.add(Thread.ofVirtual().name((gestionnaire ? "gestionnaire-" : "serveur-") + i).start(() -> employe(gestionnaire, graine, fin)));
+        }
+        for (Thread t : employes) t.join();
+        double dureeReelleS = (System.nanoTime() - debut) / 1e9;
+        echantillonneur.arreter();
+        threadEchantillonneur.join();
+        System.setErr(erreursSysteme);
+
+        // Le registre reporte ses derniers mouvements sur plat.qteservie avant les vérifications
+        restaurant.close();
+        JournalEvenements journal = restaurant.getJournal();
+        if (journal != null) {
+            System.out.println("Journal des événements : " + journal.getPublies() + " publiés, " + journal.getEcrits() + " écrits, " + journal.getPerdus() + " perdus");
+        }
+        JournalCommandes journalCommandes = restaurant.getJournalCommandes();
+        if (journalCommandes != null) {
+            System.out.println("Journal des commandes : " + journalCommandes.getAjoutees() + " ajoutées, " + journalCommandes.getAppliquees() + " appliquées, "
+                    + journalCommandes.getRejetees() + " rejetées, " + journalCommandes.getEnAttente() + " en attente");
+        }
+
+        afficherResultats(dureeReelleS, pool.getTempsAttenteTotalMs() - attentePoolAvant, echantillonneur);
+        if (routage != null) System.out.println(routage.getStatistiques());
+        verifier(stock, commandesAvant);
+        if (routage != null) routage.close();
+        pool.close();
+    }
+
+    /**
+     * Met le stock de chaque plat au niveau demandé (assez bas pour que des ruptures se produisent pendant la simulation)
+     * @return la quantité déjà commandée par plat avant la simulation
+     */
+    private Map<Integer, Integer> preparerStocks(int stock) throws SQLException {
+        Map<Integer, Integer> commandes = new HashMap<>();
+        try (Connection conn = DriverManager.getConnection(base.getUrl(), "sa", "");
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("UPDATE plat SET qteservie = " + stock);
+            try (ResultSet rs = stmt.executeQuery("SELECT numtab FROM tabl ORDER BY numtab")) {
+                List<Integer> liste = new ArrayList<>();
+                while (rs.next()) liste.add(rs.getInt(1));
+                tables = liste.stream().mapToInt(Integer::intValue).toArray();
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT p.numplat, NVL(SUM(c.quantite), 0) FROM plat p LEFT JOIN commande c ON c.numplat = p.numplat GROUP BY p.numplat ORDER BY p.numplat")) {
+                while (rs.next()) commandes.put(rs.getInt(1), rs.getInt(2));
+            }
+            plats = commandes.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        }
+        return commandes;
+    }
+
+    /**
+     * Boucle d'un employé : un temps de réflexion, une opération tirée selon son rôle, et ainsi de suite jusqu'à la fin de la simulation
+     */
+    private void employe(boolean estGestionnaire, long graine, long fin) {
+        SplittableRandom random = new SplittableRandom(graine);
+        PrintStream nulle = new PrintStream(OutputStream.nullOutputStream());
+        Serveur serveur = estGestionnaire
+                ? new Gestionnaire("1", "user1@mail.com", "Tutus Peter", restaurant)
+                : new Serveur("2", "user2@mail.com", "Ramasse Paul", restaurant);
+        serveur.setSorties(nulle, nulle);
+        int reflexionMs = option("reflexion", 20);
+
+        while (System.nanoTime() < fin) {
+            try {
+                if (reflexionMs > 0) Thread.sleep(random.nextInt(2 * reflexionMs + 1));
+            } catch (InterruptedException e) {
+                return;
+            }
+            Operation op = Operation.tirer(random, estGestionnaire);
+            Resultats r = resultats.get(op);
+            long t0 = System.nanoTime();
+            try (Connection conn = compter(op.lecture ? restaurant.connexionLecture(serveur.getNumserv()) : pool.getConnection())) {
+                if (executer(serveur, op, conn, random)) r.acceptees.increment();
+                else r.refusees.increment();
+            } catch (Exception e) {
+                r.exceptions.increment();
+            }
+            r.latence.enregistrer(System.nanoTime() - t0);
+        }
+    }
+
+    /**
+     * @return true si l'opération a abouti, false si elle a été refusée
+     */
+    private boolean executer(Serveur serveur, Operation op, Connection conn, SplittableRandom random) throws SQLException {
+        switch (op) {
+            case CONSULTER_TABLES:
+                return !serveur.consulterTablesDispos(conn, dateService(random), 1 + random.nextInt(6), false).isEmpty();
+            case RESERVER:
+                return serveur.reserverTable(conn, dateService(random), 2, tables[random.nextInt(tables.length)]).estReservee();
+            case CONSULTER_CARTE:
+                serveur.consulterPlatsDispos(conn);
+                return true;
+            case COMMANDER:
+                // Une réservation pas encore encaissée (à la frontière, la commande peut arriver juste après l'encaissement)
+                int dejaEncaissees = Math.min(prochaineAddition.get(), reservations.length - 1);
+                int numres = reservations[dejaEncaissees + random.nextInt(reservations.length - dejaEncaissees)];
+                List<LigneCommande> lignes = new ArrayList<>();
+                for (int i = 1 + random.nextInt(3); i > 0; i--) lignes.add(new LigneCommande(plats[random.nextInt(plats.length)], 1 + random.nextInt(3)));
+                return serveur.commanderPlats(conn, numres, lignes);
+            case ENCAISSER:
+                int i = prochaineAddition.getAndIncrement();
+                return ((Gestionnaire) serveur).calculerMontantTotalCommandeEtMajReservation(conn, reservations[i % reservations.length]);
+            case CONSULTER_AFFECTATIONS:
+                ((Gestionnaire) serveur).consulterAffectations(conn, null, null);
+                return true;
+            case REAPPROVISIONNER:
+                int numplat = plats[random.nextInt(plats.length)];
+                int quantite = 10 + random.nextInt(20);
+                boolean ok = ((Gestionnaire) serveur).reapprovisionnerPlat(conn, numplat, quantite);
+                if (ok) reapprovisionnements.computeIfAbsent(numplat, k -> new LongAdder()).add(quantite);
+                return ok;
+            default:
+                throw new IllegalArgumentException(op.name());
+        }
+    }
+
+    /**
+     * Les réservations simulées se concentrent sur quelques soirées pour provoquer des conflits
+     */
+    private String dateService(SplittableRandom random) {
+        return String.format("2040-01-%02d %02d:%02d:00", 1 + random.nextInt(option("jours", 3)), 18 + random.nextInt(5), 15 * random.nextInt(4));
+    }
+
+    /**
+     * Enveloppe une connexion du pool pour compter les commit et les rollback demandés par l'application
+     */
+    private Connection compter(Connection conn) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            if (method.getName().equals("commit")) commits.increment();
+            else if (method.getName().equals("rollback") && (args == null || args.length == 0)) rollbacks.increment();
+            try {
+                return method.invoke(conn, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    private void afficherResultats(double dureeS, long attentePoolMs, EchantillonneurVerrous echantillonneur) {
+        System.out.println();
+        System.out.printf("%-24s %9s %9s %9s %9s %9s %9s %9s %9s %9s%n", "Opération", "nombre", "op/s", "refusées", "except.", "moy. ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        long total = 0;
+        for (Map.Entry<Operation, Resultats> e : resultats.entrySet()) {
+            Resultats r = e.getValue();
+            long n = r.latence.getNombre();
+            if (n == 0) continue;
+            total += n;
+            System.out.printf("%-24s %9d %9.1f %9d %9d %9.2f %9.2f %9.2f %9.2f %9.2f%n", e.getKey(), n, n / dureeS, r.refusees.sum(), r.exceptions.sum(),
+                    r.latence.getMoyenne() / 1e6, r.latence.percentile(0.50) / 1e6, r.latence.percentile(0.99) / 1e6, r.latence.percentile(0.999) / 1e6, r.latence.getMax() / 1e6);
+        }
+        System.out.println();
+        System.out.printf("Débit total : %.1f op/s sur %.1f s%n", total / dureeS, dureeS);
+        System.out.println("Transactions : " + commits.sum() + " commit, " + rollbacks.sum() + " rollback");
+        System.out.println("Attente du pool : " + attentePoolMs + " ms au total (" + pool.getDelaisDepasses() + " délais dépassés)");
+        System.out.printf("Attente des verrous (échantillonnée toutes les %d ms) : %d ms au total, jusqu'à %d sessions bloquées en même temps%n",
+                EchantillonneurVerrous.PERIODE_MS, echantillonneur.getAttenteMs(), echantillonneur.getMaxBloquees());
+
+        // Où passe le temps des opérations : attente du pool, exécution (y compris l'attente des verrous FOR UPDATE), lecture, commit...
+        System.out.println();
+        System.out.printf("%-24s %9s %9s %9s %9s %9s%n", "Phase JDBC", "nombre", "moy. ms", "p50 ms", "p99 ms", "p99.9 ms");
+        for (Metriques.Phase phase : Metriques.Phase.values()) {
+            Histogramme h = Metriques.get().getPhase(phase);
+            System.out.printf("%-24s %9d %9.3f %9.3f %9.3f %9.3f%n", phase, h.getNombre(), h.getMoyenne() / 1e6,
+                    h.percentile(0.50) / 1e6, h.percentile(0.99) / 1e6, h.percentile(0.999) / 1e6);
+        }
+        System.out.println("Attentes de verrou expirées : " + Metriques.get().getVerrousExpires() + ", interblocages : " + Metriques.get().getInterblocages()
+                + ", transactions retentées : " + Metriques.get().getTransactionsRetentees());
+    }
+
+    /**
+     * Vérifications de cohérence en SQL, une fois la simulation terminée
+     */
+    private void verifier(int stockInitial, Map<Integer, Integer> commandesAvant) throws SQLException {
+        System.out.println();
+        try (Connection conn = DriverManager.getConnection(base.getUrl(), "sa", "");
+             Statement stmt = conn.createStatement()) {
+            // Deux réservations d'une même table à moins de 2h d'intervalle
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM reservation a JOIN reservation b ON a.numtab = b.numtab AND a.numres < b.numres " +
+                    "AND b.datres < a.datres + INTERVAL '2' HOUR AND a.datres < b.datres + INTERVAL '2' HOUR")) {
+                rs.next();
+                System.out.println("Tables réservées deux fois : " + rs.getInt(1));
+            }
+
+            // Stock final = stock initial + réapprovisionnements - quantités commandées pendant la simulation, et jamais négatif
+            int survendus = 0;
+            String sql = "SELECT p.numplat, p.qteservie, NVL(SUM(c.quantite), 0) FROM plat p LEFT JOIN commande c ON c.numplat = p.numplat GROUP BY p.numplat, p.qteservie";
+            try (ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    int numplat = rs.getInt(1);
+                    long vendus = rs.getInt(3) - commandesAvant.getOrDefault(numplat, 0);
+                    LongAdder ajoute = reapprovisionnements.get(numplat);
+                    long attendu = stockInitial + (ajoute == null ? 0 : ajoute.sum()) - vendus;
+                    if (rs.getInt(2) < 0 || rs.getInt(2) != attendu) {
+                        survendus++;
+                        System.out.println("  plat " + numplat + " : qteservie = " + rs.getInt(2) + ", attendu " + attendu);
+                    }
+                }
+            }
+            System.out.println("Plats survendus ou au stock incohérent : " + survendus);
+
+            // Addition différente de la somme des commandes (commande acceptée après l'encaissement par exemple)
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM reservation r WHERE r.montcom IS NOT NULL AND r.montcom <> 0 AND r.montcom <> " +
+                    "(SELECT NVL(SUM(c.quantite * p.prixunit), 0) FROM commande c JOIN plat p ON c.numplat = p.numplat WHERE c.numres = r.numres)")) {
+                rs.next();
+                System.out.println("Additions différentes de la somme des commandes : " + rs.getInt(1));
+            }
+        }
+        try (Connection conn = pool.getConnection()) {
+            Gestionnaire gestionnaire = new Gestionnaire("1", "user1@mail.com", "Tutus Peter", restaurant);
+            PrintStream nulle = new PrintStream(OutputStream.nullOutputStream());
+            gestionnaire.setSorties(nulle, nulle);
+            System.out.println("Montants cumulés différents de la somme des commandes : " + gestionnaire.verifierMontantsCumules(conn).size());
+        }
+    }
+
+    /**
+     * Compte régulièrement les sessions bloquées par un verrou (INFORMATION_SCHEMA.SESSIONS de H2) pour estimer le temps d'attente des verrous
+     */
+    static class EchantillonneurVerrous implements Runnable {
+        static final int PERIODE_MS = 5;
+
+        private final String url;
+        private volatile boolean actif = true;
+        private long attenteMs = 0;
+        private int maxBloquees = 0;
+
+        EchantillonneurVerrous(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public void run() {
+            try (Connection conn = DriverManager.getConnection(url, "sa", "");
+                 PreparedStatement pstmt = conn.prepareStatement("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS WHERE BLOCKER_ID IS NOT NULL")) {
+                while (actif) {
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        rs.next();
+                        int bloquees = rs.getInt(1);
+                        attenteMs += (long) bloquees * PERIODE_MS;
+                        maxBloquees = Math.max(maxBloquees, bloquees);
+                    }
+                    Thread.sleep(PERIODE_MS);
+                }
+            } catch (SQLException | InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        void arreter() {
+            actif = false;
+        }
+
+        long getAttenteMs() {
+            return attenteMs;
+        }
+
+        int getMaxBloquees() {
+            return maxBloquees;
+        }
+    }
+}
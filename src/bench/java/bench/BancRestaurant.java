@@ -0,0 +1,129 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Banc d'essai des chemins de réservation, de commande et d'encaissement sur une base H2 embarquée.
+ * Chaque opération est mesurée en débit (opérations par milliseconde) et en latence échantillonnée (percentiles p50, p90, p99, p99.9...).
+ * Le volume de données se règle avec -p (nbTables, nbReservations, nbCommandes, registreStocks) et le nombre de threads avec -t.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class BancRestaurant {
+    @Param({"10"})
+    public int nbTables;
+
+    @Param({"1000"})
+    public int nbReservations;
+
+    @Param({"5000"})
+    public int nbCommandes;
+
+    @Param({"false"})
+    public boolean registreStocks;
+
+    private Cible cible;
+    private int[] reservations;
+    private int[] tables;
+    private final AtomicInteger prochaineAddition = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void demarrer(BenchmarkParams params) throws Exception {
+        cible = Cible.creer();
+        // Une connexion par thread de mesure : on mesure l'application, pas l'attente du pool
+        cible.demarrer(nbTables, nbReservations, nbCommandes, params.getThreads(), registreStocks);
+        reservations = cible.reservations().stream().mapToInt(Integer::intValue).toArray();
+        tables = cible.tables().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Setup(Level.Iteration)
+    public void reinitialiser() throws Exception {
+        cible.reinitialiser();
+        prochaineAddition.set(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void arreter() throws Exception {
+        cible.close();
+    }
+
+    /**
+     * Générateur aléatoire propre à chaque thread de mesure
+     */
+    @State(Scope.Thread)
+    public static class Aleatoire {
+        final SplittableRandom random = new SplittableRandom(Thread.currentThread().threadId());
+
+        /**
+         * @return une date de soirée dans la période couverte par les réservations générées
+         */
+        String soiree(int nbJours) {
+            int jour = 1 + random.nextInt(Math.max(1, Math.min(nbJours, 28)));
+            int heure = 18 + random.nextInt(5);
+            return String.format("2030-01-%02d %02d:%02d:00", jour, heure, 15 * random.nextInt(4));
+        }
+
+        /**
+         * @return une date de soirée dans une période où aucune réservation n'a été générée
+         */
+        String soireeLibre() {
+            return String.format("%d-%02d-%02d %02d:00:00", 2031 + random.nextInt(50), 1 + random.nextInt(12), 1 + random.nextInt(28), 12 + random.nextInt(11));
+        }
+    }
+
+    private int nbJours() {
+        return Math.max(1, reservations.length / tables.length);
+    }
+
+    @Benchmark
+    public List<Integer> consulterTablesDispos(Aleatoire a) throws Exception {
+        return cible.consulterTablesDispos(a.soiree(nbJours()), 1 + a.random.nextInt(6));
+    }
+
+    @Benchmark
+    public boolean reserverTable(Aleatoire a) throws Exception {
+        return cible.reserverTable(a.soireeLibre(), 2, tables[a.random.nextInt(tables.length)]);
+    }
+
+    @Benchmark
+    public void consulterPlatsDispos() throws Exception {
+        cible.consulterPlatsDispos();
+    }
+
+    @Benchmark
+    public boolean commanderPlat(Aleatoire a) throws Exception {
+        return cible.commanderPlat(reservations[a.random.nextInt(reservations.length)], 1 + a.random.nextInt(16), 1);
+    }
+
+    /**
+     * Chaque appel encaisse la réservation suivante. Quand toutes ont été encaissées pendant une itération,
+     * les appels suivants mesurent le refus (montant déjà calculé) : prévoir assez de réservations pour la durée d'une itération.
+     */
+    @Benchmark
+    public boolean calculerMontantTotal() throws Exception {
+        int i = prochaineAddition.getAndIncrement();
+        return cible.calculerMontantTotal(reservations[i % reservations.length]);
+    }
+}
@@ -0,0 +1,99 @@
+package bench;
+
+import java.util.List;
+
+/**
+ * Opérations mesurées par les bancs d'essai.
+ * JMH refuse les classes de mesure du paquetage par défaut, où se trouvent les classes de l'application : les bancs d'essai
+ * (paquetage bench) passent donc par cette interface, implémentée dans le paquetage par défaut par CibleRestaurant.
+ */
+public interface Cible extends AutoCloseable {
+    /**
+     * Nom de la classe qui implémente l'interface dans le paquetage par défaut
+     */
+    String IMPLEMENTATION = "CibleRestaurant";
+
+    /**
+     * @return une nouvelle cible (base de données embarquée vide)
+     * @throws ReflectiveOperationException si l'implémentation est introuvable
+     */
+    static Cible creer() throws ReflectiveOperationException {
+        return (Cible) Class.forName(IMPLEMENTATION).getDeclaredConstructor().newInstance();
+    }
+
+    /**
+     * Charge resources/bd.sql dans la base embarquée, ajoute le volume de données demandé et initialise l'application
+     * @param nbTables nombre de tables ajoutées aux 10 tables du jeu de données
+     * @param nbReservations nombre de réservations ajoutées (non encaissées)
+     * @param nbCommandes nombre de lignes de commande ajoutées
+     * @param nbConnexions taille du pool de connexions
+     * @param registreStocks true pour activer le registre des stocks en mémoire
+     * @throws Exception si la préparation échoue
+     */
+    void demarrer(int nbTables, int nbReservations, int nbCommandes, int nbConnexions, boolean registreStocks) throws Exception;
+
+    /**
+     * Rouvre les réservations encaissées par la mesure précédente
+     * @throws Exception si la mise à jour échoue
+     */
+    void reinitialiser() throws Exception;
+
+    /**
+     * @return les numéros des réservations générées
+     */
+    List<Integer> reservations();
+
+    /**
+     * @return les numéros de toutes les tables
+     */
+    List<Integer> tables();
+
+    /**
+     * Consulte les tables libres à une date (opération du serveur)
+     * @param date date au format yyyy-mm-dd hh:mm:ss
+     * @param nbPers nombre de personnes
+     * @return les numéros des tables libres
+     * @throws Exception si la consultation échoue
+     */
+    List<Integer> consulterTablesDispos(String date, int nbPers) throws Exception;
+
+    /**
+     * Réserve une table (opération du serveur)
+     * @param date date au format yyyy-mm-dd hh:mm:ss
+     * @param nbPers nombre de personnes
+     * @param numtab numéro de la table
+     * @return true si la table a été réservée
+     * @throws Exception si la réservation échoue
+     */
+    boolean reserverTable(String date, int nbPers, int numtab) throws Exception;
+
+    /**
+     * Consulte la carte des plats disponibles (opération du serveur)
+     * @throws Exception si la consultation échoue
+     */
+    void consulterPlatsDispos() throws Exception;
+
+    /**
+     * Commande un plat pour une réservation (opération du serveur)
+     * @param numres numéro de la réservation
+     * @param numplat numéro du plat
+     * @param quantite quantité commandée
+     * @return true si la commande a été enregistrée
+     * @throws Exception si la commande échoue
+     */
+    boolean commanderPlat(int numres, int numplat, int quantite) throws Exception;
+
+    /**
+     * Calcule le montant total d'une réservation et l'encaisse (opération du gestionnaire)
+     * @param numres numéro de la réservation
+     * @return true si la réservation a été encaissée
+     * @throws Exception si l'encaissement échoue
+     */
+    boolean calculerMontantTotal(int numres) throws Exception;
+
+    /**
+     * Arrête l'application et ferme le pool de connexions (sans exception vérifiée : une cible peut être fermée par un try-with-resources)
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,16 @@
+import java.sql.Date;
+import java.util.Comparator;
+
+/**
+ * Affectation d'un serveur à une table
+ * @param numtab numéro de la table
+ * @param dataff date de l'affectation
+ * @param numserv numéro du serveur
+ */
+public record Affectation(int numtab, Date dataff, int numserv) {
+    /**
+     * Ordre de l'historique des affectations : les plus récentes d'abord, puis par numéro de table décroissant (ordre de l'index affecter_date)
+     */
+    public static final Comparator<Affectation> HISTORIQUE = Comparator.comparing(Affectation::dataff)
+            .thenComparingInt(Affectation::numtab).reversed();
+}
@@ -0,0 +1,262 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Allocation automatique des tables : choisit la plus petite table qui convient (ou, si aucune ne suffit, la plus petite réunion de tables),
+ * et propose les créneaux libres les plus proches quand l'heure demandée est complète.
+ * L'occupation de la journée est chargée une seule fois (depuis l'index des disponibilités, ou par une seule requête) :
+ * tous les créneaux candidats sont ensuite évalués en mémoire, sans requête par créneau.
+ */
+public class AllocateurTables {
+    /**
+     * Écart maximal entre l'heure demandée et un créneau proposé à la place (si la clé allocation.fenetre est absente) : 2 heures
+     */
+    public static final long FENETRE_MS = 2 * 60 * 60 * 1000;
+    /**
+     * Écart entre deux créneaux candidats (si la clé allocation.pas est absente) : 15 minutes
+     */
+    public static final long PAS_MS = 15 * 60 * 1000;
+    /**
+     * Nombre maximal de tables réunies pour un grand groupe (si la clé allocation.tablesMax est absente)
+     */
+    public static final int TABLES_MAX = 3;
+    /**
+     * Nombre de créneaux proposés quand l'heure demandée est complète
+     */
+    public static final int NB_PROPOSITIONS = 3;
+
+    /**
+     * Tables proposées pour une date
+     * @param date date de réservation
+     * @param tables numéros des tables (une seule, sauf si plusieurs tables sont réunies), de la plus grande à la plus petite
+     * @param places nombre de places de chaque table (dans le même ordre)
+     */
+    public record Proposition(Timestamp date, List<Integer> tables, List<Integer> places) {
+        /**
+         * @return le nombre total de places
+         */
+        public int totalPlaces() {
+            int total = 0;
+            for (int p : places) total += p;
+            return total;
+        }
+
+        /**
+         * Répartit les personnes entre les tables, en remplissant d'abord les plus grandes
+         * @param nbPers nombre de personnes
+         * @return le nombre de personnes de chaque table, rangées par numéro de table
+         */
+        public Map<Integer, Integer> repartition(int nbPers) {
+            Map<Integer, Integer> repartition = new TreeMap<>();
+            int reste = nbPers;
+            for (int i = 0; i < tables.size(); i++) {
+                int nb = Math.min(places.get(i), reste);
+                repartition.put(tables.get(i), nb);
+                reste -= nb;
+            }
+            return repartition;
+        }
+    }
+
+    /**
+     * Résultat d'une réservation avec allocation automatique
+     * @param resultat le résultat de la réservation
+     * @param reservee les tables réservées, null si la réservation n'a pas été faite
+     * @param alternatives les créneaux libres les plus proches quand l'heure demandée est complète (vide sinon)
+     */
+    public record Allocation(ResultatReservation resultat, Proposition reservee, List<Proposition> alternatives) {
+    }
+
+    /**
+     * Numéros des tables, rangées par nombre de places croissant
+     */
+    private final int[] numtabs;
+    private final int[] places;
+    /**
+     * Dates de réservation (en millisecondes) triées, de chaque table (même indice que numtabs)
+     */
+    private final long[][] reservations;
+
+    /**
+     * Constructeur de l'allocateur
+     * @param placesParTable nombre de places de chaque table
+     * @param reservationsParTable dates de réservation (en millisecondes) de chaque table, au moins sur la journée concernée et 2 heures avant et après
+     */
+    public AllocateurTables(Map<Integer, Integer> placesParTable, Map<Integer, long[]> reservationsParTable) {
+        List<Map.Entry<Integer, Integer>> tables = new ArrayList<>(placesParTable.entrySet());
+        tables.sort(Map.Entry.<Integer, Integer>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+        numtabs = new int[tables.size()];
+        places = new int[tables.size()];
+        reservations = new long[tables.size()][];
+        for (int i = 0; i < numtabs.length; i++) {
+            numtabs[i] = tables.get(i).getKey();
+            places[i] = tables.get(i).getValue();
+            long[] dates = reservationsParTable.getOrDefault(numtabs[i], new long[0]).clone();
+            Arrays.sort(dates);
+            reservations[i] = dates;
+        }
+    }
+
+    /**
+     * Crée l'allocateur à partir de l'index des disponibilités (sans requête)
+     * @param index l'index des disponibilités
+     * @param jour le jour de la réservation
+     * @return l'allocateur
+     */
+    public static AllocateurTables depuisIndex(IndexDisponibilites index, LocalDate jour) {
+        long[] bornes = bornes(jour);
+        return new AllocateurTables(index.getPlacesParTable(), index.reservationsEntre(bornes[0], bornes[1]));
+    }
+
+    /**
+     * Crée l'allocateur à partir du stockage : une lecture pour les tables, une pour les réservations de la journée
+     * @param stockage stockage des données
+     * @param conn connexion à la base de données (null pour le stockage en mémoire)
+     * @param jour le jour de la réservation
+     * @return l'allocateur
+     * @throws SQLException si une erreur survient lors des requêtes SQL
+     */
+    public static AllocateurTables depuisBase(Stockage stockage, Connection conn, LocalDate jour) throws SQLException {
+        long[] bornes = bornes(jour);
+        // Bornes comprises (comme le BETWEEN de la requête) : la fin exclue est une milliseconde plus tard
+        return new AllocateurTables(stockage.tables().placesParTable(conn),
+                stockage.reservations().datesParTable(conn, new Timestamp(bornes[0]), new Timestamp(bornes[1] + 1)));
+    }
+
+    /**
+     * @return le début et la fin (en millisecondes) des réservations qui comptent pour un jour : de 2 heures avant à 2 heures après la journée
+     */
+    private static long[] bornes(LocalDate jour) {
+        ZoneId zone = ZoneId.systemDefault();
+        return new long[]{
+                jour.atStartOfDay(zone).toInstant().toEpochMilli() - IndexDisponibilites.DUREE_REPAS_MS,
+                jour.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli() + IndexDisponibilites.DUREE_REPAS_MS
+        };
+    }
+
+    /**
+     * Cherche les tables à proposer, de la date demandée aux créneaux les plus éloignés (dans la même journée), à fenetreMs au plus.
+     * L'occupation de tous les créneaux candidats est calculée en un seul passage sur les réservations de la journée.
+     * @param date date demandée (en millisecondes)
+     * @param nbPers nombre de personnes
+     * @param tablesMax nombre maximal de tables réunies (1 pour ne jamais réunir de tables)
+     * @param fenetreMs écart maximal entre la date demandée et un créneau proposé (0 pour ne chercher qu'à la date demandée)
+     * @param pasMs écart entre deux créneaux candidats
+     * @param nbMax nombre maximal de propositions
+     * @return les propositions, de la plus proche de la date demandée à la plus éloignée (la première est à la date demandée si une table y est libre)
+     */
+    public List<Proposition> proposer(long date, int nbPers, int tablesMax, long fenetreMs, long pasMs, int nbMax) {
+        // Créneaux candidats : date + k * pas, pour k de -avant à +apres, sans sortir de la journée
+        LocalDate jour = new Timestamp(date).toLocalDateTime().toLocalDate();
+        long debutJour = jour.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long finJour = jour.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        int avant = (int) (Math.min(fenetreMs, date - debutJour) / pasMs);
+        int apres = (int) (Math.min(fenetreMs, finJour - 1 - date) / pasMs);
+        int nbCreneaux = avant + apres + 1;
+        long premier = date - avant * pasMs;
+
+        // Un seul passage sur les réservations : chacune occupe sa table pour tous les créneaux à moins de 2 heures
+        BitSet[] occupes = new BitSet[numtabs.length];
+        for (int i = 0; i < numtabs.length; i++) {
+            occupes[i] = new BitSet(nbCreneaux);
+            for (long reservation : reservations[i]) {
+                long du = reservation - IndexDisponibilites.DUREE_REPAS_MS - premier;
+                long au = reservation + IndexDisponibilites.DUREE_REPAS_MS - premier;
+                int de = (int) Math.max(0, Math.floorDiv(du + pasMs - 1, pasMs));
+                int a = (int) Math.min(nbCreneaux - 1, Math.floorDiv(au, pasMs));
+                if (de <= a) occupes[i].set(de, a + 1);
+            }
+        }
+
+        List<Proposition> propositions = new ArrayList<>();
+        for (int ecart = 0; ecart <= Math.max(avant, apres) && propositions.size() < nbMax; ecart++) {
+            // À écart égal, le créneau le plus tôt d'abord
+            for (int creneau : ecart == 0 ? new int[]{avant} : new int[]{avant - ecart, avant + ecart}) {
+                if (creneau < 0 || creneau >= nbCreneaux || propositions.size() >= nbMax) continue;
+                Proposition proposition = meilleuresTables(occupes, creneau, premier + creneau * pasMs, nbPers, tablesMax);
+                if (proposition != null) propositions.add(proposition);
+            }
+        }
+        return propositions;
+    }
+
+    /**
+     * @return la plus petite table libre qui convient au créneau, sinon la réunion de tables libres qui laisse le moins de places vides
+     * (puis qui réunit le moins de tables), null s'il n'y en a pas
+     */
+    private Proposition meilleuresTables(BitSet[] occupes, int creneau, long date, int nbPers, int tablesMax) {
+        List<Integer> libres = new ArrayList<>();
+        for (int i = 0; i < numtabs.length; i++) {
+            if (occupes[i].get(creneau)) continue;
+            // Les tables sont rangées par nombre de places croissant : la première libre qui suffit est la plus petite
+            if (places[i] >= nbPers) return proposition(date, List.of(i));
+            libres.add(i);
+        }
+        if (tablesMax < 2 || libres.size() < 2) return null;
+
+        // Aucune table ne suffit seule : on essaie les réunions de 2 à tablesMax tables, en partant des plus grandes
+        Collections.reverse(libres);
+        int[] meilleure = chercherReunion(libres, 0, new int[tablesMax], 0, 0, nbPers, null);
+        if (meilleure == null) return null;
+        List<Integer> indices = new ArrayList<>();
+        for (int i : meilleure) indices.add(i);
+        return proposition(date, indices);
+    }
+
+    /**
+     * Parcours en profondeur des réunions de tables, élagué dès qu'une réunion ne peut plus faire mieux que la meilleure trouvée
+     * @param libres indices des tables libres, de la plus grande à la plus petite
+     * @param depart position dans libres de la prochaine table à essayer
+     * @param choisies indices des tables déjà choisies (les nb premières)
+     * @param nb nombre de tables déjà choisies
+     * @param somme nombre de places des tables déjà choisies
+     * @param nbPers nombre de personnes
+     * @param meilleure la meilleure réunion trouvée jusque-là (null si aucune)
+     * @return la meilleure réunion
+     */
+    private int[] chercherReunion(List<Integer> libres, int depart, int[] choisies, int nb, int somme, int nbPers, int[] meilleure) {
+        if (somme >= nbPers) {
+            if (meilleure == null || somme < placesDe(meilleure) || (somme == placesDe(meilleure) && nb < meilleure.length)) {
+                return Arrays.copyOf(choisies, nb);
+            }
+            return meilleure;
+        }
+        if (nb == choisies.length || depart >= libres.size()) return meilleure;
+        // Même en prenant les plus grandes tables restantes, la réunion ne suffirait pas
+        if (somme + (long) places[libres.get(depart)] * (choisies.length - nb) < nbPers) return meilleure;
+        // La réunion a déjà au moins autant de places que la meilleure trouvée
+        if (meilleure != null && somme >= placesDe(meilleure)) return meilleure;
+
+        for (int j = depart; j < libres.size(); j++) {
+            choisies[nb] = libres.get(j);
+            meilleure = chercherReunion(libres, j + 1, choisies, nb + 1, somme + places[libres.get(j)], nbPers, meilleure);
+        }
+        return meilleure;
+    }
+
+    private int placesDe(int[] indices) {
+        int total = 0;
+        for (int i : indices) total += places[i];
+        return total;
+    }
+
+    private Proposition proposition(long date, List<Integer> indices) {
+        List<Integer> tables = new ArrayList<>();
+        List<Integer> placesTables = new ArrayList<>();
+        for (int i : indices) {
+            tables.add(numtabs[i]);
+            placesTables.add(places[i]);
+        }
+        return new Proposition(new Timestamp(date), List.copyOf(tables), List.copyOf(placesTables));
+    }
+}
@@ -0,0 +1,553 @@
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Rapports (chiffre d'affaires, plats les plus commandés, couverts) calculés en mémoire, sans requête GROUP BY sur la base de données pendant le service.
+ * Les réservations et les commandes sont chargées dans des colonnes de types primitifs (un tableau par colonne, triées par numéro de réservation),
+ * et les rapports sont calculés en parallèle par morceaux de {@link #TAILLE_MORCEAU} lignes (un tableau de cumuls par morceau, additionnés à la fin).
+ * <p>
+ * Les données forment un instantané immuable : les rapports ne prennent aucun verrou. Le rafraîchissement est incrémental : les réservations
+ * antérieures à la première réservation encore ouverte (montant total non calculé) ne changent plus, leurs colonnes sont recopiées telles quelles,
+ * et seules les réservations suivantes (ouvertes ou nouvelles) et leurs commandes sont relues. Une réservation restée ouverte plus de {@link #JOURS_OUVERTS} jours
+ * après sa date (oubliée) ne retient pas le rafraîchissement : elle n'est relue qu'au rechargement complet, fait au plus tard toutes les 24 heures.
+ * <p>
+ * Le montant d'une réservation est son montant facturé (montcom), ou à défaut le cumul de ses commandes (montcours). Le chiffre d'affaires d'un plat
+ * est calculé avec son prix actuel (la base ne garde pas l'historique des prix). Celui d'un serveur est calculé avec l'affectation en vigueur
+ * le jour de chaque réservation (la dernière affectation de sa table à cette date ou avant) : les affectations sont chargées en colonnes comme les
+ * réservations, et seules celles du dernier jour chargé et des jours suivants sont relues à chaque rafraîchissement.
+ */
+public class Analytique {
+    /**
+     * Nombre de lignes agrégées par une tâche parallèle
+     */
+    public static final int TAILLE_MORCEAU = 16 * 1024;
+    /**
+     * Nombre de jours après sa date pendant lesquels une réservation ouverte est relue à chaque rafraîchissement
+     */
+    public static final int JOURS_OUVERTS = 7;
+    /**
+     * Durée maximale entre deux rechargements complets (en nanosecondes)
+     */
+    private static final long RECHARGEMENT_COMPLET_NS = 24 * 3600 * 1_000_000_000L;
+
+    /**
+     * Plat classé par quantité commandée
+     * @param numplat numéro du plat
+     * @param libelle nom du plat
+     * @param quantite quantité commandée sur la période
+     * @param chiffreAffaires quantité commandée multipliée par le prix unitaire actuel
+     */
+    public record PlatClasse(int numplat, String libelle, long quantite, double chiffreAffaires) {
+    }
+
+    /**
+     * Colonnes des réservations, triées par numéro de réservation
+     * @param n nombre de lignes utilisées dans les tableaux (les tableaux peuvent être plus grands)
+     * @param jour jour de la réservation (nombre de jours depuis le 1er janvier 1970)
+     * @param heure heure de la réservation (0 à 23)
+     * @param modpaie indice du moyen de paiement dans modes, -1 si non payé
+     * @param montant montant facturé, ou cumul des commandes si la réservation n'est pas encore facturée
+     * @param modes dictionnaire des moyens de paiement
+     * @param premiereOuverte numéro de la première réservation ouverte depuis moins de JOURS_OUVERTS jours (ou le numéro suivant la dernière réservation), à partir duquel on relit
+     */
+    private record Reservations(int n, int[] numres, int[] numtab, int[] jour, byte[] heure, int[] nbpers, byte[] modpaie, double[] montant,
+                                List<String> modes, int premiereOuverte) {
+    }
+
+    /**
+     * Colonnes des commandes, triées par numéro de réservation
+     * @param jour jour de la réservation de la commande (pour les rapports sur une période)
+     */
+    private record Commandes(int n, int[] numres, int[] numplat, int[] quantite, int[] jour) {
+    }
+
+    /**
+     * Colonnes des affectations, triées par jour puis par table (ordre de chargement), et index par table
+     * @param jour jour de l'affectation (nombre de jours depuis le 1er janvier 1970)
+     * @param debut indice de la première affectation de chaque table dans jourParTable et serveurParTable (une case de plus que de tables)
+     * @param jourParTable jours des affectations, triés par table puis par jour
+     * @param serveurParTable serveurs des affectations, dans le même ordre que jourParTable
+     */
+    private record Affectations(int n, int[] jour, int[] numtab, int[] numserv, int[] debut, int[] jourParTable, int[] serveurParTable) {
+        /**
+         * @return le serveur affecté à la table le jour donné (dernière affectation de la table à ce jour ou avant), -1 si aucun
+         */
+        int serveur(int table, int jourReservation) {
+            if (table < 0 || table >= debut.length - 1) return -1;
+            // Dernière affectation de la table dont le jour est inférieur ou égal au jour de la réservation
+            int bas = debut[table];
+            int haut = debut[table + 1];
+            while (bas < haut) {
+                int milieu = (bas + haut) >>> 1;
+                if (jourParTable[milieu] <= jourReservation) bas = milieu + 1;
+                else haut = milieu;
+            }
+            return bas > debut[table] ? serveurParTable[bas - 1] : -1;
+        }
+
+        /**
+         * @return le jour de la dernière affectation chargée, à partir duquel on relit (Integer.MIN_VALUE si aucune)
+         */
+        int dernierJour() {
+            return n > 0 ? jour[n - 1] : Integer.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Instantané des données des rapports
+     * @param platLibelle nom du plat, par numéro de plat
+     * @param platType type du plat, par numéro de plat
+     * @param platPrix prix unitaire du plat, par numéro de plat
+     * @param creeA date du rafraîchissement (System.nanoTime())
+     * @param chargeA date du dernier rechargement complet (System.nanoTime())
+     * @param version nombre de rafraîchissements
+     */
+    private record Instantane(Reservations reservations, Commandes commandes, String[] platLibelle, String[] platType, double[] platPrix,
+                              Affectations affectations, long creeA, long chargeA, long version) {
+    }
+
+    private final long dureeVieNs;
+    private final int fetchSize;
+    private final ReentrantLock rafraichissement = new ReentrantLock();
+    private volatile Instantane courant;
+
+    /**
+     * Constructeur
+     * @param dureeVieMs durée au-delà de laquelle les données sont rafraîchies avant un rapport (en millisecondes)
+     * @param fetchSize nombre de lignes lues par aller-retour avec la base de données lors du chargement
+     */
+    public Analytique(long dureeVieMs, int fetchSize) {
+        this.dureeVieNs = dureeVieMs * 1_000_000;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Rafraîchit les données si elles sont plus anciennes que la durée de vie. Si plusieurs rapports le demandent en même temps, un seul interroge la base de données.
+     * @param conn connexion à la base de données (utilisée uniquement si les données doivent être rafraîchies)
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    public void actualiser(Connection conn) throws SQLException {
+        Instantane instantane = courant;
+        if (instantane != null && System.nanoTime() - instantane.creeA() < dureeVieNs) return;
+        rafraichissement.lock();
+        try {
+            instantane = courant;
+            if (instantane != null && System.nanoTime() - instantane.creeA() < dureeVieNs) return;
+            rafraichir(conn);
+        } finally {
+            rafraichissement.unlock();
+        }
+    }
+
+    /**
+     * Rafraîchit les données maintenant : recopie les réservations qui ne changent plus et relit les autres
+     * @param conn connexion à la base de données
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    public void rafraichir(Connection conn) throws SQLException {
+        rafraichissement.lock();
+        try {
+            Instantane ancien = courant;
+            long maintenant = System.nanoTime();
+            // Rechargement complet de temps en temps, pour prendre en compte les réservations oubliées encaissées entre-temps
+            if (ancien != null && maintenant - ancien.chargeA() >= RECHARGEMENT_COMPLET_NS) ancien = null;
+            int depuis = ancien != null ? ancien.reservations().premiereOuverte() : Integer.MIN_VALUE;
+
+            String[] platLibelle = new String[0];
+            String[] platType = new String[0];
+            double[] platPrix = new double[0];
+            try (ResultSet rs = CacheRequetes.de(conn).preparer("SELECT numplat, libelle, type, prixunit FROM plat").executeQuery()) {
+                while (rs.next()) {
+                    int numplat = rs.getInt("numplat");
+                    if (numplat >= platPrix.length) {
+                        int taille = Math.max(numplat + 1, platPrix.length * 2);
+                        platLibelle = Arrays.copyOf(platLibelle, taille);
+                        platType = Arrays.copyOf(platType, taille);
+                        platPrix = Arrays.copyOf(platPrix, taille);
+                    }
+                    platLibelle[numplat] = rs.getString("libelle");
+                    platType[numplat] = rs.getString("type");
+                    platPrix[numplat] = rs.getDouble("prixunit");
+                }
+            }
+
+            Affectations affectations = chargerAffectations(conn, ancien != null ? ancien.affectations() : null);
+            Reservations reservations = chargerReservations(conn, ancien != null ? ancien.reservations() : null, depuis);
+            Commandes commandes = chargerCommandes(conn, ancien != null ? ancien.commandes() : null, depuis);
+            if (!conn.getAutoCommit()) conn.commit();
+
+            courant = new Instantane(reservations, commandes, platLibelle, platType, platPrix, affectations, System.nanoTime(),
+                    ancien != null ? ancien.chargeA() : maintenant, courant != null ? courant.version() + 1 : 1);
+        } finally {
+            rafraichissement.unlock();
+        }
+    }
+
+    private Affectations chargerAffectations(Connection conn, Affectations ancien) throws SQLException {
+        // Les affectations des jours avant le dernier jour chargé ne changent plus (le MERGE d'une affectation ne touche que le jour courant)
+        int depuis = ancien != null ? ancien.dernierJour() : Integer.MIN_VALUE;
+        int garde = ancien != null ? premierIndice(ancien.jour(), ancien.n(), depuis) : 0;
+        int capacite = Math.max(256, garde * 2);
+        int[] jour = ancien != null ? Arrays.copyOf(ancien.jour(), capacite) : new int[capacite];
+        int[] numtab = ancien != null ? Arrays.copyOf(ancien.numtab(), capacite) : new int[capacite];
+        int[] numserv = ancien != null ? Arrays.copyOf(ancien.numserv(), capacite) : new int[capacite];
+
+        int n = garde;
+        PreparedStatement pstmt;
+        if (depuis != Integer.MIN_VALUE) {
+            pstmt = CacheRequetes.de(conn).preparer("SELECT numtab, dataff, numserv FROM affecter WHERE dataff >= ? ORDER BY dataff, numtab");
+            pstmt.setDate(1, Date.valueOf(LocalDate.ofEpochDay(depuis)));
+        } else {
+            pstmt = CacheRequetes.de(conn).preparer("SELECT numtab, dataff, numserv FROM affecter ORDER BY dataff, numtab");
+        }
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                if (n == jour.length) {
+                    int taille = jour.length * 2;
+                    jour = Arrays.copyOf(jour, taille);
+                    numtab = Arrays.copyOf(numtab, taille);
+                    numserv = Arrays.copyOf(numserv, taille);
+                }
+                jour[n] = (int) rs.getDate("dataff").toLocalDate().toEpochDay();
+                numtab[n] = rs.getInt("numtab");
+                numserv[n] = rs.getInt("numserv");
+                n++;
+            }
+        }
+
+        // Index par table (tri par dénombrement, stable : les affectations de chaque table restent triées par jour)
+        int nbTables = 0;
+        for (int i = 0; i < n; i++) nbTables = Math.max(nbTables, numtab[i] + 1);
+        int[] debut = new int[nbTables + 1];
+        for (int i = 0; i < n; i++) debut[numtab[i] + 1]++;
+        for (int t = 0; t < nbTables; t++) debut[t + 1] += debut[t];
+        int[] suivant = Arrays.copyOf(debut, nbTables);
+        int[] jourParTable = new int[n];
+        int[] serveurParTable = new int[n];
+        for (int i = 0; i < n; i++) {
+            int k = suivant[numtab[i]]++;
+            jourParTable[k] = jour[i];
+            serveurParTable[k] = numserv[i];
+        }
+        return new Affectations(n, jour, numtab, numserv, debut, jourParTable, serveurParTable);
+    }
+
+    private Reservations chargerReservations(Connection conn, Reservations ancien, int depuis) throws SQLException {
+        // Les lignes avant la première réservation ouverte sont gardées (recopiées dans des tableaux assez grands pour la suite)
+        int garde = ancien != null ? premierIndice(ancien.numres(), ancien.n(), depuis) : 0;
+        int capacite = Math.max(1024, garde * 2);
+        int[] numres = ancien != null ? Arrays.copyOf(ancien.numres(), capacite) : new int[capacite];
+        int[] numtab = ancien != null ? Arrays.copyOf(ancien.numtab(), capacite) : new int[capacite];
+        int[] jour = ancien != null ? Arrays.copyOf(ancien.jour(), capacite) : new int[capacite];
+        byte[] heure = ancien != null ? Arrays.copyOf(ancien.heure(), capacite) : new byte[capacite];
+        int[] nbpers = ancien != null ? Arrays.copyOf(ancien.nbpers(), capacite) : new int[capacite];
+        byte[] modpaie = ancien != null ? Arrays.copyOf(ancien.modpaie(), capacite) : new byte[capacite];
+        double[] montant = ancien != null ? Arrays.copyOf(ancien.montant(), capacite) : new double[capacite];
+        List<String> modes = ancien != null ? new ArrayList<>(ancien.modes()) : new ArrayList<>();
+
+        int n = garde;
+        int premiereOuverte = Integer.MAX_VALUE;
+        int jourOublie = (int) LocalDate.now().minusDays(JOURS_OUVERTS).toEpochDay();
+        int dernier = ancien != null && garde > 0 ? numres[garde - 1] : Integer.MIN_VALUE;
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT numres, numtab, datres, nbpers, modpaie, montcom, montcours FROM reservation WHERE numres >= ? ORDER BY numres",
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(fetchSize);
+            pstmt.setInt(1, depuis);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    if (n == numres.length) {
+                        int taille = numres.length * 2;
+                        numres = Arrays.copyOf(numres, taille);
+                        numtab = Arrays.copyOf(numtab, taille);
+                        jour = Arrays.copyOf(jour, taille);
+                        heure = Arrays.copyOf(heure, taille);
+                        nbpers = Arrays.copyOf(nbpers, taille);
+                        modpaie = Arrays.copyOf(modpaie, taille);
+                        montant = Arrays.copyOf(montant, taille);
+                    }
+                    numres[n] = rs.getInt("numres");
+                    numtab[n] = rs.getInt("numtab");
+                    Timestamp datres = rs.getTimestamp("datres");
+                    if (datres != null) {
+                        LocalDateTime date = datres.toLocalDateTime();
+                        jour[n] = (int) date.toLocalDate().toEpochDay();
+                        heure[n] = (byte) date.getHour();
+                    } else {
+                        jour[n] = Integer.MIN_VALUE;
+                        heure[n] = 0;
+                    }
+                    nbpers[n] = rs.getInt("nbpers");
+                    String mode = rs.getString("modpaie");
+                    if (mode == null) {
+                        modpaie[n] = -1;
+                    } else {
+                        int indice = modes.indexOf(mode);
+                        if (indice < 0) {
+                            modes.add(mode);
+                            indice = modes.size() - 1;
+                        }
+                        modpaie[n] = (byte) indice;
+                    }
+                    double montcom = rs.getDouble("montcom");
+                    boolean ouverte = rs.wasNull() || montcom == 0;
+                    montant[n] = ouverte ? rs.getDouble("montcours") : montcom;
+                    if (ouverte && jour[n] >= jourOublie && premiereOuverte == Integer.MAX_VALUE) premiereOuverte = numres[n];
+                    dernier = numres[n];
+                    n++;
+                }
+            }
+        }
+        if (premiereOuverte == Integer.MAX_VALUE) premiereOuverte = dernier == Integer.MIN_VALUE ? depuis : dernier + 1;
+        return new Reservations(n, numres, numtab, jour, heure, nbpers, modpaie, montant, List.copyOf(modes), premiereOuverte);
+    }
+
+    private Commandes chargerCommandes(Connection conn, Commandes ancien, int depuis) throws SQLException {
+        int garde = ancien != null ? premierIndice(ancien.numres(), ancien.n(), depuis) : 0;
+        int capacite = Math.max(1024, garde * 2);
+        int[] numres = ancien != null ? Arrays.copyOf(ancien.numres(), capacite) : new int[capacite];
+        int[] numplat = ancien != null ? Arrays.copyOf(ancien.numplat(), capacite) : new int[capacite];
+        int[] quantite = ancien != null ? Arrays.copyOf(ancien.quantite(), capacite) : new int[capacite];
+        int[] jour = ancien != null ? Arrays.copyOf(ancien.jour(), capacite) : new int[capacite];
+
+        int n = garde;
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT c.numres, c.numplat, c.quantite, r.datres FROM commande c JOIN reservation r ON r.numres = c.numres WHERE c.numres >= ? ORDER BY c.numres",
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(fetchSize);
+            pstmt.setInt(1, depuis);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    if (n == numres.length) {
+                        int taille = numres.length * 2;
+                        numres = Arrays.copyOf(numres, taille);
+                        numplat = Arrays.copyOf(numplat, taille);
+                        quantite = Arrays.copyOf(quantite, taille);
+                        jour = Arrays.copyOf(jour, taille);
+                    }
+                    numres[n] = rs.getInt("numres");
+                    numplat[n] = rs.getInt("numplat");
+                    quantite[n] = rs.getInt("quantite");
+                    Timestamp datres = rs.getTimestamp("datres");
+                    jour[n] = datres != null ? (int) datres.toLocalDateTime().toLocalDate().toEpochDay() : Integer.MIN_VALUE;
+                    n++;
+                }
+            }
+        }
+        return new Commandes(n, numres, numplat, quantite, jour);
+    }
+
+    /**
+     * @return l'indice de la première valeur supérieure ou égale à cle dans les n premières valeurs (triées) de valeurs
+     */
+    private static int premierIndice(int[] valeurs, int n, int cle) {
+        int bas = 0;
+        int haut = n;
+        while (bas < haut) {
+            int milieu = (bas + haut) >>> 1;
+            if (valeurs[milieu] < cle) bas = milieu + 1;
+            else haut = milieu;
+        }
+        return bas;
+    }
+
+    /**
+     * Additionne valeur(i) par groupe(i) pour i de 0 à n - 1, en parallèle par morceaux. Les lignes dont le groupe est négatif sont ignorées.
+     * @return la somme de chaque groupe
+     */
+    private static double[] agreger(int n, int nbGroupes, IntUnaryOperator groupe, IntToDoubleFunction valeur) {
+        int nbMorceaux = (n + TAILLE_MORCEAU - 1) / TAILLE_MORCEAU;
+        return IntStream.range(0, nbMorceaux).parallel().mapToObj(m -> {
+            double[] sommes = new double[nbGroupes];
+            int fin = Math.min(n, (m + 1) * TAILLE_MORCEAU);
+            for (int i = m * TAILLE_MORCEAU; i < fin; i++) {
+                int g = groupe.applyAsInt(i);
+                if (g >= 0) sommes[g] += valeur.applyAsDouble(i);
+            }
+            return sommes;
+        }).reduce((a, b) -> {
+            for (int g = 0; g < nbGroupes; g++) a[g] += b[g];
+            return a;
+        }).orElseGet(() -> new double[nbGroupes]);
+    }
+
+    private Instantane instantane() {
+        Instantane instantane = courant;
+        if (instantane == null) throw new IllegalStateException("Les données des rapports n'ont pas encore été chargées");
+        return instantane;
+    }
+
+    private static int jourMin(LocalDate du) {
+        return du != null ? (int) du.toEpochDay() : Integer.MIN_VALUE + 1;
+    }
+
+    private static int jourMax(LocalDate au) {
+        return au != null ? (int) au.toEpochDay() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param du premier jour de la période (null pour ne pas limiter)
+     * @param au dernier jour de la période, inclus (null pour ne pas limiter)
+     * @return le chiffre d'affaires de chaque jour de la période qui a eu des réservations
+     */
+    public Map<LocalDate, Double> chiffreAffairesParJour(LocalDate du, LocalDate au) {
+        Reservations r = instantane().reservations();
+        int min = jourMin(du);
+        int max = jourMax(au);
+        // Les groupes sont les jours entre le premier et le dernier jour des réservations de la période
+        int premier = Integer.MAX_VALUE;
+        int dernier = Integer.MIN_VALUE;
+        for (int i = 0; i < r.n(); i++) {
+            int j = r.jour()[i];
+            if (j < min || j > max) continue;
+            if (j < premier) premier = j;
+            if (j > dernier) dernier = j;
+        }
+        Map<LocalDate, Double> resultat = new TreeMap<>();
+        if (premier > dernier) return resultat;
+
+        int origine = premier;
+        double[] sommes = agreger(r.n(), dernier - premier + 1,
+                i -> r.jour()[i] < min || r.jour()[i] > max ? -1 : r.jour()[i] - origine, i -> r.montant()[i]);
+        for (int g = 0; g < sommes.length; g++) {
+            if (sommes[g] != 0) resultat.put(LocalDate.ofEpochDay(origine + g), sommes[g]);
+        }
+        return resultat;
+    }
+
+    /**
+     * @param du premier jour de la période (null pour ne pas limiter)
+     * @param au dernier jour de la période, inclus (null pour ne pas limiter)
+     * @return le chiffre d'affaires par heure de réservation (indice 0 à 23)
+     */
+    public double[] chiffreAffairesParHeure(LocalDate du, LocalDate au) {
+        Reservations r = instantane().reservations();
+        int min = jourMin(du);
+        int max = jourMax(au);
+        return agreger(r.n(), 24, i -> r.jour()[i] < min || r.jour()[i] > max ? -1 : r.heure()[i], i -> r.montant()[i]);
+    }
+
+    /**
+     * @param du premier jour de la période (null pour ne pas limiter)
+     * @param au dernier jour de la période, inclus (null pour ne pas limiter)
+     * @return le chiffre d'affaires par moyen de paiement ("non payé" pour les réservations sans moyen de paiement)
+     */
+    public Map<String, Double> chiffreAffairesParModePaiement(LocalDate du, LocalDate au) {
+        Reservations r = instantane().reservations();
+        int min = jourMin(du);
+        int max = jourMax(au);
+        int nbModes = r.modes().size();
+        // Le dernier groupe est celui des réservations non payées
+        double[] sommes = agreger(r.n(), nbModes + 1,
+                i -> r.jour()[i] < min || r.jour()[i] > max ? -1 : (r.modpaie()[i] < 0 ? nbModes : r.modpaie()[i]), i -> r.montant()[i]);
+        Map<String, Double> resultat = new LinkedHashMap<>();
+        for (int g = 0; g < nbModes; g++) resultat.put(r.modes().get(g), sommes[g]);
+        if (sommes[nbModes] != 0) resultat.put("non payé", sommes[nbModes]);
+        return resultat;
+    }
+
+    /**
+     * @param du premier jour de la période (null pour ne pas limiter)
+     * @param au dernier jour de la période, inclus (null pour ne pas limiter)
+     * @return le chiffre d'affaires par numéro de serveur (serveur affecté à la table de la réservation le jour de la réservation ;
+     * les réservations d'une table qui n'avait encore aucune affectation ne sont comptées pour aucun serveur)
+     */
+    public Map<Integer, Double> chiffreAffairesParServeur(LocalDate du, LocalDate au) {
+        Instantane instantane = instantane();
+        Reservations r = instantane.reservations();
+        Affectations a = instantane.affectations();
+        int min = jourMin(du);
+        int max = jourMax(au);
+        int nbServeurs = Arrays.stream(a.serveurParTable()).max().orElse(0) + 1;
+        double[] sommes = agreger(r.n(), nbServeurs, i -> {
+            if (r.jour()[i] < min || r.jour()[i] > max) return -1;
+            int numserv = a.serveur(r.numtab()[i], r.jour()[i]);
+            return numserv > 0 ? numserv : -1;
+        }, i -> r.montant()[i]);
+        Map<Integer, Double> resultat = new TreeMap<>();
+        for (int g = 1; g < nbServeurs; g++) {
+            if (sommes[g] != 0) resultat.put(g, sommes[g]);
+        }
+        return resultat;
+    }
+
+    /**
+     * @param nb nombre de plats gardés par type
+     * @param du premier jour de la période (null pour ne pas limiter)
+     * @param au dernier jour de la période, inclus (null pour ne pas limiter)
+     * @return les plats les plus commandés de chaque type de plat (Entrée, Plat, Dessert...), du plus commandé au moins commandé
+     */
+    public Map<String, List<PlatClasse>> platsLesPlusCommandes(int nb, LocalDate du, LocalDate au) {
+        Instantane instantane = instantane();
+        Commandes c = instantane.commandes();
+        int min = jourMin(du);
+        int max = jourMax(au);
+        int nbPlats = instantane.platPrix().length;
+        double[] quantites = agreger(c.n(), nbPlats,
+                i -> c.jour()[i] < min || c.jour()[i] > max || c.numplat()[i] >= nbPlats ? -1 : c.numplat()[i], i -> c.quantite()[i]);
+
+        Map<String, List<PlatClasse>> parType = new TreeMap<>();
+        for (int numplat = 0; numplat < nbPlats; numplat++) {
+            if (quantites[numplat] == 0 || instantane.platType()[numplat] == null) continue;
+            parType.computeIfAbsent(instantane.platType()[numplat], t -> new ArrayList<>()).add(new PlatClasse(numplat,
+                    instantane.platLibelle()[numplat], (long) quantites[numplat], quantites[numplat] * instantane.platPrix()[numplat]));
+        }
+        for (Map.Entry<String, List<PlatClasse>> e : parType.entrySet()) {
+            List<PlatClasse> plats = e.getValue();
+            plats.sort(Comparator.comparingLong(PlatClasse::quantite).reversed());
+            e.setValue(List.copyOf(plats.subList(0, Math.min(nb, plats.size()))));
+        }
+        return parType;
+    }
+
+    /**
+     * @param du premier jour de la période (null pour ne pas limiter)
+     * @param au dernier jour de la période, inclus (null pour ne pas limiter)
+     * @return le nombre moyen de couverts (personnes) par réservation, pour chaque table
+     */
+    public Map<Integer, Double> couvertsMoyensParTable(LocalDate du, LocalDate au) {
+        Reservations r = instantane().reservations();
+        int min = jourMin(du);
+        int max = jourMax(au);
+        int nbTables = 0;
+        for (int i = 0; i < r.n(); i++) nbTables = Math.max(nbTables, r.numtab()[i] + 1);
+        IntUnaryOperator groupe = i -> r.jour()[i] < min || r.jour()[i] > max || r.numtab()[i] < 0 ? -1 : r.numtab()[i];
+        double[] couverts = agreger(r.n(), nbTables, groupe, i -> r.nbpers()[i]);
+        double[] reservations = agreger(r.n(), nbTables, groupe, i -> 1);
+        Map<Integer, Double> resultat = new TreeMap<>();
+        for (int numtab = 0; numtab < nbTables; numtab++) {
+            if (reservations[numtab] > 0) resultat.put(numtab, couverts[numtab] / reservations[numtab]);
+        }
+        return resultat;
+    }
+
+    /**
+     * @return le nombre de réservations et de lignes de commande chargées, et le nombre de rafraîchissements
+     */
+    public Map<String, Object> getStatistiques() {
+        Instantane instantane = courant;
+        Map<String, Object> statistiques = new HashMap<>();
+        statistiques.put("reservations", instantane != null ? instantane.reservations().n() : 0);
+        statistiques.put("commandes", instantane != null ? instantane.commandes().n() : 0);
+        statistiques.put("version", instantane != null ? instantane.version() : 0);
+        return statistiques;
+    }
+}
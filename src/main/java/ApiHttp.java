@@ -0,0 +1,547 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * API HTTP (JSON) des opérations des serveurs et des gestionnaires, sur le serveur HTTP intégré au JDK.
+ * Chaque requête est traitée dans son propre thread virtuel et n'emprunte une connexion au pool (sauf avec le stockage en mémoire) que le temps de l'opération :
+ * des centaines de tablettes peuvent ainsi partager un même pool de connexions.
+ * <p>
+ * Authentification : POST /api/connexion {"email", "passwd"} renvoie un jeton, à passer ensuite dans l'en-tête Authorization: Bearer &lt;jeton&gt;.
+ * Le jeton expire quand il n'a pas servi depuis sessions.expiration secondes ; l'identité et le grade du serveur sont gardés par sa session
+ * (voir {@link Authentification}) : les requêtes n'interrogent pas la base pour les vérifier.
+ * <ul>
+ *     <li>POST /api/deconnexion</li>
+ *     <li>GET /api/tables?date=yyyy-mm-dd hh:mm:ss&amp;nbPers=n : tables disponibles</li>
+ *     <li>GET /api/propositions?date=yyyy-mm-dd hh:mm:ss&amp;nbPers=n&amp;combiner=true|false : plus petite table (ou réunion de tables) libre qui convient,
+ *     sinon créneaux libres les plus proches</li>
+ *     <li>POST /api/reservations {"date", "nbPers", "numtab"} : réserver une table ; sans numtab (et avec "combiner" facultatif),
+ *     réserver la plus petite table qui convient, ou renvoyer les créneaux libres les plus proches dans "alternatives"</li>
+ *     <li>GET /api/plats : carte des plats disponibles</li>
+ *     <li>POST /api/commandes {"numres", "lignes": [{"numplat", "quantite"}...]} : commander des plats</li>
+ *     <li>GET /api/mes-tables : tables affectées au serveur connecté</li>
+ *     <li>GET /api/affectations?numserv=n&amp;apres=yyyy-mm-dd:numtab&amp;taille=n : une page de l'historique des affectations, des plus récentes
+ *     aux plus anciennes, avec les affectations actuelles sur la première page ; "suivante" (absent sur la dernière page) est la valeur de apres
+ *     pour la page suivante. numserv, apres et taille (50 par défaut, 500 au plus) facultatifs. Avec numtab=n : le serveur affecté à la table (gestionnaire)</li>
+ *     <li>POST /api/affectations {"numtab", "numserv"} : affecter un serveur à une table (gestionnaire)</li>
+ *     <li>POST /api/encaissements {"numres"} : calculer le montant total d'une réservation (gestionnaire)</li>
+ *     <li>POST /api/reapprovisionnements {"numplat", "quantite"} : réapprovisionner un plat (gestionnaire)</li>
+ *     <li>GET /api/rapports?rapport=jour|heure|paiement|serveur|plats|couverts&amp;du=yyyy-mm-dd&amp;au=yyyy-mm-dd&amp;nb=n :
+ *     rapports calculés en mémoire, du et au facultatifs (gestionnaire)</li>
+ *     <li>GET /api/plan?jour=yyyy-mm-dd&amp;de=hh:mm&amp;a=hh:mm&amp;nbPers=n : plan de salle du jour par quart d'heure (# occupée, . libre),
+ *     de, a et nbPers facultatifs, avec les tables libres de de à a pour nbPers personnes (gestionnaire)</li>
+ *     <li>POST /api/facturations {"simulation", "partitions"} (facultatifs) : facturer toutes les réservations ouvertes en fin de service (gestionnaire)</li>
+ * </ul>
+ * Les métriques de l'application sont exposées au format texte sur GET /metriques (sans jeton).
+ * Les opérations renvoient {"ok", "messages", "erreurs"}, où messages et erreurs sont les lignes qu'elles affichent sur un terminal,
+ * avec le code 200 si elles ont abouti et 409 si elles ont été refusées.
+ */
+public class ApiHttp {
+    /**
+     * Taille maximale du corps d'une requête (en octets)
+     */
+    private static final int TAILLE_MAX_CORPS = 64 * 1024;
+
+    private final Restaurant restaurant;
+    /**
+     * Sessions ouvertes des serveurs connectés
+     */
+    private final Authentification authentification;
+    private final CountDownLatch arret = new CountDownLatch(1);
+    private HttpServer serveurHttp;
+    private ExecutorService executeur;
+
+    /**
+     * Constructeur de l'API
+     * @param restaurant les ressources partagées (pool de connexions, index...)
+     */
+    public ApiHttp(Restaurant restaurant) {
+        this.restaurant = restaurant;
+        this.authentification = restaurant.getAuthentification();
+    }
+
+    /**
+     * Démarre l'écoute des requêtes
+     * @param port le port d'écoute
+     * @throws IOException si le port ne peut pas être ouvert
+     */
+    public void demarrer(int port) throws IOException {
+        serveurHttp = HttpServer.create(new InetSocketAddress(port), 0);
+        executeur = Executors.newVirtualThreadPerTaskExecutor();
+        serveurHttp.setExecutor(executeur);
+        serveurHttp.createContext("/api/", this::traiter);
+        serveurHttp.createContext("/metriques", this::exporterMetriques);
+        serveurHttp.start();
+    }
+
+    /**
+     * Attend l'arrêt de l'API
+     * @throws InterruptedException si l'attente est interrompue
+     */
+    public void attendreArret() throws InterruptedException {
+        arret.await();
+    }
+
+    /**
+     * Arrête l'écoute et laisse une seconde aux requêtes en cours pour se terminer
+     */
+    public void arreter() {
+        if (serveurHttp != null) serveurHttp.stop(1);
+        if (executeur != null) executeur.close();
+        arret.countDown();
+    }
+
+    /**
+     * Erreur renvoyée au client avec un code HTTP
+     */
+    private static class ErreurHttp extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+
+        ErreurHttp(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    private void traiter(HttpExchange echange) throws IOException {
+        int code;
+        Object reponse;
+        try {
+            String chemin = echange.getRequestURI().getPath();
+            String methode = echange.getRequestMethod();
+            reponse = router(echange, methode, chemin);
+            code = reponse == null ? 204 : 200;
+            // Opération refusée (table déjà réservée, stock insuffisant, réservation encaissée...)
+            if (reponse instanceof Map<?, ?> map && Boolean.FALSE.equals(map.get("ok"))) code = 409;
+        } catch (ErreurHttp e) {
+            code = e.code;
+            reponse = Map.of("erreur", e.getMessage());
+        } catch (IllegalArgumentException | DateTimeException e) {
+            // Corps JSON invalide, paramètre manquant ou date au mauvais format (le corps est validé explicitement : toute autre exception est une erreur interne)
+            code = 400;
+            reponse = Map.of("erreur", "Requête invalide : " + e.getMessage());
+        } catch (SQLException e) {
+            // Pas de connexion disponible dans le délai du pool ou base de données injoignable
+            code = 503;
+            reponse = Map.of("erreur", "Erreur de communication avec la base de données");
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            code = 500;
+            reponse = Map.of("erreur", "Erreur interne");
+        }
+        repondre(echange, code, reponse);
+    }
+
+    /**
+     * GET /metriques : les métriques au format texte (collecte par Prometheus par exemple), sans authentification
+     */
+    private void exporterMetriques(HttpExchange echange) throws IOException {
+        byte[] octets = Metriques.get().getRapport().getBytes(StandardCharsets.UTF_8);
+        echange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        echange.sendResponseHeaders(200, octets.length);
+        try (OutputStream out = echange.getResponseBody()) {
+            out.write(octets);
+        }
+    }
+
+    private Object router(HttpExchange echange, String methode, String chemin) throws ErreurHttp, IOException, SQLException {
+        if (chemin.equals("/api/connexion")) {
+            exiger(methode, "POST");
+            return connecter(corps(echange));
+        }
+
+        Authentification.Identite identite = authentifier(echange);
+        switch (chemin) {
+            case "/api/deconnexion":
+                exiger(methode, "POST");
+                authentification.fermer(jeton(echange));
+                return null;
+            case "/api/tables": {
+                exiger(methode, "GET");
+                Map<String, String> parametres = parametres(echange);
+                String date = parametres.get("date");
+                int nbPers = Integer.parseInt(parametres.getOrDefault("nbPers", "1"));
+                if (date == null) throw new IllegalArgumentException("paramètre date manquant");
+                Serveur serveur = instance(identite, new Sorties());
+                try (Connection conn = restaurant.connexionLecture(identite.numserv())) {
+                    return Map.of("tables", serveur.consulterTablesDispos(conn, date, nbPers, false));
+                }
+            }
+            case "/api/propositions": {
+                exiger(methode, "GET");
+                Map<String, String> parametres = parametres(echange);
+                String date = parametres.get("date");
+                int nbPers = Integer.parseInt(parametres.getOrDefault("nbPers", "1"));
+                boolean combiner = Boolean.parseBoolean(parametres.getOrDefault("combiner", "false"));
+                if (date == null) throw new IllegalArgumentException("paramètre date manquant");
+                Serveur serveur = instance(identite, new Sorties());
+                try (Connection conn = restaurant.connexionLecture(identite.numserv())) {
+                    return Map.of("propositions", propositions(serveur.proposerTables(conn, date, nbPers, combiner, false)));
+                }
+            }
+            case "/api/reservations": {
+                exiger(methode, "POST");
+                Map<String, Object> corps = corps(echange);
+                String date = chaine(corps, "date");
+                int nbPers = entier(corps, "nbPers");
+                Sorties sorties = new Sorties();
+                Serveur serveur = instance(identite, sorties);
+                if (!corps.containsKey("numtab")) {
+                    // Pas de table choisie : la plus petite table qui convient, ou les créneaux libres les plus proches
+                    boolean combiner = Boolean.TRUE.equals(corps.get("combiner"));
+                    try (Connection conn = restaurant.connexion()) {
+                        AllocateurTables.Allocation allocation = serveur.reserverMeilleureTable(conn, date, nbPers, combiner);
+                        Map<String, Object> reponse = sorties.resultat(allocation.resultat().estReservee());
+                        reponse.put("resultat", allocation.resultat().name());
+                        if (allocation.reservee() != null) reponse.put("tables", allocation.reservee().tables());
+                        if (!allocation.alternatives().isEmpty()) reponse.put("alternatives", propositions(allocation.alternatives()));
+                        return reponse;
+                    }
+                }
+                int numtab = entier(corps, "numtab");
+                try (Connection conn = restaurant.connexion()) {
+                    ResultatReservation resultat = serveur.reserverTable(conn, date, nbPers, numtab);
+                    Map<String, Object> reponse = sorties.resultat(resultat.estReservee());
+                    reponse.put("resultat", resultat.name());
+                    return reponse;
+                }
+            }
+            case "/api/plats": {
+                exiger(methode, "GET");
+                try (Connection conn = restaurant.connexionLecture(identite.numserv())) {
+                    CarteMenu.Instantane carte = restaurant.getCarteMenu().get(conn);
+                    return Map.of("version", carte.version(), "plats", carte.plats());
+                }
+            }
+            case "/api/commandes": {
+                exiger(methode, "POST");
+                Map<String, Object> corps = corps(echange);
+                int numres = entier(corps, "numres");
+                List<LigneCommande> lignes = new ArrayList<>();
+                for (Object ligne : liste(corps, "lignes")) {
+                    Map<String, Object> l = objet(ligne, "lignes");
+                    lignes.add(new LigneCommande(entier(l, "numplat"), entier(l, "quantite")));
+                }
+                Sorties sorties = new Sorties();
+                Serveur serveur = instance(identite, sorties);
+                try (Connection conn = restaurant.connexion()) {
+                    return sorties.resultat(serveur.commanderPlats(conn, numres, lignes));
+                }
+            }
+            case "/api/mes-tables": {
+                exiger(methode, "GET");
+                int numserv = Integer.parseInt(identite.numserv());
+                return Map.of("numserv", numserv, "tables", restaurant.getRegistreAffectations().tables(numserv));
+            }
+            case "/api/affectations": {
+                Sorties sorties = new Sorties();
+                Gestionnaire gestionnaire = gestionnaire(identite, sorties);
+                if (methode.equals("GET")) {
+                    return affectations(gestionnaire, identite, parametres(echange));
+                }
+                exiger(methode, "POST");
+                Map<String, Object> corps = corps(echange);
+                int numtab = entier(corps, "numtab");
+                int numserv = entier(corps, "numserv");
+                try (Connection conn = restaurant.connexion()) {
+                    return sorties.resultat(gestionnaire.affecterServeurTable(conn, numtab, numserv));
+                }
+            }
+            case "/api/encaissements": {
+                exiger(methode, "POST");
+                Sorties sorties = new Sorties();
+                Gestionnaire gestionnaire = gestionnaire(identite, sorties);
+                int numres = entier(corps(echange), "numres");
+                try (Connection conn = restaurant.connexion()) {
+                    return sorties.resultat(gestionnaire.calculerMontantTotalCommandeEtMajReservation(conn, numres));
+                }
+            }
+            case "/api/reapprovisionnements": {
+                exiger(methode, "POST");
+                Sorties sorties = new Sorties();
+                Gestionnaire gestionnaire = gestionnaire(identite, sorties);
+                Map<String, Object> corps = corps(echange);
+                int numplat = entier(corps, "numplat");
+                int quantite = entier(corps, "quantite");
+                try (Connection conn = restaurant.connexion()) {
+                    return sorties.resultat(gestionnaire.reapprovisionnerPlat(conn, numplat, quantite));
+                }
+            }
+            case "/api/rapports": {
+                exiger(methode, "GET");
+                exigerGestionnaire(identite);
+                Map<String, String> parametres = parametres(echange);
+                LocalDate du = parametres.containsKey("du") ? LocalDate.parse(parametres.get("du")) : null;
+                LocalDate au = parametres.containsKey("au") ? LocalDate.parse(parametres.get("au")) : null;
+                Analytique analytique = restaurant.getAnalytique();
+                if (analytique == null) throw new ErreurHttp(503, "Rapports non disponibles avec le stockage en mémoire");
+                try (Connection conn = restaurant.connexionLecture(identite.numserv())) {
+                    analytique.actualiser(conn);
+                }
+                String rapport = parametres.getOrDefault("rapport", "jour");
+                return Map.of(rapport, switch (rapport) {
+                    case "jour" -> analytique.chiffreAffairesParJour(du, au);
+                    case "heure" -> Arrays.stream(analytique.chiffreAffairesParHeure(du, au)).boxed().toList();
+                    case "paiement" -> analytique.chiffreAffairesParModePaiement(du, au);
+                    case "serveur" -> analytique.chiffreAffairesParServeur(du, au);
+                    case "plats" -> analytique.platsLesPlusCommandes(Integer.parseInt(parametres.getOrDefault("nb", "5")), du, au);
+                    case "couverts" -> analytique.couvertsMoyensParTable(du, au);
+                    default -> throw new ErreurHttp(404, "Rapport inconnu : " + rapport);
+                });
+            }
+            case "/api/plan": {
+                exiger(methode, "GET");
+                exigerGestionnaire(identite);
+                Map<String, String> parametres = parametres(echange);
+                if (!parametres.containsKey("jour")) throw new IllegalArgumentException("paramètre jour manquant");
+                LocalDate jour = LocalDate.parse(parametres.get("jour"));
+                LocalTime de = LocalTime.parse(parametres.getOrDefault("de", "00:00"));
+                LocalTime a = LocalTime.parse(parametres.getOrDefault("a", "00:00"));
+                PlanSalle plan = restaurant.getPlanSalle();
+                try (Connection conn = restaurant.connexionLecture(identite.numserv())) {
+                    PlanSalle.Occupation occupation = plan.get(conn, jour);
+                    Map<String, Object> reponse = new LinkedHashMap<>();
+                    reponse.put("tables", occupation.lignes(de, a, plan.getServeurs(conn)));
+                    if (parametres.containsKey("nbPers")) {
+                        reponse.put("libres", occupation.tablesLibres(de, a, Integer.parseInt(parametres.get("nbPers"))));
+                    }
+                    return reponse;
+                }
+            }
+            case "/api/facturations": {
+                exiger(methode, "POST");
+                Sorties sorties = new Sorties();
+                Gestionnaire gestionnaire = gestionnaire(identite, sorties);
+                Map<String, Object> corps = corps(echange);
+                boolean simulation = Boolean.TRUE.equals(corps.get("simulation"));
+                int partitions = corps.containsKey("partitions") ? entier(corps, "partitions") : restaurant.getNbPartitionsFacturation();
+                try (Connection conn = restaurant.connexion()) {
+                    BilanFacturation bilan = gestionnaire.facturerReservationsOuvertes(conn, partitions, simulation);
+                    Map<String, Object> reponse = sorties.resultat(bilan.partitionsEchouees().isEmpty());
+                    reponse.put("bilan", bilan);
+                    return reponse;
+                }
+            }
+            default:
+                throw new ErreurHttp(404, "Ressource inconnue : " + chemin);
+        }
+    }
+
+    /**
+     * GET /api/affectations : le serveur d'une table, ou une page de l'historique des affectations (pagination par clé : le curseur apres
+     * est la date et le numéro de table de la dernière affectation de la page précédente)
+     */
+    private Map<String, Object> affectations(Gestionnaire gestionnaire, Authentification.Identite identite, Map<String, String> parametres) throws SQLException {
+        RegistreAffectations registre = restaurant.getRegistreAffectations();
+        Map<String, Object> reponse = new LinkedHashMap<>();
+        if (parametres.containsKey("numtab")) {
+            int numtab = Integer.parseInt(parametres.get("numtab"));
+            reponse.put("numtab", numtab);
+            reponse.put("numserv", registre.serveur(numtab));
+            return reponse;
+        }
+        Integer numserv = parametres.containsKey("numserv") ? Integer.valueOf(parametres.get("numserv")) : null;
+        int taille = Integer.parseInt(parametres.getOrDefault("taille", String.valueOf(RegistreAffectations.TAILLE_PAGE)));
+        Affectation apres = null;
+        if (parametres.containsKey("apres")) {
+            String[] curseur = parametres.get("apres").split(":");
+            if (curseur.length != 2) throw new IllegalArgumentException("paramètre apres attendu au format yyyy-mm-dd:numtab");
+            apres = new Affectation(Integer.parseInt(curseur[1]), java.sql.Date.valueOf(curseur[0]), 0);
+        }
+        if (apres == null) {
+            if (numserv != null) reponse.put("tables", registre.tables(numserv));
+            else reponse.put("courantes", new ArrayList<>(new TreeMap<>(registre.getCourantes()).values()));
+        }
+        List<Affectation> page;
+        try (Connection conn = restaurant.connexionLecture(identite.numserv())) {
+            page = gestionnaire.listerAffectations(conn, numserv, apres, taille);
+        }
+        reponse.put("affectations", page);
+        if (page.size() == Math.min(Math.max(taille, 1), RegistreAffectations.TAILLE_PAGE_MAX)) {
+            Affectation derniere = page.get(page.size() - 1);
+            reponse.put("suivante", derniere.dataff() + ":" + derniere.numtab());
+        }
+        return reponse;
+    }
+
+    /**
+     * Vérifie le login et le mot de passe et ouvre une session
+     */
+    private Map<String, Object> connecter(Map<String, Object> corps) throws ErreurHttp, SQLException {
+        Authentification.SessionOuverte session;
+        try (Connection conn = restaurant.connexionLecture(null)) {
+            session = authentification.ouvrir(conn, chaine(corps, "email"), chaine(corps, "passwd"));
+        }
+        if (session == null) throw new ErreurHttp(401, "Login ou mot de passe incorrect");
+
+        Authentification.Identite identite = session.identite();
+        Map<String, Object> reponse = new LinkedHashMap<>();
+        reponse.put("jeton", session.jeton());
+        reponse.put("numserv", identite.numserv());
+        reponse.put("nom", identite.nom());
+        reponse.put("grade", identite.grade());
+        return reponse;
+    }
+
+    private Authentification.Identite authentifier(HttpExchange echange) throws ErreurHttp {
+        Authentification.Identite identite = authentification.identite(jeton(echange));
+        if (identite == null) throw new ErreurHttp(401, "Jeton de session absent, invalide ou expiré");
+        return identite;
+    }
+
+    private static String jeton(HttpExchange echange) {
+        String entete = echange.getRequestHeaders().getFirst("Authorization");
+        if (entete == null || !entete.startsWith("Bearer ")) return null;
+        return entete.substring("Bearer ".length()).strip();
+    }
+
+    /**
+     * Les requêtes d'une même session peuvent arriver en parallèle : chacune travaille avec sa propre instance, qui affiche dans ses propres sorties
+     */
+    private Serveur instance(Authentification.Identite identite, Sorties sorties) {
+        Serveur serveur = Serveur.depuis(identite, restaurant);
+        serveur.setSorties(sorties.sortie, sorties.erreurs);
+        return serveur;
+    }
+
+    private static void exigerGestionnaire(Authentification.Identite identite) throws ErreurHttp {
+        if (!identite.estGestionnaire()) throw new ErreurHttp(403, "Opération réservée aux gestionnaires");
+    }
+
+    private Gestionnaire gestionnaire(Authentification.Identite identite, Sorties sorties) throws ErreurHttp {
+        exigerGestionnaire(identite);
+        return (Gestionnaire) instance(identite, sorties);
+    }
+
+    private static void exiger(String methode, String attendue) throws ErreurHttp {
+        if (!methode.equals(attendue)) throw new ErreurHttp(405, "Méthode " + methode + " non supportée, " + attendue + " attendue");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> corps(HttpExchange echange) throws IOException {
+        try (InputStream in = echange.getRequestBody()) {
+            byte[] octets = in.readNBytes(TAILLE_MAX_CORPS + 1);
+            if (octets.length > TAILLE_MAX_CORPS) throw new IllegalArgumentException("corps de la requête trop grand");
+            Object valeur = Json.lire(new String(octets, StandardCharsets.UTF_8));
+            if (!(valeur instanceof Map)) throw new IllegalArgumentException("objet JSON attendu");
+            return (Map<String, Object>) valeur;
+        }
+    }
+
+    private static Map<String, String> parametres(HttpExchange echange) {
+        Map<String, String> parametres = new HashMap<>();
+        String requete = echange.getRequestURI().getRawQuery();
+        if (requete == null) return parametres;
+        for (String parametre : requete.split("&")) {
+            int egal = parametre.indexOf('=');
+            if (egal < 0) continue;
+            parametres.put(URLDecoder.decode(parametre.substring(0, egal), StandardCharsets.UTF_8),
+                    URLDecoder.decode(parametre.substring(egal + 1), StandardCharsets.UTF_8));
+        }
+        return parametres;
+    }
+
+    private static List<Map<String, Object>> propositions(List<AllocateurTables.Proposition> propositions) {
+        List<Map<String, Object>> liste = new ArrayList<>();
+        for (AllocateurTables.Proposition proposition : propositions) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("date", proposition.date().toLocalDateTime().toString());
+            map.put("tables", proposition.tables());
+            map.put("places", proposition.totalPlaces());
+            liste.add(map);
+        }
+        return liste;
+    }
+
+    private static int entier(Map<String, Object> corps, String cle) {
+        Object valeur = corps.get(cle);
+        if (!(valeur instanceof Long nombre) || nombre < Integer.MIN_VALUE || nombre > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("nombre entier attendu pour " + cle);
+        }
+        return nombre.intValue();
+    }
+
+    private static List<?> liste(Map<String, Object> corps, String cle) {
+        Object valeur = corps.get(cle);
+        if (!(valeur instanceof List<?> liste)) throw new IllegalArgumentException("tableau attendu pour " + cle);
+        return liste;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> objet(Object valeur, String cle) {
+        if (!(valeur instanceof Map)) throw new IllegalArgumentException("objet attendu dans " + cle);
+        return (Map<String, Object>) valeur;
+    }
+
+    private static String chaine(Map<String, Object> corps, String cle) {
+        Object valeur = corps.get(cle);
+        if (!(valeur instanceof String s)) throw new IllegalArgumentException("chaîne attendue pour " + cle);
+        return s;
+    }
+
+    private static void repondre(HttpExchange echange, int code, Object reponse) throws IOException {
+        if (reponse == null) {
+            echange.sendResponseHeaders(code, -1);
+            echange.close();
+            return;
+        }
+        byte[] octets = Json.ecrire(reponse).getBytes(StandardCharsets.UTF_8);
+        echange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        echange.sendResponseHeaders(code, octets.length);
+        try (OutputStream out = echange.getResponseBody()) {
+            out.write(octets);
+        }
+    }
+
+    /**
+     * Sorties d'une opération : les lignes affichées sont renvoyées dans la réponse
+     */
+    private static class Sorties {
+        private final ByteArrayOutputStream octetsSortie = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream octetsErreurs = new ByteArrayOutputStream();
+        final PrintStream sortie = new PrintStream(octetsSortie, true, StandardCharsets.UTF_8);
+        final PrintStream erreurs = new PrintStream(octetsErreurs, true, StandardCharsets.UTF_8);
+
+        /**
+         * @param ok le résultat de l'opération
+         * @return la réponse : le résultat, les messages et les erreurs affichés par l'opération
+         */
+        Map<String, Object> resultat(boolean ok) {
+            Map<String, Object> reponse = new LinkedHashMap<>();
+            reponse.put("ok", ok);
+            reponse.put("messages", lignes(octetsSortie));
+            reponse.put("erreurs", lignes(octetsErreurs));
+            return reponse;
+        }
+
+        private static List<String> lignes(ByteArrayOutputStream octets) {
+            String texte = octets.toString(StandardCharsets.UTF_8);
+            return texte.isEmpty() ? List.of() : List.of(texte.split("\\R"));
+        }
+    }
+}
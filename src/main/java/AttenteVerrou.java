@@ -0,0 +1,74 @@
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Attente maximale d'un verrou de ligne par une transaction : SELECT ... FOR UPDATE WAIT n (en secondes), NOWAIT (0) ou sans limite (-1).
+ * Une attente expirée lève une SQLException (ORA-30006 avec WAIT n, ORA-00054 avec NOWAIT) que {@link ExecuteurTransactions} retente.
+ * @param secondes attente maximale en secondes (Oracle n'accepte que des secondes entières), 0 pour NOWAIT, -1 pour attendre sans limite
+ */
+public record AttenteVerrou(int secondes) {
+    /**
+     * Code d'erreur d'une attente de verrou expirée (ORA-30006), repris par le stockage en mémoire
+     */
+    public static final int CODE_VERROU_EXPIRE = 30006;
+    /**
+     * Pas d'attente : le verrou est refusé tout de suite s'il est déjà pris
+     */
+    public static final AttenteVerrou NOWAIT = new AttenteVerrou(0);
+    /**
+     * Attente sans limite (comportement par défaut d'Oracle)
+     */
+    public static final AttenteVerrou ILLIMITEE = new AttenteVerrou(-1);
+
+    /**
+     * @param valeur "nowait", "illimitee" ou un nombre de secondes
+     * @return l'attente correspondante
+     */
+    public static AttenteVerrou depuis(String valeur) {
+        String v = valeur.trim().toLowerCase();
+        if (v.equals("nowait")) return NOWAIT;
+        if (v.equals("illimitee")) return ILLIMITEE;
+        int secondes = Integer.parseInt(v);
+        if (secondes < 0) throw new IllegalArgumentException("Attente de verrou négative : " + valeur);
+        return new AttenteVerrou(secondes);
+    }
+
+    /**
+     * @return la clause de verrouillage à ajouter à la fin d'un SELECT (FOR UPDATE, FOR UPDATE NOWAIT ou FOR UPDATE WAIT n)
+     */
+    public String forUpdate() {
+        if (secondes < 0) return "FOR UPDATE";
+        if (secondes == 0) return "FOR UPDATE NOWAIT";
+        return "FOR UPDATE WAIT " + secondes;
+    }
+
+    /**
+     * Prend un verrou du stockage en mémoire avec la même attente maximale que la base de données
+     * @param verrou le verrou
+     * @throws SQLException (code 30006) si le verrou n'a pas été obtenu à temps
+     */
+    public void verrouiller(Lock verrou) throws SQLException {
+        if (secondes < 0) {
+            verrou.lock();
+            return;
+        }
+        boolean obtenu;
+        try {
+            obtenu = secondes == 0 ? verrou.tryLock() : verrou.tryLock(secondes, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Attente d'un verrou interrompue", e);
+        }
+        if (!obtenu) {
+            SQLException e = new SQLException("Verrou non obtenu après " + secondes + " s", "61000", CODE_VERROU_EXPIRE);
+            Metriques.erreurSql(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return secondes < 0 ? "illimitee" : secondes == 0 ? "nowait" : secondes + " s";
+    }
+}
@@ -0,0 +1,265 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Authentification des serveurs et sessions ouvertes.
+ * <p>
+ * La table SERVEUR ne garde que l'empreinte salée des mots de passe (PBKDF2) : la base ne vérifie plus le mot de passe, l'application
+ * le compare à l'empreinte lue par email. Un compte dont le mot de passe est encore en clair est accepté une dernière fois, puis son
+ * mot de passe est remplacé par son empreinte.
+ * <p>
+ * Une connexion réussie ouvre une session identifiée par un jeton aléatoire. La table des sessions garde l'identité du serveur
+ * (numéro, nom, grade) : les requêtes suivantes n'interrogent plus la base pour savoir qui les envoie ni s'il est gestionnaire.
+ * Une session expire quand elle n'a pas servi depuis sessions.expiration secondes.
+ */
+public class Authentification {
+    /**
+     * Identité d'un serveur connecté
+     * @param numserv numéro du serveur
+     * @param email login du serveur
+     * @param nom nom du serveur
+     * @param grade grade du serveur (serveur ou gestionnaire)
+     */
+    public record Identite(String numserv, String email, String nom, String grade) {
+        /**
+         * @return true si le serveur a le grade de gestionnaire
+         */
+        public boolean estGestionnaire() {
+            return grade.equals("gestionnaire");
+        }
+    }
+
+    /**
+     * Session ouverte par une connexion réussie
+     * @param jeton le jeton de la session
+     * @param identite le serveur connecté
+     */
+    public record SessionOuverte(String jeton, Identite identite) {
+    }
+
+    /**
+     * Préfixe des empreintes (algorithme$itérations$sel$empreinte, sel et empreinte en base 64)
+     */
+    private static final String ALGORITHME = "pbkdf2-sha256";
+    /**
+     * Nombre d'itérations des nouvelles empreintes (si la clé motsDePasse.iterations est absente)
+     */
+    public static final int ITERATIONS = 310000;
+    private static final int OCTETS_SEL = 16;
+    private static final int BITS_EMPREINTE = 256;
+    /**
+     * Durée d'inactivité après laquelle une session expire (si la clé sessions.expiration est absente), en secondes
+     */
+    public static final long EXPIRATION = 1800;
+
+    private static final SecureRandom ALEATOIRE = new SecureRandom();
+
+    /**
+     * Session ouverte avec l'heure de son dernier usage (System.nanoTime())
+     */
+    private static final class Entree {
+        final Identite identite;
+        volatile long dernierAcces;
+
+        Entree(Identite identite) {
+            this.identite = identite;
+            this.dernierAcces = System.nanoTime();
+        }
+    }
+
+    private final Stockage stockage;
+    private final int iterations;
+    private final long expirationNs;
+    /**
+     * Sessions ouvertes, par jeton
+     */
+    private final ConcurrentHashMap<String, Entree> sessions = new ConcurrentHashMap<>();
+    /**
+     * Empreinte comparée quand le login est inconnu : la réponse prend autant de temps que pour un mauvais mot de passe
+     */
+    private final String empreinteFactice;
+
+    // Statistiques
+    private final LongAdder connexionsRefusees = new LongAdder();
+    private final LongAdder sessionsExpirees = new LongAdder();
+
+    /**
+     * Constructeur de l'authentification
+     * @param stockage le stockage des comptes des serveurs
+     * @param config la configuration de l'application : clés sessions.expiration (en secondes, 1800 par défaut)
+     *               et motsDePasse.iterations (310000 par défaut)
+     */
+    public Authentification(Stockage stockage, Properties config) {
+        this.stockage = stockage;
+        this.iterations = Integer.parseInt(config.getProperty("motsDePasse.iterations", String.valueOf(ITERATIONS)));
+        this.expirationNs = Long.parseLong(config.getProperty("sessions.expiration", String.valueOf(EXPIRATION))) * 1_000_000_000L;
+        this.empreinteFactice = empreinte("", iterations);
+    }
+
+    /**
+     * Vérifie le login et le mot de passe d'un serveur et ouvre une session
+     * @param conn connexion à la base de données (en lecture seule possible)
+     * @param email login du serveur
+     * @param password mot de passe du serveur
+     * @return la session ouverte, null si le login ou le mot de passe est incorrect
+     * @throws SQLException si une erreur survient lors de la lecture du compte
+     */
+    public SessionOuverte ouvrir(Connection conn, String email, String password) throws SQLException {
+        DepotServeurs.Identifiants identifiants = stockage.serveurs().trouver(conn, email);
+        if (identifiants == null) {
+            verifier(password, empreinteFactice);
+            connexionsRefusees.increment();
+            return null;
+        }
+        String passwd = identifiants.passwd();
+        if (!verifier(password, passwd)) {
+            connexionsRefusees.increment();
+            return null;
+        }
+        if (!estEmpreinte(passwd)) convertir(identifiants.compte().numserv(), password);
+
+        purger();
+        DepotServeurs.Compte compte = identifiants.compte();
+        Identite identite = new Identite(compte.numserv(), email, compte.nom(), compte.grade());
+        byte[] octets = new byte[32];
+        ALEATOIRE.nextBytes(octets);
+        String jeton = Base64.getUrlEncoder().withoutPadding().encodeToString(octets);
+        sessions.put(jeton, new Entree(identite));
+        return new SessionOuverte(jeton, identite);
+    }
+
+    /**
+     * Remplace un mot de passe encore en clair par son empreinte (sur une connexion de la base principale : celle du login peut être en lecture seule)
+     */
+    private void convertir(String numserv, String password) {
+        try (Connection conn = stockage.connexion()) {
+            stockage.serveurs().changerMotDePasse(conn, numserv, empreinte(password, iterations));
+        } catch (SQLException e) {
+            // Le compte reste en clair : il sera converti à la prochaine connexion
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Identité du serveur d'une session, sans interroger la base. Chaque appel repousse l'expiration de la session.
+     * @param jeton le jeton de la session
+     * @return l'identité du serveur, null si le jeton est inconnu ou si la session a expiré
+     */
+    public Identite identite(String jeton) {
+        if (jeton == null) return null;
+        Entree entree = sessions.get(jeton);
+        if (entree == null) return null;
+        long maintenant = System.nanoTime();
+        if (maintenant - entree.dernierAcces > expirationNs) {
+            if (sessions.remove(jeton, entree)) sessionsExpirees.increment();
+            return null;
+        }
+        entree.dernierAcces = maintenant;
+        return entree.identite;
+    }
+
+    /**
+     * Ferme une session (déconnexion)
+     * @param jeton le jeton de la session
+     */
+    public void fermer(String jeton) {
+        if (jeton != null) sessions.remove(jeton);
+    }
+
+    /**
+     * Retire les sessions expirées qui n'ont plus servi (appelé à chaque connexion)
+     */
+    private void purger() {
+        long maintenant = System.nanoTime();
+        sessions.forEach((jeton, entree) -> {
+            if (maintenant - entree.dernierAcces > expirationNs && sessions.remove(jeton, entree)) sessionsExpirees.increment();
+        });
+    }
+
+    /**
+     * Calcule l'empreinte d'un mot de passe avec un nouveau sel aléatoire
+     * @param password le mot de passe
+     * @param iterations le nombre d'itérations de PBKDF2
+     * @return l'empreinte à enregistrer dans la colonne passwd (pbkdf2-sha256$itérations$sel$empreinte)
+     */
+    public static String empreinte(String password, int iterations) {
+        byte[] sel = new byte[OCTETS_SEL];
+        ALEATOIRE.nextBytes(sel);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return ALGORITHME + "$" + iterations + "$" + base64.encodeToString(sel) + "$" + base64.encodeToString(pbkdf2(password, sel, iterations));
+    }
+
+    /**
+     * Compare un mot de passe à une empreinte en temps constant
+     * @param password le mot de passe saisi
+     * @param passwd l'empreinte enregistrée, ou le mot de passe en clair d'un compte pas encore converti
+     * @return true si le mot de passe correspond
+     */
+    public static boolean verifier(String password, String passwd) {
+        if (password == null || passwd == null) return false;
+        if (!estEmpreinte(passwd)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), passwd.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parties = passwd.split("\\$");
+        if (parties.length != 4) return false;
+        try {
+            Base64.Decoder base64 = Base64.getDecoder();
+            byte[] attendue = base64.decode(parties[3]);
+            return MessageDigest.isEqual(pbkdf2(password, base64.decode(parties[2]), Integer.parseInt(parties[1])), attendue);
+        } catch (IllegalArgumentException e) {
+            // Empreinte mal formée : aucun mot de passe ne correspond
+            return false;
+        }
+    }
+
+    /**
+     * @param passwd la valeur de la colonne passwd
+     * @return true si c'est une empreinte, false si c'est un mot de passe en clair
+     */
+    public static boolean estEmpreinte(String passwd) {
+        return passwd.startsWith(ALGORITHME + "$");
+    }
+
+    private static byte[] pbkdf2(String password, byte[] sel, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), sel, iterations, BITS_EMPREINTE);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            // PBKDF2WithHmacSHA256 fait partie des algorithmes que toute JVM doit fournir
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * @return le nombre de sessions ouvertes (expirées comprises tant qu'elles n'ont pas été purgées)
+     */
+    public int getSessionsOuvertes() {
+        return sessions.size();
+    }
+
+    /**
+     * @return le nombre de connexions refusées (login ou mot de passe incorrect)
+     */
+    public long getConnexionsRefusees() {
+        return connexionsRefusees.sum();
+    }
+
+    /**
+     * @return le nombre de sessions expirées
+     */
+    public long getSessionsExpirees() {
+        return sessionsExpirees.sum();
+    }
+}
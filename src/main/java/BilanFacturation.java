@@ -0,0 +1,15 @@
+import java.util.List;
+
+/**
+ * Bilan d'une facturation de fin de service (toutes les réservations encore ouvertes)
+ * @param simulation true si rien n'a été enregistré (les montants ont seulement été calculés)
+ * @param nbReservations nombre de réservations facturées (ou qui le seraient en simulation)
+ * @param montantTotal somme des montants facturés
+ * @param ecarts réservations dont le montant cumulé différait de la somme des commandes (uniquement avec facturation.verification=true)
+ * @param nbPartitions nombre de plages de numéros de réservation traitées en parallèle
+ * @param partitionsEchouees plages dont la transaction a été annulée (par exemple "120-180"), à refacturer
+ * @param dureeMs durée de la facturation (en millisecondes)
+ */
+public record BilanFacturation(boolean simulation, int nbReservations, double montantTotal, List<Integer> ecarts,
+                               int nbPartitions, List<String> partitionsEchouees, long dureeMs) {
+}
@@ -0,0 +1,149 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache des requêtes préparées d'une connexion, indexé par le texte SQL (éviction LRU).
+ * Une requête préparée reste ouverte tant qu'elle est dans le cache : l'appelant ne la ferme pas, mais il doit fermer ses ResultSet.
+ * Ainsi, une même opération répétée réutilise le curseur déjà analysé par Oracle au lieu d'en ouvrir un nouveau (ORA-01000).
+ */
+public class CacheRequetes {
+    /**
+     * Nombre de requêtes gardées par connexion par défaut
+     */
+    public static final int CAPACITE_PAR_DEFAUT = 32;
+
+    /**
+     * Caches des connexions qui ne viennent pas du pool (une connexion ouverte avec DriverManager par exemple)
+     */
+    private static final Map<Connection, CacheRequetes> CACHES_HORS_POOL = new WeakHashMap<>();
+    private static final ReentrantLock VERROU_HORS_POOL = new ReentrantLock();
+
+    // Compteurs de toutes les connexions confondues
+    private static final LongAdder SUCCES_TOTAL = new LongAdder();
+    private static final LongAdder DEFAUTS_TOTAL = new LongAdder();
+
+    private final Connection conn;
+    private final LinkedHashMap<String, PreparedStatement> requetes;
+    private long succes = 0;
+    private long defauts = 0;
+
+    /**
+     * Constructeur du cache
+     * @param conn la connexion (physique) sur laquelle les requêtes sont préparées
+     * @param capacite le nombre maximal de requêtes gardées ouvertes
+     */
+    public CacheRequetes(Connection conn, int capacite) {
+        this.conn = conn;
+        // accessOrder = true : l'itération commence par la requête la moins récemment utilisée
+        this.requetes = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= capacite) return false;
+                fermer(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param conn une connexion du pool ou une connexion quelconque
+     * @return le cache des requêtes de la connexion
+     * @throws SQLException si une erreur survient lors de l'accès à la connexion
+     */
+    public static CacheRequetes de(Connection conn) throws SQLException {
+        if (conn.isWrapperFor(CacheRequetes.class)) return conn.unwrap(CacheRequetes.class);
+        VERROU_HORS_POOL.lock();
+        try {
+            return CACHES_HORS_POOL.computeIfAbsent(conn, c -> new CacheRequetes(c, CAPACITE_PAR_DEFAUT));
+        } finally {
+            VERROU_HORS_POOL.unlock();
+        }
+    }
+
+    /**
+     * Renvoie la requête préparée correspondant au texte SQL, en la préparant si elle n'est pas dans le cache.
+     * Les paramètres d'une précédente utilisation sont effacés.
+     * @param sql le texte de la requête
+     * @return la requête préparée (à ne pas fermer)
+     * @throws SQLException si la préparation échoue
+     */
+    public PreparedStatement preparer(String sql) throws SQLException {
+        PreparedStatement pstmt = requetes.get(sql);
+        if (pstmt != null && !pstmt.isClosed()) {
+            succes++;
+            SUCCES_TOTAL.increment();
+            pstmt.clearParameters();
+            return pstmt;
+        }
+        defauts++;
+        DEFAUTS_TOTAL.increment();
+        long debut = System.nanoTime();
+        pstmt = RequeteMesuree.de(conn.prepareStatement(sql));
+        Metriques.phase(Metriques.Phase.PREPARATION, debut);
+        requetes.put(sql, pstmt);
+        return pstmt;
+    }
+
+    /**
+     * Ferme toutes les requêtes du cache (quand la connexion physique est fermée)
+     */
+    public void vider() {
+        for (PreparedStatement pstmt : requetes.values()) fermer(pstmt);
+        requetes.clear();
+        VERROU_HORS_POOL.lock();
+        try {
+            CACHES_HORS_POOL.remove(conn);
+        } finally {
+            VERROU_HORS_POOL.unlock();
+        }
+    }
+
+    private static void fermer(PreparedStatement pstmt) {
+        try {
+            pstmt.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return le nombre de requêtes actuellement ouvertes dans ce cache
+     */
+    public int getTaille() {
+        return requetes.size();
+    }
+
+    /**
+     * @return le nombre de requêtes trouvées dans ce cache
+     */
+    public long getSucces() {
+        return succes;
+    }
+
+    /**
+     * @return le nombre de requêtes qu'il a fallu préparer pour ce cache
+     */
+    public long getDefauts() {
+        return defauts;
+    }
+
+    /**
+     * @return le nombre de requêtes trouvées dans un cache, toutes connexions confondues
+     */
+    public static long getSuccesTotal() {
+        return SUCCES_TOTAL.sum();
+    }
+
+    /**
+     * @return le nombre de requêtes qu'il a fallu préparer, toutes connexions confondues
+     */
+    public static long getDefautsTotal() {
+        return DEFAUTS_TOTAL.sum();
+    }
+}
@@ -0,0 +1,144 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Carte des plats disponibles gardée en mémoire sous forme d'instantané immuable et versionné.
+ * Les lectures ne prennent aucun verrou. L'instantané est reconstruit quand un plat tombe en rupture de stock ou est réapprovisionné
+ * par l'application ({@link #invalider()}), ou au bout d'une durée de vie maximale pour prendre en compte les modifications faites en dehors de l'application.
+ */
+public class CarteMenu {
+    /**
+     * Plat de la carte
+     * @param numplat numéro du plat
+     * @param libelle nom du plat
+     * @param type type du plat (Entrée, Plat, Dessert...)
+     * @param prixunit prix unitaire
+     * @param qteservie quantité disponible au moment de l'instantané
+     */
+    public record PlatCarte(int numplat, String libelle, String type, double prixunit, int qteservie) {
+    }
+
+    /**
+     * Instantané de la carte
+     * @param version numéro de version (croissant)
+     * @param creeA date de création (System.nanoTime())
+     * @param plats les plats disponibles, par numéro de plat
+     * @param affichage la carte déjà mise en forme pour le terminal
+     */
+    public record Instantane(long version, long creeA, List<PlatCarte> plats, String affichage) {
+    }
+
+    /**
+     * Durée de vie maximale d'un instantané (en nanosecondes)
+     */
+    private final long dureeVieNs;
+    /**
+     * Retard maximal d'une connexion de lecture sur la base principale (en nanosecondes, 0 sans réplique)
+     */
+    private final long retardLectureNs;
+    private final Stockage stockage;
+    private final RegistreStocks registre;
+    private final AtomicLong versions = new AtomicLong();
+    /**
+     * Une seule reconstruction à la fois
+     */
+    private final ReentrantLock rechargement = new ReentrantLock();
+    /**
+     * Instantané courant, null s'il a été invalidé
+     */
+    private volatile Instantane courant;
+    /**
+     * Date de la dernière invalidation (System.nanoTime())
+     */
+    private volatile long derniereInvalidation;
+
+    /**
+     * Constructeur de la carte
+     * @param stockage stockage des plats
+     * @param dureeVieMs durée de vie maximale d'un instantané (en millisecondes)
+     * @param registre le registre des stocks en mémoire (null si le mode registre n'est pas activé), plus à jour que plat.qteservie
+     */
+    public CarteMenu(Stockage stockage, long dureeVieMs, RegistreStocks registre) {
+        this(stockage, dureeVieMs, registre, 0);
+    }
+
+    /**
+     * Constructeur de la carte
+     * @param stockage stockage des plats
+     * @param dureeVieMs durée de vie maximale d'un instantané (en millisecondes)
+     * @param registre le registre des stocks en mémoire (null si le mode registre n'est pas activé), plus à jour que plat.qteservie
+     * @param retardLectureMaxMs retard maximal d'une connexion de lecture sur la base principale (en millisecondes, 0 sans réplique)
+     */
+    public CarteMenu(Stockage stockage, long dureeVieMs, RegistreStocks registre, long retardLectureMaxMs) {
+        this.stockage = stockage;
+        this.dureeVieNs = dureeVieMs * 1_000_000;
+        this.registre = registre;
+        this.retardLectureNs = retardLectureMaxMs * 1_000_000;
+        this.derniereInvalidation = System.nanoTime() - retardLectureNs;
+    }
+
+    /**
+     * @param conn connexion à la base de données (utilisée uniquement si l'instantané doit être reconstruit), de la base principale ou de lecture
+     * @return l'instantané courant de la carte
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    public Instantane get(Connection conn) throws SQLException {
+        Instantane instantane = courant;
+        if (instantane != null && System.nanoTime() - instantane.creeA() < dureeVieNs) return instantane;
+        return recharger(conn);
+    }
+
+    /**
+     * Reconstruit l'instantané. Si plusieurs sessions le demandent en même temps, une seule interroge la base de données.
+     */
+    private Instantane recharger(Connection conn) throws SQLException {
+        rechargement.lock();
+        try {
+            Instantane instantane = courant;
+            if (instantane != null && System.nanoTime() - instantane.creeA() < dureeVieNs) return instantane;
+            return lire(conn);
+        } finally {
+            rechargement.unlock();
+        }
+    }
+
+    private Instantane lire(Connection conn) throws SQLException {
+
+        // La version est prise avant la lecture : une invalidation pendant la lecture ne sera pas masquée par cet instantané
+        long version = versions.incrementAndGet();
+        long debutLecture = System.nanoTime();
+        List<PlatCarte> plats = new ArrayList<>();
+        StringBuilder affichage = new StringBuilder();
+        for (PlatCarte lu : stockage.plats().lister(conn)) {
+            int qteservie = registre != null ? registre.getStock(lu.numplat()) : lu.qteservie();
+            if (qteservie <= 0) continue;
+
+            PlatCarte plat = new PlatCarte(lu.numplat(), lu.libelle(), lu.type(), lu.prixunit(), qteservie);
+            plats.add(plat);
+            affichage.append("Numéro du plat: ").append(plat.numplat()).append(", Nom du plat: ").append(plat.libelle())
+                    .append(", Type: ").append(plat.type()).append(", Prix unitaire : ").append(plat.prixunit())
+                    .append(", Quantité servie: ").append(plat.qteservie()).append('\n');
+        }
+
+        Instantane instantane = new Instantane(version, System.nanoTime(), Collections.unmodifiableList(plats), affichage.toString());
+        courant = instantane;
+        // Invalidation arrivée pendant la lecture : l'instantané peut déjà être périmé, on ne le garde pas.
+        // De même s'il a été lu sur une réplique qui peut ne pas encore avoir reçu la dernière invalidation : il n'est servi qu'à cette consultation
+        if (versions.get() != version || (conn != null && conn.isReadOnly() && debutLecture - derniereInvalidation < retardLectureNs)) courant = null;
+        return instantane;
+    }
+
+    /**
+     * Invalide l'instantané courant : le prochain affichage de la carte le reconstruira
+     */
+    public void invalider() {
+        derniereInvalidation = System.nanoTime();
+        versions.incrementAndGet();
+        courant = null;
+    }
+}
@@ -0,0 +1,44 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dépôt des affectations des serveurs aux tables.
+ * Une table a au plus une affectation par jour ; son affectation courante est la plus récente.
+ */
+public interface DepotAffectations {
+    /**
+     * @param conn connexion à la base de données
+     * @return l'affectation courante (la plus récente) de chaque table affectée
+     * @throws SQLException si une erreur survient lors de la lecture
+     */
+    List<Affectation> courantes(Connection conn) throws SQLException;
+
+    /**
+     * Une page de l'historique des affectations, des plus récentes aux plus anciennes (ordre {@link Affectation#HISTORIQUE}).
+     * La page suivante commence après la dernière affectation de la page : elle est lue par l'index sans relire les pages précédentes.
+     * @param conn connexion à la base de données
+     * @param numserv numéro du serveur dont on veut l'historique, null pour tous les serveurs
+     * @param apres dernière affectation de la page précédente, null pour la première page
+     * @param taille nombre maximal d'affectations de la page
+     * @return les affectations de la page (moins de taille s'il n'y en a plus)
+     * @throws SQLException si une erreur survient lors de la lecture
+     */
+    List<Affectation> historique(Connection conn, Integer numserv, Affectation apres, int taille) throws SQLException;
+
+    /**
+     * Enregistre une affectation (remplace celle de la table à la même date s'il y en a déjà une) et valide la transaction
+     * @param conn connexion à la base de données
+     * @param affectation l'affectation
+     * @throws SQLException si la table ou le serveur n'existe pas, ou si l'enregistrement échoue (la transaction reste à annuler par l'appelant)
+     */
+    void affecter(Connection conn, Affectation affectation) throws SQLException;
+
+    /**
+     * @param conn connexion à la base de données
+     * @return le nom du serveur affecté à chaque table (la plus récente affectation s'il y en a plusieurs)
+     * @throws SQLException si une erreur survient lors de la lecture
+     */
+    Map<Integer, String> nomsServeursParTable(Connection conn) throws SQLException;
+}
@@ -0,0 +1,101 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dépôt des affectations dans la base de données (table AFFECTER, clé primaire (numtab, dataff)).
+ * L'historique est lu par pages avec une pagination par clé (dataff, numtab), servie par les index affecter_date et affecter_serveur.
+ */
+public class DepotAffectationsJdbc implements DepotAffectations {
+    private static final String COLONNES = "SELECT numtab, dataff, numserv FROM affecter ";
+    private static final String APRES = "(dataff < ? OR (dataff = ? AND numtab < ?)) ";
+    private static final String ORDRE = "ORDER BY dataff DESC, numtab DESC FETCH FIRST ? ROWS ONLY";
+    /**
+     * Affectation la plus récente de chaque table : seule la dernière ligne de chaque table sort de la base, quelle que soit la taille de l'historique
+     */
+    private static final String DERNIERES = "(SELECT numtab, dataff, numserv FROM "
+            + "(SELECT numtab, dataff, numserv, ROW_NUMBER() OVER (PARTITION BY numtab ORDER BY dataff DESC) AS rang FROM affecter) WHERE rang = 1)";
+    /**
+     * Codes d'erreur d'une clé unique violée : ORA-00001, et son équivalent H2 (base embarquée des mesures)
+     */
+    private static final int[] CODES_CLE_UNIQUE = {1, 23505};
+
+    @Override
+    public List<Affectation> courantes(Connection conn) throws SQLException {
+        List<Affectation> courantes = new ArrayList<>();
+        try (ResultSet rs = CacheRequetes.de(conn).preparer("SELECT numtab, dataff, numserv FROM " + DERNIERES + " ORDER BY numtab").executeQuery()) {
+            while (rs.next()) courantes.add(lire(rs));
+        }
+        return courantes;
+    }
+
+    @Override
+    public List<Affectation> historique(Connection conn, Integer numserv, Affectation apres, int taille) throws SQLException {
+        String sql = COLONNES;
+        if (numserv != null) sql += apres != null ? "WHERE numserv = ? AND " + APRES : "WHERE numserv = ? ";
+        else if (apres != null) sql += "WHERE " + APRES;
+        PreparedStatement pstmt = CacheRequetes.de(conn).preparer(sql + ORDRE);
+        int i = 1;
+        if (numserv != null) pstmt.setInt(i++, numserv);
+        if (apres != null) {
+            pstmt.setDate(i++, apres.dataff());
+            pstmt.setDate(i++, apres.dataff());
+            pstmt.setInt(i++, apres.numtab());
+        }
+        pstmt.setInt(i, taille);
+
+        List<Affectation> page = new ArrayList<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) page.add(lire(rs));
+        }
+        return page;
+    }
+
+    @Override
+    public void affecter(Connection conn, Affectation affectation) throws SQLException {
+        conn.setAutoCommit(false);
+        // L'affectation du jour de la table est créée ou remplacée ; les affectations des jours précédents restent dans l'historique
+        PreparedStatement pstmt = CacheRequetes.de(conn).preparer(
+                "MERGE INTO affecter a USING (SELECT CAST(? AS NUMBER(4)) AS numtab, CAST(? AS DATE) AS dataff, CAST(? AS NUMBER(2)) AS numserv FROM dual) n "
+                        + "ON (a.numtab = n.numtab AND a.dataff = n.dataff) "
+                        + "WHEN MATCHED THEN UPDATE SET a.numserv = n.numserv "
+                        + "WHEN NOT MATCHED THEN INSERT (numtab, dataff, numserv) VALUES (n.numtab, n.dataff, n.numserv)");
+        pstmt.setInt(1, affectation.numtab());
+        pstmt.setDate(2, affectation.dataff());
+        pstmt.setInt(3, affectation.numserv());
+        try {
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            // Deux MERGE simultanés pour une nouvelle (numtab, dataff) passent tous deux par WHEN NOT MATCHED : le second viole la clé primaire.
+            // Seule l'instruction est annulée ; la ligne existe maintenant, le MERGE recommencé passe par WHEN MATCHED.
+            if (!cleUniqueViolee(e)) throw e;
+            pstmt.executeUpdate();
+        }
+        conn.commit();
+    }
+
+    @Override
+    public Map<Integer, String> nomsServeursParTable(Connection conn) throws SQLException {
+        Map<Integer, String> noms = new HashMap<>();
+        try (ResultSet rs = CacheRequetes.de(conn).preparer(
+                "SELECT a.numtab, s.nomserv FROM " + DERNIERES + " a JOIN serveur s ON a.numserv = s.numserv").executeQuery()) {
+            while (rs.next()) noms.put(rs.getInt("numtab"), rs.getString("nomserv"));
+        }
+        return Collections.unmodifiableMap(noms);
+    }
+
+    private static boolean cleUniqueViolee(SQLException e) {
+        for (int c : CODES_CLE_UNIQUE) if (c == e.getErrorCode()) return true;
+        return false;
+    }
+
+    private static Affectation lire(ResultSet rs) throws SQLException {
+        return new Affectation(rs.getInt("numtab"), rs.getDate("dataff"), rs.getInt("numserv"));
+    }
+}
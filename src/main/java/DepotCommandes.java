@@ -0,0 +1,67 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Dépôt des commandes : lignes de commande, stocks des plats et montant cumulé des réservations, modifiés ensemble
+ */
+public interface DepotCommandes {
+    /**
+     * État d'une commande
+     */
+    enum Etat {
+        ENREGISTREE, PLAT_INCONNU, STOCK_INSUFFISANT, RESERVATION_INCONNUE, RESERVATION_CLOTUREE
+    }
+
+    /**
+     * Résultat d'une commande
+     * @param etat état de la commande
+     * @param numplat plat inconnu ou en quantité insuffisante (0 sinon)
+     * @param montant montant de la commande
+     * @param rupture true si un des plats est en rupture de stock après la commande
+     */
+    record Resultat(Etat etat, int numplat, double montant, boolean rupture) {
+    }
+
+    /**
+     * Commande plusieurs plats pour une réservation en une seule transaction (tout ou rien) : vérifie et retire le stock de chaque plat,
+     * ajoute le montant au cumul de la réservation et enregistre les lignes de commande
+     * @param conn connexion à la base de données
+     * @param numres numéro de la réservation
+     * @param quantites quantité par plat, triée par numéro de plat
+     * @param attente attente maximale des verrous (plats puis réservation)
+     * @return le résultat de la commande (rien n'a été enregistré si elle n'est pas ENREGISTREE)
+     * @throws SQLException si l'enregistrement échoue ou si un verrou n'a pas été obtenu à temps (la transaction reste à annuler par l'appelant)
+     */
+    Resultat commander(Connection conn, int numres, SortedMap<Integer, Integer> quantites, AttenteVerrou attente) throws SQLException;
+
+    /**
+     * Enregistre une commande dont le stock a déjà été retiré dans le registre des stocks (montant cumulé, lignes de commande et mouvements de stock)
+     * @param conn connexion à la base de données
+     * @param numres numéro de la réservation
+     * @param quantites quantité par plat
+     * @param montant montant de la commande
+     * @param attente attente maximale du verrou de la réservation
+     * @return ENREGISTREE, RESERVATION_INCONNUE ou RESERVATION_CLOTUREE (rien n'a été enregistré dans ces deux cas)
+     * @throws SQLException si l'enregistrement échoue ou si le verrou n'a pas été obtenu à temps (la transaction reste à annuler par l'appelant)
+     */
+    Etat enregistrer(Connection conn, int numres, Map<Integer, Integer> quantites, double montant, AttenteVerrou attente) throws SQLException;
+
+    /**
+     * Réservation dont le montant cumulé diffère de la somme des commandes
+     * @param numres numéro de la réservation
+     * @param montantCumule montant cumulé
+     * @param somme somme recalculée des commandes
+     */
+    record Ecart(int numres, double montantCumule, double somme) {
+    }
+
+    /**
+     * @param conn connexion à la base de données
+     * @return les réservations dont le montant cumulé diffère de la somme recalculée des commandes, par numéro croissant
+     * @throws SQLException si une erreur survient lors de la lecture
+     */
+    List<Ecart> montantsIncoherents(Connection conn) throws SQLException;
+}
@@ -0,0 +1,162 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Dépôt des commandes dans la base de données (tables COMMANDE, PLAT, RESERVATION et MOUVEMENT_STOCK)
+ */
+public class DepotCommandesJdbc implements DepotCommandes {
+    /**
+     * Verrouillage des plats un par un par numéro croissant, puis verrouillage de la réservation et ajout du montant à son cumul,
+     * MERGE des lignes de commande en lot, mise à jour des stocks en lot, et un seul commit.
+     * Les verrous sont pris dans l'ordre global (plats, réservation, commandes) décrit dans {@link ExecuteurTransactions}.
+     */
+    @Override
+    public Resultat commander(Connection conn, int numres, SortedMap<Integer, Integer> quantites, AttenteVerrou attente) throws SQLException {
+        conn.setAutoCommit(false);
+        CacheRequetes cache = CacheRequetes.de(conn);
+
+        // Verrou sur la ligne de chaque plat commandé, par numéro de plat croissant (quantites est trié) : deux commandes qui partagent des plats
+        // les attendent dans le même ordre, sans interblocage. Une seule requête pour tous les plats (IN ... FOR UPDATE) ne garantirait pas cet ordre,
+        // et son texte changerait avec le nombre de plats (une entrée du cache des requêtes par taille de commande) : on paie un aller-retour par plat.
+        // Si quelqu'un d'autre a déjà verrouillé une de ces lignes, on attend que son verrou soit relâché, au plus le temps prévu pour l'opération (WAIT n) :
+        // au-delà, l'exécuteur des transactions annule et recommence.
+        PreparedStatement pstmtLock = cache.preparer("SELECT qteservie, prixunit FROM plat WHERE numplat = ? " + attente.forUpdate());
+        Map<Integer, Integer> stocks = new HashMap<>();
+        Map<Integer, Double> prix = new HashMap<>();
+        for (Map.Entry<Integer, Integer> e : quantites.entrySet()) {
+            pstmtLock.setInt(1, e.getKey());
+            try (ResultSet rs = pstmtLock.executeQuery()) {
+                // On vérifie que le plat existe et qu'il y a assez de quantité, avant de verrouiller le suivant
+                if (!rs.next()) {
+                    conn.rollback();
+                    return new Resultat(Etat.PLAT_INCONNU, e.getKey(), 0, false);
+                }
+                if (rs.getInt("qteservie") < e.getValue()) {
+                    conn.rollback();
+                    return new Resultat(Etat.STOCK_INSUFFISANT, e.getKey(), 0, false);
+                }
+                stocks.put(e.getKey(), rs.getInt("qteservie"));
+                prix.put(e.getKey(), rs.getDouble("prixunit"));
+            }
+        }
+
+        double montant = Serveur.montant(quantites, prix);
+        Etat etat = ajouterAuMontantCumule(conn, numres, montant, attente);
+        if (etat != Etat.ENREGISTREE) return new Resultat(etat, 0, 0, false);
+
+        enregistrerLignes(conn, numres, quantites);
+
+        // On met à jour la quantité servie dans la table plat
+        PreparedStatement pstmtUpdate = cache.preparer("UPDATE plat SET qteservie = qteservie - ? WHERE numplat = ?");
+        for (Map.Entry<Integer, Integer> e : quantites.entrySet()) {
+            pstmtUpdate.setInt(1, e.getValue());
+            pstmtUpdate.setInt(2, e.getKey());
+            pstmtUpdate.addBatch();
+        }
+        pstmtUpdate.executeBatch();
+
+        // On ne valide que si toutes les lignes ET toutes les mises à jour ont été faites avec succès (si on ne le faisait pas, on aurait des incohérences dans la BD)
+        conn.commit();
+
+        boolean rupture = false;
+        for (Map.Entry<Integer, Integer> e : quantites.entrySet()) {
+            if (stocks.get(e.getKey()) - e.getValue() == 0) rupture = true;
+        }
+        return new Resultat(Etat.ENREGISTREE, 0, montant, rupture);
+    }
+
+    @Override
+    public Etat enregistrer(Connection conn, int numres, Map<Integer, Integer> quantites, double montant, AttenteVerrou attente) throws SQLException {
+        conn.setAutoCommit(false);
+
+        Etat etat = ajouterAuMontantCumule(conn, numres, montant, attente);
+        if (etat != Etat.ENREGISTREE) return etat;
+        enregistrerLignes(conn, numres, quantites);
+        RegistreStocks.enregistrerMouvements(conn, quantites);
+
+        conn.commit();
+        return Etat.ENREGISTREE;
+    }
+
+    @Override
+    public List<Ecart> montantsIncoherents(Connection conn) throws SQLException {
+        List<Ecart> ecarts = new ArrayList<>();
+        String sql = "SELECT r.numres, r.montcours, NVL(t.total, 0) AS total " +
+                "FROM reservation r LEFT JOIN (" +
+                "SELECT c.numres, SUM(p.prixunit * c.quantite) AS total FROM commande c JOIN plat p ON c.numplat = p.numplat GROUP BY c.numres" +
+                ") t ON t.numres = r.numres " +
+                "WHERE r.montcours <> NVL(t.total, 0) ORDER BY r.numres";
+        try (ResultSet rs = CacheRequetes.de(conn).preparer(sql).executeQuery()) {
+            while (rs.next()) ecarts.add(new Ecart(rs.getInt("numres"), rs.getDouble("montcours"), rs.getDouble("total")));
+        }
+        return ecarts;
+    }
+
+    /**
+     * Enregistre les lignes d'une commande dans la table commande (en un seul lot)
+     * @param conn connexion à la base de données, dans la transaction de la commande
+     * @param numres numéro de la réservation
+     * @param quantites quantité par plat
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    static void enregistrerLignes(Connection conn, int numres, Map<Integer, Integer> quantites) throws SQLException {
+        /*
+            Si une commande existe déjà avec ce plat-là, on additionne la quantité à la quantité déjà commandée, sinon on ajoute une nouvelle ligne (MERGE)
+            Exemple :
+                Client 1 : Je veux 1 assiette de crudités (le serveur valide 1 assiette de crudité).
+                Plus tard pendant la réservation, il reveut une autre assiette de crudités (pas de nouvelle commande, on ajoute juste 1 à la quantité commandée du plat)
+         */
+        PreparedStatement pstmtMerge = CacheRequetes.de(conn).preparer(
+                "MERGE INTO commande c USING (SELECT CAST(? AS NUMBER) AS numres, CAST(? AS NUMBER) AS numplat, CAST(? AS NUMBER) AS quantite FROM dual) n " +
+                        "ON (c.numres = n.numres AND c.numplat = n.numplat) " +
+                        "WHEN MATCHED THEN UPDATE SET c.quantite = c.quantite + n.quantite " +
+                        "WHEN NOT MATCHED THEN INSERT (numres, numplat, quantite) VALUES (n.numres, n.numplat, n.quantite)");
+        for (Map.Entry<Integer, Integer> e : quantites.entrySet()) {
+            pstmtMerge.setInt(1, numres);
+            pstmtMerge.setInt(2, e.getKey());
+            pstmtMerge.setInt(3, e.getValue());
+            pstmtMerge.addBatch();
+        }
+        pstmtMerge.executeBatch();
+    }
+
+    /**
+     * Ajoute le montant d'une commande au cumul de la réservation (colonne montcours), pour que l'encaissement n'ait plus à refaire la somme
+     * en verrouillant toute la table commande. Seule la ligne de la réservation est verrouillée, explicitement et avec une attente bornée :
+     * un UPDATE seul attendrait sans limite un encaissement ou une facturation en cours. Ce verrou protège aussi les lignes de commande de la réservation.
+     * Si le montant de la commande est déjà calculé (ce qui indique que la réservation a été déjà encaissée), on ne peut pas commander de nouveaux plats : dans ce cas, ou si
+     * la réservation n'existe pas, la transaction est annulée.
+     * @param conn connexion à la base de données
+     * @param numres numéro de la réservation
+     * @param montant montant de la commande
+     * @param attente attente maximale du verrou de la réservation
+     * @return ENREGISTREE si le montant a été ajouté, sinon RESERVATION_INCONNUE ou RESERVATION_CLOTUREE (la transaction a été annulée)
+     * @throws SQLException si une erreur survient lors de la requête SQL ou si le verrou n'a pas été obtenu à temps
+     */
+    private static Etat ajouterAuMontantCumule(Connection conn, int numres, double montant, AttenteVerrou attente) throws SQLException {
+        CacheRequetes cache = CacheRequetes.de(conn);
+        PreparedStatement pstmtLock = cache.preparer("SELECT montcom FROM reservation WHERE numres = ? " + attente.forUpdate());
+        pstmtLock.setInt(1, numres);
+        Etat refus;
+        try (ResultSet rs = pstmtLock.executeQuery()) {
+            refus = !rs.next() ? Etat.RESERVATION_INCONNUE : rs.getDouble("montcom") != 0 ? Etat.RESERVATION_CLOTUREE : null;
+        }
+        if (refus != null) {
+            conn.rollback();
+            return refus;
+        }
+
+        PreparedStatement pstmtCumul = cache.preparer("UPDATE reservation SET montcours = montcours + ? WHERE numres = ?");
+        pstmtCumul.setDouble(1, montant);
+        pstmtCumul.setInt(2, numres);
+        pstmtCumul.executeUpdate();
+        return Etat.ENREGISTREE;
+    }
+}
@@ -0,0 +1,26 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Dépôt des plats (carte et stocks)
+ */
+public interface DepotPlats {
+    /**
+     * @param conn connexion à la base de données
+     * @return tous les plats, y compris ceux en rupture de stock, par numéro croissant
+     * @throws SQLException si une erreur survient lors de la lecture
+     */
+    List<CarteMenu.PlatCarte> lister(Connection conn) throws SQLException;
+
+    /**
+     * Ajoute des quantités à servir à un plat
+     * @param conn connexion à la base de données
+     * @param numplat numéro du plat
+     * @param quantite quantité ajoutée
+     * @param attente attente maximale du verrou du plat
+     * @return true si le stock a été mis à jour, false si le plat n'existe pas
+     * @throws SQLException si la mise à jour échoue ou si le verrou n'a pas été obtenu à temps (rien n'a été enregistré)
+     */
+    boolean reapprovisionner(Connection conn, int numplat, int quantite, AttenteVerrou attente) throws SQLException;
+}
@@ -0,0 +1,47 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dépôt des plats dans la base de données (table PLAT)
+ */
+public class DepotPlatsJdbc implements DepotPlats {
+    @Override
+    public List<CarteMenu.PlatCarte> lister(Connection conn) throws SQLException {
+        List<CarteMenu.PlatCarte> plats = new ArrayList<>();
+        try (ResultSet rs = CacheRequetes.de(conn).preparer("SELECT numplat, libelle, type, prixunit, qteservie FROM plat ORDER BY numplat").executeQuery()) {
+            while (rs.next()) {
+                plats.add(new CarteMenu.PlatCarte(rs.getInt("numplat"), rs.getString("libelle"), rs.getString("type"), rs.getDouble("prixunit"), rs.getInt("qteservie")));
+            }
+        }
+        return plats;
+    }
+
+    @Override
+    public boolean reapprovisionner(Connection conn, int numplat, int quantite, AttenteVerrou attente) throws SQLException {
+        conn.setAutoCommit(false);
+        CacheRequetes cache = CacheRequetes.de(conn);
+
+        // Verrou explicite sur la ligne du plat : l'UPDATE seul attendrait sans limite une commande en cours sur ce plat
+        PreparedStatement pstmtLock = cache.preparer("SELECT numplat FROM plat WHERE numplat = ? " + attente.forUpdate());
+        pstmtLock.setInt(1, numplat);
+        boolean existe;
+        try (ResultSet rs = pstmtLock.executeQuery()) {
+            existe = rs.next();
+        }
+        if (!existe) {
+            conn.rollback();
+            return false;
+        }
+
+        PreparedStatement pstmt = cache.preparer("UPDATE plat SET qteservie = qteservie + ? WHERE numplat = ?");
+        pstmt.setInt(1, quantite);
+        pstmt.setInt(2, numplat);
+        pstmt.executeUpdate();
+        conn.commit();
+        return true;
+    }
+}
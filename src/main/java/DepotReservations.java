@@ -0,0 +1,111 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dépôt des réservations : création (sans double réservation d'une table), encaissement et facturation de fin de service
+ */
+public interface DepotReservations {
+    /**
+     * Issue d'une tentative de réservation
+     */
+    enum Issue {
+        /**
+         * Toutes les tables ont été réservées
+         */
+        RESERVEE,
+        /**
+         * Une table n'existe pas, est trop petite ou a déjà une réservation dans les 2 heures (rien n'a été réservé)
+         */
+        INDISPONIBLE,
+        /**
+         * Une autre réservation d'une des tables a été validée pendant la tentative (rien n'a été réservé, on peut recommencer)
+         */
+        CONFLIT
+    }
+
+    /**
+     * Réserve une ou plusieurs tables (réunies pour un même groupe) pour une date, dans une seule transaction.
+     * Garantie : une table n'est jamais réservée deux fois à moins de 2 heures d'intervalle.
+     * @param conn connexion à la base de données
+     * @param date date de réservation
+     * @param repartition nombre de personnes de chaque table
+     * @return l'issue de la tentative
+     * @throws SQLException si l'enregistrement échoue (la transaction reste à annuler par l'appelant)
+     */
+    Issue reserver(Connection conn, Timestamp date, Map<Integer, Integer> repartition) throws SQLException;
+
+    /**
+     * @param conn connexion à la base de données
+     * @param debut date de début (incluse), null avec fin pour toutes les réservations
+     * @param fin date de fin (exclue), null avec debut pour toutes les réservations
+     * @return les dates des réservations (en millisecondes) de chaque table, dans un ordre quelconque
+     * @throws SQLException si une erreur survient lors de la lecture
+     */
+    Map<Integer, long[]> datesParTable(Connection conn, Timestamp debut, Timestamp fin) throws SQLException;
+
+    /**
+     * État d'un encaissement
+     */
+    enum EtatEncaissement {
+        ENCAISSEE, INTROUVABLE, DEJA_ENCAISSEE
+    }
+
+    /**
+     * Résultat d'un encaissement
+     * @param etat état de l'encaissement
+     * @param montant montant encaissé
+     * @param montantCumule montant cumulé des commandes (différent du montant encaissé si la vérification a trouvé un écart)
+     */
+    record Encaissement(EtatEncaissement etat, double montant, double montantCumule) {
+    }
+
+    /**
+     * Enregistre le montant total d'une réservation (encaissement) : aucune commande ne peut plus y être ajoutée ensuite
+     * @param conn connexion à la base de données
+     * @param numres numéro de la réservation
+     * @param verification true pour recalculer la somme des commandes et l'encaisser si elle diffère du montant cumulé
+     * @param attente attente maximale du verrou de la réservation
+     * @return le résultat de l'encaissement
+     * @throws SQLException si l'enregistrement échoue ou si le verrou n'a pas été obtenu à temps (la transaction reste à annuler par l'appelant)
+     */
+    Encaissement encaisser(Connection conn, int numres, boolean verification, AttenteVerrou attente) throws SQLException;
+
+    /**
+     * @param conn connexion à la base de données
+     * @param numres numéro de la réservation
+     * @return true si la réservation existe et n'a pas encore été encaissée (des commandes peuvent y être ajoutées)
+     * @throws SQLException si une erreur survient lors de la lecture
+     */
+    boolean ouverte(Connection conn, int numres) throws SQLException;
+
+    /**
+     * @param conn connexion à la base de données
+     * @return les numéros des réservations pas encore encaissées qui ont des commandes, par ordre croissant
+     * @throws SQLException si une erreur survient lors de la lecture
+     */
+    List<Integer> ouvertesAvecCommandes(Connection conn) throws SQLException;
+
+    /**
+     * Résultat de la facturation d'une plage de réservations
+     * @param montants montant facturé par réservation
+     * @param ecarts réservations dont le montant cumulé différait de la somme des commandes
+     */
+    record Facturation(Map<Integer, Double> montants, List<Integer> ecarts) {
+    }
+
+    /**
+     * Encaisse dans une seule transaction toutes les réservations ouvertes qui ont des commandes, dans une plage de numéros
+     * @param conn connexion à la base de données
+     * @param min premier numéro de réservation de la plage
+     * @param max dernier numéro de réservation de la plage
+     * @param verification true pour recalculer les sommes des commandes et encaisser celles-ci en cas d'écart
+     * @param simulation true pour seulement calculer les montants, sans rien verrouiller ni enregistrer
+     * @param attente attente maximale du verrou de chaque réservation
+     * @return les montants facturés (sans les réservations encaissées entre-temps par quelqu'un d'autre)
+     * @throws SQLException si l'enregistrement échoue ou si un verrou n'a pas été obtenu à temps (la transaction reste à annuler par l'appelant)
+     */
+    Facturation facturer(Connection conn, int min, int max, boolean verification, boolean simulation, AttenteVerrou attente) throws SQLException;
+}
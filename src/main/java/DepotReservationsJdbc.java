@@ -0,0 +1,263 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Dépôt des réservations dans la base de données (table RESERVATION, et TABL pour le numéro de version de chaque table)
+ */
+public class DepotReservationsJdbc implements DepotReservations {
+    /**
+     * Chaque table a un numéro de version (tabl.version). Une réservation lit la version de la table, vérifie qu'il n'y a pas déjà de réservation dans les 2 heures,
+     * puis incrémente la version seulement si elle n'a pas changé (UPDATE ... WHERE version = ?) avant d'insérer la réservation.
+     * Si une autre réservation de la même table a été validée entre la lecture et la mise à jour, la mise à jour ne touche aucune ligne : CONFLIT.
+     * Les tables sont traitées par numéro croissant : deux réunions de tables qui se chevauchent attendent dans le même ordre, sans interblocage.
+     */
+    @Override
+    public Issue reserver(Connection conn, Timestamp date, Map<Integer, Integer> repartition) throws SQLException {
+        conn.setAutoCommit(false);
+        CacheRequetes cache = CacheRequetes.de(conn);
+
+        for (Map.Entry<Integer, Integer> table : new TreeMap<>(repartition).entrySet()) {
+            int numtab = table.getKey();
+            int nbPers = table.getValue();
+
+            // La version est lue avant la vérification : une réservation validée après cette lecture (que la vérification pourrait ne pas voir) aura changé la version
+            PreparedStatement pstmtVersion = cache.preparer("SELECT nbplace, version FROM tabl WHERE numtab = ?");
+            pstmtVersion.setInt(1, numtab);
+            long version;
+            try (ResultSet rs = pstmtVersion.executeQuery()) {
+                if (!rs.next() || rs.getInt("nbplace") < nbPers) {
+                    conn.rollback();
+                    return Issue.INDISPONIBLE;
+                }
+                version = rs.getLong("version");
+            }
+
+            // Même règle que tablesLibres : pas d'autre réservation de la table dans les 2 heures avant ou après
+            PreparedStatement pstmtChevauchement = cache.preparer("SELECT COUNT(*) AS nb FROM reservation WHERE numtab = ? AND datres BETWEEN ? AND ?");
+            pstmtChevauchement.setInt(1, numtab);
+            pstmtChevauchement.setTimestamp(2, new Timestamp(date.getTime() - IndexDisponibilites.DUREE_REPAS_MS));
+            pstmtChevauchement.setTimestamp(3, new Timestamp(date.getTime() + IndexDisponibilites.DUREE_REPAS_MS));
+            try (ResultSet rs = pstmtChevauchement.executeQuery()) {
+                if (rs.next() && rs.getInt("nb") > 0) {
+                    conn.rollback();
+                    return Issue.INDISPONIBLE;
+                }
+            }
+
+            // Écriture qui détecte le conflit : si une autre réservation de la table est en cours, on attend son commit (verrou sur la ligne de la table),
+            // puis la condition sur la version n'est plus vraie et aucune ligne n'est mise à jour
+            PreparedStatement pstmtVersionMaj = cache.preparer("UPDATE tabl SET version = version + 1 WHERE numtab = ? AND version = ?");
+            pstmtVersionMaj.setInt(1, numtab);
+            pstmtVersionMaj.setLong(2, version);
+            if (pstmtVersionMaj.executeUpdate() == 0) {
+                conn.rollback();
+                return Issue.CONFLIT;
+            }
+
+            // Pas besoin de spécifier un numres (on utilise IDENTITY pour l'auto-incrémentation) pour faire l'équivalent de AUTO_INCREMENT avec une BD Oracle
+            PreparedStatement pstmtInsert = cache.preparer("INSERT INTO reservation (numtab, datres, nbpers) VALUES (?, ?, ?)");
+            pstmtInsert.setInt(1, numtab);
+            pstmtInsert.setTimestamp(2, date);
+            pstmtInsert.setInt(3, nbPers);
+            pstmtInsert.executeUpdate();
+        }
+
+        conn.commit(); // Commit explicite pour valider la réservation (les inserts donc) et relâcher les verrous sur les lignes des tables
+        return Issue.RESERVEE;
+    }
+
+    @Override
+    public Map<Integer, long[]> datesParTable(Connection conn, Timestamp debut, Timestamp fin) throws SQLException {
+        CacheRequetes cache = CacheRequetes.de(conn);
+        PreparedStatement pstmt;
+        if (debut == null) {
+            pstmt = cache.preparer("SELECT numtab, datres FROM reservation WHERE datres IS NOT NULL");
+        } else {
+            pstmt = cache.preparer("SELECT numtab, datres FROM reservation WHERE datres >= ? AND datres < ?");
+            pstmt.setTimestamp(1, debut);
+            pstmt.setTimestamp(2, fin);
+        }
+        Map<Integer, List<Long>> dates = new HashMap<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) dates.computeIfAbsent(rs.getInt("numtab"), k -> new ArrayList<>()).add(rs.getTimestamp("datres").getTime());
+        }
+
+        Map<Integer, long[]> datesParTable = new HashMap<>();
+        for (Map.Entry<Integer, List<Long>> e : dates.entrySet()) {
+            datesParTable.put(e.getKey(), e.getValue().stream().mapToLong(Long::longValue).toArray());
+        }
+        return datesParTable;
+    }
+
+    @Override
+    public Encaissement encaisser(Connection conn, int numres, boolean verification, AttenteVerrou attente) throws SQLException {
+        conn.setAutoCommit(false);
+        CacheRequetes cache = CacheRequetes.de(conn);
+
+        /*
+         Verrouillage de la ligne de la réservation (pour éviter qu'à l'avenir, si quelqu'un met à jour le moyen de paiement,
+            cela écrase notre mise à jour du montant total de la commande.
+            Ce verrou attend aussi la fin d'une commande en cours pour cette réservation (une commande met à jour montcours dans la même transaction),
+            et empêche toute nouvelle commande de s'ajouter pendant l'encaissement.
+         */
+        PreparedStatement pstmtLock = cache.preparer("SELECT montcom, montcours FROM reservation WHERE numres = ? " + attente.forUpdate());
+        pstmtLock.setInt(1, numres);
+        boolean reservationTrouvee;
+        double montcom = 0;
+        double montcours = 0;
+        try (ResultSet rs = pstmtLock.executeQuery()) {
+            reservationTrouvee = rs.next();
+            if (reservationTrouvee) {
+                montcom = rs.getDouble("montcom");
+                montcours = rs.getDouble("montcours");
+            }
+        }
+
+        if(!reservationTrouvee) {
+            conn.rollback();
+            return new Encaissement(EtatEncaissement.INTROUVABLE, 0, 0);
+        }
+
+        /*
+            IMPORTANT !!!!
+            Si quelqu'un a déjà calculé le montant total de la commande, alors on ne va pas le recalculer.
+            Sécurité : On ne veut pas que quelqu'un puisse trafiquer le montant total de la commande.
+         */
+        if(montcom != 0) {
+            conn.rollback();
+            return new Encaissement(EtatEncaissement.DEJA_ENCAISSEE, montcom, montcours);
+        }
+
+        double total = montcours;
+        if (verification) {
+            // Mode vérification : on recalcule la somme (lecture cohérente, sans verrou) pour la comparer au montant cumulé
+            double recalcule = sommeCommandes(conn, numres);
+            if (Math.abs(recalcule - montcours) > 0.005) total = recalcule;
+        }
+
+        /*
+            On met à jour le montant total de la réservation et sa date de paiement (l'export de l'historique exporte ses commandes à cette date)
+         */
+        PreparedStatement pstmtUpdate = cache.preparer(
+                "UPDATE reservation SET montcom = ?, datpaie = SYSDATE WHERE numres = ?");
+        pstmtUpdate.setDouble(1, total);
+        pstmtUpdate.setInt(2, numres);
+        pstmtUpdate.executeUpdate();
+
+        // On valide l'opération
+        conn.commit();
+        return new Encaissement(EtatEncaissement.ENCAISSEE, total, montcours);
+    }
+
+    /**
+     * @param conn La connexion à la base de données
+     * @param numres Le numéro de la réservation
+     * @return La somme des commandes de la réservation, recalculée à partir des tables commande et plat
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    private static double sommeCommandes(Connection conn, int numres) throws SQLException {
+        PreparedStatement pstmtTotal = CacheRequetes.de(conn).preparer(
+                "SELECT SUM(p.prixunit * c.quantite) AS total " +
+                        "FROM commande c JOIN plat p ON c.numplat = p.numplat " +
+                        "WHERE c.numres = ?");
+        pstmtTotal.setInt(1, numres);
+        try (ResultSet rsTotal = pstmtTotal.executeQuery()) {
+            return rsTotal.next() ? rsTotal.getDouble("total") : 0;
+        }
+    }
+
+    @Override
+    public boolean ouverte(Connection conn, int numres) throws SQLException {
+        PreparedStatement pstmt = CacheRequetes.de(conn).preparer("SELECT 1 FROM reservation WHERE numres = ? AND (montcom IS NULL OR montcom = 0)");
+        pstmt.setInt(1, numres);
+        boolean ouverte;
+        try (ResultSet rs = pstmt.executeQuery()) {
+            ouverte = rs.next();
+        }
+        // Lecture seule : on termine la transaction ouverte par la requête
+        if (!conn.getAutoCommit()) conn.commit();
+        return ouverte;
+    }
+
+    @Override
+    public List<Integer> ouvertesAvecCommandes(Connection conn) throws SQLException {
+        List<Integer> numeros = new ArrayList<>();
+        try (ResultSet rs = CacheRequetes.de(conn).preparer(
+                "SELECT numres FROM reservation r WHERE (montcom IS NULL OR montcom = 0) " +
+                        "AND EXISTS (SELECT 1 FROM commande c WHERE c.numres = r.numres) ORDER BY numres").executeQuery()) {
+            while (rs.next()) numeros.add(rs.getInt("numres"));
+        }
+        // Lecture seule : on termine la transaction ouverte par la requête
+        if (!conn.getAutoCommit()) conn.commit();
+        return numeros;
+    }
+
+    @Override
+    public Facturation facturer(Connection conn, int min, int max, boolean verification, boolean simulation, AttenteVerrou attente) throws SQLException {
+        conn.setAutoCommit(false);
+        CacheRequetes cache = CacheRequetes.de(conn);
+
+        // Verrou sur les réservations de la plage, comme l'encaissement d'une seule réservation :
+        // une commande en cours pour l'une d'elles se termine avant, et les commandes suivantes seront refusées
+        PreparedStatement pstmtLock = cache.preparer(
+                "SELECT numres, montcours FROM reservation r WHERE numres BETWEEN ? AND ? AND (montcom IS NULL OR montcom = 0) " +
+                        "AND EXISTS (SELECT 1 FROM commande c WHERE c.numres = r.numres) ORDER BY numres" + (simulation ? "" : " " + attente.forUpdate()));
+        pstmtLock.setInt(1, min);
+        pstmtLock.setInt(2, max);
+        Map<Integer, Double> montants = new TreeMap<>();
+        try (ResultSet rs = pstmtLock.executeQuery()) {
+            while (rs.next()) montants.put(rs.getInt("numres"), rs.getDouble("montcours"));
+        }
+
+        List<Integer> ecarts = new ArrayList<>();
+        if (verification) {
+            // Une seule requête groupée pour toute la plage au lieu d'une somme par réservation
+            PreparedStatement pstmtSommes = cache.preparer(
+                    "SELECT c.numres, SUM(p.prixunit * c.quantite) AS total FROM commande c JOIN plat p ON c.numplat = p.numplat " +
+                            "WHERE c.numres BETWEEN ? AND ? GROUP BY c.numres");
+            pstmtSommes.setInt(1, min);
+            pstmtSommes.setInt(2, max);
+            try (ResultSet rs = pstmtSommes.executeQuery()) {
+                while (rs.next()) {
+                    Double montcours = montants.get(rs.getInt("numres"));
+                    if (montcours != null && Math.abs(rs.getDouble("total") - montcours) > 0.005) {
+                        ecarts.add(rs.getInt("numres"));
+                        montants.put(rs.getInt("numres"), rs.getDouble("total"));
+                    }
+                }
+            }
+        }
+
+        if (simulation || montants.isEmpty()) {
+            conn.rollback();
+            return new Facturation(montants, ecarts);
+        }
+
+        PreparedStatement pstmtUpdate = cache.preparer("UPDATE reservation SET montcom = ?, datpaie = SYSDATE WHERE numres = ? AND (montcom IS NULL OR montcom = 0)");
+        for (Map.Entry<Integer, Double> e : montants.entrySet()) {
+            pstmtUpdate.setDouble(1, e.getValue());
+            pstmtUpdate.setInt(2, e.getKey());
+            pstmtUpdate.addBatch();
+        }
+        int[] lignes = pstmtUpdate.executeBatch();
+        conn.commit();
+
+        // Une réservation encaissée entre-temps (par un autre gestionnaire) n'a pas été mise à jour : on ne la compte pas
+        Map<Integer, Double> factures = new TreeMap<>();
+        int i = 0;
+        for (Map.Entry<Integer, Double> e : montants.entrySet()) {
+            if (lignes[i] > 0 || lignes[i] == Statement.SUCCESS_NO_INFO) factures.put(e.getKey(), e.getValue());
+            i++;
+        }
+        return new Facturation(factures, ecarts);
+    }
+}
@@ -0,0 +1,41 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Dépôt des serveurs (comptes de connexion)
+ */
+public interface DepotServeurs {
+    /**
+     * Compte d'un serveur
+     * @param numserv numéro du serveur
+     * @param nom nom du serveur
+     * @param grade grade du serveur (serveur ou gestionnaire)
+     */
+    record Compte(String numserv, String nom, String grade) {
+    }
+
+    /**
+     * Identifiants d'un serveur
+     * @param compte le compte du serveur
+     * @param passwd l'empreinte du mot de passe (voir {@link Authentification#empreinte}), ou le mot de passe en clair d'un compte pas encore converti
+     */
+    record Identifiants(Compte compte, String passwd) {
+    }
+
+    /**
+     * @param conn connexion à la base de données
+     * @param email login du serveur
+     * @return les identifiants du serveur, null si aucun serveur n'a ce login
+     * @throws SQLException si une erreur survient lors de la lecture
+     */
+    Identifiants trouver(Connection conn, String email) throws SQLException;
+
+    /**
+     * Remplace le mot de passe enregistré d'un serveur (et valide la transaction)
+     * @param conn connexion à la base de données
+     * @param numserv numéro du serveur
+     * @param passwd la nouvelle empreinte du mot de passe
+     * @throws SQLException si une erreur survient lors de la mise à jour
+     */
+    void changerMotDePasse(Connection conn, String numserv, String passwd) throws SQLException;
+}
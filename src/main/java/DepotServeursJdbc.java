@@ -0,0 +1,30 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Dépôt des serveurs dans la base de données (table SERVEUR)
+ */
+public class DepotServeursJdbc implements DepotServeurs {
+    @Override
+    public Identifiants trouver(Connection conn, String email) throws SQLException {
+        // Le mot de passe est vérifié par l'application : la base ne garde que son empreinte
+        PreparedStatement pstmt = CacheRequetes.de(conn).preparer("SELECT numserv, nomserv, grade, passwd FROM serveur WHERE email = ?");
+        pstmt.setString(1, email);
+
+        try (ResultSet rs = pstmt.executeQuery()) {
+            if (!rs.next()) return null;
+            return new Identifiants(new Compte(rs.getString("numserv"), rs.getString("nomserv"), rs.getString("grade")), rs.getString("passwd"));
+        }
+    }
+
+    @Override
+    public void changerMotDePasse(Connection conn, String numserv, String passwd) throws SQLException {
+        PreparedStatement pstmt = CacheRequetes.de(conn).preparer("UPDATE serveur SET passwd = ? WHERE numserv = ?");
+        pstmt.setString(1, passwd);
+        pstmt.setInt(2, Integer.parseInt(numserv));
+        pstmt.executeUpdate();
+        conn.commit();
+    }
+}
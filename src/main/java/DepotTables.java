@@ -0,0 +1,26 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dépôt des tables du restaurant
+ */
+public interface DepotTables {
+    /**
+     * @param conn connexion à la base de données
+     * @return le nombre de places de chaque table, par numéro de table croissant
+     * @throws SQLException si une erreur survient lors de la lecture
+     */
+    Map<Integer, Integer> placesParTable(Connection conn) throws SQLException;
+
+    /**
+     * @param conn connexion à la base de données
+     * @param date date de réservation
+     * @param nbPers nombre de personnes
+     * @return les numéros des tables assez grandes et sans réservation dans les 2 heures avant ou après la date
+     * @throws SQLException si une erreur survient lors de la lecture
+     */
+    List<Integer> tablesLibres(Connection conn, Timestamp date, int nbPers) throws SQLException;
+}
@@ -0,0 +1,46 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Dépôt des tables dans la base de données (table TABL)
+ */
+public class DepotTablesJdbc implements DepotTables {
+    @Override
+    public Map<Integer, Integer> placesParTable(Connection conn) throws SQLException {
+        Map<Integer, Integer> places = new TreeMap<>();
+        try (ResultSet rs = CacheRequetes.de(conn).preparer("SELECT numtab, nbplace FROM tabl").executeQuery()) {
+            while (rs.next()) places.put(rs.getInt("numtab"), rs.getInt("nbplace"));
+        }
+        return places;
+    }
+
+    @Override
+    public List<Integer> tablesLibres(Connection conn, Timestamp date, int nbPers) throws SQLException {
+        // Calculer les timestamps pour 2 heures avant et après
+        Timestamp twoHoursBefore = new Timestamp(date.getTime() - IndexDisponibilites.DUREE_REPAS_MS);
+        Timestamp twoHoursAfter = new Timestamp(date.getTime() + IndexDisponibilites.DUREE_REPAS_MS);
+
+        String sql = "SELECT numtab FROM tabl WHERE nbplace >= ? AND numtab NOT IN (SELECT numtab FROM reservation WHERE datres BETWEEN ? AND ?)";
+        PreparedStatement pstmt = CacheRequetes.de(conn).preparer(sql);
+
+        pstmt.setInt(1, nbPers);
+        pstmt.setTimestamp(2, twoHoursBefore);
+        pstmt.setTimestamp(3, twoHoursAfter);
+
+        // On stocke les numéros des tables disponibles dans une liste
+        List<Integer> numsTablesDispos = new ArrayList<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                numsTablesDispos.add(rs.getInt("numtab"));
+            }
+        }
+        return numsTablesDispos;
+    }
+}
@@ -0,0 +1,110 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exécution des transactions qui verrouillent des lignes (commandes, encaissements, facturation, réapprovisionnements, report des stocks).
+ * Chaque opération a une attente maximale de verrou (clé verrous.operation de db.conf) : une transaction bloquée derrière un gestionnaire lent
+ * abandonne au bout de cette attente au lieu d'attendre indéfiniment. Une transaction abandonnée sur une attente expirée ou un interblocage
+ * est annulée puis recommencée après une attente aléatoire, au plus verrous.tentatives fois : la latence d'une opération reste bornée
+ * (environ tentatives × (attente maximale + ATTENTE_MAX_MS)).
+ * <p>
+ * Ordre global de verrouillage : plat, puis reservation, puis commande. Les lignes de commande d'une réservation ne sont modifiées que sous
+ * le verrou de la réservation. Les plats d'une commande sont verrouillés un par un, par numéro croissant : deux commandes qui partagent des plats
+ * les attendent dans le même ordre.
+ */
+public class ExecuteurTransactions {
+    /**
+     * Transaction à exécuter : elle prend ses verrous avec l'attente maximale reçue, et se valide (ou s'annule) avant de rendre la main
+     * @param <T> le résultat de la transaction
+     */
+    @FunctionalInterface
+    public interface Transaction<T> {
+        T executer(AttenteVerrou attente) throws SQLException;
+    }
+
+    /**
+     * Nombre d'exécutions d'une transaction abandonnée sur un verrou (si la clé verrous.tentatives est absente)
+     */
+    public static final int TENTATIVES = 3;
+    /**
+     * Attente maximale de verrou des opérations (si la clé verrous.operation est absente)
+     */
+    private static final Map<String, AttenteVerrou> ATTENTES_PAR_DEFAUT = Map.of(
+            "commander", new AttenteVerrou(2),
+            "encaisser", new AttenteVerrou(2),
+            "reapprovisionner", new AttenteVerrou(2),
+            "facturer", new AttenteVerrou(5));
+    /**
+     * Attente maximale avant la deuxième tentative (en millisecondes), doublée à chaque tentative suivante
+     */
+    private static final long ATTENTE_BASE_MS = 5;
+    private static final long ATTENTE_MAX_MS = 200;
+
+    private final Properties config;
+    private final int tentatives;
+
+    /**
+     * Constructeur de l'exécuteur
+     * @param config la configuration de l'application : clés verrous.operation (nombre de secondes, nowait ou illimitee),
+     *               verrous.defaut pour les autres opérations (2 secondes par défaut) et verrous.tentatives (3 par défaut)
+     */
+    public ExecuteurTransactions(Properties config) {
+        this.config = config;
+        this.tentatives = Math.max(1, Integer.parseInt(config.getProperty("verrous.tentatives", String.valueOf(TENTATIVES))));
+    }
+
+    /**
+     * @param operation le nom de l'opération
+     * @return l'attente maximale de verrou de l'opération
+     */
+    public AttenteVerrou getAttente(String operation) {
+        String valeur = config.getProperty("verrous." + operation);
+        if (valeur != null) return AttenteVerrou.depuis(valeur);
+        AttenteVerrou attente = ATTENTES_PAR_DEFAUT.get(operation);
+        if (attente != null) return attente;
+        return AttenteVerrou.depuis(config.getProperty("verrous.defaut", "2"));
+    }
+
+    /**
+     * Exécute une transaction en la recommençant tant qu'elle est abandonnée sur une attente de verrou expirée ou un interblocage
+     * @param conn connexion à la base de données (null pour le stockage en mémoire)
+     * @param operation le nom de l'opération (clé verrous.operation)
+     * @param transaction la transaction
+     * @return le résultat de la transaction
+     * @throws SQLException l'erreur de la dernière tentative, ou toute autre erreur SQL (la transaction reste à annuler par l'appelant)
+     */
+    public <T> T executer(Connection conn, String operation, Transaction<T> transaction) throws SQLException {
+        AttenteVerrou attente = getAttente(operation);
+        for (int tentative = 0; ; tentative++) {
+            try {
+                return transaction.executer(attente);
+            } catch (SQLException e) {
+                if (!(Metriques.verrouExpire(e) || Metriques.interblocage(e)) || tentative + 1 >= tentatives) throw e;
+                // On relâche les verrous déjà pris avant d'attendre, pour débloquer celui qui nous bloquait
+                if (conn != null) conn.rollback();
+                Metriques.transactionRetentee();
+                if (!attendreAvantNouvelleTentative(tentative + 1)) throw e;
+            }
+        }
+    }
+
+    /**
+     * Attente aléatoire avant une nouvelle tentative, entre 0 et ATTENTE_BASE_MS * 2^(tentative - 1) millisecondes (plafonnée) :
+     * les sessions en conflit ne recommencent pas toutes au même moment
+     * @param tentative le numéro de la tentative (1 pour la deuxième)
+     * @return false si l'attente a été interrompue
+     */
+    static boolean attendreAvantNouvelleTentative(int tentative) {
+        long plafond = Math.min(ATTENTE_MAX_MS, ATTENTE_BASE_MS << Math.min(tentative - 1, 10));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(plafond + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,489 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Export de l'historique (réservations, commandes, plats, affectations) pour la comptabilité, en CSV ou dans un format binaire par colonnes.
+ * Les lignes sont lues avec un curseur en avant seulement (par paquets de export.fetchSize lignes) et écrites au fur et à mesure
+ * dans un tampon de taille fixe vidé dans le fichier (éventuellement compressé en gzip) : la mémoire utilisée ne dépend pas du nombre de lignes.
+ * <p>
+ * Export incrémental : le fichier export.filigrane du dossier d'export garde la borne supérieure du dernier export. Une réservation est exportée
+ * quand sa date (datres) ou sa date de paiement (datpaie) passe après le filigrane : une réservation peut donc être exportée une fois consommée
+ * puis de nouveau une fois payée. Les commandes sont exportées avec la réservation encaissée (montcom renseigné, datpaie dans la fenêtre), quand
+ * plus aucune commande ne peut y être ajoutée. Les affectations suivent leur date dataff, et la carte (plat) est toujours exportée en entier.
+ * <p>
+ * datpaie est posée avec l'horloge de la base (SYSDATE) au début de la transaction d'encaissement, qui peut ne valider que bien plus tard
+ * (attentes de verrous, nouvelles tentatives). La borne supérieure est donc lue sur l'horloge de la base, moins une marge (export.marge) plus
+ * longue que la plus longue transaction, et chaque fenêtre repart une marge avant le filigrane : les fenêtres successives se chevauchent
+ * et une même ligne peut être exportée plusieurs fois. Le lecteur dédoublonne par clé, la ligne du fichier le plus récent faisant foi :
+ * numres pour reservation, (numres, numplat) pour commande, (numtab, dataff) pour affecter. Les quatre lectures d'un export se font dans
+ * une même transaction SERIALIZABLE, c'est-à-dire sur un même instantané de la base.
+ * <p>
+ * Format binaire par colonnes (extension .rcol) : en-tête "RCOL", version, nombre de colonnes, puis le nom et le type de chaque colonne.
+ * Les lignes sont ensuite écrites par blocs d'au plus {@link #LIGNES_PAR_BLOC} lignes : nombre de lignes du bloc, puis pour chaque colonne
+ * un masque des valeurs nulles (un bit par ligne) suivi des valeurs non nulles les unes après les autres (entiers sur 4 octets, décimaux sur 8,
+ * dates en millisecondes sur 8, textes en UTF-8 précédés de leur longueur). Un bloc vide termine le fichier, suivi du nombre total de lignes.
+ */
+public class ExportHistorique {
+    /**
+     * Formats d'export
+     */
+    public enum Format {
+        CSV,
+        COLONNES
+    }
+
+    /**
+     * Fichier produit par un export
+     * @param table la table exportée
+     * @param fichier le fichier écrit
+     * @param lignes le nombre de lignes exportées
+     */
+    public record FichierExporte(String table, Path fichier, long lignes) {
+    }
+
+    /**
+     * Nombre maximal de lignes d'un bloc du format par colonnes (les valeurs d'un bloc sont gardées en mémoire le temps de l'écrire)
+     */
+    public static final int LIGNES_PAR_BLOC = 4096;
+
+    private static final byte[] ENTETE = "RCOL".getBytes(StandardCharsets.US_ASCII);
+    private static final byte VERSION = 1;
+    private static final byte ENTIER = 1;
+    private static final byte DECIMAL = 2;
+    private static final byte DATE = 3;
+    private static final byte TEXTE = 4;
+
+    /**
+     * Borne de la fenêtre d'export d'une réservation : la plus tardive de sa date et de sa date de paiement
+     */
+    private static final String DATE_RESERVATION = "GREATEST(r.datres, NVL(r.datpaie, r.datres))";
+    /**
+     * Condition d'export des commandes d'une réservation : elle a été encaissée (datpaie est renseignée à l'encaissement)
+     */
+    private static final String RESERVATION_ENCAISSEE = "r.montcom > 0 AND ";
+
+    private final Path dossier;
+    private final Format format;
+    private final boolean gzip;
+    private final int fetchSize;
+    private final long margeMs;
+
+    /**
+     * Constructeur de l'export
+     * @param dossier le dossier dans lequel les fichiers sont écrits
+     * @param format le format des fichiers
+     * @param gzip true pour compresser les fichiers en gzip
+     * @param fetchSize le nombre de lignes lues par aller-retour avec la base de données
+     * @param margeMs le retard de la borne supérieure sur l'horloge de la base, et le chevauchement de deux fenêtres successives, en millisecondes
+     */
+    public ExportHistorique(Path dossier, Format format, boolean gzip, int fetchSize, long margeMs) {
+        this.dossier = dossier;
+        this.format = format;
+        this.gzip = gzip;
+        this.fetchSize = fetchSize;
+        this.margeMs = margeMs;
+    }
+
+    /**
+     * Crée l'export à partir du fichier de configuration (resources/db.conf).
+     * Clés : export.dossier (exports par défaut), export.format (csv ou colonnes, csv par défaut), export.gzip (true par défaut),
+     * export.fetchSize (1000 par défaut), export.marge (en secondes, 300 par défaut)
+     * @param config la configuration chargée par DBConfig
+     * @return l'export
+     */
+    public static ExportHistorique depuisConfig(Properties config) {
+        return new ExportHistorique(Path.of(config.getProperty("export.dossier", "exports")),
+                Format.valueOf(config.getProperty("export.format", "csv").toUpperCase()),
+                Boolean.parseBoolean(config.getProperty("export.gzip", "true")),
+                Integer.parseInt(config.getProperty("export.fetchSize", "1000")),
+                Long.parseLong(config.getProperty("export.marge", "300")) * 1000);
+    }
+
+    /**
+     * Exporte l'historique dans le dossier d'export, puis avance le filigrane si tous les fichiers ont été écrits
+     * @param conn connexion à la base de données
+     * @param incremental true pour n'exporter que ce qui a changé depuis le dernier export, false pour tout exporter
+     * @return les fichiers écrits
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     * @throws IOException si un fichier ne peut pas être écrit
+     */
+    public List<FichierExporte> exporter(Connection conn, boolean incremental) throws SQLException, IOException {
+        Files.createDirectories(dossier);
+        Timestamp filigrane = incremental ? lireFiligrane() : null;
+        String suffixe = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Timestamp(System.currentTimeMillis()));
+
+        boolean autoCommit = conn.getAutoCommit();
+        int isolation = conn.getTransactionIsolation();
+        List<FichierExporte> fichiers = new ArrayList<>();
+        Timestamp jusqua;
+        try {
+            conn.setAutoCommit(false);
+            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            // Même borne supérieure pour toutes les tables, prise sur l'horloge qui date datpaie (SYSDATE) : une horloge de la JVM décalée
+            // ferait passer des lignes sous le filigrane. La fenêtre repart une marge avant le filigrane pour rattraper les transactions
+            // qui ont daté leurs lignes avant la borne précédente mais n'avaient pas encore validé.
+            jusqua = new Timestamp(horlogeBase(conn).getTime() - margeMs);
+            Timestamp depuis = filigrane != null ? new Timestamp(filigrane.getTime() - margeMs) : null;
+
+            String fenetreReservation = (depuis != null ? DATE_RESERVATION + " > ? AND " : "") + DATE_RESERVATION + " <= ?";
+            String fenetreCommande = RESERVATION_ENCAISSEE + (depuis != null ? "r.datpaie > ? AND " : "") + "r.datpaie <= ?";
+            String fenetreAffectation = (depuis != null ? "dataff > ? AND " : "") + "dataff <= ?";
+
+            fichiers.add(exporterTable(conn, "reservation", suffixe,
+                    "SELECT r.numres, r.numtab, r.datres, r.nbpers, r.datpaie, r.modpaie, r.montcom, r.montcours FROM reservation r WHERE " + fenetreReservation,
+                    depuis, jusqua));
+            fichiers.add(exporterTable(conn, "commande", suffixe,
+                    "SELECT c.numres, c.numplat, c.quantite FROM commande c JOIN reservation r ON r.numres = c.numres WHERE " + fenetreCommande,
+                    depuis, jusqua));
+            fichiers.add(exporterTable(conn, "affecter", suffixe,
+                    "SELECT numtab, dataff, numserv FROM affecter WHERE " + fenetreAffectation,
+                    depuis, jusqua));
+            fichiers.add(exporterTable(conn, "plat", suffixe,
+                    "SELECT numplat, libelle, type, prixunit, qteservie FROM plat", null, null));
+            conn.commit();
+        } catch (SQLException | IOException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            // La connexion retourne au pool : elle doit en ressortir dans l'état où elle a été prise
+            conn.setTransactionIsolation(isolation);
+            conn.setAutoCommit(autoCommit);
+        }
+
+        // Le filigrane ne recule jamais, même si la marge a été agrandie entre deux exports
+        if (filigrane != null && filigrane.after(jusqua)) jusqua = filigrane;
+        ecrireFiligrane(jusqua);
+        return fichiers;
+    }
+
+    /**
+     * Exporte le résultat d'une requête dans un fichier
+     * @param depuis la borne inférieure de la fenêtre (premier paramètre de la requête), null si aucune
+     * @param jusqua la borne supérieure de la fenêtre (dernier paramètre de la requête), null si la requête n'a pas de paramètre
+     */
+    private FichierExporte exporterTable(Connection conn, String table, String suffixe, String sql, Timestamp depuis, Timestamp jusqua) throws SQLException, IOException {
+        Path fichier = dossier.resolve(table + "-" + suffixe + (format == Format.CSV ? ".csv" : ".rcol") + (gzip ? ".gz" : ""));
+        // Requête ponctuelle : pas dans le cache des requêtes préparées, et fermée dès la fin de l'export
+        try (PreparedStatement pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(fetchSize);
+            int i = 1;
+            if (depuis != null) pstmt.setTimestamp(i++, depuis);
+            if (jusqua != null) pstmt.setTimestamp(i, jusqua);
+
+            try (ResultSet rs = pstmt.executeQuery();
+                 FileChannel canal = FileChannel.open(fichier, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                 Tampon sortie = new Tampon(gzip ? Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(canal), Tampon.TAILLE)) : canal)) {
+                long lignes = format == Format.CSV ? ecrireCsv(rs, sortie) : ecrireColonnes(rs, sortie);
+                return new FichierExporte(table, fichier, lignes);
+            }
+        }
+    }
+
+    private static long ecrireCsv(ResultSet rs, Tampon sortie) throws SQLException, IOException {
+        ResultSetMetaData meta = rs.getMetaData();
+        int nb = meta.getColumnCount();
+        StringBuilder ligne = new StringBuilder();
+        for (int c = 1; c <= nb; c++) {
+            if (c > 1) ligne.append(';');
+            ligne.append(meta.getColumnLabel(c).toLowerCase());
+        }
+        sortie.ecrire(ligne.append('\n'));
+
+        byte[] types = types(meta);
+        long lignes = 0;
+        while (rs.next()) {
+            ligne.setLength(0);
+            for (int c = 1; c <= nb; c++) {
+                if (c > 1) ligne.append(';');
+                switch (types[c - 1]) {
+                    case ENTIER -> {
+                        int v = rs.getInt(c);
+                        if (!rs.wasNull()) ligne.append(v);
+                    }
+                    case DECIMAL -> {
+                        double v = rs.getDouble(c);
+                        if (!rs.wasNull()) ligne.append(v);
+                    }
+                    case DATE -> {
+                        Timestamp v = rs.getTimestamp(c);
+                        if (v != null) ligne.append(v.toLocalDateTime());
+                    }
+                    default -> {
+                        String v = rs.getString(c);
+                        if (v != null) echapper(v, ligne);
+                    }
+                }
+            }
+            sortie.ecrire(ligne.append('\n'));
+            lignes++;
+        }
+        return lignes;
+    }
+
+    /**
+     * Ajoute un texte au format CSV : entre guillemets (doublés à l'intérieur) s'il contient un séparateur, un guillemet ou un retour à la ligne
+     */
+    private static void echapper(String v, StringBuilder ligne) {
+        if (v.indexOf(';') < 0 && v.indexOf('"') < 0 && v.indexOf('\n') < 0 && v.indexOf('\r') < 0) {
+            ligne.append(v);
+            return;
+        }
+        ligne.append('"').append(v.replace("\"", "\"\"")).append('"');
+    }
+
+    private static long ecrireColonnes(ResultSet rs, Tampon sortie) throws SQLException, IOException {
+        ResultSetMetaData meta = rs.getMetaData();
+        int nb = meta.getColumnCount();
+        byte[] types = types(meta);
+
+        sortie.ecrire(ENTETE);
+        sortie.ecrireOctet(VERSION);
+        sortie.ecrireShort(nb);
+        for (int c = 1; c <= nb; c++) {
+            sortie.ecrireTexte(meta.getColumnLabel(c).toLowerCase());
+            sortie.ecrireOctet(types[c - 1]);
+        }
+
+        // Valeurs d'un bloc, colonne par colonne (réutilisées d'un bloc à l'autre)
+        long[][] nombres = new long[nb][LIGNES_PAR_BLOC];
+        String[][] textes = new String[nb][LIGNES_PAR_BLOC];
+        boolean[][] nulles = new boolean[nb][LIGNES_PAR_BLOC];
+        long lignes = 0;
+        int n = 0;
+        while (rs.next()) {
+            for (int c = 0; c < nb; c++) {
+                switch (types[c]) {
+                    case ENTIER -> nombres[c][n] = rs.getInt(c + 1);
+                    case DECIMAL -> nombres[c][n] = Double.doubleToRawLongBits(rs.getDouble(c + 1));
+                    case DATE -> {
+                        Timestamp v = rs.getTimestamp(c + 1);
+                        nombres[c][n] = v != null ? v.getTime() : 0;
+                    }
+                    default -> textes[c][n] = rs.getString(c + 1);
+                }
+                nulles[c][n] = rs.wasNull();
+            }
+            lignes++;
+            if (++n == LIGNES_PAR_BLOC) {
+                ecrireBloc(sortie, types, nombres, textes, nulles, n);
+                n = 0;
+            }
+        }
+        if (n > 0) ecrireBloc(sortie, types, nombres, textes, nulles, n);
+        sortie.ecrireInt(0);
+        sortie.ecrireLong(lignes);
+        return lignes;
+    }
+
+    private static void ecrireBloc(Tampon sortie, byte[] types, long[][] nombres, String[][] textes, boolean[][] nulles, int n) throws IOException {
+        sortie.ecrireInt(n);
+        byte[] masque = new byte[(n + 7) / 8];
+        for (int c = 0; c < types.length; c++) {
+            Arrays.fill(masque, (byte) 0);
+            for (int i = 0; i < n; i++) {
+                if (nulles[c][i]) masque[i >> 3] |= (byte) (1 << (i & 7));
+            }
+            sortie.ecrire(masque);
+            for (int i = 0; i < n; i++) {
+                if (nulles[c][i]) continue;
+                switch (types[c]) {
+                    case ENTIER -> sortie.ecrireInt((int) nombres[c][i]);
+                    case DECIMAL, DATE -> sortie.ecrireLong(nombres[c][i]);
+                    default -> sortie.ecrireTexte(textes[c][i]);
+                }
+                textes[c][i] = null;
+            }
+        }
+    }
+
+    private static byte[] types(ResultSetMetaData meta) throws SQLException {
+        byte[] types = new byte[meta.getColumnCount()];
+        for (int c = 1; c <= types.length; c++) {
+            types[c - 1] = switch (meta.getColumnType(c)) {
+                case Types.DATE, Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE -> DATE;
+                case Types.INTEGER, Types.SMALLINT, Types.TINYINT -> ENTIER;
+                case Types.NUMERIC, Types.DECIMAL, Types.BIGINT ->
+                        meta.getScale(c) == 0 && meta.getPrecision(c) > 0 && meta.getPrecision(c) <= 9 ? ENTIER : DECIMAL;
+                case Types.DOUBLE, Types.FLOAT, Types.REAL -> DECIMAL;
+                default -> TEXTE;
+            };
+        }
+        return types;
+    }
+
+    /**
+     * Relit un fichier au format par colonnes (compressé en gzip si son nom se termine par .gz)
+     * @param fichier le fichier
+     * @param ligne appelé pour chaque ligne, avec les valeurs des colonnes (Integer, Double, Timestamp, String ou null)
+     * @return les noms des colonnes
+     * @throws IOException si le fichier ne peut pas être lu ou n'est pas au format par colonnes
+     */
+    public static List<String> lireColonnes(Path fichier, Consumer<Object[]> ligne) throws IOException {
+        InputStream flux = new BufferedInputStream(Files.newInputStream(fichier), Tampon.TAILLE);
+        if (fichier.toString().endsWith(".gz")) flux = new GZIPInputStream(flux, Tampon.TAILLE);
+        try (DataInputStream in = new DataInputStream(flux)) {
+            byte[] entete = new byte[ENTETE.length];
+            in.readFully(entete);
+            if (!Arrays.equals(entete, ENTETE) || in.readByte() != VERSION) throw new IOException(fichier + " n'est pas au format par colonnes");
+            int nb = in.readUnsignedShort();
+            List<String> noms = new ArrayList<>();
+            byte[] types = new byte[nb];
+            for (int c = 0; c < nb; c++) {
+                noms.add(lireTexte(in));
+                types[c] = in.readByte();
+            }
+
+            int n;
+            while ((n = in.readInt()) > 0) {
+                Object[][] bloc = new Object[n][nb];
+                byte[] masque = new byte[(n + 7) / 8];
+                for (int c = 0; c < nb; c++) {
+                    in.readFully(masque);
+                    for (int i = 0; i < n; i++) {
+                        if ((masque[i >> 3] & (1 << (i & 7))) != 0) continue;
+                        bloc[i][c] = switch (types[c]) {
+                            case ENTIER -> in.readInt();
+                            case DECIMAL -> in.readDouble();
+                            case DATE -> new Timestamp(in.readLong());
+                            default -> lireTexte(in);
+                        };
+                    }
+                }
+                for (Object[] valeurs : bloc) ligne.accept(valeurs);
+            }
+            in.readLong();
+            return noms;
+        } catch (EOFException e) {
+            throw new IOException(fichier + " est incomplet", e);
+        }
+    }
+
+    private static String lireTexte(DataInputStream in) throws IOException {
+        byte[] octets = new byte[in.readInt()];
+        in.readFully(octets);
+        return new String(octets, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lit l'heure de la base de données, celle qui date les encaissements (datpaie = SYSDATE)
+     */
+    private static Timestamp horlogeBase(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT SYSDATE FROM dual");
+             ResultSet rs = pstmt.executeQuery()) {
+            rs.next();
+            return rs.getTimestamp(1);
+        }
+    }
+
+    private Timestamp lireFiligrane() throws IOException {
+        Path fichier = dossier.resolve("export.filigrane");
+        if (!Files.exists(fichier)) return null;
+        return Timestamp.valueOf(Files.readString(fichier).trim());
+    }
+
+    /**
+     * Le filigrane est remplacé d'un coup (fichier temporaire puis renommage) : un export interrompu ne laisse jamais un filigrane à moitié écrit
+     */
+    private void ecrireFiligrane(Timestamp jusqua) throws IOException {
+        Path temporaire = dossier.resolve("export.filigrane.tmp");
+        Files.writeString(temporaire, jusqua.toString());
+        Files.move(temporaire, dossier.resolve("export.filigrane"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Tampon d'écriture de taille fixe vidé dans un canal NIO
+     */
+    private static class Tampon implements AutoCloseable {
+        static final int TAILLE = 64 * 1024;
+        private final WritableByteChannel canal;
+        private final ByteBuffer tampon = ByteBuffer.allocateDirect(TAILLE);
+
+        Tampon(WritableByteChannel canal) {
+            this.canal = canal;
+        }
+
+        private void reserver(int octets) throws IOException {
+            if (tampon.remaining() < octets) vider();
+        }
+
+        void ecrireOctet(byte v) throws IOException {
+            reserver(1);
+            tampon.put(v);
+        }
+
+        void ecrireShort(int v) throws IOException {
+            reserver(2);
+            tampon.putShort((short) v);
+        }
+
+        void ecrireInt(int v) throws IOException {
+            reserver(4);
+            tampon.putInt(v);
+        }
+
+        void ecrireLong(long v) throws IOException {
+            reserver(8);
+            tampon.putLong(v);
+        }
+
+        void ecrireTexte(String v) throws IOException {
+            byte[] octets = v.getBytes(StandardCharsets.UTF_8);
+            ecrireInt(octets.length);
+            ecrire(octets);
+        }
+
+        void ecrire(CharSequence texte) throws IOException {
+            ecrire(texte.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        void ecrire(byte[] octets) throws IOException {
+            int position = 0;
+            while (position < octets.length) {
+                if (!tampon.hasRemaining()) vider();
+                int n = Math.min(tampon.remaining(), octets.length - position);
+                tampon.put(octets, position, n);
+                position += n;
+            }
+        }
+
+        private void vider() throws IOException {
+            tampon.flip();
+            while (tampon.hasRemaining()) canal.write(tampon);
+            tampon.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            vider();
+            // Ferme aussi le flux gzip (qui écrit sa fin de fichier) et le fichier
+            canal.close();
+        }
+    }
+}
@@ -1,4 +1,15 @@
 import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Classe Gestionnaire qui s'occupe d'autres opérations en plus des opérations d'un simple serveur (hérite de Serveur)
@@ -15,19 +26,64 @@ public class Gestionnaire extends Serveur{
     }
 
     /**
-     * Consulter les affectations des serveurs
+     * Constructeur de la classe Gestionnaire
+     * @param numserv Le numéro du gestionnaire
+     * @param email L'email du gestionnaire
+     * @param nom Le nom du gestionnaire
+     * @param restaurant Les ressources partagées de l'application
+     */
+    public Gestionnaire(String numserv, String email, String nom, Restaurant restaurant) {
+        super(numserv, email, nom, restaurant);
+    }
+
+    /**
+     * Consulter les affectations des serveurs : les affectations actuelles (avec la première page), puis une page de l'historique
      * @param conn La connexion à la base de données
+     * @param numserv Le numéro du serveur dont on veut les affectations, null pour tous les serveurs
+     * @param apres La dernière affectation de la page précédente, null pour la première page
+     * @return La dernière affectation affichée, à passer pour afficher la page suivante, null s'il n'y en a plus
      */
-    public void consulterAffectations(Connection conn) {
+    public Affectation consulterAffectations(Connection conn, Integer numserv, Affectation apres) {
         try {
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT * FROM affecter");
-
-            while(rs.next()) {
-                System.out.println("Numéro de la table : " + rs.getInt("numtab") + ", Date d'affectation : " + rs.getDate("dataff") + ", Numéro du serveur : " + rs.getInt("numserv"));
+            StringBuilder affichage = new StringBuilder();
+            if (apres == null) {
+                // Affectations actuelles lues en mémoire, sans requête
+                RegistreAffectations registre = registreAffectations();
+                if (numserv != null) {
+                    affichage.append("Tables actuellement affectées au serveur " + numserv + " : " + registre.tables(numserv)).append('\n');
+                } else {
+                    for (Affectation a : new TreeMap<>(registre.getCourantes()).values()) {
+                        affichage.append("Table " + a.numtab() + " : serveur " + a.numserv()).append('\n');
+                    }
+                }
+                affichage.append("Historique des affectations :").append('\n');
             }
+            List<Affectation> page = listerAffectations(conn, numserv, apres, RegistreAffectations.TAILLE_PAGE);
+            for (Affectation a : page) {
+                affichage.append("Numéro de la table : " + a.numtab() + ", Date d'affectation : " + a.dataff() + ", Numéro du serveur : " + a.numserv()).append('\n');
+            }
+            sortie.print(affichage);
+            return page.size() < RegistreAffectations.TAILLE_PAGE ? null : page.get(page.size() - 1);
         } catch(SQLException e) {
             e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @param conn La connexion à la base de données
+     * @param numserv Le numéro du serveur dont on veut les affectations, null pour tous les serveurs
+     * @param apres La dernière affectation de la page précédente, null pour la première page
+     * @param taille Le nombre maximal d'affectations de la page
+     * @return Une page de l'historique des affectations, des plus récentes aux plus anciennes
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    public List<Affectation> listerAffectations(Connection conn, Integer numserv, Affectation apres, int taille) throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return registreAffectations().historique(conn, numserv, apres, taille);
+        } finally {
+            Metriques.operation("listerAffectations", debut);
         }
     }
 
@@ -36,136 +92,395 @@ public class Gestionnaire extends Serveur{
      * @param conn La connexion à la base de données
      * @param numtab Le numéro de la table
      * @param numserv Le numéro du serveur
+     * @return true si l'affectation a été enregistrée, false sinon
      */
-    public void affecterServeurTable(Connection conn, int numtab, int numserv) {
+    public boolean affecterServeurTable(Connection conn, int numtab, int numserv) {
+        long debut = System.nanoTime();
         try {
-            conn.setAutoCommit(false);
-
-            Date dataff = new Date(System.currentTimeMillis()); // Date et heure au moment de l'affectation
-
             // Malheureusement, on ne peut pas empêcher l'overwrite. C'est-à-dire que l'on ne peut pas empêcher qu'un autre gestionnaire écrase notre mise à jour d'affectation d'un serveur par la sienne.
-            // Cela, même avec un Row Share car il intervient uniquement sur la lecture et non pas l'écriture. Le Row Share ne serait qu'un sursis.
-            PreparedStatement pstmtCheck = conn.prepareStatement("SELECT * FROM affecter WHERE numtab = ?");
-            pstmtCheck.setInt(1, numtab);
-            ResultSet rs = pstmtCheck.executeQuery();
-
-            if(rs.next()) {
-                // S'il y a déjà une affectation d'un serveur, on la met à jour.
-                System.out.println("Il y a déjà une affectation pour cette table. Mise à jour de l'affectation en cours...");
-                PreparedStatement pstmtUpdate = conn.prepareStatement("UPDATE affecter SET numserv = ? WHERE numtab = ? AND dataff = ?");
-                pstmtUpdate.setInt(1, numserv);
-                pstmtUpdate.setInt(2, numtab);
-                pstmtUpdate.setDate(3, dataff);
-                pstmtUpdate.executeUpdate();
-            } else {
-                // S'il n'y a pas déjà une affectation, alors on en créée une nouvelle
-                PreparedStatement pstmtInsert = conn.prepareStatement("INSERT INTO affecter (numtab, dataff, numserv) VALUES (?, ?, ?)");
-                pstmtInsert.setInt(1, numtab);
-                pstmtInsert.setDate(2, dataff);
-                pstmtInsert.setInt(3, numserv);
-                pstmtInsert.executeUpdate();
-            }
-
-            /*
-                Seulement à la fin des opérations et s'il n'y a pas eu d'erreur comme par exemple un autre gestionnaire qui a fait la même affectation (insertion plus particulièrement)
-                 de serveur à la même table que nous. Alors on commit. Sinon, on annule l'opération du dernier gestionnaire arrivé.
-                 Le verrouilage est optimiste car on part du principe qu'il y a encore moins de gestionnaires que de serveurs dans un restaurant (<5)
-             */
-            conn.commit();
+            // Le message est affiché après le commit, pas pendant que la ligne est verrouillée.
+            Integer ancienServeur = registreAffectations().affecter(conn, numtab, numserv);
 
-            System.out.println("Serveur numéro " + numserv + " assigné à la table numéro " + numtab + " avec succès.");
+            if (restaurant != null) restaurant.getPlanSalle().affectationsModifiees();
+            ecritureValidee();
+            publier(JournalEvenements.Type.AFFECTATION, 0, numtab, 0, "serveur " + numserv);
+            if (ancienServeur != null) sortie.println("Il y avait déjà une affectation pour cette table (serveur " + ancienServeur + "). L'affectation a été mise à jour.");
+            sortie.println("Serveur numéro " + numserv + " assigné à la table numéro " + numtab + " avec succès.");
+            return true;
 
         } catch(SQLException e) {
             // S'il y a une erreur, on annule tout.
-            try {
-                System.err.println("Annulation de la transaction (rollback)");
-                conn.rollback();
-            } catch (SQLException e1) {
-                e1.printStackTrace();
-            }
-            System.err.println("Le numéro de table ou de serveur n'est pas valide."); // !!! Je n'élabore pas sur la gestion des erreurs SQL car le but de ce TP est de travailler les transactions.
+            annuler(conn, "affecterServeurTable : " + e.getMessage());
+            erreurs.println("Le numéro de table ou de serveur n'est pas valide."); // !!! Je n'élabore pas sur la gestion des erreurs SQL car le but de ce TP est de travailler les transactions.
+            return false;
+        } finally {
+            Metriques.operation("affecterServeurTable", debut);
         }
     }
 
+    /**
+     * @return Les affectations courantes du restaurant (sans restaurant, un registre vide : seul l'historique est lu dans la base)
+     */
+    private RegistreAffectations registreAffectations() {
+        return restaurant != null ? restaurant.getRegistreAffectations() : new RegistreAffectations(stockage);
+    }
+
     /**
      * Calculer le montant total d’une réservation consommée (numéro de réservation) et mettre à jour la table RESERVATION pour l’encaissement.
+     * Le montant est cumulé dans la colonne montcours à chaque commande : l'encaissement ne verrouille donc que la ligne de la réservation
+     * et ne bloque plus les commandes des autres tables.
      * @param conn La connexion à la base de données
      * @param numres Le numéro de la réservation
+     * @return true si le montant total a été calculé et enregistré, false sinon
      */
-    public void calculerMontantTotalCommandeEtMajReservation(Connection conn, int numres) {
+    public boolean calculerMontantTotalCommandeEtMajReservation(Connection conn, int numres) {
+        long debut = System.nanoTime();
         try {
+            if (!appliquerCommandesJournalisees(conn)) return false;
 
-            conn.setAutoCommit(false);
-
-            /*
-                IMPORTANT !!!!
-                Verrouillage de la table commande entière pour éviter tout ajout (on ne peut pas filtrer selon le numres) (Verrou Exclusif)
-             */
-            Statement stmtLock = conn.createStatement();
-            stmtLock.execute("LOCK TABLE commande IN EXCLUSIVE MODE");
-
-            /*
-             Verrouillage de la ligne de la réservation (pour éviter qu'à l'avenir, si quelqu'un met à jour le moyen de paiement,
-                cela écrase notre mise à jour du montant total de la commande
-             */
-            PreparedStatement pstmtLock = conn.prepareStatement("SELECT * FROM reservation WHERE numres = ? FOR UPDATE");
-            pstmtLock.setInt(1, numres);
-            ResultSet rs = pstmtLock.executeQuery();
-
-            if(rs.next()) {
-                /*
-                    IMPORTANT !!!!
-                    Si quelqu'un a déjà calculé le montant total de la commande, alors on ne va pas le recalculer.
-                    Deux raisons :
-                        Sécurité : On ne veut pas que quelqu'un puisse trafiquer le montant total de la commande.
-                        Performance : On ne veut pas recalculer le montant total de la commande si c'est déjà fait d'autant plus
-                            que c'est une opération coûteuse qui va empêcher tous les autres serveurs de faire une commande (à cause du verrrouillage exclusif ci-dessus)
-                 */
-                double montcom = rs.getDouble("montcom");
-                if(montcom == 0) {
-                    // On calcule le montant total de la commande
-                    PreparedStatement pstmtTotal = conn.prepareStatement(
-                            "SELECT SUM(p.prixunit * c.quantite) AS total " +
-                                    "FROM commande c JOIN plat p ON c.numplat = p.numplat " +
-                                    "WHERE c.numres = ?");
-                    pstmtTotal.setInt(1, numres);
-                    ResultSet rsTotal = pstmtTotal.executeQuery();
-
-                    if (rsTotal.next()) {
-                        double total = rsTotal.getDouble("total");
-
+            boolean verification = restaurant != null && restaurant.isVerificationMontants();
+            DepotReservations.Encaissement encaissement = executeur.executer(conn, "encaisser", attente -> stockage.reservations().encaisser(conn, numres, verification, attente));
+            switch (encaissement.etat()) {
+                case INTROUVABLE -> {
+                    erreurs.println("Pas de réservation trouvé pour ce numéro de réservation.");
+                    return false;
+                }
+                case DEJA_ENCAISSEE -> {
+                    reservationEncaissee(numres);
                     /*
-                        On met à jour le montant total de la réservation après l'avoir calculé (ci-dessus)
+                        IMPORTANT !!!!
+                        Si quelqu'un a déjà calculé le montant total de la commande, alors on ne va pas le recalculer.
+                        Sécurité : On ne veut pas que quelqu'un puisse trafiquer le montant total de la commande.
                      */
-                        PreparedStatement pstmtUpdate = conn.prepareStatement(
-                                "UPDATE reservation SET montcom = ? WHERE numres = ?");
-                        pstmtUpdate.setDouble(1, total);
-                        pstmtUpdate.setInt(2, numres);
-                        pstmtUpdate.executeUpdate();
-
-                        System.out.println("Montant total calculé et mise à jour de l'état de la réservation avec succès.");
-                    } else {
-                        System.out.println("Pas de réservation trouvé pour ce numéro de réservation.");
-                    }
-                } else {
-                    System.err.println("Le montant total de la réservation a déjà été calculé.");
+                    erreurs.println("Le montant total de la réservation a déjà été calculé.");
+                    return false;
+                }
+                default -> {
                 }
-            } else {
-                System.err.println("Pas de réservation trouvé pour ce numéro de réservation.");
             }
 
-            // On valide l'opération
-            conn.commit();
+            // Affiché après le commit : la ligne de la réservation est verrouillée jusque-là
+            double total = encaissement.montant();
+            String avertissement = null;
+            if (Math.abs(total - encaissement.montantCumule()) > 0.005) {
+                avertissement = "Attention : le montant cumulé de la réservation " + numres + " (" + encaissement.montantCumule() + ") diffère de la somme des commandes (" + total + "). On encaisse la somme des commandes.";
+            }
 
+            ecritureValidee();
+            reservationEncaissee(numres);
+            publier(JournalEvenements.Type.ADDITION_ENCAISSEE, numres, 0, total, null);
+            if (avertissement != null) erreurs.println(avertissement);
+            sortie.println("Montant total calculé et mise à jour de l'état de la réservation avec succès.");
+            return true;
         } catch(SQLException e) {
             // S'il y a une erreur, on annule toutes les opérations en faisant un rollback (et on lâche les verrous, rollback le fait implicitement)
+            annuler(conn, "calculerMontantTotalCommandeEtMajReservation : " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        } finally {
+            Metriques.operation("calculerMontantTotalCommandeEtMajReservation", debut);
+        }
+    }
+
+    /**
+     * Facturer en une fois toutes les réservations encore ouvertes (montant total non calculé) qui ont des commandes, en fin de service.
+     * Au lieu d'un encaissement (et d'une transaction) par réservation, les réservations sont découpées en plages de numéros de taille égale,
+     * traitées en parallèle sur plusieurs connexions : pour chaque plage, une requête verrouille les réservations, une requête groupée recalcule
+     * les sommes (si facturation.verification=true), une mise à jour en lot enregistre les montants, puis un seul commit.
+     * Les plages sont disjointes et chacune ne verrouille que ses réservations : pas d'interblocage entre elles, et les commandes des autres réservations continuent.
+     * @param conn La connexion à la base de données (elle traite la première plage, les autres plages empruntent une connexion au pool)
+     * @param nbPartitions Le nombre de plages traitées en parallèle
+     * @param simulation true pour seulement calculer et afficher les montants, sans rien enregistrer ni verrouiller
+     * @return Le bilan de la facturation
+     */
+    public BilanFacturation facturerReservationsOuvertes(Connection conn, int nbPartitions, boolean simulation) {
+        long debut = System.nanoTime();
+        try {
+            if (!appliquerCommandesJournalisees(conn)) return new BilanFacturation(simulation, 0, 0, List.of(), 0, List.of(), 0);
+            List<int[]> plages;
             try {
-                System.err.println("Annulation de la transaction (rollback)");
-                conn.rollback();
-            } catch (SQLException e1) {
-                e1.printStackTrace();
+                plages = plagesReservationsOuvertes(conn, Math.max(1, nbPartitions));
+            } catch (SQLException e) {
+                e.printStackTrace();
+                erreurs.println("Erreur lors de la communication avec la base de données");
+                return new BilanFacturation(simulation, 0, 0, List.of(), 0, List.of(), 0);
+            }
+
+            // La première plage est traitée sur la connexion de l'appelant, les autres en parallèle sur des connexions du pool (sans connexion avec le stockage en mémoire)
+            boolean parallele = restaurant != null;
+            List<Future<FacturationPlage>> enCours = new ArrayList<>();
+            // Plage de chaque facturation en cours (même indice) : une plage dont la tâche échoue est comptée parmi les échecs
+            List<int[]> plagesEnCours = new ArrayList<>();
+            List<FacturationPlage> resultats = new ArrayList<>();
+            try (ExecutorService executeur = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 1; i < plages.size(); i++) {
+                    int[] plage = plages.get(i);
+                    if (!parallele) {
+                        resultats.add(facturerPlage(conn, plage[0], plage[1], simulation));
+                        continue;
+                    }
+                    plagesEnCours.add(plage);
+                    enCours.add(executeur.submit(() -> {
+                        try (Connection connPlage = restaurant.connexion()) {
+                            return facturerPlage(connPlage, plage[0], plage[1], simulation);
+                        } catch (SQLException e) {
+                            return new FacturationPlage(plage[0], plage[1], Map.of(), List.of(), e);
+                        }
+                    }));
+                }
+                if (!plages.isEmpty()) resultats.add(facturerPlage(conn, plages.get(0)[0], plages.get(0)[1], simulation));
+                for (int i = 0; i < enCours.size(); i++) {
+                    int[] plage = plagesEnCours.get(i);
+                    try {
+                        resultats.add(enCours.get(i).get());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        resultats.add(new FacturationPlage(plage[0], plage[1], Map.of(), List.of(), e));
+                    } catch (ExecutionException e) {
+                        e.getCause().printStackTrace();
+                        resultats.add(new FacturationPlage(plage[0], plage[1], Map.of(), List.of(), e.getCause() instanceof Exception cause ? cause : e));
+                    }
+                }
             }
+
+            // Affichage et journal une fois toutes les transactions terminées
+            int nbReservations = 0;
+            double montantTotal = 0;
+            List<Integer> ecarts = new ArrayList<>();
+            List<String> echecs = new ArrayList<>();
+            StringBuilder affichage = new StringBuilder();
+            for (FacturationPlage r : resultats) {
+                if (r.erreur() != null) {
+                    echecs.add(r.min() + "-" + r.max());
+                    erreurs.println("La facturation des réservations " + r.min() + " à " + r.max() + " a été annulée : " + r.erreur().getMessage());
+                    continue;
+                }
+                for (Map.Entry<Integer, Double> e : r.montants().entrySet()) {
+                    nbReservations++;
+                    montantTotal += e.getValue();
+                    affichage.append("Réservation ").append(e.getKey()).append(" : ").append(e.getValue()).append('\n');
+                    if (!simulation) {
+                        reservationEncaissee(e.getKey());
+                        publier(JournalEvenements.Type.ADDITION_ENCAISSEE, e.getKey(), 0, e.getValue(), "fin de service");
+                    }
+                }
+                ecarts.addAll(r.ecarts());
+            }
+            if (!simulation && nbReservations > 0) ecritureValidee();
+            Collections.sort(ecarts);
+            long dureeMs = (System.nanoTime() - debut) / 1_000_000;
+
+            sortie.print(affichage);
+            if (!ecarts.isEmpty()) erreurs.println("Attention : le montant cumulé diffère de la somme des commandes pour les réservations " + ecarts + ". On encaisse la somme des commandes.");
+            sortie.println((simulation ? "Simulation (rien n'a été enregistré) : " : "Facturation de fin de service : ") + nbReservations + " réservations, montant total " + montantTotal
+                    + ", " + plages.size() + " plages traitées en parallèle, " + dureeMs + " ms.");
+            return new BilanFacturation(simulation, nbReservations, montantTotal, ecarts, plages.size(), echecs, dureeMs);
+        } finally {
+            Metriques.operation("facturerReservationsOuvertes", debut);
+        }
+    }
+
+    /**
+     * Résultat de la facturation d'une plage de réservations
+     * @param min premier numéro de réservation de la plage
+     * @param max dernier numéro de réservation de la plage
+     * @param montants montant facturé par réservation
+     * @param ecarts réservations dont le montant cumulé différait de la somme des commandes
+     * @param erreur erreur qui a annulé la transaction de la plage (ou arrêté sa tâche), null si aucune
+     */
+    private record FacturationPlage(int min, int max, Map<Integer, Double> montants, List<Integer> ecarts, Exception erreur) {
+    }
+
+    /**
+     * Découpe les réservations ouvertes qui ont des commandes en plages de numéros contenant chacune (à peu près) le même nombre de réservations
+     * @param conn La connexion à la base de données
+     * @param nbPartitions Le nombre de plages voulu
+     * @return Les plages [premier numéro, dernier numéro], au plus nbPartitions
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    private List<int[]> plagesReservationsOuvertes(Connection conn, int nbPartitions) throws SQLException {
+        List<Integer> numeros = stockage.reservations().ouvertesAvecCommandes(conn);
+
+        List<int[]> plages = new ArrayList<>();
+        int n = numeros.size();
+        int nb = Math.min(nbPartitions, n);
+        for (int k = 0; k < nb; k++) {
+            plages.add(new int[]{numeros.get(k * n / nb), numeros.get((k + 1) * n / nb - 1)});
+        }
+        return plages;
+    }
+
+    /**
+     * Facture les réservations ouvertes d'une plage de numéros dans une seule transaction
+     * @param conn La connexion à la base de données
+     * @param min Le premier numéro de réservation de la plage
+     * @param max Le dernier numéro de réservation de la plage
+     * @param simulation true pour ne rien verrouiller ni enregistrer
+     * @return Les montants facturés, ou l'erreur qui a annulé la transaction
+     */
+    private FacturationPlage facturerPlage(Connection conn, int min, int max, boolean simulation) {
+        try {
+            boolean verification = restaurant != null && restaurant.isVerificationMontants();
+            DepotReservations.Facturation facturation = executeur.executer(conn, "facturer", attente -> stockage.reservations().facturer(conn, min, max, verification, simulation, attente));
+            return new FacturationPlage(min, max, facturation.montants(), facturation.ecarts(), null);
+        } catch (SQLException e) {
+            annuler(conn, "facturerReservationsOuvertes " + min + "-" + max + " : " + e.getMessage());
             e.printStackTrace();
+            return new FacturationPlage(min, max, Map.of(), List.of(), e);
+        }
+    }
+
+    /**
+     * Vérifier la cohérence des montants cumulés (colonne montcours) avec la somme recalculée des commandes, pour toutes les réservations.
+     * Affiche chaque réservation dont le montant cumulé diffère.
+     * @param conn La connexion à la base de données
+     * @return Les numéros des réservations incohérentes
+     */
+    public List<Integer> verifierMontantsCumules(Connection conn) {
+        long debut = System.nanoTime();
+        try {
+            List<Integer> incoherentes = new ArrayList<>();
+            if (!appliquerCommandesJournalisees(conn)) return incoherentes;
+            // On n'affiche qu'une fois la lecture terminée
+            StringBuilder affichage = new StringBuilder();
+            try {
+                for (DepotCommandes.Ecart ecart : stockage.commandes().montantsIncoherents(conn)) {
+                    incoherentes.add(ecart.numres());
+                    affichage.append("Réservation " + ecart.numres() + " : montant cumulé " + ecart.montantCumule() + ", somme des commandes " + ecart.somme()).append('\n');
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            sortie.print(affichage);
+            if (incoherentes.isEmpty()) sortie.println("Tous les montants cumulés sont cohérents avec les commandes.");
+            return incoherentes;
+        } finally {
+            Metriques.operation("verifierMontantsCumules", debut);
+        }
+    }
+
+    /**
+     * Réapprovisionner un plat (ajouter des quantités à servir)
+     * @param conn La connexion à la base de données
+     * @param numplat Le numéro du plat
+     * @param quantite La quantité ajoutée
+     * @return true si le stock a été mis à jour, false sinon
+     */
+    public boolean reapprovisionnerPlat(Connection conn, int numplat, int quantite) {
+        long debut = System.nanoTime();
+        try {
+            if (quantite <= 0) {
+                erreurs.println("La quantité doit être positive.");
+                return false;
+            }
+            try {
+                if (!executeur.executer(conn, "reapprovisionner", attente -> stockage.plats().reapprovisionner(conn, numplat, quantite, attente))) {
+                    erreurs.println("Numéro de plat invalide.");
+                    return false;
+                }
+
+                if (restaurant != null && restaurant.getRegistreStocks() != null) restaurant.getRegistreStocks().ajouter(numplat, quantite);
+                // Le plat peut réapparaître sur la carte
+                invaliderCarte();
+
+                ecritureValidee();
+                publier(JournalEvenements.Type.REAPPROVISIONNEMENT, 0, 0, 0, "plat " + numplat + " : +" + quantite);
+                sortie.println("Le plat " + numplat + " a été réapprovisionné de " + quantite + ".");
+                return true;
+            } catch (SQLException e) {
+                annuler(conn, "reapprovisionnerPlat : " + e.getMessage());
+                erreurs.println("Le réapprovisionnement a échoué (quantité trop grande ?).");
+                return false;
+            }
+        } finally {
+            Metriques.operation("reapprovisionnerPlat", debut);
+        }
+    }
+
+    /**
+     * Afficher les rapports calculés en mémoire : chiffre d'affaires par moyen de paiement et par serveur, plats les plus commandés de chaque type
+     * et nombre moyen de couverts par table (sur tout l'historique)
+     * @param conn La connexion à la base de données (utilisée uniquement si les données des rapports doivent être rafraîchies)
+     * @return true si les rapports ont été affichés, false sinon
+     */
+    public boolean afficherRapports(Connection conn) {
+        long debut = System.nanoTime();
+        try {
+            if (restaurant == null) {
+                erreurs.println("Les rapports ne sont pas disponibles sans les ressources partagées de l'application.");
+                return false;
+            }
+            Analytique analytique = restaurant.getAnalytique();
+            if (analytique == null) {
+                erreurs.println("Les rapports ne sont pas disponibles avec le stockage en mémoire.");
+                return false;
+            }
+            try {
+                analytique.actualiser(conn);
+            } catch (SQLException e) {
+                e.printStackTrace();
+                erreurs.println("Erreur lors de la communication avec la base de données");
+                return false;
+            }
+
+            StringBuilder affichage = new StringBuilder("Chiffre d'affaires par moyen de paiement :\n");
+            analytique.chiffreAffairesParModePaiement(null, null).forEach((mode, montant) -> affichage.append("  ").append(mode).append(" : ").append(montant).append('\n'));
+            affichage.append("Chiffre d'affaires par serveur :\n");
+            analytique.chiffreAffairesParServeur(null, null).forEach((numserv, montant) -> affichage.append("  Serveur ").append(numserv).append(" : ").append(montant).append('\n'));
+            affichage.append("Plats les plus commandés :\n");
+            analytique.platsLesPlusCommandes(3, null, null).forEach((type, plats) -> {
+                affichage.append("  ").append(type).append(" :");
+                for (Analytique.PlatClasse plat : plats) affichage.append(' ').append(plat.libelle()).append(" (").append(plat.quantite()).append(')');
+                affichage.append('\n');
+            });
+            affichage.append("Nombre moyen de couverts par table :\n");
+            analytique.couvertsMoyensParTable(null, null).forEach((numtab, couverts) -> affichage.append("  Table ").append(numtab).append(" : ").append(String.format("%.1f", couverts)).append('\n'));
+            sortie.print(affichage);
+            return true;
+        } finally {
+            Metriques.operation("afficherRapports", debut);
+        }
+    }
+
+    /**
+     * Afficher le plan de salle d'un jour entre deux heures : chaque table par tranches de 15 minutes (occupée ou libre) avec le serveur qui lui est affecté,
+     * puis les tables libres pendant toute la période pour un nombre de personnes donné
+     * @param conn La connexion à la base de données (utilisée uniquement si le jour n'est pas déjà en mémoire)
+     * @param jour Le jour
+     * @param de L'heure de début
+     * @param a L'heure de fin (minuit pour la fin de la journée)
+     * @param nbPers Le nombre de personnes (0 pour ne pas chercher de table libre)
+     * @return true si le plan a été affiché, false sinon
+     */
+    public boolean afficherPlanSalle(Connection conn, LocalDate jour, LocalTime de, LocalTime a, int nbPers) {
+        long debut = System.nanoTime();
+        try {
+            PlanSalle.Occupation occupation;
+            Map<Integer, String> serveurs;
+            try {
+                if (restaurant != null) {
+                    occupation = restaurant.getPlanSalle().get(conn, jour);
+                    serveurs = restaurant.getPlanSalle().getServeurs(conn);
+                } else {
+                    occupation = PlanSalle.charger(stockage, conn, jour);
+                    serveurs = PlanSalle.chargerServeurs(stockage, conn);
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                erreurs.println("Erreur lors de la communication avec la base de données");
+                return false;
+            }
+
+            StringBuilder affichage = new StringBuilder(occupation.afficher(de, a, serveurs));
+            if (nbPers > 0) {
+                affichage.append("Tables libres de ").append(de).append(" à ").append(a).append(" pour ").append(nbPers).append(" personnes :");
+                for (int numtab : occupation.tablesLibres(de, a, nbPers)) affichage.append(' ').append(numtab);
+                affichage.append('\n');
+            }
+            sortie.print(affichage);
+            return true;
+        } finally {
+            Metriques.operation("afficherPlanSalle", debut);
         }
     }
 
@@ -178,6 +493,11 @@ public class Gestionnaire extends Serveur{
         res += "5. Consulter les affectations des serveurs.\n";
         res += "6. Affecter des serveurs à des tables.\n";
         res += "7. Calculer le montant total d’une réservation consommée (numéro de réservation) et mettre à jour la table RESERVATION pour l’encaissement.\n";
+        res += "8. Vérifier la cohérence des montants cumulés des réservations.\n";
+        res += "9. Réapprovisionner un plat.\n";
+        res += "10. Facturer toutes les réservations ouvertes (fin de service).\n";
+        res += "11. Afficher les rapports (chiffre d'affaires, plats les plus commandés, couverts).\n";
+        res += "12. Afficher le plan de salle d'un jour (occupation des tables par quart d'heure, serveurs affectés).\n";
         return res;
     }
 }
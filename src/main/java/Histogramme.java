@@ -0,0 +1,90 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramme des durées (en nanosecondes) à précision relative constante : 32 intervalles par puissance de 2, soit environ 3 % d'erreur sur un percentile.
+ * L'enregistrement ne prend aucun verrou, il peut être partagé par tous les threads.
+ */
+public class Histogramme {
+    private static final int BITS = 5;
+    private static final int SOUS_INTERVALLES = 1 << BITS;
+
+    private final AtomicLongArray compteurs = new AtomicLongArray(64 * SOUS_INTERVALLES);
+    private final LongAdder nombre = new LongAdder();
+    private final LongAdder somme = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param duree une durée en nanosecondes
+     */
+    public void enregistrer(long duree) {
+        long valeur = Math.max(0, duree);
+        compteurs.incrementAndGet(indice(valeur));
+        nombre.increment();
+        somme.add(valeur);
+        max.accumulate(valeur);
+    }
+
+    private static int indice(long valeur) {
+        if (valeur < SOUS_INTERVALLES) return (int) valeur;
+        int exposant = 63 - Long.numberOfLeadingZeros(valeur);
+        int mantisse = (int) (valeur >>> (exposant - BITS)) & (SOUS_INTERVALLES - 1);
+        return (exposant - BITS + 1) * SOUS_INTERVALLES + mantisse;
+    }
+
+    /**
+     * @return la plus grande valeur de l'intervalle d'indice donné
+     */
+    private static long borneSuperieure(int indice) {
+        if (indice < SOUS_INTERVALLES) return indice;
+        int exposant = indice / SOUS_INTERVALLES + BITS - 1;
+        long debut = (long) (SOUS_INTERVALLES + indice % SOUS_INTERVALLES) << (exposant - BITS);
+        return debut + (1L << (exposant - BITS)) - 1;
+    }
+
+    /**
+     * @param p le rang du percentile, entre 0 et 1 (0.99 pour p99)
+     * @return la durée en nanosecondes sous laquelle se trouve la proportion p des valeurs (0 si l'histogramme est vide)
+     */
+    public long percentile(double p) {
+        long total = nombre.sum();
+        if (total == 0) return 0;
+        long rang = Math.max(1, (long) Math.ceil(p * total));
+        long cumul = 0;
+        for (int i = 0; i < compteurs.length(); i++) {
+            cumul += compteurs.get(i);
+            if (cumul >= rang) return Math.min(borneSuperieure(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * @return le nombre de valeurs enregistrées
+     */
+    public long getNombre() {
+        return nombre.sum();
+    }
+
+    /**
+     * @return la somme des valeurs en nanosecondes
+     */
+    public long getSomme() {
+        return somme.sum();
+    }
+
+    /**
+     * @return la moyenne des valeurs en nanosecondes
+     */
+    public double getMoyenne() {
+        long n = nombre.sum();
+        return n == 0 ? 0 : (double) somme.sum() / n;
+    }
+
+    /**
+     * @return la plus grande valeur enregistrée en nanosecondes
+     */
+    public long getMax() {
+        return max.get();
+    }
+}
@@ -0,0 +1,154 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Index en mémoire des disponibilités des tables, pour répondre aux consultations sans aller-retour avec la base de données.
+ * Pour chaque table, on garde les dates de réservation triées : une table est libre à une date t s'il n'y a aucune réservation entre t - 2h et t + 2h
+ * (même règle que la requête SQL de consulterTablesDispos). Les tables sont rangées par nombre de places.
+ */
+public class IndexDisponibilites {
+    /**
+     * Durée d'un repas (repas + nettoyage + dressage) : 2 heures en millisecondes
+     */
+    public static final long DUREE_REPAS_MS = 2 * 60 * 60 * 1000;
+
+    /**
+     * Numéros des tables rangés par nombre de places (les tables ne changent pas pendant le service)
+     */
+    private volatile TreeMap<Integer, List<Integer>> tablesParPlaces = new TreeMap<>();
+    /**
+     * Nombre de places de chaque table
+     */
+    private volatile Map<Integer, Integer> placesParTable = Map.of();
+    /**
+     * Dates de réservation (en millisecondes) triées, pour chaque table
+     */
+    private final ConcurrentHashMap<Integer, NavigableSet<Long>> reservationsParTable = new ConcurrentHashMap<>();
+    /**
+     * Verrou de chaque table : la vérification du créneau et son ajout se font ensemble
+     */
+    private final ConcurrentHashMap<Integer, ReentrantLock> verrousParTable = new ConcurrentHashMap<>();
+
+    /**
+     * Construit l'index à partir des tables et des réservations du stockage (au démarrage de l'application)
+     * @param stockage stockage des données
+     * @param conn connexion à la base de données (null pour le stockage en mémoire)
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    public void charger(Stockage stockage, Connection conn) throws SQLException {
+        TreeMap<Integer, List<Integer>> parPlaces = new TreeMap<>();
+        Map<Integer, Integer> places = new ConcurrentHashMap<>(stockage.tables().placesParTable(conn));
+        // Les numéros de table sont parcourus par ordre croissant : chaque liste reste triée par numéro
+        for (Map.Entry<Integer, Integer> e : new TreeMap<>(places).entrySet()) {
+            parPlaces.computeIfAbsent(e.getValue(), k -> new ArrayList<>()).add(e.getKey());
+        }
+
+        reservationsParTable.clear();
+        for (Map.Entry<Integer, long[]> e : stockage.reservations().datesParTable(conn, null, null).entrySet()) {
+            NavigableSet<Long> reservations = reservationsDe(e.getKey());
+            for (long date : e.getValue()) reservations.add(date);
+        }
+
+        for (Map.Entry<Integer, List<Integer>> e : parPlaces.entrySet()) {
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+        }
+        placesParTable = places;
+        tablesParPlaces = parPlaces;
+    }
+
+    private NavigableSet<Long> reservationsDe(int numtab) {
+        return reservationsParTable.computeIfAbsent(numtab, k -> new ConcurrentSkipListSet<>());
+    }
+
+    /**
+     * @param numtab numéro de la table
+     * @param date date de réservation (en millisecondes)
+     * @return true s'il n'y a aucune réservation de la table dans les 2 heures avant ou après la date
+     */
+    public boolean estLibre(int numtab, long date) {
+        NavigableSet<Long> reservations = reservationsParTable.get(numtab);
+        return reservations == null || reservations.subSet(date - DUREE_REPAS_MS, true, date + DUREE_REPAS_MS, true).isEmpty();
+    }
+
+    /**
+     * @param date date de réservation
+     * @param nbPers nombre de personnes
+     * @return les numéros des tables disponibles, de la plus petite table qui convient à la plus grande
+     */
+    public List<Integer> tablesDisponibles(Timestamp date, int nbPers) {
+        long t = date.getTime();
+        List<Integer> dispos = new ArrayList<>();
+        for (List<Integer> tables : tablesParPlaces.tailMap(nbPers, true).values()) {
+            for (int numtab : tables) {
+                if (estLibre(numtab, t)) dispos.add(numtab);
+            }
+        }
+        return dispos;
+    }
+
+    /**
+     * @return le nombre de places de chaque table
+     */
+    public Map<Integer, Integer> getPlacesParTable() {
+        return Collections.unmodifiableMap(placesParTable);
+    }
+
+    /**
+     * @param debut début de la période (en millisecondes)
+     * @param fin fin de la période (en millisecondes)
+     * @return les dates de réservation (en millisecondes) de chaque table entre debut et fin inclus, triées
+     */
+    public Map<Integer, long[]> reservationsEntre(long debut, long fin) {
+        Map<Integer, long[]> resultat = new HashMap<>();
+        for (Map.Entry<Integer, NavigableSet<Long>> e : reservationsParTable.entrySet()) {
+            long[] dates = e.getValue().subSet(debut, true, fin, true).stream().mapToLong(Long::longValue).toArray();
+            if (dates.length > 0) resultat.put(e.getKey(), dates);
+        }
+        return resultat;
+    }
+
+    /**
+     * Réserve le créneau dans l'index si la table a assez de places et est libre (vérification et ajout atomiques pour une même table).
+     * Le créneau doit être libéré avec {@link #annuler(int, Timestamp)} si l'insertion en base échoue.
+     * @param numtab numéro de la table
+     * @param nbPers nombre de personnes
+     * @param date date de réservation
+     * @return true si le créneau a été pris, false si la table n'existe pas, est trop petite ou n'est pas libre
+     */
+    public boolean reserver(int numtab, int nbPers, Timestamp date) {
+        Integer nbplace = placesParTable.get(numtab);
+        if (nbplace == null || nbplace < nbPers) return false;
+
+        NavigableSet<Long> reservations = reservationsDe(numtab);
+        ReentrantLock verrou = verrousParTable.computeIfAbsent(numtab, k -> new ReentrantLock());
+        verrou.lock();
+        try {
+            if (!estLibre(numtab, date.getTime())) return false;
+            reservations.add(date.getTime());
+            return true;
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Libère un créneau pris avec {@link #reserver(int, int, Timestamp)}
+     * @param numtab numéro de la table
+     * @param date date de réservation
+     */
+    public void annuler(int numtab, Timestamp date) {
+        NavigableSet<Long> reservations = reservationsParTable.get(numtab);
+        if (reservations != null) reservations.remove(date.getTime());
+    }
+}
@@ -0,0 +1,598 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Journal des commandes écrit avant la base de données (mode facultatif, clé commandes.journal de db.conf).
+ * Une commande est ajoutée à la fin d'un fichier projeté en mémoire, avec une somme de contrôle, et forcée sur le disque :
+ * le serveur a sa réponse sans attendre Oracle. Un thread en arrière-plan applique ensuite les commandes du journal aux tables
+ * COMMANDE, RESERVATION (montant cumulé) et MOUVEMENT_STOCK, par lots, chacun dans une seule transaction.
+ * <p>
+ * Chaque commande a un identifiant unique, enregistré dans la table COMMANDE_JOURNAL dans la transaction qui l'applique :
+ * après un arrêt brutal, les commandes du journal sont rejouées au démarrage et celles déjà appliquées sont ignorées.
+ * Le stock est vérifié en mémoire au moment de la commande (registre des stocks), et la réservation dans l'ensemble des réservations ouvertes
+ * gardé par le journal : chargé au démarrage, complété par une lecture la première fois qu'une réservation inconnue reçoit une commande,
+ * et vidé à l'encaissement. Une commande n'attend donc pas la base de données, même quand elle est injoignable (la réservation inconnue
+ * n'est alors pas vérifiée). Une réservation inexistante ou encaissée entre-temps n'est vue qu'à l'application : la commande est alors rejetée,
+ * son stock est remis et le rejet est publié dans le journal des événements (type ROLLBACK).
+ * <p>
+ * Format du fichier : un en-tête (numéro magique, génération, position jusqu'à laquelle les commandes ont été appliquées), puis les commandes :
+ * longueur, somme de contrôle CRC-32C, génération, identifiant, date, numéro de réservation, nombre de lignes, puis numéro de plat, quantité et prix de chaque ligne.
+ * Quand toutes les commandes ont été appliquées, on repart du début du fichier avec une nouvelle génération : les anciennes commandes ne sont plus lues.
+ */
+public class JournalCommandes implements AutoCloseable {
+    /**
+     * Taille de l'en-tête du fichier (en octets)
+     */
+    public static final int TAILLE_EN_TETE = 64;
+    private static final long MAGIQUE = 0x434F4D4D414E4431L;
+    private static final int POSITION_GENERATION = 8;
+    private static final int POSITION_APPLIQUEE = 16;
+    /**
+     * Taille d'une commande sans ses lignes : longueur, somme de contrôle, génération, identifiant, date, numéro de réservation, nombre de lignes
+     */
+    private static final int TAILLE_COMMANDE = 4 + 4 + 8 + 8 + 8 + 4 + 4;
+    /**
+     * Taille d'une ligne : numéro de plat, quantité, prix unitaire
+     */
+    private static final int TAILLE_LIGNE = 4 + 4 + 8;
+
+    /**
+     * Commande lue dans le journal
+     * @param idcmd identifiant unique de la commande
+     * @param instant date de la commande (en millisecondes depuis le 1er janvier 1970)
+     * @param numres numéro de la réservation
+     * @param quantites quantité par plat
+     * @param prix prix unitaire par plat au moment de la commande
+     * @param fin position de la commande suivante dans le fichier
+     */
+    public record Commande(long idcmd, long instant, int numres, Map<Integer, Integer> quantites, Map<Integer, Double> prix, int fin) {
+    }
+
+    private final Path fichier;
+    private final int capacite;
+    private final PoolConnexions pool;
+    private final RegistreStocks registre;
+    private final JournalEvenements evenements;
+    private final int tailleLot;
+    private final long periodeMs;
+    private final ScheduledExecutorService applicateur;
+
+    private FileChannel canal;
+    private MappedByteBuffer tampon;
+    private long generation;
+
+    /**
+     * Un seul ajout à la fois (réservation de la place et écriture)
+     */
+    private final ReentrantLock ecriture = new ReentrantLock();
+    /**
+     * Un seul forçage sur le disque à la fois : les commandes ajoutées pendant un forçage sont forcées ensemble au suivant
+     */
+    private final ReentrantLock forcage = new ReentrantLock();
+    /**
+     * Une seule application à la fois
+     */
+    private final ReentrantLock application = new ReentrantLock();
+
+    /**
+     * Fin des commandes écrites dans le fichier
+     */
+    private volatile int fin;
+    /**
+     * Fin des commandes forcées sur le disque (seules celles-ci sont acquittées et appliquées)
+     */
+    private volatile int durable;
+    /**
+     * Fin des commandes appliquées à la base de données
+     */
+    private volatile int appliquee;
+
+    private final AtomicLong dernierId = new AtomicLong();
+    private final AtomicInteger enAttente = new AtomicInteger();
+    private final LongAdder ajoutees = new LongAdder();
+    private final LongAdder appliquees = new LongAdder();
+    private final LongAdder rejetees = new LongAdder();
+    private final LongAdder dejaAppliquees = new LongAdder();
+    /**
+     * Réservations connues pour être ouvertes (existantes et pas encore encaissées)
+     */
+    private final Set<Integer> reservationsOuvertes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructeur du journal
+     * @param fichier le fichier du journal
+     * @param capacite la taille du fichier (en octets)
+     * @param pool le pool de connexions (pour l'application des commandes)
+     * @param registre le registre des stocks (pour remettre le stock d'une commande rejetée)
+     * @param evenements le journal des événements (pour signaler une commande rejetée), null s'il n'y en a pas
+     * @param tailleLot le nombre maximal de commandes appliquées dans une même transaction
+     * @param periodeMs la période de l'application des commandes (en millisecondes)
+     */
+    public JournalCommandes(Path fichier, int capacite, PoolConnexions pool, RegistreStocks registre, JournalEvenements evenements, int tailleLot, long periodeMs) {
+        this.fichier = fichier;
+        this.capacite = capacite;
+        this.pool = pool;
+        this.registre = registre;
+        this.evenements = evenements;
+        this.tailleLot = tailleLot;
+        this.periodeMs = periodeMs;
+        this.applicateur = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "application-commandes");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Crée le journal à partir du fichier de configuration (resources/db.conf).
+     * Clés : commandes.journal (pas de journal si absente), commandes.journal.taille en octets (64 Mo par défaut),
+     * commandes.lot (500 commandes par transaction par défaut), commandes.periode en millisecondes (100 par défaut)
+     * @param config la configuration chargée par DBConfig
+     * @param pool le pool de connexions
+     * @param registre le registre des stocks
+     * @param evenements le journal des événements, null s'il n'y en a pas
+     * @return le journal, null si la clé commandes.journal est absente
+     */
+    public static JournalCommandes depuisConfig(Properties config, PoolConnexions pool, RegistreStocks registre, JournalEvenements evenements) {
+        String fichier = config.getProperty("commandes.journal");
+        if (fichier == null || fichier.isBlank()) return null;
+        return new JournalCommandes(Path.of(fichier),
+                Integer.parseInt(config.getProperty("commandes.journal.taille", String.valueOf(64 * 1024 * 1024))),
+                pool, registre, evenements,
+                Integer.parseInt(config.getProperty("commandes.lot", "500")),
+                Long.parseLong(config.getProperty("commandes.periode", "100")));
+    }
+
+    /**
+     * Ouvre le fichier et retrouve les commandes pas encore appliquées (après un arrêt brutal, la dernière commande peut être incomplète : elle est ignorée)
+     * @throws IOException si le fichier ne peut pas être ouvert
+     */
+    public void ouvrir() throws IOException {
+        Path dossier = fichier.toAbsolutePath().getParent();
+        if (dossier != null) Files.createDirectories(dossier);
+        canal = FileChannel.open(fichier, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        tampon = canal.map(FileChannel.MapMode.READ_WRITE, 0, capacite);
+
+        if (tampon.getLong(0) != MAGIQUE) {
+            tampon.putLong(POSITION_GENERATION, 1);
+            tampon.putLong(POSITION_APPLIQUEE, TAILLE_EN_TETE);
+            tampon.putLong(0, MAGIQUE);
+            tampon.force(0, TAILLE_EN_TETE);
+        }
+        generation = tampon.getLong(POSITION_GENERATION);
+        appliquee = (int) tampon.getLong(POSITION_APPLIQUEE);
+
+        int position = TAILLE_EN_TETE;
+        Commande commande;
+        while ((commande = lire(position)) != null) {
+            if (position >= appliquee) enAttente.incrementAndGet();
+            dernierId.accumulateAndGet(commande.idcmd(), Math::max);
+            position = commande.fin();
+        }
+        // Ce qui suit la dernière commande valide (commande incomplète) est effacé : une commande ajoutée ensuite ne doit pas pouvoir être lue avec des restes
+        if (position + 4 <= capacite && tampon.getInt(position) != 0) {
+            for (int i = position; i < capacite; i++) tampon.put(i, (byte) 0);
+            tampon.force();
+        }
+        fin = position;
+        durable = position;
+    }
+
+    /**
+     * Charge les réservations ouvertes depuis une date (au démarrage) : les commandes de ces réservations sont acquittées sans lecture
+     * @param conn connexion à la base de données
+     * @param depuis date de réservation à partir de laquelle on charge (les plus anciennes sont vérifiées à leur première commande)
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    public void chargerReservationsOuvertes(Connection conn, Timestamp depuis) throws SQLException {
+        PreparedStatement pstmt = CacheRequetes.de(conn).preparer("SELECT numres FROM reservation WHERE datres >= ? AND (montcom IS NULL OR montcom = 0)");
+        pstmt.setTimestamp(1, depuis);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) reservationsOuvertes.add(rs.getInt("numres"));
+        }
+        if (!conn.getAutoCommit()) conn.commit();
+    }
+
+    /**
+     * @param numres numéro de la réservation
+     * @return true si la réservation est connue pour être ouverte, false si elle est inconnue (à vérifier dans la base de données)
+     */
+    public boolean reservationConnue(int numres) {
+        return reservationsOuvertes.contains(numres);
+    }
+
+    /**
+     * La réservation a été vue ouverte dans la base de données : ses commandes suivantes sont acquittées sans lecture
+     * @param numres numéro de la réservation
+     */
+    public void reservationOuverte(int numres) {
+        reservationsOuvertes.add(numres);
+    }
+
+    /**
+     * La réservation a été encaissée : ses commandes suivantes seront vérifiées dans la base de données (et refusées)
+     * @param numres numéro de la réservation
+     */
+    public void reservationFermee(int numres) {
+        reservationsOuvertes.remove(numres);
+    }
+
+    /**
+     * Démarre l'application périodique des commandes en arrière-plan
+     */
+    public void demarrer() {
+        applicateur.scheduleWithFixedDelay(this::appliquerSansErreur, periodeMs, periodeMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ajoute une commande à la fin du journal et attend qu'elle soit sur le disque
+     * @param numres numéro de la réservation
+     * @param quantites quantité par plat
+     * @param prix prix unitaire par plat
+     * @return l'identifiant de la commande, -1 si le journal est plein (la commande n'a pas été ajoutée)
+     */
+    public long ajouter(int numres, Map<Integer, Integer> quantites, Map<Integer, Double> prix) {
+        int taille = TAILLE_COMMANDE + quantites.size() * TAILLE_LIGNE;
+        int position;
+        long idcmd;
+        ecriture.lock();
+        try {
+            position = fin;
+            if (position + taille > capacite) {
+                // Le journal repartira du début quand tout aura été appliqué
+                try {
+                    applicateur.execute(this::appliquerSansErreur);
+                } catch (RejectedExecutionException e) {
+                    // Journal en cours de fermeture : la commande passe par l'enregistrement direct
+                }
+                return -1;
+            }
+            // Identifiant croissant et unique, même après un redémarrage : dérivé de l'heure en microsecondes
+            idcmd = dernierId.updateAndGet(dernier -> Math.max(dernier + 1, System.currentTimeMillis() * 1000));
+
+            int i = position + 8;
+            tampon.putLong(i, generation);
+            tampon.putLong(i + 8, idcmd);
+            tampon.putLong(i + 16, System.currentTimeMillis());
+            tampon.putInt(i + 24, numres);
+            tampon.putInt(i + 28, quantites.size());
+            i += 32;
+            for (Map.Entry<Integer, Integer> e : quantites.entrySet()) {
+                tampon.putInt(i, e.getKey());
+                tampon.putInt(i + 4, e.getValue());
+                tampon.putDouble(i + 8, prix.get(e.getKey()));
+                i += TAILLE_LIGNE;
+            }
+            tampon.putInt(position + 4, sommeControle(position + 8, taille - 8));
+            // La longueur est écrite en dernier : une commande à moitié écrite a une longueur nulle ou une somme de contrôle fausse
+            tampon.putInt(position, taille - 8);
+            fin = position + taille;
+            enAttente.incrementAndGet();
+            ajoutees.increment();
+        } finally {
+            ecriture.unlock();
+        }
+        forcer(position + taille);
+        return idcmd;
+    }
+
+    /**
+     * Force sur le disque les commandes écrites jusqu'à la position donnée.
+     * Si un autre thread est déjà en train de forcer, on attend puis on force en une fois tout ce qui a été écrit entre-temps (validation groupée).
+     */
+    private void forcer(int jusqua) {
+        if (durable >= jusqua) return;
+        forcage.lock();
+        try {
+            if (durable >= jusqua) return;
+            int debut = durable;
+            int finEcrite = fin;
+            tampon.force(debut, finEcrite - debut);
+            durable = finEcrite;
+        } finally {
+            forcage.unlock();
+        }
+    }
+
+    /**
+     * @param position position d'une commande dans le fichier
+     * @return la commande, null s'il n'y en a pas (fin du journal, commande d'une ancienne génération ou incomplète)
+     */
+    private Commande lire(int position) {
+        if (position + TAILLE_COMMANDE > capacite) return null;
+        int longueur = tampon.getInt(position);
+        if (longueur < TAILLE_COMMANDE - 8 || position + 8 + longueur > capacite) return null;
+        int i = position + 8;
+        if (tampon.getLong(i) != generation) return null;
+        int nbLignes = tampon.getInt(i + 28);
+        if (nbLignes < 0 || longueur != TAILLE_COMMANDE - 8 + nbLignes * TAILLE_LIGNE) return null;
+        if (tampon.getInt(position + 4) != sommeControle(i, longueur)) return null;
+
+        long idcmd = tampon.getLong(i + 8);
+        long instant = tampon.getLong(i + 16);
+        int numres = tampon.getInt(i + 24);
+        Map<Integer, Integer> quantites = new TreeMap<>();
+        Map<Integer, Double> prix = new TreeMap<>();
+        i += 32;
+        for (int l = 0; l < nbLignes; l++) {
+            quantites.put(tampon.getInt(i), tampon.getInt(i + 4));
+            prix.put(tampon.getInt(i), tampon.getDouble(i + 8));
+            i += TAILLE_LIGNE;
+        }
+        return new Commande(idcmd, instant, numres, quantites, prix, position + 8 + longueur);
+    }
+
+    private int sommeControle(int position, int longueur) {
+        CRC32C crc = new CRC32C();
+        crc.update(tampon.slice(position, longueur));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Applique à la base de données toutes les commandes forcées sur le disque, sur une connexion du pool (empruntée seulement s'il y a des commandes en attente)
+     * @return le nombre de commandes traitées (appliquées, rejetées ou déjà appliquées)
+     * @throws SQLException si une erreur survient lors des requêtes SQL (les commandes du lot seront réessayées)
+     */
+    public int appliquer() throws SQLException {
+        if (appliquee == durable && fin == TAILLE_EN_TETE) return 0;
+        try (Connection conn = pool.getConnection()) {
+            return appliquer(conn);
+        }
+    }
+
+    /**
+     * Applique à la base de données toutes les commandes forcées sur le disque, par lots (une transaction par lot).
+     * Appelée en arrière-plan, au démarrage (rejeu) et avant un encaissement (pour que le montant cumulé soit complet) :
+     * l'encaissement passe sa propre connexion, pour ne pas attendre une deuxième connexion du pool en en gardant déjà une.
+     * @param conn connexion à la base de données (hors transaction : chaque lot est validé)
+     * @return le nombre de commandes traitées (appliquées, rejetées ou déjà appliquées)
+     * @throws SQLException si une erreur survient lors des requêtes SQL (les commandes du lot seront réessayées)
+     */
+    public int appliquer(Connection conn) throws SQLException {
+        application.lock();
+        try {
+            int traitees = 0;
+            while (appliquee < durable) {
+                List<Commande> lot = new ArrayList<>();
+                int position = appliquee;
+                int limite = durable;
+                Commande commande;
+                while (position < limite && lot.size() < tailleLot && (commande = lire(position)) != null) {
+                    lot.add(commande);
+                    position = commande.fin();
+                }
+                if (lot.isEmpty()) break;
+
+                appliquerLot(conn, lot);
+
+                // Le lot est validé : on note dans l'en-tête jusqu'où le journal a été appliqué
+                tampon.putLong(POSITION_APPLIQUEE, position);
+                tampon.force(0, TAILLE_EN_TETE);
+                appliquee = position;
+                enAttente.addAndGet(-lot.size());
+                traitees += lot.size();
+            }
+            recommencer(conn);
+            return traitees;
+        } finally {
+            application.unlock();
+        }
+    }
+
+    /**
+     * Applique un lot de commandes dans une seule transaction : les commandes déjà appliquées (rejeu) sont ignorées,
+     * les montants sont ajoutés au cumul de chaque réservation (par numéro croissant), puis les lignes de commande et les mouvements de stock sont enregistrés en lot
+     */
+    private void appliquerLot(Connection conn, List<Commande> lot) throws SQLException {
+        conn.setAutoCommit(false);
+        CacheRequetes cache = CacheRequetes.de(conn);
+        try {
+            // Commandes déjà appliquées avant un arrêt brutal (la transaction a été validée mais pas l'en-tête du journal)
+            Set<Long> deja = new HashSet<>();
+            PreparedStatement pstmtDeja = cache.preparer("SELECT idcmd FROM commande_journal WHERE idcmd BETWEEN ? AND ?");
+            pstmtDeja.setLong(1, lot.get(0).idcmd());
+            pstmtDeja.setLong(2, lot.get(lot.size() - 1).idcmd());
+            try (ResultSet rs = pstmtDeja.executeQuery()) {
+                while (rs.next()) deja.add(rs.getLong("idcmd"));
+            }
+
+            // Montant et quantités par réservation
+            TreeMap<Integer, Double> montants = new TreeMap<>();
+            TreeMap<Integer, List<Commande>> parReservation = new TreeMap<>();
+            for (Commande commande : lot) {
+                if (deja.contains(commande.idcmd())) continue;
+                montants.merge(commande.numres(), Serveur.montant(commande.quantites(), commande.prix()), Double::sum);
+                parReservation.computeIfAbsent(commande.numres(), k -> new ArrayList<>()).add(commande);
+            }
+
+            // Même condition que commanderPlats : la réservation doit exister et ne pas être encaissée
+            PreparedStatement pstmtCumul = cache.preparer("UPDATE reservation SET montcours = montcours + ? WHERE numres = ? AND (montcom IS NULL OR montcom = 0)");
+            List<Integer> numsReservations = new ArrayList<>(montants.keySet());
+            for (int numres : numsReservations) {
+                pstmtCumul.setDouble(1, montants.get(numres));
+                pstmtCumul.setInt(2, numres);
+                pstmtCumul.addBatch();
+            }
+            int[] nbLignes = numsReservations.isEmpty() ? new int[0] : pstmtCumul.executeBatch();
+
+            List<Commande> rejetes = new ArrayList<>();
+            TreeMap<Integer, Map<Integer, Integer>> lignes = new TreeMap<>();
+            TreeMap<Integer, Integer> deltas = new TreeMap<>();
+            for (int k = 0; k < numsReservations.size(); k++) {
+                List<Commande> commandes = parReservation.get(numsReservations.get(k));
+                if (nbLignes[k] == 0) {
+                    rejetes.addAll(commandes);
+                    continue;
+                }
+                for (Commande commande : commandes) {
+                    for (Map.Entry<Integer, Integer> e : commande.quantites().entrySet()) {
+                        lignes.computeIfAbsent(commande.numres(), n -> new TreeMap<>()).merge(e.getKey(), e.getValue(), Integer::sum);
+                        deltas.merge(e.getKey(), e.getValue(), Integer::sum);
+                    }
+                }
+            }
+
+            // Le stock a déjà été retiré du registre au moment de la commande : on enregistre seulement les mouvements, reportés plus tard sur plat.qteservie
+            for (Map.Entry<Integer, Map<Integer, Integer>> e : lignes.entrySet()) DepotCommandesJdbc.enregistrerLignes(conn, e.getKey(), e.getValue());
+            if (!deltas.isEmpty()) RegistreStocks.enregistrerMouvements(conn, deltas);
+
+            // Les commandes traitées (appliquées ou rejetées) ne seront plus appliquées en cas de rejeu
+            PreparedStatement pstmtJournal = cache.preparer("INSERT INTO commande_journal (idcmd, numres) VALUES (?, ?)");
+            int nbTraitees = 0;
+            for (Commande commande : lot) {
+                if (deja.contains(commande.idcmd())) continue;
+                pstmtJournal.setLong(1, commande.idcmd());
+                pstmtJournal.setInt(2, commande.numres());
+                pstmtJournal.addBatch();
+                nbTraitees++;
+            }
+            if (nbTraitees > 0) pstmtJournal.executeBatch();
+
+            conn.commit();
+
+            dejaAppliquees.add(deja.size());
+            rejetees.add(rejetes.size());
+            appliquees.add(nbTraitees - rejetes.size());
+            for (Commande commande : rejetes) {
+                reservationsOuvertes.remove(commande.numres());
+                if (registre != null) registre.remettre(commande.quantites());
+                if (evenements != null) {
+                    evenements.publier(new JournalEvenements.Evenement(System.currentTimeMillis(), JournalEvenements.Type.ROLLBACK, null, commande.numres(), 0,
+                            Serveur.montant(commande.quantites(), commande.prix()),
+                            "commande " + commande.idcmd() + " rejetée à l'application : réservation inexistante ou déjà encaissée, plats remis en stock " + commande.quantites()));
+                }
+            }
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Quand toutes les commandes ont été appliquées, repart du début du fichier avec une nouvelle génération (les anciennes commandes ne seront plus lues),
+     * puis supprime les identifiants des commandes appliquées, qui ne peuvent plus être rejouées
+     */
+    private void recommencer(Connection conn) throws SQLException {
+        long dernierApplique;
+        ecriture.lock();
+        forcage.lock();
+        try {
+            if (fin == TAILLE_EN_TETE || appliquee != fin) return;
+            dernierApplique = dernierId.get();
+            generation++;
+            tampon.putLong(POSITION_APPLIQUEE, TAILLE_EN_TETE);
+            tampon.putLong(POSITION_GENERATION, generation);
+            tampon.force(0, TAILLE_EN_TETE);
+            fin = TAILLE_EN_TETE;
+            durable = TAILLE_EN_TETE;
+            appliquee = TAILLE_EN_TETE;
+        } finally {
+            forcage.unlock();
+            ecriture.unlock();
+        }
+
+        conn.setAutoCommit(false);
+        PreparedStatement pstmt = CacheRequetes.de(conn).preparer("DELETE FROM commande_journal WHERE idcmd <= ?");
+        pstmt.setLong(1, dernierApplique);
+        pstmt.executeUpdate();
+        conn.commit();
+    }
+
+    private void appliquerSansErreur() {
+        try {
+            appliquer();
+        } catch (SQLException e) {
+            // Les commandes restent dans le journal, elles seront appliquées la prochaine fois
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return le nombre de commandes du journal pas encore appliquées à la base de données
+     */
+    public int getEnAttente() {
+        return enAttente.get();
+    }
+
+    /**
+     * @return l'ancienneté de la plus ancienne commande pas encore appliquée (en millisecondes), 0 si toutes ont été appliquées
+     */
+    public long getRetardMs() {
+        Commande commande = appliquee < durable ? lire(appliquee) : null;
+        return commande == null ? 0 : Math.max(0, System.currentTimeMillis() - commande.instant());
+    }
+
+    /**
+     * @return le nombre de commandes ajoutées au journal depuis le démarrage
+     */
+    public long getAjoutees() {
+        return ajoutees.sum();
+    }
+
+    /**
+     * @return le nombre de commandes appliquées à la base de données depuis le démarrage
+     */
+    public long getAppliquees() {
+        return appliquees.sum();
+    }
+
+    /**
+     * @return le nombre de commandes rejetées à l'application (réservation inexistante ou déjà encaissée)
+     */
+    public long getRejetees() {
+        return rejetees.sum();
+    }
+
+    /**
+     * @return le nombre de commandes ignorées au rejeu car déjà appliquées
+     */
+    public long getDejaAppliquees() {
+        return dejaAppliquees.sum();
+    }
+
+    /**
+     * Arrête l'application en arrière-plan, applique les dernières commandes puis ferme le fichier
+     */
+    @Override
+    public void close() {
+        applicateur.shutdown();
+        try {
+            applicateur.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        appliquerSansErreur();
+        try {
+            tampon.force();
+            canal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
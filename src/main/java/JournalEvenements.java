@@ -0,0 +1,346 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Journal des événements métier (réservation créée, commande passée, addition encaissée, rollback...) écrit en arrière-plan.
+ * Publier un événement ne bloque jamais l'appelant : il est déposé dans un tampon circulaire borné, sans verrou, et un seul thread
+ * l'écrit dans un fichier au format JSON lines (un objet JSON par ligne). Ce thread dort tant qu'il n'y a rien à écrire : la publication
+ * qui suit son endormissement le réveille. Si le tampon est plein, l'événement est perdu et compté.
+ * Le fichier change quand il dépasse une taille maximale : evenements.jsonl devient evenements.jsonl.1, etc.
+ * Seul le thread d'écriture touche au fichier, y compris pour le fermer. Si le fichier ne peut pas être rouvert (après un changement de fichier raté),
+ * les événements sont perdus et comptés, et le fichier est rouvert au plus une fois par seconde.
+ */
+public class JournalEvenements implements AutoCloseable {
+    /**
+     * Types d'événements
+     */
+    public enum Type {
+        RESERVATION_CREEE,
+        COMMANDE_PASSEE,
+        ADDITION_ENCAISSEE,
+        AFFECTATION,
+        REAPPROVISIONNEMENT,
+        ROLLBACK
+    }
+
+    /**
+     * Événement du journal
+     * @param instant date de l'événement (en millisecondes depuis le 1er janvier 1970)
+     * @param type type de l'événement
+     * @param numserv numéro du serveur à l'origine de l'événement
+     * @param numres numéro de la réservation concernée (0 si aucune)
+     * @param numtab numéro de la table concernée (0 si aucune)
+     * @param montant montant concerné (0 si aucun)
+     * @param detail précisions (plats commandés, raison d'un rollback...), null si aucune
+     */
+    public record Evenement(long instant, Type type, String numserv, int numres, int numtab, double montant, String detail) {
+    }
+
+    private final Path fichier;
+    private final long tailleMax;
+    private final int nbFichiers;
+
+    // Tampon circulaire à plusieurs producteurs et un seul consommateur. La case i est libre pour la publication de rang p
+    // quand sequences[i] == p, et prête à être lue quand sequences[i] == p + 1.
+    private final Evenement[] cases;
+    private final AtomicLongArray sequences;
+    private final int masque;
+    private final AtomicLong prochainePublication = new AtomicLong();
+    /**
+     * Rang du prochain événement à lire (utilisé uniquement par le thread d'écriture)
+     */
+    private long prochaineLecture = 0;
+
+    private final LongAdder publies = new LongAdder();
+    private final LongAdder perdus = new LongAdder();
+    private final LongAdder ecrits = new LongAdder();
+
+    /**
+     * Attente maximale du thread d'écriture quand il n'y a rien à écrire : publier() le réveille dès qu'un événement arrive
+     */
+    private static final long ATTENTE_MAX_NS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Thread ecrivain;
+    private volatile boolean actif = true;
+    /**
+     * true pendant que le thread d'écriture s'endort ou dort : publier() doit alors le réveiller
+     */
+    private volatile boolean endormi;
+    /**
+     * true si des lignes ont été écrites depuis le dernier vidage du tampon d'écriture (utilisé uniquement par le thread d'écriture)
+     */
+    private boolean aVider;
+    /**
+     * Fichier ouvert, null s'il n'a pas pu être rouvert (utilisé uniquement par le thread d'écriture une fois démarré)
+     */
+    private BufferedWriter sortie;
+    private long taille;
+    /**
+     * Date à partir de laquelle on peut réessayer d'ouvrir le fichier (System.nanoTime())
+     */
+    private long prochaineOuverture = System.nanoTime();
+
+    /**
+     * Constructeur du journal
+     * @param fichier le fichier du journal
+     * @param capacite le nombre d'événements en attente d'écriture (arrondi à la puissance de 2 supérieure)
+     * @param tailleMax la taille au-delà de laquelle on change de fichier (en octets)
+     * @param nbFichiers le nombre d'anciens fichiers gardés
+     */
+    public JournalEvenements(Path fichier, int capacite, long tailleMax, int nbFichiers) {
+        int taillePuissance2 = Integer.highestOneBit(Math.max(2, capacite - 1)) << 1;
+        this.fichier = fichier;
+        this.tailleMax = tailleMax;
+        this.nbFichiers = nbFichiers;
+        this.cases = new Evenement[taillePuissance2];
+        this.sequences = new AtomicLongArray(taillePuissance2);
+        for (int i = 0; i < taillePuissance2; i++) sequences.set(i, i);
+        this.masque = taillePuissance2 - 1;
+        this.ecrivain = new Thread(this::ecrire, "journal-evenements");
+        this.ecrivain.setDaemon(true);
+    }
+
+    /**
+     * Crée le journal à partir du fichier de configuration (resources/db.conf).
+     * Clés : journal.fichier (pas de journal si absente), journal.capacite (8192 événements par défaut),
+     * journal.tailleMax en octets (10 Mo par défaut), journal.fichiers (5 anciens fichiers par défaut)
+     * @param config la configuration chargée par DBConfig
+     * @return le journal, null si la clé journal.fichier est absente
+     */
+    public static JournalEvenements depuisConfig(Properties config) {
+        String fichier = config.getProperty("journal.fichier");
+        if (fichier == null || fichier.isBlank()) return null;
+        return new JournalEvenements(Path.of(fichier),
+                Integer.parseInt(config.getProperty("journal.capacite", "8192")),
+                Long.parseLong(config.getProperty("journal.tailleMax", String.valueOf(10L * 1024 * 1024))),
+                Integer.parseInt(config.getProperty("journal.fichiers", "5")));
+    }
+
+    /**
+     * Ouvre le fichier et démarre le thread d'écriture
+     * @throws IOException si le fichier ne peut pas être ouvert
+     */
+    public void demarrer() throws IOException {
+        ouvrir();
+        ecrivain.start();
+    }
+
+    /**
+     * Publie un événement sans attendre son écriture
+     * @param evenement l'événement
+     * @return true si l'événement a été pris en compte, false s'il a été perdu (tampon plein)
+     */
+    public boolean publier(Evenement evenement) {
+        while (true) {
+            long rang = prochainePublication.get();
+            int i = (int) rang & masque;
+            long difference = sequences.get(i) - rang;
+            if (difference == 0) {
+                if (prochainePublication.compareAndSet(rang, rang + 1)) {
+                    cases[i] = evenement;
+                    // Écriture volatile : le thread d'écriture qui lit la séquence voit l'événement
+                    sequences.set(i, rang + 1);
+                    publies.increment();
+                    // Lu après la publication : soit le thread d'écriture voit l'événement avant de s'endormir, soit on le réveille
+                    if (endormi) LockSupport.unpark(ecrivain);
+                    return true;
+                }
+            } else if (difference < 0) {
+                // La case n'a pas encore été lue : le tampon est plein
+                perdus.increment();
+                return false;
+            }
+            // Sinon un autre producteur a pris ce rang, on réessaie avec le suivant
+        }
+    }
+
+    /**
+     * @return le prochain événement à écrire, null s'il n'y en a pas
+     */
+    private Evenement lire() {
+        if (!pret()) return null;
+        int i = (int) prochaineLecture & masque;
+        Evenement evenement = cases[i];
+        cases[i] = null;
+        // La case pourra être réutilisée au tour suivant du tampon
+        sequences.set(i, prochaineLecture + cases.length);
+        prochaineLecture++;
+        return evenement;
+    }
+
+    /**
+     * @return true si le prochain événement à écrire a été publié
+     */
+    private boolean pret() {
+        return sequences.get((int) prochaineLecture & masque) == prochaineLecture + 1;
+    }
+
+    /**
+     * Boucle du thread d'écriture : écrit les événements dès qu'il y en a, vide le tampon d'écriture quand il n'y en a plus
+     * (seulement si des lignes ont été écrites depuis le dernier vidage), puis dort jusqu'à ce que publier() le réveille
+     */
+    private void ecrire() {
+        try {
+            while (true) {
+                Evenement evenement = lire();
+                if (evenement == null) {
+                    if (aVider && sortie != null) {
+                        try {
+                            sortie.flush();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                    aVider = false;
+                    if (!actif) break;
+                    endormi = true;
+                    // Un événement publié avant endormi = true n'a pas réveillé le thread : on vérifie avant de dormir
+                    if (!pret() && actif) LockSupport.parkNanos(ATTENTE_MAX_NS);
+                    endormi = false;
+                    continue;
+                }
+                if (sortie == null && !rouvrir()) {
+                    perdus.increment();
+                    continue;
+                }
+                try {
+                    String ligne = Json.ecrire(versMap(evenement)) + "\n";
+                    sortie.write(ligne);
+                    aVider = true;
+                    taille += ligne.getBytes(StandardCharsets.UTF_8).length;
+                    ecrits.increment();
+                    if (taille >= tailleMax) tourner();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            // Le tampon est vidé : le fichier est fermé ici, jamais pendant une écriture
+            fermer();
+        }
+    }
+
+    private static Map<String, Object> versMap(Evenement e) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("instant", Instant.ofEpochMilli(e.instant()).toString());
+        map.put("type", e.type().name());
+        if (e.numserv() != null) map.put("numserv", e.numserv());
+        if (e.numres() != 0) map.put("numres", e.numres());
+        if (e.numtab() != 0) map.put("numtab", e.numtab());
+        if (e.montant() != 0) map.put("montant", e.montant());
+        if (e.detail() != null) map.put("detail", e.detail());
+        return map;
+    }
+
+    private void ouvrir() throws IOException {
+        try {
+            Path dossier = fichier.toAbsolutePath().getParent();
+            if (dossier != null) Files.createDirectories(dossier);
+            taille = Files.exists(fichier) ? Files.size(fichier) : 0;
+            sortie = Files.newBufferedWriter(fichier, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            prochaineOuverture = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            throw e;
+        }
+    }
+
+    /**
+     * Rouvre le fichier après un échec, au plus une fois par seconde (l'erreur a déjà été affichée lors de l'échec)
+     * @return true si le fichier est ouvert
+     */
+    private boolean rouvrir() {
+        if (System.nanoTime() - prochaineOuverture < 0) return false;
+        try {
+            ouvrir();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Change de fichier : evenements.jsonl.(n-1) devient evenements.jsonl.n, ..., evenements.jsonl devient evenements.jsonl.1.
+     * Si un déplacement échoue, on rouvre le fichier courant (il continue de grossir jusqu'au prochain changement réussi)
+     */
+    private void tourner() throws IOException {
+        BufferedWriter ancienne = sortie;
+        sortie = null;
+        ancienne.close();
+        try {
+            Files.deleteIfExists(Path.of(fichier + "." + nbFichiers));
+            for (int n = nbFichiers - 1; n >= 1; n--) {
+                Path ancien = Path.of(fichier + "." + n);
+                if (Files.exists(ancien)) Files.move(ancien, Path.of(fichier + "." + (n + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (nbFichiers > 0) Files.move(fichier, Path.of(fichier + ".1"), StandardCopyOption.REPLACE_EXISTING);
+            else Files.delete(fichier);
+        } finally {
+            ouvrir();
+        }
+    }
+
+    private void fermer() {
+        if (sortie == null) return;
+        try {
+            sortie.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        sortie = null;
+    }
+
+    /**
+     * Arrête le thread d'écriture, qui écrit les événements encore en attente puis ferme le fichier. Si l'écriture n'est pas terminée
+     * au bout de 5 secondes, on rend la main sans fermer le fichier : le thread d'écriture le fermera lui-même une fois le tampon vidé.
+     */
+    @Override
+    public void close() {
+        actif = false;
+        // Thread jamais démarré : personne d'autre n'utilise le fichier
+        if (ecrivain.getState() == Thread.State.NEW) {
+            fermer();
+            return;
+        }
+        LockSupport.unpark(ecrivain);
+        try {
+            ecrivain.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return le nombre d'événements publiés
+     */
+    public long getPublies() {
+        return publies.sum();
+    }
+
+    /**
+     * @return le nombre d'événements perdus car le tampon était plein ou le fichier ne pouvait pas être ouvert
+     */
+    public long getPerdus() {
+        return perdus.sum();
+    }
+
+    /**
+     * @return le nombre d'événements écrits dans le fichier
+     */
+    public long getEcrits() {
+        return ecrits.sum();
+    }
+}
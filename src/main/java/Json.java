@@ -0,0 +1,224 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lecture et écriture du JSON échangé par l'API HTTP (sans dépendance externe).
+ * Un objet JSON est lu en Map (ordre des clés conservé), un tableau en List, un nombre en Long ou en Double, true/false en Boolean et null en null.
+ */
+public final class Json {
+    private final String texte;
+    private int pos = 0;
+
+    private Json(String texte) {
+        this.texte = texte;
+    }
+
+    /**
+     * @param texte le texte JSON
+     * @return la valeur lue
+     * @throws IllegalArgumentException si le texte n'est pas du JSON valide
+     */
+    public static Object lire(String texte) {
+        Json json = new Json(texte);
+        Object valeur = json.valeur();
+        json.espaces();
+        if (json.pos < texte.length()) throw json.erreur("fin du texte attendue");
+        return valeur;
+    }
+
+    /**
+     * @param valeur une Map, une List (ou un tableau d'int), une chaîne, un nombre, un booléen, un record ou null
+     * @return le texte JSON de la valeur
+     */
+    public static String ecrire(Object valeur) {
+        StringBuilder sb = new StringBuilder();
+        ecrire(sb, valeur);
+        return sb.toString();
+    }
+
+    private static void ecrire(StringBuilder sb, Object valeur) {
+        if (valeur == null) {
+            sb.append("null");
+        } else if (valeur instanceof String || valeur instanceof java.util.Date) {
+            chaine(sb, valeur.toString());
+        } else if (valeur instanceof Number || valeur instanceof Boolean) {
+            sb.append(valeur);
+        } else if (valeur instanceof Map<?, ?> map) {
+            sb.append('{');
+            boolean premier = true;
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                if (!premier) sb.append(',');
+                premier = false;
+                chaine(sb, String.valueOf(e.getKey()));
+                sb.append(':');
+                ecrire(sb, e.getValue());
+            }
+            sb.append('}');
+        } else if (valeur instanceof Iterable<?> liste) {
+            sb.append('[');
+            boolean premier = true;
+            for (Object element : liste) {
+                if (!premier) sb.append(',');
+                premier = false;
+                ecrire(sb, element);
+            }
+            sb.append(']');
+        } else if (valeur instanceof Record record) {
+            // Un record est écrit comme un objet dont les clés sont ses composants
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (var composant : record.getClass().getRecordComponents()) {
+                try {
+                    map.put(composant.getName(), composant.getAccessor().invoke(record));
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }
+            ecrire(sb, map);
+        } else {
+            throw new IllegalArgumentException("Type non convertible en JSON : " + valeur.getClass().getName());
+        }
+    }
+
+    private static void chaine(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private Object valeur() {
+        espaces();
+        if (pos >= texte.length()) throw erreur("valeur attendue");
+        char c = texte.charAt(pos);
+        switch (c) {
+            case '{':
+                return objet();
+            case '[':
+                return tableau();
+            case '"':
+                return chaine();
+            case 't':
+                return mot("true", Boolean.TRUE);
+            case 'f':
+                return mot("false", Boolean.FALSE);
+            case 'n':
+                return mot("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return nombre();
+                throw erreur("caractère inattendu '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> objet() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        pos++;
+        espaces();
+        if (suivant('}')) return map;
+        do {
+            espaces();
+            if (pos >= texte.length() || texte.charAt(pos) != '"') throw erreur("clé attendue");
+            String cle = chaine();
+            espaces();
+            if (!suivant(':')) throw erreur("':' attendu");
+            map.put(cle, valeur());
+            espaces();
+        } while (suivant(','));
+        if (!suivant('}')) throw erreur("'}' attendu");
+        return map;
+    }
+
+    private List<Object> tableau() {
+        List<Object> liste = new ArrayList<>();
+        pos++;
+        espaces();
+        if (suivant(']')) return liste;
+        do {
+            liste.add(valeur());
+            espaces();
+        } while (suivant(','));
+        if (!suivant(']')) throw erreur("']' attendu");
+        return liste;
+    }
+
+    private String chaine() {
+        StringBuilder sb = new StringBuilder();
+        pos++;
+        while (pos < texte.length()) {
+            char c = texte.charAt(pos++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= texte.length()) break;
+            char echappe = texte.charAt(pos++);
+            switch (echappe) {
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'n' -> sb.append('\n');
+                case 'r' -> sb.append('\r');
+                case 't' -> sb.append('\t');
+                case 'u' -> {
+                    if (pos + 4 > texte.length()) throw erreur("séquence \\u incomplète");
+                    try {
+                        sb.append((char) Integer.parseInt(texte.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw erreur("séquence \\u invalide");
+                    }
+                    pos += 4;
+                }
+                default -> sb.append(echappe);
+            }
+        }
+        throw erreur("chaîne non terminée");
+    }
+
+    private Object nombre() {
+        int debut = pos;
+        if (texte.charAt(pos) == '-') pos++;
+        while (pos < texte.length() && "0123456789.eE+-".indexOf(texte.charAt(pos)) >= 0) pos++;
+        String nombre = texte.substring(debut, pos);
+        try {
+            if (nombre.matches("-?\\d+")) return Long.parseLong(nombre);
+            return Double.parseDouble(nombre);
+        } catch (NumberFormatException e) {
+            throw erreur("nombre invalide " + nombre);
+        }
+    }
+
+    private Object mot(String mot, Object valeur) {
+        if (!texte.startsWith(mot, pos)) throw erreur(mot + " attendu");
+        pos += mot.length();
+        return valeur;
+    }
+
+    private boolean suivant(char c) {
+        if (pos < texte.length() && texte.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void espaces() {
+        while (pos < texte.length() && Character.isWhitespace(texte.charAt(pos))) pos++;
+    }
+
+    private IllegalArgumentException erreur(String message) {
+        return new IllegalArgumentException("JSON invalide (position " + pos + ") : " + message);
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * Ligne d'une commande : un plat et la quantité commandée
+ * @param numplat numéro du plat
+ * @param quantite quantité commandée
+ */
+public record LigneCommande(int numplat, int quantite) {
+}
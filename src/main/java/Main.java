@@ -1,168 +1,151 @@
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.sql.DriverManager;
-import java.util.InputMismatchException;
 import java.util.Properties;
-import java.util.Scanner;
 
 public class Main {
-    public static void main(String[] args) throws SQLException {
+    /**
+     * Sans argument, lance une session sur la console.
+     * Avec un numéro de port en argument, accepte les terminaux des serveurs (telnet, nc...) sur ce port, une session par terminal
+     * (seulement avec la clé terminaux.actifs=true, voir {@link #accepterTerminaux}).
+     * Avec "http" et un numéro de port, sert l'API HTTP (JSON) sur ce port jusqu'à l'arrêt du programme.
+     * Avec "empreinte" et un mot de passe, affiche l'empreinte à enregistrer dans la colonne passwd de la table SERVEUR, puis s'arrête.
+     * Avec "export", exporte l'historique depuis le dernier export (avec "export complet", tout l'historique), puis s'arrête.
+     */
+    public static void main(String[] args) throws Exception {
         // On charge les paramètres de connexion à la base de données
         Properties config = DBConfig.loadConfig("resources/db.conf");
-        String hostname = config.getProperty("hostname");
-        String port = config.getProperty("port");
-        String database = config.getProperty("database");
-        String dbLogin = config.getProperty("login");
-        String dbPassword = config.getProperty("password");
-
-        String url = "jdbc:oracle:thin:@" + hostname + ":" + port + ":" + database;
-
-        // Connexion à la base de données
-        Connection conn = DriverManager.getConnection(url, dbLogin, dbPassword);
-        conn.setAutoCommit(false);
-
-        Scanner sc = new Scanner(System.in);
-
-        // Exemple de login pour un gestionnaire
-        // email = "user1@mail.com";
-        // password = "serveur0";
-
-        // Exemple de login pour un serveur
-        // email : user2@mail.com
-        // password : serveur1
-
-        /* ---- Authentification ---- */
-        System.out.println("Veuillez entrer votre login :");
-        String email = sc.nextLine();
-        email = email.replaceAll("[\r\n]+", "");
-
-        System.out.println("Veuillez entrer votre mot de passe :");
-        String password = sc.nextLine();
-        password = password.replaceAll("[\r\n]+", "");
-
-
-        // On vérifie si le login et le mot de passe du serveur sont corrects
-        String sql = "SELECT * FROM serveur WHERE email = ? AND passwd = ?";
-        PreparedStatement pstmt = conn.prepareStatement(sql);
-
-        pstmt.setString(1, email);
-        pstmt.setString(2, password);
-        ResultSet rs = pstmt.executeQuery();
-
-        // Si la requête retourne un résultat, alors le login est réussi
-        if (rs.next()) {
-            String numserv = rs.getString("numserv");
-            String nom = rs.getString("nomserv");
-            String grade = rs.getString("grade");
-
-            Serveur serveur = null;
-            // On crée un objet Serveur ou Gestionnaire en fonction du grade
-            if (grade.equals("gestionnaire")) {
-                serveur = new Gestionnaire(numserv, email, nom);
-                System.out.println("Bonjour " + serveur.getNom() + ", vous êtes connecté en tant que gestionnaire.");
 
+        if (args.length > 1 && args[0].equals("empreinte")) {
+            System.out.println(Authentification.empreinte(args[1],
+                    Integer.parseInt(config.getProperty("motsDePasse.iterations", String.valueOf(Authentification.ITERATIONS)))));
+            return;
+        }
 
+        // Toutes les sessions partagent le même stockage : le même pool de connexions (au lieu d'une JVM et d'une connexion Oracle par terminal),
+        // ou les mêmes données en mémoire avec la clé stockage=memoire
+        try (Stockage stockage = Stockage.depuisConfig(config);
+             Restaurant restaurant = new Restaurant(stockage, config)) {
+            restaurant.initialiser();
+            PoolConnexions pool = stockage.getPool();
+            Metriques.get().surveiller(pool);
+            Metriques.get().surveiller(restaurant.getJournalCommandes());
+            Metriques.get().surveiller(stockage.getRoutageLectures());
+            Metriques.get().surveiller(restaurant.getAuthentification());
+            Metriques.get().enregistrerJmx();
+
+            if (args.length > 1 && args[0].equals("http")) {
+                servirApi(restaurant, Integer.parseInt(args[1]));
+            } else if (args.length > 0 && args[0].equals("export")) {
+                exporter(restaurant, config, !(args.length > 1 && args[1].equals("complet")));
+            } else if (args.length > 0) {
+                accepterTerminaux(restaurant, config, Integer.parseInt(args[0]));
             } else {
-                serveur = new Serveur(numserv, email, nom);
-                System.out.println("Bonjour " + serveur.getNom() + ", vous êtes connecté en tant que serveur.");
+                Thread session = Thread.ofVirtual().name("session-console")
+                        .start(new Session(restaurant, System.in, System.out, System.err));
+                session.join();
             }
+            if (pool != null) System.out.println(pool.getStatistiques());
+            RoutageLectures routage = stockage.getRoutageLectures();
+            if (routage != null) System.out.println(routage.getStatistiques());
+            JournalEvenements journal = restaurant.getJournal();
+            if (journal != null) {
+                System.out.println("Journal des événements : " + journal.getPublies() + " publiés, " + journal.getPerdus() + " perdus (tampon plein)");
+            }
+            JournalCommandes journalCommandes = restaurant.getJournalCommandes();
+            if (journalCommandes != null) {
+                System.out.println("Journal des commandes : " + journalCommandes.getAjoutees() + " ajoutées, " + journalCommandes.getAppliquees() + " appliquées, "
+                        + journalCommandes.getRejetees() + " rejetées, " + journalCommandes.getEnAttente() + " en attente");
+            }
+        }
+    }
 
-            /* ---- Affichage du menu ---- */
-
-            System.out.println(serveur.getMenu());
-            int choix = sc.nextInt();
-            sc.nextLine(); // On doit consommer le retour à la ligne après le nextInt pour éviter qu'il ne soit consommé par le nextLine suivant et on aura une entrée vide.
-            while (choix != 0){
-                try {
-                    String date = null;
-                    int nbPers;
-                    int numtab;
-                    switch (choix) {
-                        case 1:
-                            System.out.println("Veuillez entrer la date de réservation (format : yyyy-mm-dd hh:mm:ss) :");
-                            date = sc.nextLine();
-
-                            System.out.println("Veuillez entrer le nombre de personnes :");
-                            nbPers = sc.nextInt();
-
-                            serveur.consulterTablesDispos(conn, date, nbPers, true);
-                            break;
-                        case 2:
-                            System.out.println("Veuillez entrer la date de réservation (format : yyyy-mm-dd hh:mm:ss) :");
-                            date = sc.nextLine();
-
-                            System.out.println("Veuillez entrer le nombre de personnes :");
-                            nbPers = sc.nextInt();
-
-                            System.out.println("Veuillez entrer le numéro de la table :");
-                            numtab = sc.nextInt();
-
-                            serveur.reserverTable(conn, date, nbPers, numtab);
-                            break;
-                        case 3:
-                            serveur.consulterPlatsDispos(conn);
-                            break;
-                        case 4:
-                            System.out.println("Veuillez entrer le numéro de la réservation :");
-                            int numres = sc.nextInt();
-
-                            System.out.println("Veuillez entrer le numéro du plat :");
-                            int numplat = sc.nextInt();
-
-                            System.out.println("Veuillez entrer la quantité :");
-                            int quantite = sc.nextInt();
+    /**
+     * Exporte l'historique pour la comptabilité (clés export.* de la configuration)
+     * @param restaurant les ressources partagées (pool de connexions)
+     * @param config la configuration
+     * @param incremental true pour n'exporter que ce qui a changé depuis le dernier export
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     * @throws IOException si un fichier ne peut pas être écrit
+     */
+    private static void exporter(Restaurant restaurant, Properties config, boolean incremental) throws SQLException, IOException {
+        if (restaurant.getPool() == null) {
+            System.err.println("L'export lit la base de données : il n'est pas disponible avec le stockage en mémoire.");
+            return;
+        }
+        try (Connection conn = restaurant.getPool().getConnection()) {
+            for (ExportHistorique.FichierExporte f : ExportHistorique.depuisConfig(config).exporter(conn, incremental)) {
+                System.out.println(f.table() + " : " + f.lignes() + " lignes exportées dans " + f.fichier());
+            }
+        }
+    }
 
-                            serveur.commanderPlat(conn, numres, numplat, quantite);
-                            break;
-                        case 5:
-                            ((Gestionnaire) serveur).consulterAffectations(conn);
-                            break;
-                        case 6:
-                            System.out.println("Veuillez entrer le numéro du serveur :");
-                            int numservAffectation = sc.nextInt();
+    /**
+     * Sert l'API HTTP jusqu'à l'arrêt du programme (Ctrl+C), puis rend la main pour fermer le pool de connexions
+     * @param restaurant les ressources partagées par les requêtes
+     * @param port le port d'écoute
+     * @throws IOException si le port ne peut pas être ouvert
+     * @throws InterruptedException si l'attente est interrompue
+     */
+    private static void servirApi(Restaurant restaurant, int port) throws IOException, InterruptedException {
+        ApiHttp api = new ApiHttp(restaurant);
+        api.demarrer(port);
+        System.out.println("API HTTP à l'écoute sur le port " + port + "...");
+
+        Thread principal = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            api.arreter();
+            // On laisse le thread principal fermer le pool avant que la JVM s'arrête
+            try {
+                principal.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        api.attendreArret();
+    }
 
-                            System.out.println("Veuillez entrer le numéro de la table :");
-                            numtab = sc.nextInt();
-                            ((Gestionnaire) serveur).affecterServeurTable(conn, numtab, numservAffectation);
-                            break;
-                        case 7:
-                            System.out.println("Veuillez entrer le numéro de la réservation :");
-                            numres = sc.nextInt();
-                            ((Gestionnaire) serveur).calculerMontantTotalCommandeEtMajReservation(conn, numres);
-                            break;
-                        default:
-                            System.err.println("Choix invalide. Veillez entrer un chiffre entre 0 et 7.");
+    /**
+     * Accepte les connexions des terminaux et lance une session dans un thread virtuel pour chacun d'eux.
+     * Les échanges ne sont pas chiffrés : l'email et le mot de passe des serveurs passent en clair sur le réseau. L'écoute doit donc être
+     * activée explicitement (clé terminaux.actifs=true), et elle ne se fait que sur l'interface locale (127.0.0.1), sauf si la clé
+     * terminaux.adresse donne une autre adresse : dans ce cas, le réseau entre les terminaux et l'application doit être de confiance
+     * (ou les échanges passer par un tunnel chiffré, SSH par exemple).
+     * @param restaurant les ressources partagées par les sessions
+     * @param config la configuration (clés terminaux.actifs et terminaux.adresse)
+     * @param port le port d'écoute
+     * @throws IOException si le port ne peut pas être ouvert
+     */
+    private static void accepterTerminaux(Restaurant restaurant, Properties config, int port) throws IOException {
+        if (!Boolean.parseBoolean(config.getProperty("terminaux.actifs", "false"))) {
+            System.err.println("Les terminaux échangent l'email et le mot de passe en clair : activez-les avec la clé terminaux.actifs=true de db.conf.");
+            return;
+        }
+        String adresse = config.getProperty("terminaux.adresse", "");
+        InetAddress interfaceEcoute = adresse.isBlank() ? InetAddress.getLoopbackAddress() : InetAddress.getByName(adresse);
+        try (ServerSocket serverSocket = new ServerSocket(port, 0, interfaceEcoute)) {
+            System.out.println("En attente des terminaux sur " + interfaceEcoute.getHostAddress() + ":" + port + "...");
+            if (!interfaceEcoute.isLoopbackAddress()) {
+                System.err.println("Attention : les terminaux sont accessibles depuis le réseau et leurs échanges ne sont pas chiffrés.");
+            }
+            int numero = 0;
+            while (true) {
+                Socket socket = serverSocket.accept();
+                numero++;
+                Thread.ofVirtual().name("session-" + numero).start(() -> {
+                    try (socket) {
+                        PrintStream sortie = new PrintStream(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+                        new Session(restaurant, socket.getInputStream(), sortie, sortie).run();
+                    } catch (IOException e) {
+                        e.printStackTrace();
                     }
-                } catch (IllegalArgumentException | InputMismatchException e){
-                    System.err.println("Veuillez vérifier vos entrées (leur type et leur format)");
-                } catch (SQLException e){
-                    System.err.println("Erreur de communication avec la base de données");
-                } catch (Exception e){
-                    System.err.println("Vous n'avez pas les permissions d'utiliser cette fonctionnalité");
-                }
-
-                try {
-                    System.out.println(serveur.getMenu());
-                    sc.nextLine();
-                    choix = sc.nextInt();
-                    sc.nextLine(); // On doit consommer le retour à la ligne après le nextInt pour éviter qu'il ne soit consommé par le nextLine suivant et on aura donc une entrée vide.
-                } catch (InputMismatchException e){
-                    System.err.println("Votre choix doit être un chiffre allant de 0 à 7 selon votre rôle.");
-                }
+                });
             }
         }
-        else {
-            System.err.println("Login ou mot de passe incorrect");
-        }
-
-        System.out.println("Fermeture de la fenêtre...");
-        // Fermeture la connexion
-        conn.close();
-        
-
-
-
     }
 }
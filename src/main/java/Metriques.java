@@ -0,0 +1,388 @@
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Métriques de l'application : histogramme des latences de chaque opération (commanderPlats, reserverTable...) et de chaque phase JDBC
+ * (attente du pool, préparation, exécution, commit, rollback), nombre de rollbacks, d'attentes de verrou expirées et d'interblocages.
+ * Pour savoir si une commande lente attend le pool, le verrou d'un plat (exécution du SELECT ... FOR UPDATE) ou le commit.
+ * L'enregistrement dans un histogramme ne prend aucun verrou et n'alloue rien. L'exécution est mesurée par {@link RequeteMesuree},
+ * sans Proxy : ni les paramètres ni la lecture des résultats ne passent par la réflexion. La lecture des lignes (ResultSet.next)
+ * n'est pas mesurée à part : le premier lot de lignes est compté dans l'exécution.
+ * Les métriques sont exposées par JMX ({@link MetriquesMBean}) et au format texte par l'API HTTP (GET /metriques).
+ */
+public final class Metriques implements MetriquesMBean {
+    /**
+     * Phases d'un accès à la base de données
+     */
+    public enum Phase {
+        ATTENTE_POOL("attente_pool"),
+        PREPARATION("preparation"),
+        EXECUTION("execution"),
+        COMMIT("commit"),
+        ROLLBACK("rollback");
+
+        final String nom;
+
+        Phase(String nom) {
+            this.nom = nom;
+        }
+    }
+
+    /**
+     * Codes d'erreur d'une attente de verrou expirée : ORA-30006 (WAIT n), ORA-00054 (NOWAIT), et leur équivalent H2 (base embarquée des mesures)
+     */
+    private static final int[] CODES_VERROU_EXPIRE = {30006, 54, 50200};
+    /**
+     * Codes d'erreur d'un interblocage : ORA-00060, et son équivalent H2
+     */
+    private static final int[] CODES_INTERBLOCAGE = {60, 40001};
+
+    private static final Metriques INSTANCE = new Metriques();
+
+    private final ConcurrentHashMap<String, Histogramme> operations = new ConcurrentHashMap<>();
+    private final Histogramme[] phases = new Histogramme[Phase.values().length];
+    private final LongAdder rollbacks = new LongAdder();
+    private final LongAdder verrousExpires = new LongAdder();
+    private final LongAdder interblocages = new LongAdder();
+    private final LongAdder erreursSql = new LongAdder();
+    private final LongAdder conflitsReservation = new LongAdder();
+    private final LongAdder transactionsRetentees = new LongAdder();
+    private volatile PoolConnexions pool;
+    private volatile JournalCommandes journalCommandes;
+    private volatile RoutageLectures routageLectures;
+    private volatile Authentification authentification;
+
+    private Metriques() {
+        for (int i = 0; i < phases.length; i++) phases[i] = new Histogramme();
+    }
+
+    /**
+     * @return les métriques de l'application
+     */
+    public static Metriques get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Enregistre la durée d'une opération
+     * @param nom le nom de l'opération
+     * @param debutNs l'instant du début de l'opération (System.nanoTime())
+     */
+    public static void operation(String nom, long debutNs) {
+        long duree = System.nanoTime() - debutNs;
+        Histogramme h = INSTANCE.operations.get(nom);
+        if (h == null) h = INSTANCE.operations.computeIfAbsent(nom, k -> new Histogramme());
+        h.enregistrer(duree);
+    }
+
+    /**
+     * Enregistre la durée d'une phase JDBC
+     * @param phase la phase
+     * @param debutNs l'instant du début de la phase (System.nanoTime())
+     */
+    public static void phase(Phase phase, long debutNs) {
+        INSTANCE.phases[phase.ordinal()].enregistrer(System.nanoTime() - debutNs);
+    }
+
+    /**
+     * Compte un rollback demandé par l'application
+     */
+    public static void rollback() {
+        INSTANCE.rollbacks.increment();
+    }
+
+    /**
+     * Compte une réservation qui a perdu la course contre une autre réservation de la même table (elle sera retentée)
+     */
+    public static void conflitReservation() {
+        INSTANCE.conflitsReservation.increment();
+    }
+
+    /**
+     * Compte une transaction annulée sur une attente de verrou expirée ou un interblocage, puis retentée
+     */
+    public static void transactionRetentee() {
+        INSTANCE.transactionsRetentees.increment();
+    }
+
+    /**
+     * Compte une erreur SQL et la classe (attente de verrou expirée, interblocage)
+     * @param e l'erreur
+     */
+    public static void erreurSql(SQLException e) {
+        INSTANCE.erreursSql.increment();
+        if (verrouExpire(e)) INSTANCE.verrousExpires.increment();
+        if (interblocage(e)) INSTANCE.interblocages.increment();
+    }
+
+    /**
+     * @param e une erreur SQL
+     * @return true si c'est une attente de verrou expirée (WAIT n ou NOWAIT)
+     */
+    public static boolean verrouExpire(SQLException e) {
+        for (int c : CODES_VERROU_EXPIRE) if (c == e.getErrorCode()) return true;
+        return false;
+    }
+
+    /**
+     * @param e une erreur SQL
+     * @return true si c'est un interblocage
+     */
+    public static boolean interblocage(SQLException e) {
+        for (int c : CODES_INTERBLOCAGE) if (c == e.getErrorCode()) return true;
+        return false;
+    }
+
+    /**
+     * @param nom le nom d'une opération
+     * @return l'histogramme de ses latences, null si elle n'a jamais été mesurée
+     */
+    public Histogramme getOperation(String nom) {
+        return operations.get(nom);
+    }
+
+    /**
+     * @param phase une phase JDBC
+     * @return l'histogramme de ses latences
+     */
+    public Histogramme getPhase(Phase phase) {
+        return phases[phase.ordinal()];
+    }
+
+    /**
+     * Ajoute l'état du pool de connexions aux métriques
+     * @param pool le pool de connexions de l'application
+     */
+    public void surveiller(PoolConnexions pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Ajoute l'état du journal des commandes aux métriques (commandes en attente d'application et leur retard)
+     * @param journalCommandes le journal des commandes, null s'il n'y en a pas
+     */
+    public void surveiller(JournalCommandes journalCommandes) {
+        this.journalCommandes = journalCommandes;
+    }
+
+    /**
+     * Ajoute l'état du routage des lectures aux métriques (pool de lecture, retard de la réplique, replis sur la base principale)
+     * @param routageLectures le routage des lectures, null s'il n'y a pas de pool de lecture
+     */
+    public void surveiller(RoutageLectures routageLectures) {
+        this.routageLectures = routageLectures;
+    }
+
+    /**
+     * Ajoute l'état des sessions aux métriques (sessions ouvertes, connexions refusées, sessions expirées)
+     * @param authentification l'authentification des serveurs
+     */
+    public void surveiller(Authentification authentification) {
+        this.authentification = authentification;
+    }
+
+    /**
+     * Publie les métriques dans le serveur JMX de la JVM (objet restaurant:type=Metriques)
+     */
+    public void enregistrerJmx() {
+        try {
+            MBeanServer serveur = ManagementFactory.getPlatformMBeanServer();
+            ObjectName nom = new ObjectName("restaurant:type=Metriques");
+            if (!serveur.isRegistered(nom)) serveur.registerMBean(this, nom);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Appelle la méthode sur l'objet JDBC en comptant les erreurs SQL
+     */
+    static Object invoquer(Object cible, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(cible, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof SQLException sqle) erreurSql(sqle);
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public long getRollbacks() {
+        return rollbacks.sum();
+    }
+
+    @Override
+    public long getVerrousExpires() {
+        return verrousExpires.sum();
+    }
+
+    @Override
+    public long getInterblocages() {
+        return interblocages.sum();
+    }
+
+    @Override
+    public long getErreursSql() {
+        return erreursSql.sum();
+    }
+
+    @Override
+    public long getConflitsReservation() {
+        return conflitsReservation.sum();
+    }
+
+    @Override
+    public long getTransactionsRetentees() {
+        return transactionsRetentees.sum();
+    }
+
+    @Override
+    public double getAttentePoolP99Ms() {
+        return getPhase(Phase.ATTENTE_POOL).percentile(0.99) / 1e6;
+    }
+
+    @Override
+    public int getConnexionsActives() {
+        PoolConnexions p = pool;
+        return p == null ? 0 : p.getActives();
+    }
+
+    @Override
+    public int getConnexionsLibres() {
+        PoolConnexions p = pool;
+        return p == null ? 0 : p.getLibres();
+    }
+
+    @Override
+    public int getCommandesEnAttente() {
+        JournalCommandes j = journalCommandes;
+        return j == null ? 0 : j.getEnAttente();
+    }
+
+    @Override
+    public long getRetardCommandesMs() {
+        JournalCommandes j = journalCommandes;
+        return j == null ? 0 : j.getRetardMs();
+    }
+
+    @Override
+    public long getRetardRepliqueMs() {
+        RoutageLectures r = routageLectures;
+        return r == null ? 0 : r.getRetardMs();
+    }
+
+    @Override
+    public int getSessionsOuvertes() {
+        Authentification a = authentification;
+        return a == null ? 0 : a.getSessionsOuvertes();
+    }
+
+    @Override
+    public String[] getOperations() {
+        return new TreeMap<>(operations).keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public double latenceMs(String nom, double percentile) {
+        Histogramme h = operations.get(nom);
+        if (h == null) {
+            for (Phase phase : Phase.values()) if (phase.nom.equals(nom)) h = getPhase(phase);
+        }
+        return h == null ? 0 : h.percentile(percentile) / 1e6;
+    }
+
+    /**
+     * Percentiles exportés pour chaque histogramme
+     */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    @Override
+    public String getRapport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE restaurant_operation_secondes summary\n");
+        for (Map.Entry<String, Histogramme> e : new TreeMap<>(operations).entrySet()) {
+            resume(sb, "restaurant_operation_secondes", "operation", e.getKey(), e.getValue());
+        }
+        sb.append("# TYPE restaurant_jdbc_secondes summary\n");
+        for (Phase phase : Phase.values()) resume(sb, "restaurant_jdbc_secondes", "phase", phase.nom, getPhase(phase));
+
+        compteur(sb, "restaurant_rollbacks_total", getRollbacks());
+        compteur(sb, "restaurant_verrous_expires_total", getVerrousExpires());
+        compteur(sb, "restaurant_interblocages_total", getInterblocages());
+        compteur(sb, "restaurant_erreurs_sql_total", getErreursSql());
+        compteur(sb, "restaurant_conflits_reservation_total", getConflitsReservation());
+        compteur(sb, "restaurant_transactions_retentees_total", getTransactionsRetentees());
+
+        PoolConnexions p = pool;
+        if (p != null) {
+            sb.append("# TYPE restaurant_pool_connexions gauge\n");
+            sb.append("restaurant_pool_connexions{etat=\"actives\"} ").append(p.getActives()).append('\n');
+            sb.append("restaurant_pool_connexions{etat=\"libres\"} ").append(p.getLibres()).append('\n');
+            sb.append("restaurant_pool_connexions{etat=\"ouvertes\"} ").append(p.getOuvertes()).append('\n');
+            compteur(sb, "restaurant_pool_delais_depasses_total", p.getDelaisDepasses());
+        }
+
+        JournalCommandes j = journalCommandes;
+        if (j != null) {
+            sb.append("# TYPE restaurant_journal_commandes_en_attente gauge\n");
+            sb.append("restaurant_journal_commandes_en_attente ").append(j.getEnAttente()).append('\n');
+            sb.append("# TYPE restaurant_journal_commandes_retard_secondes gauge\n");
+            sb.append("restaurant_journal_commandes_retard_secondes ").append(j.getRetardMs() / 1000.0).append('\n');
+            compteur(sb, "restaurant_journal_commandes_appliquees_total", j.getAppliquees());
+            compteur(sb, "restaurant_journal_commandes_rejetees_total", j.getRejetees());
+        }
+
+        RoutageLectures r = routageLectures;
+        if (r != null) {
+            PoolConnexions lecture = r.getPoolLecture();
+            sb.append("# TYPE restaurant_pool_lecture_connexions gauge\n");
+            sb.append("restaurant_pool_lecture_connexions{etat=\"actives\"} ").append(lecture.getActives()).append('\n');
+            sb.append("restaurant_pool_lecture_connexions{etat=\"libres\"} ").append(lecture.getLibres()).append('\n');
+            sb.append("restaurant_pool_lecture_connexions{etat=\"ouvertes\"} ").append(lecture.getOuvertes()).append('\n');
+            sb.append("# TYPE restaurant_replique_retard_secondes gauge\n");
+            sb.append("restaurant_replique_retard_secondes ").append(r.getRetardMs() / 1000.0).append('\n');
+            compteur(sb, "restaurant_lectures_replique_total", r.getLecturesReplique());
+            sb.append("# TYPE restaurant_lectures_repli_total counter\n");
+            sb.append("restaurant_lectures_repli_total{raison=\"ecriture_recente\"} ").append(r.getReplisEcritureRecente()).append('\n');
+            sb.append("restaurant_lectures_repli_total{raison=\"retard\"} ").append(r.getReplisRetard()).append('\n');
+            sb.append("restaurant_lectures_repli_total{raison=\"indisponible\"} ").append(r.getReplisIndisponible()).append('\n');
+        }
+
+        Authentification a = authentification;
+        if (a != null) {
+            sb.append("# TYPE restaurant_sessions_ouvertes gauge\n");
+            sb.append("restaurant_sessions_ouvertes ").append(a.getSessionsOuvertes()).append('\n');
+            compteur(sb, "restaurant_connexions_refusees_total", a.getConnexionsRefusees());
+            compteur(sb, "restaurant_sessions_expirees_total", a.getSessionsExpirees());
+        }
+        return sb.toString();
+    }
+
+    private static void resume(StringBuilder sb, String metrique, String etiquette, String valeur, Histogramme h) {
+        String etiquettes = etiquette + "=\"" + valeur + "\"";
+        for (double q : QUANTILES) {
+            sb.append(metrique).append('{').append(etiquettes).append(",quantile=\"").append(q).append("\"} ")
+                    .append(secondes(h.percentile(q))).append('\n');
+        }
+        sb.append(metrique).append("_count{").append(etiquettes).append("} ").append(h.getNombre()).append('\n');
+        sb.append(metrique).append("_sum{").append(etiquettes).append("} ").append(secondes(h.getSomme())).append('\n');
+    }
+
+    private static void compteur(StringBuilder sb, String metrique, long valeur) {
+        sb.append("# TYPE ").append(metrique).append(" counter\n").append(metrique).append(' ').append(valeur).append('\n');
+    }
+
+    private static String secondes(long ns) {
+        return String.format(Locale.ROOT, "%.6f", ns / 1e9);
+    }
+}
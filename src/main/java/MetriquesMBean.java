@@ -0,0 +1,86 @@
+/**
+ * Interface JMX des métriques de l'application (objet restaurant:type=Metriques, visible dans JConsole ou VisualVM)
+ */
+public interface MetriquesMBean {
+    /**
+     * @return le nombre de rollbacks demandés par l'application
+     */
+    long getRollbacks();
+
+    /**
+     * @return le nombre d'attentes de verrou expirées (ORA-30006, ORA-00054)
+     */
+    long getVerrousExpires();
+
+    /**
+     * @return le nombre d'interblocages détectés par la base de données (ORA-00060)
+     */
+    long getInterblocages();
+
+    /**
+     * @return le nombre total d'erreurs SQL levées par les requêtes
+     */
+    long getErreursSql();
+
+    /**
+     * @return le nombre de réservations qui ont perdu la course contre une autre réservation de la même table et ont été retentées
+     */
+    long getConflitsReservation();
+
+    /**
+     * @return le nombre de transactions annulées sur une attente de verrou expirée ou un interblocage, puis retentées
+     */
+    long getTransactionsRetentees();
+
+    /**
+     * @return le 99e percentile de l'attente d'une connexion du pool (en millisecondes)
+     */
+    double getAttentePoolP99Ms();
+
+    /**
+     * @return le nombre de connexions actuellement prêtées par le pool
+     */
+    int getConnexionsActives();
+
+    /**
+     * @return le nombre de connexions libres dans le pool
+     */
+    int getConnexionsLibres();
+
+    /**
+     * @return le nombre de commandes du journal des commandes pas encore appliquées à la base de données
+     */
+    int getCommandesEnAttente();
+
+    /**
+     * @return l'ancienneté de la plus ancienne commande du journal pas encore appliquée (en millisecondes)
+     */
+    long getRetardCommandesMs();
+
+    /**
+     * @return le dernier retard mesuré de la réplique de lecture (en millisecondes), -1 si elle est injoignable, 0 sans réplique
+     */
+    long getRetardRepliqueMs();
+
+    /**
+     * @return le nombre de sessions ouvertes (terminaux et API HTTP)
+     */
+    int getSessionsOuvertes();
+
+    /**
+     * @return les noms des opérations mesurées
+     */
+    String[] getOperations();
+
+    /**
+     * @param nom le nom d'une opération (commanderPlats...) ou d'une phase JDBC (execution, commit...)
+     * @param percentile le rang du percentile, entre 0 et 1
+     * @return la latence en millisecondes, 0 si rien n'a été mesuré
+     */
+    double latenceMs(String nom, double percentile);
+
+    /**
+     * @return toutes les métriques au format texte (celui de l'URL /metriques)
+     */
+    String getRapport();
+}
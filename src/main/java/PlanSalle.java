@@ -0,0 +1,396 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Plan de salle : occupation de chaque table par tranches de 15 minutes, jour par jour.
+ * L'occupation d'un jour tient dans 96 bits par table (2 mots de 64 bits) et se construit en une seule lecture des réservations du jour.
+ * Les jours consultés sont gardés en mémoire (éviction LRU), mis à jour sur place à chaque réservation faite par l'application,
+ * et relus au bout d'une durée de vie maximale pour prendre en compte les réservations faites en dehors de l'application.
+ */
+public class PlanSalle {
+    /**
+     * Durée d'une tranche (en minutes)
+     */
+    public static final int MINUTES_CRENEAU = 15;
+    /**
+     * Nombre de tranches dans une journée
+     */
+    public static final int CRENEAUX = 24 * 60 / MINUTES_CRENEAU;
+    /**
+     * Nombre de jours gardés en mémoire (si la clé plan.jours est absente)
+     */
+    public static final int JOURS = 14;
+
+    /**
+     * Occupation des tables pendant un jour. Une réservation occupe sa table de l'heure de réservation à 2 heures plus tard (repas + nettoyage + dressage).
+     * Les lectures ne prennent aucun verrou : les bits sont mis à jour par des opérations atomiques.
+     */
+    public static final class Occupation {
+        private final LocalDate jour;
+        private final long creeA;
+        /**
+         * Numéros des tables, rangées par nombre de places croissant
+         */
+        private final int[] numtabs;
+        private final int[] places;
+        private final Map<Integer, Integer> indices = new HashMap<>();
+        /**
+         * Tranches occupées : bit c du mot 2 * i + c / 64 pour la tranche c de la table d'indice i
+         */
+        private final AtomicLongArray occupees;
+
+        private Occupation(LocalDate jour, int[] numtabs, int[] places) {
+            this.jour = jour;
+            this.creeA = System.nanoTime();
+            this.numtabs = numtabs;
+            this.places = places;
+            for (int i = 0; i < numtabs.length; i++) indices.put(numtabs[i], i);
+            this.occupees = new AtomicLongArray(numtabs.length * 2);
+        }
+
+        /**
+         * Marque les tranches occupées par une réservation (sans effet si elle ne concerne pas ce jour ou une table inconnue)
+         * @param numtab numéro de la table
+         * @param datres date de la réservation
+         */
+        void ajouter(int numtab, LocalDateTime datres) {
+            Integer i = indices.get(numtab);
+            if (i == null) return;
+            LocalDateTime fin = datres.plusNanos(IndexDisponibilites.DUREE_REPAS_MS * 1_000_000);
+            int de = datres.toLocalDate().isBefore(jour) ? 0 : datres.toLocalDate().isAfter(jour) ? CRENEAUX : creneau(datres.toLocalTime(), false);
+            int a = fin.toLocalDate().isAfter(jour) ? CRENEAUX : fin.toLocalDate().isBefore(jour) ? 0 : creneau(fin.toLocalTime(), true);
+            for (int mot = 0; mot < 2; mot++) {
+                long masque = masque(de, a, mot);
+                if (masque != 0) occupees.getAndAccumulate(2 * i + mot, masque, (ancien, m) -> ancien | m);
+            }
+        }
+
+        /**
+         * @return le jour
+         */
+        public LocalDate getJour() {
+            return jour;
+        }
+
+        /**
+         * @param numtab numéro de la table
+         * @param creneau numéro de la tranche (0 pour 00:00-00:15)
+         * @return true si la table est occupée pendant la tranche
+         */
+        public boolean estOccupee(int numtab, int creneau) {
+            Integer i = indices.get(numtab);
+            return i != null && (occupees.get(2 * i + creneau / 64) & (1L << (creneau % 64))) != 0;
+        }
+
+        /**
+         * Tables libres pendant toute la période [de, a[ : aucune réservation en cours entre ces deux heures.
+         * Une seule opération ET par mot de 64 tranches et par table.
+         * @param de début de la période
+         * @param a fin de la période (minuit pour la fin de la journée)
+         * @param nbPers nombre de personnes
+         * @return les numéros des tables libres, de la plus petite table qui convient à la plus grande
+         */
+        public List<Integer> tablesLibres(LocalTime de, LocalTime a, int nbPers) {
+            int debut = creneau(de, false);
+            int fin = a.equals(LocalTime.MIDNIGHT) ? CRENEAUX : creneau(a, true);
+            long masque0 = masque(debut, fin, 0);
+            long masque1 = masque(debut, fin, 1);
+            List<Integer> libres = new ArrayList<>();
+            for (int i = 0; i < numtabs.length; i++) {
+                if (places[i] < nbPers) continue;
+                if ((occupees.get(2 * i) & masque0) == 0 && (occupees.get(2 * i + 1) & masque1) == 0) libres.add(numtabs[i]);
+            }
+            return libres;
+        }
+
+        /**
+         * Met en forme le plan de salle entre deux heures : une ligne par table, un caractère par tranche de 15 minutes (# occupée, . libre)
+         * @param de début de la période
+         * @param a fin de la période (minuit pour la fin de la journée)
+         * @param serveurs nom du serveur affecté à chaque table
+         * @return le plan mis en forme pour le terminal
+         */
+        public String afficher(LocalTime de, LocalTime a, Map<Integer, String> serveurs) {
+            int debut = creneau(de, false);
+            int fin = a.equals(LocalTime.MIDNIGHT) ? CRENEAUX : creneau(a, true);
+            StringBuilder affichage = new StringBuilder("Plan de salle du ").append(jour).append(" (# occupée, . libre, une colonne par quart d'heure)\n");
+            affichage.append(String.format("%-5s %-6s %-15s ", "Table", "Places", "Serveur"));
+            for (int c = debut; c < fin; c += 4) {
+                affichage.append(String.format("%-4s", String.format("%02dh", c / 4)).substring(0, Math.min(4, fin - c)));
+            }
+            affichage.append('\n');
+            for (int i = 0; i < numtabs.length; i++) {
+                affichage.append(String.format("%-5d %-6d %-15s ", numtabs[i], places[i], serveurs.getOrDefault(numtabs[i], "-")));
+                affichage.append(ligne(i, debut, fin)).append('\n');
+            }
+            return affichage.toString();
+        }
+
+        /**
+         * @param de début de la période
+         * @param a fin de la période (minuit pour la fin de la journée)
+         * @param serveurs nom du serveur affecté à chaque table
+         * @return les tables dans l'ordre du plan : numéro, places, serveur et occupation de chaque tranche entre les deux heures (# occupée, . libre)
+         */
+        public List<Map<String, Object>> lignes(LocalTime de, LocalTime a, Map<Integer, String> serveurs) {
+            int debut = creneau(de, false);
+            int fin = a.equals(LocalTime.MIDNIGHT) ? CRENEAUX : creneau(a, true);
+            List<Map<String, Object>> lignes = new ArrayList<>();
+            for (int i = 0; i < numtabs.length; i++) {
+                Map<String, Object> ligne = new LinkedHashMap<>();
+                ligne.put("numtab", numtabs[i]);
+                ligne.put("places", places[i]);
+                if (serveurs.containsKey(numtabs[i])) ligne.put("serveur", serveurs.get(numtabs[i]));
+                ligne.put("occupation", ligne(i, debut, fin));
+                lignes.add(ligne);
+            }
+            return lignes;
+        }
+
+        private String ligne(int i, int debut, int fin) {
+            char[] ligne = new char[Math.max(0, fin - debut)];
+            long mot0 = occupees.get(2 * i);
+            long mot1 = occupees.get(2 * i + 1);
+            for (int c = debut; c < fin; c++) {
+                long mot = c < 64 ? mot0 : mot1;
+                ligne[c - debut] = (mot & (1L << (c % 64))) != 0 ? '#' : '.';
+            }
+            return new String(ligne);
+        }
+    }
+
+    /**
+     * Durée de vie maximale de l'occupation d'un jour (en nanosecondes)
+     */
+    private final long dureeVieNs;
+    /**
+     * Retard maximal d'une connexion de lecture sur la base principale (en nanosecondes, 0 sans réplique)
+     */
+    private final long retardLectureNs;
+    private final Stockage stockage;
+    /**
+     * Verrou des jours gardés en mémoire
+     */
+    private final ReentrantLock verrou = new ReentrantLock();
+    private final LinkedHashMap<LocalDate, Occupation> jours;
+    /**
+     * Numéro incrémenté à chaque réservation : une occupation lue pendant une réservation n'est pas gardée (elle pourrait ne pas la contenir)
+     */
+    private final AtomicLong versions = new AtomicLong();
+    /**
+     * Numéro incrémenté à chaque modification des affectations : des noms lus pendant une modification ne sont pas gardés (ils pourraient être anciens)
+     */
+    private final AtomicLong versionsAffectations = new AtomicLong();
+    /**
+     * Nom du serveur affecté à chaque table, null s'il faut le relire (remplacé sous le verrou, avec la vérification de versionsAffectations)
+     */
+    private volatile Map<Integer, String> serveurs;
+    /**
+     * Dates de la dernière réservation et de la dernière modification des affectations (System.nanoTime())
+     */
+    private volatile long derniereReservation;
+    private volatile long derniereAffectation;
+
+    /**
+     * Constructeur du plan de salle
+     * @param stockage stockage des tables, des réservations et des affectations
+     * @param dureeVieMs durée de vie maximale de l'occupation d'un jour (en millisecondes)
+     * @param capacite nombre de jours gardés en mémoire
+     */
+    public PlanSalle(Stockage stockage, long dureeVieMs, int capacite) {
+        this(stockage, dureeVieMs, capacite, 0);
+    }
+
+    /**
+     * Constructeur du plan de salle
+     * @param stockage stockage des tables, des réservations et des affectations
+     * @param dureeVieMs durée de vie maximale de l'occupation d'un jour (en millisecondes)
+     * @param capacite nombre de jours gardés en mémoire
+     * @param retardLectureMaxMs retard maximal d'une connexion de lecture sur la base principale (en millisecondes, 0 sans réplique)
+     */
+    public PlanSalle(Stockage stockage, long dureeVieMs, int capacite, long retardLectureMaxMs) {
+        this.stockage = stockage;
+        this.dureeVieNs = dureeVieMs * 1_000_000;
+        this.retardLectureNs = retardLectureMaxMs * 1_000_000;
+        this.derniereReservation = System.nanoTime() - retardLectureNs;
+        this.derniereAffectation = derniereReservation;
+        // accessOrder = true : l'itération commence par le jour le moins récemment consulté
+        this.jours = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<LocalDate, Occupation> eldest) {
+                return size() > capacite;
+            }
+        };
+    }
+
+    /**
+     * @param conn connexion à la base de données (utilisée uniquement si le jour n'est pas en mémoire ou est trop ancien), de la base principale ou de lecture
+     * @param jour le jour
+     * @return l'occupation des tables pendant le jour
+     * @throws SQLException si une erreur survient lors des requêtes SQL
+     */
+    public Occupation get(Connection conn, LocalDate jour) throws SQLException {
+        verrou.lock();
+        try {
+            Occupation occupation = jours.get(jour);
+            if (occupation != null && System.nanoTime() - occupation.creeA < dureeVieNs) return occupation;
+        } finally {
+            verrou.unlock();
+        }
+
+        // La version est prise avant la lecture : une réservation faite pendant la lecture ne sera pas masquée par cette occupation
+        long version = versions.get();
+        long debutLecture = System.nanoTime();
+        Occupation occupation = charger(stockage, conn, jour);
+        // Lue sur une réplique qui peut ne pas encore avoir reçu la dernière réservation : elle n'est pas gardée non plus
+        boolean aJour = !lectureEnRetard(conn, debutLecture, derniereReservation);
+        verrou.lock();
+        try {
+            if (versions.get() == version && aJour) jours.put(jour, occupation);
+            else jours.remove(jour);
+        } finally {
+            verrou.unlock();
+        }
+        return occupation;
+    }
+
+    /**
+     * Lit l'occupation d'un jour dans le stockage : les tables, puis les réservations du jour en une seule lecture
+     * (y compris celles de la veille qui débordent après minuit)
+     * @param stockage stockage des données
+     * @param conn connexion à la base de données (null pour le stockage en mémoire)
+     * @param jour le jour
+     * @return l'occupation des tables pendant le jour
+     * @throws SQLException si une erreur survient lors des requêtes SQL
+     */
+    public static Occupation charger(Stockage stockage, Connection conn, LocalDate jour) throws SQLException {
+        List<Map.Entry<Integer, Integer>> tables = new ArrayList<>(stockage.tables().placesParTable(conn).entrySet());
+        // Par nombre de places, puis par numéro de table
+        tables.sort(Map.Entry.<Integer, Integer>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+        int[] numtabs = new int[tables.size()];
+        int[] places = new int[tables.size()];
+        for (int i = 0; i < tables.size(); i++) {
+            numtabs[i] = tables.get(i).getKey();
+            places[i] = tables.get(i).getValue();
+        }
+        Occupation occupation = new Occupation(jour, numtabs, places);
+
+        Map<Integer, long[]> dates = stockage.reservations().datesParTable(conn,
+                Timestamp.valueOf(jour.atStartOfDay().minusNanos(IndexDisponibilites.DUREE_REPAS_MS * 1_000_000)),
+                Timestamp.valueOf(jour.plusDays(1).atStartOfDay()));
+        for (Map.Entry<Integer, long[]> e : dates.entrySet()) {
+            for (long datres : e.getValue()) occupation.ajouter(e.getKey(), new Timestamp(datres).toLocalDateTime());
+        }
+        return occupation;
+    }
+
+    /**
+     * @param conn connexion à la base de données (utilisée uniquement si les affectations ont changé), de la base principale ou de lecture
+     * @return le nom du serveur affecté à chaque table
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    public Map<Integer, String> getServeurs(Connection conn) throws SQLException {
+        Map<Integer, String> noms = serveurs;
+        if (noms != null) return noms;
+        // Comme pour l'occupation d'un jour : la version est prise avant la lecture, les noms ne sont gardés que si aucune affectation n'a eu lieu entre-temps
+        long version = versionsAffectations.get();
+        long debutLecture = System.nanoTime();
+        noms = chargerServeurs(stockage, conn);
+        boolean aJour = !lectureEnRetard(conn, debutLecture, derniereAffectation);
+        verrou.lock();
+        try {
+            if (versionsAffectations.get() == version && aJour) serveurs = noms;
+        } finally {
+            verrou.unlock();
+        }
+        return noms;
+    }
+
+    /**
+     * @param debutLecture début de la lecture (System.nanoTime())
+     * @param derniereModification date de la dernière modification faite par l'application (System.nanoTime())
+     * @return true si la lecture a été faite sur une réplique qui peut ne pas encore avoir reçu la dernière modification
+     */
+    private boolean lectureEnRetard(Connection conn, long debutLecture, long derniereModification) throws SQLException {
+        return conn != null && conn.isReadOnly() && debutLecture - derniereModification < retardLectureNs;
+    }
+
+    /**
+     * @param stockage stockage des données
+     * @param conn connexion à la base de données (null pour le stockage en mémoire)
+     * @return le nom du serveur affecté à chaque table (la plus récente affectation s'il y en a plusieurs)
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    public static Map<Integer, String> chargerServeurs(Stockage stockage, Connection conn) throws SQLException {
+        return stockage.affectations().nomsServeursParTable(conn);
+    }
+
+    /**
+     * Met à jour sur place l'occupation des jours en mémoire après une réservation validée
+     * @param numtab numéro de la table
+     * @param datres date de la réservation
+     */
+    public void reservationCreee(int numtab, Timestamp datres) {
+        derniereReservation = System.nanoTime();
+        versions.incrementAndGet();
+        LocalDateTime debut = datres.toLocalDateTime();
+        LocalDate dernierJour = debut.plusNanos(IndexDisponibilites.DUREE_REPAS_MS * 1_000_000).toLocalDate();
+        verrou.lock();
+        try {
+            // Parcours plutôt que get : une réservation n'est pas une consultation du plan et ne change pas l'ordre LRU
+            for (Map.Entry<LocalDate, Occupation> e : jours.entrySet()) {
+                if (!e.getKey().isBefore(debut.toLocalDate()) && !e.getKey().isAfter(dernierJour)) e.getValue().ajouter(numtab, debut);
+            }
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Les affectations des serveurs aux tables ont changé : elles seront relues au prochain affichage du plan
+     */
+    public void affectationsModifiees() {
+        derniereAffectation = System.nanoTime();
+        verrou.lock();
+        try {
+            versionsAffectations.incrementAndGet();
+            serveurs = null;
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * @param creneauFin true pour arrondir à la tranche supérieure (fin de période)
+     * @return le numéro de la tranche qui contient l'heure
+     */
+    private static int creneau(LocalTime heure, boolean creneauFin) {
+        int minutes = heure.getHour() * 60 + heure.getMinute();
+        if (!creneauFin) return minutes / MINUTES_CRENEAU;
+        if (heure.getSecond() > 0 || heure.getNano() > 0) minutes++;
+        return (minutes + MINUTES_CRENEAU - 1) / MINUTES_CRENEAU;
+    }
+
+    /**
+     * @return les bits des tranches [de, a[ contenues dans le mot (0 pour les tranches 0 à 63, 1 pour les suivantes)
+     */
+    private static long masque(int de, int a, int mot) {
+        int bas = Math.max(de, mot * 64) - mot * 64;
+        int haut = Math.min(a, mot * 64 + 64) - mot * 64;
+        if (haut <= bas) return 0;
+        long masque = haut == 64 ? -1L : (1L << haut) - 1;
+        return masque & (-1L << bas);
+    }
+}
@@ -0,0 +1,390 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool de connexions borné partagé par toutes les sessions (terminaux des serveurs).
+ * Chaque opération emprunte une connexion avec {@link #getConnection()} et la rend en appelant close() dessus.
+ */
+public class PoolConnexions implements AutoCloseable {
+    /**
+     * Paramètres de connexion à la base de données
+     */
+    private final String url;
+    private final String login;
+    private final String password;
+    /**
+     * Nombre maximal de connexions physiques ouvertes en même temps
+     */
+    private final int taille;
+    /**
+     * Temps maximal d'attente d'une connexion libre (en millisecondes)
+     */
+    private final long attenteMaxMs;
+    /**
+     * Durée d'inactivité au-delà de laquelle on revalide une connexion avant de la prêter (en millisecondes)
+     */
+    private final long validationApresMs;
+    /**
+     * Nombre de requêtes préparées gardées en cache par connexion
+     */
+    private final int capaciteCacheRequetes;
+    /**
+     * Pool de lecture : connexions en lecture seule et en autoCommit (les consultations ne laissent aucune transaction ouverte)
+     */
+    private final boolean lectureSeule;
+
+    /**
+     * Un permis par connexion pouvant être prêtée (borne le nombre de connexions)
+     */
+    private final Semaphore permis;
+    /**
+     * Connexions ouvertes mais non prêtées (la plus récemment rendue en tête, elle a le plus de chances d'être encore valide)
+     */
+    private final LinkedBlockingDeque<ConnexionPoolee> libres = new LinkedBlockingDeque<>();
+
+    // Statistiques
+    private final AtomicInteger actives = new AtomicInteger();
+    private final AtomicInteger ouvertes = new AtomicInteger();
+    private final LongAdder prets = new LongAdder();
+    private final LongAdder tempsAttenteNs = new LongAdder();
+    private final LongAdder delaisDepasses = new LongAdder();
+    private final LongAdder invalidees = new LongAdder();
+
+    private volatile boolean ferme = false;
+
+    /**
+     * Constructeur du pool de connexions
+     * @param url l'URL JDBC de la base de données
+     * @param login le login de la base de données
+     * @param password le mot de passe de la base de données
+     * @param taille le nombre maximal de connexions
+     * @param attenteMaxMs le temps maximal d'attente d'une connexion (en millisecondes)
+     * @param validationApresMs la durée d'inactivité après laquelle une connexion est revalidée (en millisecondes)
+     */
+    public PoolConnexions(String url, String login, String password, int taille, long attenteMaxMs, long validationApresMs) {
+        this(url, login, password, taille, attenteMaxMs, validationApresMs, CacheRequetes.CAPACITE_PAR_DEFAUT);
+    }
+
+    /**
+     * Constructeur du pool de connexions
+     * @param url l'URL JDBC de la base de données
+     * @param login le login de la base de données
+     * @param password le mot de passe de la base de données
+     * @param taille le nombre maximal de connexions
+     * @param attenteMaxMs le temps maximal d'attente d'une connexion (en millisecondes)
+     * @param validationApresMs la durée d'inactivité après laquelle une connexion est revalidée (en millisecondes)
+     * @param capaciteCacheRequetes le nombre de requêtes préparées gardées en cache par connexion
+     */
+    public PoolConnexions(String url, String login, String password, int taille, long attenteMaxMs, long validationApresMs, int capaciteCacheRequetes) {
+        this(url, login, password, taille, attenteMaxMs, validationApresMs, capaciteCacheRequetes, false);
+    }
+
+    /**
+     * Constructeur du pool de connexions
+     * @param url l'URL JDBC de la base de données
+     * @param login le login de la base de données
+     * @param password le mot de passe de la base de données
+     * @param taille le nombre maximal de connexions
+     * @param attenteMaxMs le temps maximal d'attente d'une connexion (en millisecondes)
+     * @param validationApresMs la durée d'inactivité après laquelle une connexion est revalidée (en millisecondes)
+     * @param capaciteCacheRequetes le nombre de requêtes préparées gardées en cache par connexion
+     * @param lectureSeule true pour un pool de lecture (connexions en lecture seule et en autoCommit true)
+     */
+    public PoolConnexions(String url, String login, String password, int taille, long attenteMaxMs, long validationApresMs, int capaciteCacheRequetes, boolean lectureSeule) {
+        if (taille <= 0) throw new IllegalArgumentException("La taille du pool doit être positive");
+        this.url = url;
+        this.login = login;
+        this.password = password;
+        this.taille = taille;
+        this.attenteMaxMs = attenteMaxMs;
+        this.validationApresMs = validationApresMs;
+        this.capaciteCacheRequetes = capaciteCacheRequetes;
+        this.lectureSeule = lectureSeule;
+        this.permis = new Semaphore(taille, true);
+    }
+
+    /**
+     * Crée le pool à partir du fichier de configuration (resources/db.conf)
+     * Clés facultatives : pool.taille (12 par défaut), pool.attente en ms (5000 par défaut), pool.validation en ms (30000 par défaut),
+     * pool.cacheRequetes (32 requêtes préparées par connexion par défaut)
+     * @param config la configuration chargée par DBConfig
+     * @return le pool de connexions
+     */
+    public static PoolConnexions depuisConfig(Properties config) {
+        String url = "jdbc:oracle:thin:@" + config.getProperty("hostname") + ":" + config.getProperty("port") + ":" + config.getProperty("database");
+        return new PoolConnexions(url, config.getProperty("login"), config.getProperty("password"),
+                Integer.parseInt(config.getProperty("pool.taille", "12")),
+                Long.parseLong(config.getProperty("pool.attente", "5000")),
+                Long.parseLong(config.getProperty("pool.validation", "30000")),
+                Integer.parseInt(config.getProperty("pool.cacheRequetes", String.valueOf(CacheRequetes.CAPACITE_PAR_DEFAUT))));
+    }
+
+    /**
+     * Emprunte une connexion au pool. Elle doit être rendue avec close() (idéalement dans un try-with-resources).
+     * @return une connexion valide, en mode autoCommit false (autoCommit true et lecture seule pour un pool de lecture)
+     * @throws SQLException si aucune connexion ne s'est libérée à temps ou si la base de données est injoignable
+     */
+    public Connection getConnection() throws SQLException {
+        if (ferme) throw new SQLException("Le pool de connexions est fermé");
+
+        long debut = System.nanoTime();
+        try {
+            if (!permis.tryAcquire(attenteMaxMs, TimeUnit.MILLISECONDS)) {
+                delaisDepasses.increment();
+                throw new SQLException("Aucune connexion libre après " + attenteMaxMs + " ms (" + taille + " connexions déjà prêtées)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Attente d'une connexion interrompue", e);
+        } finally {
+            tempsAttenteNs.add(System.nanoTime() - debut);
+            Metriques.phase(Metriques.Phase.ATTENTE_POOL, debut);
+        }
+
+        try {
+            ConnexionPoolee c = prendreLibreValide();
+            if (c == null) c = ouvrir();
+            c.enPret = true;
+            actives.incrementAndGet();
+            prets.increment();
+            return c.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permis.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return une connexion libre et valide, ou null s'il n'y en a pas (les connexions invalides sont fermées au passage)
+     */
+    private ConnexionPoolee prendreLibreValide() {
+        ConnexionPoolee c;
+        while ((c = libres.pollFirst()) != null) {
+            // On ne revalide (aller-retour réseau) que les connexions restées inactives longtemps
+            if (System.currentTimeMillis() - c.derniereUtilisation < validationApresMs) return c;
+            try {
+                if (c.physique.isValid(2)) return c;
+            } catch (SQLException ignored) {
+                // La connexion est considérée comme invalide
+            }
+            invalidees.increment();
+            fermerPhysique(c);
+        }
+        return null;
+    }
+
+    private ConnexionPoolee ouvrir() throws SQLException {
+        Connection physique = DriverManager.getConnection(url, login, password);
+        if (lectureSeule) physique.setReadOnly(true);
+        physique.setAutoCommit(lectureSeule);
+        ouvertes.incrementAndGet();
+        return new ConnexionPoolee(physique);
+    }
+
+    /**
+     * Remet une connexion dans le pool. Une éventuelle transaction laissée ouverte est annulée (pour relâcher les verrous).
+     */
+    private void rendre(ConnexionPoolee c) {
+        if (!c.enPret) return;
+        c.enPret = false;
+        actives.decrementAndGet();
+        try {
+            if (ferme) {
+                fermerPhysique(c);
+                return;
+            }
+            try {
+                boolean autoCommit = c.physique.getAutoCommit();
+                if (!autoCommit) c.physique.rollback();
+                if (autoCommit != lectureSeule) c.physique.setAutoCommit(lectureSeule);
+                c.derniereUtilisation = System.currentTimeMillis();
+                libres.offerFirst(c);
+            } catch (SQLException e) {
+                // Connexion dans un état inconnu, on ne la réutilise pas
+                invalidees.increment();
+                fermerPhysique(c);
+            }
+        } finally {
+            permis.release();
+        }
+    }
+
+    private void fermerPhysique(ConnexionPoolee c) {
+        ouvertes.decrementAndGet();
+        c.cache.vider();
+        try {
+            c.physique.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Ferme toutes les connexions libres. Les connexions encore prêtées seront fermées à leur retour.
+     */
+    @Override
+    public void close() {
+        ferme = true;
+        List<ConnexionPoolee> aFermer = new ArrayList<>();
+        libres.drainTo(aFermer);
+        for (ConnexionPoolee c : aFermer) fermerPhysique(c);
+    }
+
+    /**
+     * @return true pour un pool de lecture
+     */
+    public boolean isLectureSeule() {
+        return lectureSeule;
+    }
+
+    /**
+     * @return le nombre de connexions actuellement prêtées
+     */
+    public int getActives() {
+        return actives.get();
+    }
+
+    /**
+     * @return le nombre de connexions ouvertes en attente d'un emprunt
+     */
+    public int getLibres() {
+        return libres.size();
+    }
+
+    /**
+     * @return le nombre de connexions physiques ouvertes (prêtées ou libres)
+     */
+    public int getOuvertes() {
+        return ouvertes.get();
+    }
+
+    /**
+     * @return le nombre total d'emprunts réussis
+     */
+    public long getPrets() {
+        return prets.sum();
+    }
+
+    /**
+     * @return le temps total passé à attendre une connexion (en millisecondes)
+     */
+    public long getTempsAttenteTotalMs() {
+        return TimeUnit.NANOSECONDS.toMillis(tempsAttenteNs.sum());
+    }
+
+    /**
+     * @return le nombre d'emprunts abandonnés faute de connexion libre à temps
+     */
+    public long getDelaisDepasses() {
+        return delaisDepasses.sum();
+    }
+
+    /**
+     * @return le nombre de connexions écartées car invalides
+     */
+    public long getInvalidees() {
+        return invalidees.sum();
+    }
+
+    /**
+     * @return les statistiques du pool sous forme lisible
+     */
+    public String getStatistiques() {
+        return (lectureSeule ? "Pool de lecture : " : "Pool : ") + getActives() + " active(s), " + getLibres() + " libre(s), " + getOuvertes() + "/" + taille + " ouverte(s), "
+                + getPrets() + " emprunt(s), attente totale " + getTempsAttenteTotalMs() + " ms, "
+                + getDelaisDepasses() + " délai(s) dépassé(s), " + getInvalidees() + " connexion(s) invalidée(s), "
+                + "cache des requêtes : " + CacheRequetes.getSuccesTotal() + " succès / " + CacheRequetes.getDefautsTotal() + " défaut(s)";
+    }
+
+    /**
+     * Connexion physique du pool. On prête un proxy dont close() rend la connexion au lieu de la fermer.
+     * Le cache des requêtes préparées de la connexion s'obtient avec unwrap(CacheRequetes.class).
+     */
+    private class ConnexionPoolee implements InvocationHandler {
+        private final Connection physique;
+        private final Connection proxy;
+        private final CacheRequetes cache;
+        private volatile boolean enPret = false;
+        private long derniereUtilisation = System.currentTimeMillis();
+
+        ConnexionPoolee(Connection physique) {
+            this.physique = physique;
+            this.cache = new CacheRequetes(physique, capaciteCacheRequetes);
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    rendre(this);
+                    return null;
+                case "isClosed":
+                    return !enPret || physique.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "isWrapperFor":
+                    if (args[0] == CacheRequetes.class) return true;
+                    return physique.isWrapperFor((Class<?>) args[0]);
+                case "unwrap":
+                    if (args[0] == CacheRequetes.class) return cache;
+                    return physique.unwrap((Class<?>) args[0]);
+                case "toString":
+                    return "ConnexionPoolee[" + physique + "]";
+                default:
+                    if (!enPret) throw new SQLException("Connexion déjà rendue au pool");
+                    return invoquerMesure(method, args);
+            }
+        }
+
+        /**
+         * Appelle la méthode sur la connexion physique en mesurant les phases JDBC (préparation, commit, rollback) ;
+         * les requêtes préparées renvoyées sont enveloppées dans une RequeteMesuree pour mesurer leur exécution
+         */
+        private Object invoquerMesure(Method method, Object[] args) throws Throwable {
+            long debut = System.nanoTime();
+            switch (method.getName()) {
+                case "commit": {
+                    Object resultat = Metriques.invoquer(physique, method, args);
+                    Metriques.phase(Metriques.Phase.COMMIT, debut);
+                    return resultat;
+                }
+                case "rollback": {
+                    Object resultat = Metriques.invoquer(physique, method, args);
+                    if (args == null) {
+                        Metriques.phase(Metriques.Phase.ROLLBACK, debut);
+                        Metriques.rollback();
+                    }
+                    return resultat;
+                }
+                case "prepareStatement": {
+                    PreparedStatement requete = (PreparedStatement) Metriques.invoquer(physique, method, args);
+                    Metriques.phase(Metriques.Phase.PREPARATION, debut);
+                    return RequeteMesuree.de(requete);
+                }
+                default:
+                    try {
+                        return method.invoke(physique, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Affectations courantes des serveurs aux tables gardées en mémoire, et historique des affectations lu par pages.
+ * <p>
+ * L'affectation courante de chaque table et les tables de chaque serveur forment un instantané immuable : « quel serveur sert la table X »
+ * et « quelles tables sert le serveur Y » se lisent en temps constant, sans verrou ni requête. Une affectation est enregistrée par un seul MERGE
+ * (l'affectation du jour de la table), puis l'instantané est remplacé d'un coup : une lecture voit l'ancienne ou la nouvelle affectation, jamais un mélange.
+ * Les affectations faites en dehors de l'application ne sont vues qu'au prochain chargement.
+ */
+public class RegistreAffectations {
+    /**
+     * Taille d'une page de l'historique (si elle n'est pas précisée)
+     */
+    public static final int TAILLE_PAGE = 50;
+    /**
+     * Taille maximale d'une page de l'historique
+     */
+    public static final int TAILLE_PAGE_MAX = 500;
+
+    /**
+     * Instantané des affectations courantes
+     * @param parTable l'affectation courante de chaque table
+     * @param tablesParServeur les tables de chaque serveur (triées)
+     */
+    private record Instantane(Map<Integer, Affectation> parTable, Map<Integer, SortedSet<Integer>> tablesParServeur) {
+    }
+
+    private final Stockage stockage;
+    /**
+     * Une seule affectation à la fois, pour que l'instantané suive l'ordre des validations dans la base
+     */
+    private final ReentrantLock ecriture = new ReentrantLock();
+    private volatile Instantane courant = new Instantane(Map.of(), Map.of());
+
+    /**
+     * Constructeur du registre (vide jusqu'au chargement)
+     * @param stockage stockage des affectations
+     */
+    public RegistreAffectations(Stockage stockage) {
+        this.stockage = stockage;
+    }
+
+    /**
+     * Charge les affectations courantes depuis le stockage (au démarrage)
+     * @param conn connexion à la base de données (null pour le stockage en mémoire)
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    public void charger(Connection conn) throws SQLException {
+        ecriture.lock();
+        try {
+            Map<Integer, Affectation> parTable = new HashMap<>();
+            for (Affectation a : stockage.affectations().courantes(conn)) parTable.put(a.numtab(), a);
+            Map<Integer, SortedSet<Integer>> tablesParServeur = new HashMap<>();
+            for (Affectation a : parTable.values()) tablesParServeur.computeIfAbsent(a.numserv(), s -> new TreeSet<>()).add(a.numtab());
+            tablesParServeur.replaceAll((numserv, tables) -> Collections.unmodifiableSortedSet(tables));
+            courant = new Instantane(Collections.unmodifiableMap(parTable), Collections.unmodifiableMap(tablesParServeur));
+        } finally {
+            ecriture.unlock();
+        }
+    }
+
+    /**
+     * Affecte un serveur à une table à la date du jour (remplace l'affectation du jour de la table s'il y en a déjà une)
+     * @param conn connexion à la base de données (null pour le stockage en mémoire)
+     * @param numtab numéro de la table
+     * @param numserv numéro du serveur
+     * @return le serveur affecté à la table avant cette affectation, null si elle n'en avait pas
+     * @throws SQLException si la table ou le serveur n'existe pas, ou si l'enregistrement échoue (la transaction reste à annuler par l'appelant)
+     */
+    public Integer affecter(Connection conn, int numtab, int numserv) throws SQLException {
+        Affectation affectation = new Affectation(numtab, Date.valueOf(LocalDate.now()), numserv);
+        ecriture.lock();
+        try {
+            stockage.affectations().affecter(conn, affectation);
+
+            Instantane ancien = courant;
+            Affectation precedente = ancien.parTable().get(numtab);
+            Map<Integer, Affectation> parTable = new HashMap<>(ancien.parTable());
+            parTable.put(numtab, affectation);
+            Map<Integer, SortedSet<Integer>> tablesParServeur = new HashMap<>(ancien.tablesParServeur());
+            if (precedente != null && precedente.numserv() != numserv) {
+                TreeSet<Integer> tables = new TreeSet<>(tablesParServeur.getOrDefault(precedente.numserv(), Collections.emptySortedSet()));
+                tables.remove(numtab);
+                if (tables.isEmpty()) tablesParServeur.remove(precedente.numserv());
+                else tablesParServeur.put(precedente.numserv(), Collections.unmodifiableSortedSet(tables));
+            }
+            TreeSet<Integer> tables = new TreeSet<>(tablesParServeur.getOrDefault(numserv, Collections.emptySortedSet()));
+            tables.add(numtab);
+            tablesParServeur.put(numserv, Collections.unmodifiableSortedSet(tables));
+            courant = new Instantane(Collections.unmodifiableMap(parTable), Collections.unmodifiableMap(tablesParServeur));
+            return precedente != null ? precedente.numserv() : null;
+        } finally {
+            ecriture.unlock();
+        }
+    }
+
+    /**
+     * @param numtab numéro de la table
+     * @return le numéro du serveur affecté à la table, null si elle n'a pas d'affectation
+     */
+    public Integer serveur(int numtab) {
+        Affectation a = courant.parTable().get(numtab);
+        return a != null ? a.numserv() : null;
+    }
+
+    /**
+     * @param numserv numéro du serveur
+     * @return les tables affectées au serveur, triées (vide s'il n'en a aucune)
+     */
+    public SortedSet<Integer> tables(int numserv) {
+        return courant.tablesParServeur().getOrDefault(numserv, Collections.emptySortedSet());
+    }
+
+    /**
+     * @return l'affectation courante de chaque table, par numéro de table
+     */
+    public Map<Integer, Affectation> getCourantes() {
+        return courant.parTable();
+    }
+
+    /**
+     * Une page de l'historique des affectations, des plus récentes aux plus anciennes
+     * @param conn connexion à la base de données (null pour le stockage en mémoire)
+     * @param numserv numéro du serveur dont on veut l'historique, null pour tous les serveurs
+     * @param apres dernière affectation de la page précédente, null pour la première page
+     * @param taille nombre maximal d'affectations de la page (plafonné à TAILLE_PAGE_MAX)
+     * @return les affectations de la page (moins de taille s'il n'y en a plus)
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    public List<Affectation> historique(Connection conn, Integer numserv, Affectation apres, int taille) throws SQLException {
+        return stockage.affectations().historique(conn, numserv, apres, Math.max(1, Math.min(taille, TAILLE_PAGE_MAX)));
+    }
+}
@@ -0,0 +1,392 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registre des stocks des plats en mémoire (mode facultatif, clé stocks.registre de db.conf).
+ * Une commande décrémente le stock en mémoire (compare-and-set, plus des verrous en mémoire par plat pour une commande de plusieurs plats)
+ * au lieu de verrouiller la ligne du plat avec SELECT ... FOR UPDATE : elle n'attend jamais un verrou de la base de données.
+ * Chaque commande enregistre dans sa transaction un mouvement (table MOUVEMENT_STOCK), et un thread en arrière-plan reporte
+ * régulièrement la somme des mouvements sur plat.qteservie, par lots.
+ * Au démarrage (y compris après un arrêt brutal), le stock disponible est qteservie moins les mouvements pas encore reportés.
+ */
+public class RegistreStocks implements AutoCloseable {
+    /**
+     * Compteur du stock de chaque plat
+     */
+    private final ConcurrentHashMap<Integer, CompteurStock> stocks = new ConcurrentHashMap<>();
+    /**
+     * Prix unitaire de chaque plat (pour le montant cumulé des réservations)
+     */
+    private final ConcurrentHashMap<Integer, Double> prix = new ConcurrentHashMap<>();
+    /**
+     * Nombre de cellules par compteur (répartit les décréments concurrents d'un même plat)
+     */
+    private final int nbCellules;
+
+    private final PoolConnexions pool;
+    private final ExecuteurTransactions executeur;
+    private final ScheduledExecutorService reporteur;
+    private final long periodeReportMs;
+    private final int mouvementsParLot;
+    private final LongAdder mouvementsReportes = new LongAdder();
+
+    /**
+     * Constructeur du registre
+     * @param pool le pool de connexions (pour le report des mouvements)
+     * @param executeur l'exécution des transactions de report (opération reporter : attente maximale des verrous, nouvelles tentatives)
+     * @param periodeReportMs la période du report des mouvements sur plat.qteservie (en millisecondes)
+     * @param mouvementsParLot le nombre maximal de mouvements reportés (et verrouillés) par transaction
+     */
+    public RegistreStocks(PoolConnexions pool, ExecuteurTransactions executeur, long periodeReportMs, int mouvementsParLot) {
+        this.pool = pool;
+        this.executeur = executeur;
+        this.mouvementsParLot = mouvementsParLot;
+        this.nbCellules = Math.max(2, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 2);
+        this.reporteur = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "report-stocks");
+            t.setDaemon(true);
+            return t;
+        });
+        this.periodeReportMs = periodeReportMs;
+    }
+
+    /**
+     * Démarre le report périodique des mouvements en arrière-plan
+     */
+    public void demarrer() {
+        reporteur.scheduleWithFixedDelay(this::reporterSansErreur, periodeReportMs, periodeReportMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Charge les stocks : qteservie moins les mouvements qui n'ont pas encore été reportés (réconciliation au démarrage)
+     * @param conn connexion à la base de données
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    public void charger(Connection conn) throws SQLException {
+        String sql = "SELECT p.numplat, p.prixunit, p.qteservie - NVL(m.total, 0) AS stock " +
+                "FROM plat p LEFT JOIN (SELECT numplat, SUM(delta) AS total FROM mouvement_stock GROUP BY numplat) m ON m.numplat = p.numplat";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                stocks.put(rs.getInt("numplat"), new CompteurStock(Math.max(0, rs.getInt("stock")), nbCellules));
+                prix.put(rs.getInt("numplat"), rs.getDouble("prixunit"));
+            }
+        }
+    }
+
+    /**
+     * Retire du stock toutes les quantités demandées, ou aucune si un des plats n'en a pas assez.
+     * Un seul plat est retiré par compare-and-set, sans verrou. Pour plusieurs plats, la commande verrouille ses plats par numéro croissant
+     * et vérifie tous les stocks avant d'en retirer un seul : les commandes de plusieurs plats ne se voient pas les unes les autres retirer
+     * puis remettre du stock. Seule exception acceptée : une commande d'un seul plat qui prend les dernières portions entre la vérification
+     * et le retrait fait échouer la commande de plusieurs plats, qui remet alors ce qu'elle avait déjà retiré ; pendant ce court instant,
+     * une autre commande peut être refusée sur un stock qui n'était que momentanément plus bas.
+     * @param quantites quantité par plat
+     * @return null si tout a été retiré, sinon le numéro du plus petit plat inconnu ou en quantité insuffisante (rien n'a été retiré)
+     */
+    public Integer retirer(Map<Integer, Integer> quantites) {
+        if (quantites.size() == 1) {
+            Map.Entry<Integer, Integer> e = quantites.entrySet().iterator().next();
+            CompteurStock compteur = stocks.get(e.getKey());
+            return compteur != null && compteur.retirer(e.getValue()) ? null : e.getKey();
+        }
+
+        SortedMap<Integer, Integer> tries = new TreeMap<>(quantites);
+        List<CompteurStock> compteurs = new ArrayList<>(tries.size());
+        for (int numplat : tries.keySet()) {
+            CompteurStock compteur = stocks.get(numplat);
+            if (compteur == null) return numplat;
+            compteurs.add(compteur);
+        }
+        int verrouilles = 0;
+        try {
+            for (CompteurStock compteur : compteurs) {
+                compteur.verrou.lock();
+                verrouilles++;
+            }
+            int i = 0;
+            for (Map.Entry<Integer, Integer> e : tries.entrySet()) {
+                if (compteurs.get(i++).total() < e.getValue()) return e.getKey();
+            }
+            List<Map.Entry<Integer, Integer>> retires = new ArrayList<>();
+            i = 0;
+            for (Map.Entry<Integer, Integer> e : tries.entrySet()) {
+                if (!compteurs.get(i++).retirer(e.getValue())) {
+                    remettre(retires);
+                    return e.getKey();
+                }
+                retires.add(e);
+            }
+            return null;
+        } finally {
+            for (int i = verrouilles - 1; i >= 0; i--) compteurs.get(i).verrou.unlock();
+        }
+    }
+
+    /**
+     * Remet en stock des quantités retirées (commande annulée)
+     * @param quantites quantité par plat
+     */
+    public void remettre(Map<Integer, Integer> quantites) {
+        remettre(new ArrayList<>(quantites.entrySet()));
+    }
+
+    private void remettre(List<Map.Entry<Integer, Integer>> quantites) {
+        for (Map.Entry<Integer, Integer> e : quantites) {
+            CompteurStock compteur = stocks.get(e.getKey());
+            if (compteur != null) compteur.ajouter(e.getValue());
+        }
+    }
+
+    /**
+     * Ajoute du stock à un plat (réapprovisionnement fait par l'application)
+     * @param numplat numéro du plat
+     * @param quantite quantité ajoutée
+     */
+    public void ajouter(int numplat, int quantite) {
+        CompteurStock compteur = stocks.get(numplat);
+        if (compteur != null) compteur.ajouter(quantite);
+    }
+
+    /**
+     * @param numplat numéro du plat
+     * @return true si le plat est connu du registre
+     */
+    public boolean contient(int numplat) {
+        return stocks.containsKey(numplat);
+    }
+
+    /**
+     * @param numplat numéro du plat
+     * @return le stock disponible du plat (0 si le plat est inconnu)
+     */
+    public int getStock(int numplat) {
+        CompteurStock compteur = stocks.get(numplat);
+        return compteur == null ? 0 : compteur.total();
+    }
+
+    /**
+     * @param numplat numéro du plat
+     * @return le prix unitaire du plat, null si le plat est inconnu
+     */
+    public Double getPrix(int numplat) {
+        return prix.get(numplat);
+    }
+
+    /**
+     * @return le nombre de mouvements reportés sur plat.qteservie depuis le démarrage
+     */
+    public long getMouvementsReportes() {
+        return mouvementsReportes.sum();
+    }
+
+    /**
+     * Enregistre les mouvements d'une commande dans la transaction en cours (sans verrouiller les plats)
+     * @param conn connexion à la base de données, dans la transaction de la commande
+     * @param quantites quantité par plat
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    public static void enregistrerMouvements(Connection conn, Map<Integer, Integer> quantites) throws SQLException {
+        PreparedStatement pstmt = CacheRequetes.de(conn).preparer("INSERT INTO mouvement_stock (numplat, delta) VALUES (?, ?)");
+        for (Map.Entry<Integer, Integer> e : quantites.entrySet()) {
+            pstmt.setInt(1, e.getKey());
+            pstmt.setInt(2, e.getValue());
+            pstmt.addBatch();
+        }
+        pstmt.executeBatch();
+    }
+
+    /**
+     * Reporte les mouvements validés sur plat.qteservie et les supprime, par transactions d'au plus mouvementsParLot mouvements :
+     * un report ne verrouille jamais plus d'un lot, même après une longue coupure. Seuls les mouvements lus (et verrouillés) sont supprimés :
+     * ceux validés pendant le report le seront au suivant.
+     * @return le nombre de mouvements reportés
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    public int reporter() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            int total = 0;
+            int lot;
+            do {
+                lot = executeur.executer(conn, "reporter", attente -> reporterLot(conn, attente));
+                total += lot;
+            } while (lot == mouvementsParLot);
+            return total;
+        }
+    }
+
+    /**
+     * Reporte un lot de mouvements en une seule transaction.
+     * Les mouvements verrouillés ne sont modifiés que par le report (un seul thread) : verrouiller les plats après eux ne crée pas d'interblocage.
+     * Les plats sont verrouillés par numéro croissant, avec l'attente maximale de l'opération, avant d'être mis à jour.
+     */
+    private int reporterLot(Connection conn, AttenteVerrou attente) throws SQLException {
+        CacheRequetes cache = CacheRequetes.de(conn);
+        List<Long> ids = new ArrayList<>();
+        SortedMap<Integer, Integer> deltas = new TreeMap<>();
+        try {
+            // ROWNUM plutôt que FETCH FIRST : Oracle refuse FOR UPDATE avec FETCH FIRST (ORA-02014)
+            PreparedStatement pstmtMouv = cache.preparer("SELECT idmouv, numplat, delta FROM mouvement_stock WHERE ROWNUM <= ? " + attente.forUpdate());
+            pstmtMouv.setInt(1, mouvementsParLot);
+            try (ResultSet rs = pstmtMouv.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong("idmouv"));
+                    deltas.merge(rs.getInt("numplat"), rs.getInt("delta"), Integer::sum);
+                }
+            }
+            if (ids.isEmpty()) {
+                conn.commit();
+                return 0;
+            }
+
+            PreparedStatement pstmtVerrou = cache.preparer("SELECT numplat FROM plat WHERE numplat = ? " + attente.forUpdate());
+            for (int numplat : deltas.keySet()) {
+                pstmtVerrou.setInt(1, numplat);
+                try (ResultSet rs = pstmtVerrou.executeQuery()) {
+                    rs.next();
+                }
+            }
+
+            PreparedStatement pstmtPlat = cache.preparer("UPDATE plat SET qteservie = qteservie - ? WHERE numplat = ?");
+            for (Map.Entry<Integer, Integer> e : deltas.entrySet()) {
+                pstmtPlat.setInt(1, e.getValue());
+                pstmtPlat.setInt(2, e.getKey());
+                pstmtPlat.addBatch();
+            }
+            pstmtPlat.executeBatch();
+
+            PreparedStatement pstmtSuppr = cache.preparer("DELETE FROM mouvement_stock WHERE idmouv = ?");
+            for (long id : ids) {
+                pstmtSuppr.setLong(1, id);
+                pstmtSuppr.addBatch();
+            }
+            pstmtSuppr.executeBatch();
+
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+        mouvementsReportes.add(ids.size());
+        return ids.size();
+    }
+
+    private void reporterSansErreur() {
+        try {
+            reporter();
+        } catch (SQLException e) {
+            // Les mouvements restent dans la table, ils seront reportés la prochaine fois
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Arrête le report en arrière-plan après un dernier report
+     */
+    @Override
+    public void close() {
+        reporteur.shutdown();
+        try {
+            reporteur.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        reporterSansErreur();
+    }
+
+    /**
+     * Stock d'un plat réparti sur plusieurs cellules : les threads décrémentent de préférence « leur » cellule,
+     * ce qui évite qu'ils se disputent tous la même variable pour un plat très demandé. Une cellule ne devient jamais négative.
+     */
+    static class CompteurStock {
+        /**
+         * Écart entre deux cellules (16 int = 64 octets) pour qu'elles ne partagent pas une ligne de cache
+         */
+        private static final int ECART = 16;
+
+        private final AtomicIntegerArray cellules;
+        private final int nbCellules;
+        /**
+         * Un seul regroupement du stock à la fois (chemin lent)
+         */
+        private final ReentrantLock regroupement = new ReentrantLock();
+        /**
+         * Pris par les commandes de plusieurs plats, par numéro de plat croissant, avant le regroupement
+         */
+        final ReentrantLock verrou = new ReentrantLock();
+
+        CompteurStock(int stock, int nbCellules) {
+            this.nbCellules = nbCellules;
+            this.cellules = new AtomicIntegerArray(nbCellules * ECART);
+            repartir(stock);
+        }
+
+        private int cellule() {
+            long id = Thread.currentThread().threadId();
+            return (int) ((id ^ (id >>> 16)) & (nbCellules - 1)) * ECART;
+        }
+
+        /**
+         * Répartit un stock sur les cellules (à appeler quand toutes les cellules sont vides)
+         */
+        private void repartir(int stock) {
+            int part = stock / nbCellules;
+            int reste = stock % nbCellules;
+            for (int i = 0; i < nbCellules; i++) {
+                cellules.addAndGet(i * ECART, part + (i < reste ? 1 : 0));
+            }
+        }
+
+        /**
+         * @param quantite quantité à retirer
+         * @return true si la quantité a été retirée, false si le stock est insuffisant (rien n'est retiré)
+         */
+        boolean retirer(int quantite) {
+            int depart = cellule();
+            // Chemin rapide : une seule cellule contient assez de stock
+            for (int k = 0; k < nbCellules; k++) {
+                int i = (depart + k * ECART) % (nbCellules * ECART);
+                int valeur;
+                while ((valeur = cellules.get(i)) >= quantite) {
+                    if (cellules.compareAndSet(i, valeur, valeur - quantite)) return true;
+                }
+            }
+            // Chemin lent : le stock est éparpillé, on le regroupe puis on le répartit à nouveau
+            regroupement.lock();
+            try {
+                int total = 0;
+                for (int i = 0; i < nbCellules; i++) total += cellules.getAndSet(i * ECART, 0);
+                boolean suffisant = total >= quantite;
+                repartir(suffisant ? total - quantite : total);
+                return suffisant;
+            } finally {
+                regroupement.unlock();
+            }
+        }
+
+        void ajouter(int quantite) {
+            cellules.addAndGet(cellule(), quantite);
+        }
+
+        int total() {
+            int total = 0;
+            for (int i = 0; i < nbCellules; i++) total += cellules.get(i * ECART);
+            return total;
+        }
+    }
+}
@@ -0,0 +1,748 @@
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLType;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+
+/**
+ * Requête préparée dont l'exécution est mesurée (phase exécution des métriques) : les méthodes execute* enregistrent leur durée
+ * et comptent leurs erreurs SQL (attentes de verrou expirées, interblocages), toutes les autres méthodes sont transmises telles quelles.
+ * Écrite à la main plutôt qu'avec un Proxy : un appel (setInt, executeQuery...) n'alloue rien, et les ResultSet ne sont pas enveloppés.
+ */
+public final class RequeteMesuree implements PreparedStatement {
+    private final PreparedStatement requete;
+
+    private RequeteMesuree(PreparedStatement requete) {
+        this.requete = requete;
+    }
+
+    /**
+     * @param requete une requête préparée
+     * @return la requête mesurée (la requête elle-même si elle l'est déjà)
+     */
+    public static PreparedStatement de(PreparedStatement requete) {
+        return requete instanceof RequeteMesuree ? requete : new RequeteMesuree(requete);
+    }
+
+    @Override
+    public ResultSet executeQuery() throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.executeQuery();
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public int executeUpdate() throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.executeUpdate();
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public boolean execute() throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.execute();
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate() throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.executeLargeUpdate();
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.executeQuery(sql);
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.executeUpdate(sql);
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.execute(sql);
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.executeBatch();
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.executeUpdate(sql, autoGeneratedKeys);
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.executeUpdate(sql, columnIndexes);
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.executeUpdate(sql, columnNames);
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.execute(sql, autoGeneratedKeys);
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.execute(sql, columnIndexes);
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.execute(sql, columnNames);
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.executeLargeBatch();
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql) throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.executeLargeUpdate(sql);
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.executeLargeUpdate(sql, autoGeneratedKeys);
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.executeLargeUpdate(sql, columnIndexes);
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            return requete.executeLargeUpdate(sql, columnNames);
+        } catch (SQLException e) {
+            Metriques.erreurSql(e);
+            throw e;
+        } finally {
+            Metriques.phase(Metriques.Phase.EXECUTION, debut);
+        }
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType) throws SQLException {
+        requete.setNull(parameterIndex, sqlType);
+    }
+
+    @Override
+    public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+        requete.setBoolean(parameterIndex, x);
+    }
+
+    @Override
+    public void setByte(int parameterIndex, byte x) throws SQLException {
+        requete.setByte(parameterIndex, x);
+    }
+
+    @Override
+    public void setShort(int parameterIndex, short x) throws SQLException {
+        requete.setShort(parameterIndex, x);
+    }
+
+    @Override
+    public void setInt(int parameterIndex, int x) throws SQLException {
+        requete.setInt(parameterIndex, x);
+    }
+
+    @Override
+    public void setLong(int parameterIndex, long x) throws SQLException {
+        requete.setLong(parameterIndex, x);
+    }
+
+    @Override
+    public void setFloat(int parameterIndex, float x) throws SQLException {
+        requete.setFloat(parameterIndex, x);
+    }
+
+    @Override
+    public void setDouble(int parameterIndex, double x) throws SQLException {
+        requete.setDouble(parameterIndex, x);
+    }
+
+    @Override
+    public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+        requete.setBigDecimal(parameterIndex, x);
+    }
+
+    @Override
+    public void setString(int parameterIndex, String x) throws SQLException {
+        requete.setString(parameterIndex, x);
+    }
+
+    @Override
+    public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+        requete.setBytes(parameterIndex, x);
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x) throws SQLException {
+        requete.setDate(parameterIndex, x);
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x) throws SQLException {
+        requete.setTime(parameterIndex, x);
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+        requete.setTimestamp(parameterIndex, x);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        requete.setAsciiStream(parameterIndex, x, length);
+    }
+
+    @Override
+    @Deprecated
+    @SuppressWarnings("deprecation")
+    public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        requete.setUnicodeStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        requete.setBinaryStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void clearParameters() throws SQLException {
+        requete.clearParameters();
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+        requete.setObject(parameterIndex, x, targetSqlType);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x) throws SQLException {
+        requete.setObject(parameterIndex, x);
+    }
+
+    @Override
+    public void addBatch() throws SQLException {
+        requete.addBatch();
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException {
+        requete.setCharacterStream(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setRef(int parameterIndex, Ref x) throws SQLException {
+        requete.setRef(parameterIndex, x);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, Blob x) throws SQLException {
+        requete.setBlob(parameterIndex, x);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Clob x) throws SQLException {
+        requete.setClob(parameterIndex, x);
+    }
+
+    @Override
+    public void setArray(int parameterIndex, Array x) throws SQLException {
+        requete.setArray(parameterIndex, x);
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() throws SQLException {
+        return requete.getMetaData();
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+        requete.setDate(parameterIndex, x, cal);
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+        requete.setTime(parameterIndex, x, cal);
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+        requete.setTimestamp(parameterIndex, x, cal);
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+        requete.setNull(parameterIndex, sqlType, typeName);
+    }
+
+    @Override
+    public void setURL(int parameterIndex, URL x) throws SQLException {
+        requete.setURL(parameterIndex, x);
+    }
+
+    @Override
+    public ParameterMetaData getParameterMetaData() throws SQLException {
+        return requete.getParameterMetaData();
+    }
+
+    @Override
+    public void setRowId(int parameterIndex, RowId x) throws SQLException {
+        requete.setRowId(parameterIndex, x);
+    }
+
+    @Override
+    public void setNString(int parameterIndex, String value) throws SQLException {
+        requete.setNString(parameterIndex, value);
+    }
+
+    @Override
+    public void setNCharacterStream(int parameterIndex, Reader value, long length) throws SQLException {
+        requete.setNCharacterStream(parameterIndex, value, length);
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, NClob value) throws SQLException {
+        requete.setNClob(parameterIndex, value);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+        requete.setClob(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream, long length) throws SQLException {
+        requete.setBlob(parameterIndex, inputStream, length);
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
+        requete.setNClob(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException {
+        requete.setSQLXML(parameterIndex, xmlObject);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+        requete.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+        requete.setAsciiStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+        requete.setBinaryStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException {
+        requete.setCharacterStream(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+        requete.setAsciiStream(parameterIndex, x);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+        requete.setBinaryStream(parameterIndex, x);
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+        requete.setCharacterStream(parameterIndex, reader);
+    }
+
+    @Override
+    public void setNCharacterStream(int parameterIndex, Reader value) throws SQLException {
+        requete.setNCharacterStream(parameterIndex, value);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader) throws SQLException {
+        requete.setClob(parameterIndex, reader);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
+        requete.setBlob(parameterIndex, inputStream);
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+        requete.setNClob(parameterIndex, reader);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, SQLType targetSqlType, int scaleOrLength) throws SQLException {
+        requete.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, SQLType targetSqlType) throws SQLException {
+        requete.setObject(parameterIndex, x, targetSqlType);
+    }
+
+    @Override
+    public int getMaxFieldSize() throws SQLException {
+        return requete.getMaxFieldSize();
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+        requete.setMaxFieldSize(max);
+    }
+
+    @Override
+    public int getMaxRows() throws SQLException {
+        return requete.getMaxRows();
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        requete.setMaxRows(max);
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        requete.setEscapeProcessing(enable);
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return requete.getQueryTimeout();
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        requete.setQueryTimeout(seconds);
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        requete.cancel();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return requete.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        requete.clearWarnings();
+    }
+
+    @Override
+    public void setCursorName(String name) throws SQLException {
+        requete.setCursorName(name);
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        return requete.getResultSet();
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        return requete.getUpdateCount();
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        return requete.getMoreResults();
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        requete.setFetchDirection(direction);
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        return requete.getFetchDirection();
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        requete.setFetchSize(rows);
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return requete.getFetchSize();
+    }
+
+    @Override
+    public int getResultSetConcurrency() throws SQLException {
+        return requete.getResultSetConcurrency();
+    }
+
+    @Override
+    public int getResultSetType() throws SQLException {
+        return requete.getResultSetType();
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        requete.addBatch(sql);
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        requete.clearBatch();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return requete.getConnection();
+    }
+
+    @Override
+    public boolean getMoreResults(int current) throws SQLException {
+        return requete.getMoreResults(current);
+    }
+
+    @Override
+    public ResultSet getGeneratedKeys() throws SQLException {
+        return requete.getGeneratedKeys();
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        return requete.getResultSetHoldability();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return requete.isClosed();
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        requete.setPoolable(poolable);
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        return requete.isPoolable();
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        requete.closeOnCompletion();
+    }
+
+    @Override
+    public boolean isCloseOnCompletion() throws SQLException {
+        return requete.isCloseOnCompletion();
+    }
+
+    @Override
+    public long getLargeUpdateCount() throws SQLException {
+        return requete.getLargeUpdateCount();
+    }
+
+    @Override
+    public void setLargeMaxRows(long max) throws SQLException {
+        requete.setLargeMaxRows(max);
+    }
+
+    @Override
+    public long getLargeMaxRows() throws SQLException {
+        return requete.getLargeMaxRows();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        requete.close();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : requete.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || requete.isWrapperFor(iface);
+    }
+}
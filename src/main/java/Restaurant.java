@@ -0,0 +1,316 @@
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Properties;
+
+/**
+ * Ressources partagées par toutes les sessions de l'application : le stockage des données (avec son pool de connexions) et les structures en mémoire.
+ * <p>
+ * Les sessions tournent sur des threads virtuels. Les structures partagées se protègent avec des ReentrantLock, jamais avec synchronized :
+ * un thread virtuel qui attend (ou fait une requête) dans un bloc synchronized bloque son thread porteur, alors qu'avec un ReentrantLock
+ * le thread porteur passe à un autre thread virtuel.
+ */
+public class Restaurant implements AutoCloseable {
+    /**
+     * Stockage des données (base de données, ou mémoire avec la clé stockage=memoire)
+     */
+    private final Stockage stockage;
+    /**
+     * Pool de connexions partagé (null avec le stockage en mémoire)
+     */
+    private final PoolConnexions pool;
+    /**
+     * Configuration de l'application (resources/db.conf)
+     */
+    private final Properties config;
+    /**
+     * Exécution des transactions qui verrouillent des lignes (clés verrous.*)
+     */
+    private final ExecuteurTransactions executeurTransactions;
+    /**
+     * Authentification des serveurs et sessions ouvertes (clés sessions.* et motsDePasse.*)
+     */
+    private final Authentification authentification;
+    /**
+     * Index des disponibilités des tables
+     */
+    private final IndexDisponibilites indexDisponibilites = new IndexDisponibilites();
+    /**
+     * Affectations courantes des serveurs aux tables
+     */
+    private final RegistreAffectations registreAffectations;
+    /**
+     * Registre des stocks en mémoire (null si le mode registre n'est pas activé)
+     */
+    private RegistreStocks registreStocks;
+    /**
+     * Journal des commandes appliqué à la base de données en arrière-plan (null si la clé commandes.journal est absente)
+     */
+    private JournalCommandes journalCommandes;
+    /**
+     * Carte des plats disponibles gardée en mémoire
+     */
+    private CarteMenu carteMenu;
+    /**
+     * Données des rapports gardées en mémoire (chargées au premier rapport)
+     */
+    private Analytique analytique;
+    /**
+     * Occupation des tables par jour gardée en mémoire pour le plan de salle
+     */
+    private PlanSalle planSalle;
+    /**
+     * Journal des événements métier écrit en arrière-plan (null si la clé journal.fichier est absente)
+     */
+    private JournalEvenements journal;
+
+    /**
+     * Constructeur du restaurant
+     * @param pool le pool de connexions partagé
+     */
+    public Restaurant(PoolConnexions pool) {
+        this(pool, new Properties());
+    }
+
+    /**
+     * Constructeur du restaurant
+     * @param pool le pool de connexions partagé
+     * @param config la configuration de l'application
+     */
+    public Restaurant(PoolConnexions pool, Properties config) {
+        this(new StockageJdbc(pool), config);
+    }
+
+    /**
+     * Constructeur du restaurant
+     * @param stockage le stockage des données
+     * @param config la configuration de l'application
+     */
+    public Restaurant(Stockage stockage, Properties config) {
+        this.stockage = stockage;
+        this.pool = stockage.getPool();
+        this.config = config;
+        this.executeurTransactions = new ExecuteurTransactions(config);
+        this.authentification = new Authentification(stockage, config);
+        this.registreAffectations = new RegistreAffectations(stockage);
+    }
+
+    /**
+     * Charge les structures en mémoire depuis le stockage (au démarrage)
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     * @throws IOException si le fichier du journal des événements ou du journal des commandes ne peut pas être ouvert
+     */
+    public void initialiser() throws SQLException, IOException {
+        RoutageLectures routage = stockage.getRoutageLectures();
+        if (routage != null) routage.demarrer();
+        // Avec une réplique, les caches ne gardent pas ce qu'ils y ont lu juste après une modification
+        long retardLectureMaxMs = routage != null ? routage.getRetardMaxGaranti() : 0;
+
+        // Démarré en premier : le rejeu du journal des commandes y signale les commandes rejetées
+        JournalEvenements j = JournalEvenements.depuisConfig(config);
+        if (j != null) {
+            j.demarrer();
+            journal = j;
+        }
+
+        try (Connection conn = connexion()) {
+            indexDisponibilites.charger(stockage, conn);
+            registreAffectations.charger(conn);
+        }
+
+        // Le journal des commandes vérifie le stock dans le registre : il active le mode registre.
+        // Ni l'un ni l'autre avec le stockage en mémoire : ses stocks sont déjà en mémoire, sans table mouvement_stock à reporter
+        boolean avecJournalCommandes = !config.getProperty("commandes.journal", "").isBlank();
+        if (pool != null && (avecJournalCommandes || Boolean.parseBoolean(config.getProperty("stocks.registre", "false")))) {
+            RegistreStocks registre = new RegistreStocks(pool, executeurTransactions,
+                    Long.parseLong(config.getProperty("stocks.report", "1000")), Integer.parseInt(config.getProperty("stocks.lot", "1000")));
+            // On reporte d'abord les mouvements restés en attente (arrêt brutal) puis on charge les stocks
+            registre.reporter();
+            JournalCommandes jc = JournalCommandes.depuisConfig(config, pool, registre, journal);
+            if (jc != null) {
+                // Les commandes du journal pas encore appliquées (arrêt brutal) sont rejouées avant de charger les stocks
+                jc.ouvrir();
+                jc.appliquer();
+            }
+            try (Connection conn = pool.getConnection()) {
+                registre.charger(conn);
+                // Réservations du jour et de la veille : les plus anciennes sont vérifiées à leur première commande
+                if (jc != null) jc.chargerReservationsOuvertes(conn, new Timestamp(System.currentTimeMillis() - 24 * 3600 * 1000L));
+            }
+            registre.demarrer();
+            registreStocks = registre;
+            if (jc != null) {
+                jc.demarrer();
+                journalCommandes = jc;
+            }
+        }
+
+        carteMenu = new CarteMenu(stockage, Long.parseLong(config.getProperty("carte.dureeVie", "60000")), registreStocks, retardLectureMaxMs);
+
+        // Les rapports lisent la base de données : pas de rapports avec le stockage en mémoire
+        if (pool != null) {
+            analytique = new Analytique(Long.parseLong(config.getProperty("analytique.dureeVie", "60000")),
+                    Integer.parseInt(config.getProperty("analytique.fetchSize", "1000")));
+        }
+
+        planSalle = new PlanSalle(stockage, Long.parseLong(config.getProperty("plan.dureeVie", "60000")),
+                Integer.parseInt(config.getProperty("plan.jours", String.valueOf(PlanSalle.JOURS))), retardLectureMaxMs);
+    }
+
+    /**
+     * Arrête les traitements en arrière-plan (à appeler avant de fermer le stockage)
+     */
+    @Override
+    public void close() {
+        if (journalCommandes != null) journalCommandes.close();
+        if (registreStocks != null) registreStocks.close();
+        if (journal != null) journal.close();
+    }
+
+    /**
+     * @return le pool de connexions partagé, null avec le stockage en mémoire
+     */
+    public PoolConnexions getPool() {
+        return pool;
+    }
+
+    /**
+     * @return le stockage des données
+     */
+    public Stockage getStockage() {
+        return stockage;
+    }
+
+    /**
+     * Emprunte une connexion au pool (à fermer pour la rendre, par exemple avec try-with-resources)
+     * @return la connexion, null avec le stockage en mémoire (try-with-resources accepte null)
+     * @throws SQLException si aucune connexion n'a pu être obtenue
+     */
+    public Connection connexion() throws SQLException {
+        return stockage.connexion();
+    }
+
+    /**
+     * Emprunte une connexion pour une consultation (à fermer pour la rendre, par exemple avec try-with-resources) :
+     * du pool de lecture s'il y en a un (clé lecture.taille), sinon du pool principal
+     * @param numserv le serveur qui consulte (il voit ses propres écritures), null s'il n'est pas encore connecté
+     * @return la connexion, null avec le stockage en mémoire
+     * @throws SQLException si aucune connexion n'a pu être obtenue
+     */
+    public Connection connexionLecture(String numserv) throws SQLException {
+        return stockage.connexionLecture(numserv);
+    }
+
+    /**
+     * @return true si l'encaissement doit recomparer le montant cumulé à la somme des commandes (clé facturation.verification)
+     */
+    public boolean isVerificationMontants() {
+        return Boolean.parseBoolean(config.getProperty("facturation.verification", "false"));
+    }
+
+    /**
+     * @return le nombre de tentatives d'une réservation en conflit avec une autre réservation de la même table (clé reservation.tentatives)
+     */
+    public int getTentativesReservation() {
+        return Integer.parseInt(config.getProperty("reservation.tentatives", String.valueOf(Serveur.TENTATIVES_RESERVATION)));
+    }
+
+    /**
+     * @return le nombre maximal de tables réunies pour un grand groupe par l'allocation automatique (clé allocation.tablesMax)
+     */
+    public int getTablesMaxReunies() {
+        return Integer.parseInt(config.getProperty("allocation.tablesMax", String.valueOf(AllocateurTables.TABLES_MAX)));
+    }
+
+    /**
+     * @return l'écart maximal (en millisecondes) entre l'heure demandée et un créneau proposé à la place (clé allocation.fenetre, en minutes)
+     */
+    public long getFenetreAllocation() {
+        return Long.parseLong(config.getProperty("allocation.fenetre", String.valueOf(AllocateurTables.FENETRE_MS / 60000))) * 60000;
+    }
+
+    /**
+     * @return l'écart (en millisecondes) entre deux créneaux proposés (clé allocation.pas, en minutes)
+     */
+    public long getPasAllocation() {
+        return Long.parseLong(config.getProperty("allocation.pas", String.valueOf(AllocateurTables.PAS_MS / 60000))) * 60000;
+    }
+
+    /**
+     * @return le nombre de plages de réservations facturées en parallèle en fin de service (clé facturation.partitions)
+     */
+    public int getNbPartitionsFacturation() {
+        return Integer.parseInt(config.getProperty("facturation.partitions", "4"));
+    }
+
+    /**
+     * @return l'exécution des transactions qui verrouillent des lignes (attente maximale des verrous par opération, nouvelles tentatives)
+     */
+    public ExecuteurTransactions getExecuteurTransactions() {
+        return executeurTransactions;
+    }
+
+    /**
+     * @return l'authentification des serveurs et leurs sessions ouvertes
+     */
+    public Authentification getAuthentification() {
+        return authentification;
+    }
+
+    /**
+     * @return le registre des stocks en mémoire, null si le mode registre (clé stocks.registre) n'est pas activé
+     */
+    public RegistreStocks getRegistreStocks() {
+        return registreStocks;
+    }
+
+    /**
+     * @return le journal des commandes, null si la clé commandes.journal est absente
+     */
+    public JournalCommandes getJournalCommandes() {
+        return journalCommandes;
+    }
+
+    /**
+     * @return les données des rapports gardées en mémoire, null avec le stockage en mémoire
+     */
+    public Analytique getAnalytique() {
+        return analytique;
+    }
+
+    /**
+     * @return le journal des événements métier, null si la clé journal.fichier est absente
+     */
+    public JournalEvenements getJournal() {
+        return journal;
+    }
+
+    /**
+     * @return la carte des plats disponibles gardée en mémoire
+     */
+    public CarteMenu getCarteMenu() {
+        return carteMenu;
+    }
+
+    /**
+     * @return le plan de salle (occupation des tables par jour)
+     */
+    public PlanSalle getPlanSalle() {
+        return planSalle;
+    }
+
+    /**
+     * @return l'index des disponibilités des tables
+     */
+    public IndexDisponibilites getIndexDisponibilites() {
+        return indexDisponibilites;
+    }
+
+    /**
+     * @return les affectations courantes des serveurs aux tables
+     */
+    public RegistreAffectations getRegistreAffectations() {
+        return registreAffectations;
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ * Résultat d'une demande de réservation de table
+ */
+public enum ResultatReservation {
+    /**
+     * La table a été réservée du premier coup
+     */
+    RESERVEE,
+    /**
+     * La table a été réservée après avoir perdu au moins une course contre une autre réservation de la même table (nouvelle tentative automatique)
+     */
+    RESERVEE_APRES_CONFLIT,
+    /**
+     * La table n'existe pas, est trop petite ou est déjà réservée dans les 2 heures avant ou après la date demandée
+     */
+    INDISPONIBLE,
+    /**
+     * La réservation n'a pas pu être enregistrée (erreur de la base de données, ou trop de conflits successifs)
+     */
+    ECHEC;
+
+    /**
+     * @return true si la table a été réservée
+     */
+    public boolean estReservee() {
+        return this == RESERVEE || this == RESERVEE_APRES_CONFLIT;
+    }
+}
@@ -0,0 +1,252 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Routage des consultations (tables libres, carte, affectations, login, plan de salle, rapports) vers un pool de lecture,
+ * pour qu'elles ne prennent pas les connexions des transactions qui verrouillent (réservations, commandes, encaissements).
+ * <p>
+ * Le pool de lecture vise soit la base principale (clé lecture.hostname absente), soit une réplique en lecture seule.
+ * Avec une réplique, le retard est mesuré par un battement : la base principale écrit l'heure dans la table BATTEMENT, la réplique la relit.
+ * Une consultation repasse par la base principale quand la réplique est injoignable, quand son retard dépasse lecture.retardMax,
+ * ou quand le serveur qui consulte a lui-même écrit depuis moins de lecture.retardMax (il doit voir ses propres écritures).
+ */
+public class RoutageLectures implements AutoCloseable {
+    private final PoolConnexions principal;
+    private final PoolConnexions lecture;
+    /**
+     * true si le pool de lecture vise une réplique (sinon il lit la base principale, sans retard)
+     */
+    private final boolean replique;
+    /**
+     * Retard maximal accepté de la réplique (en millisecondes)
+     */
+    private final long retardMaxMs;
+    private final long periodeBattementMs;
+    private final ScheduledExecutorService battement;
+    /**
+     * Heure de la dernière écriture validée de chaque serveur (System.currentTimeMillis())
+     */
+    private final ConcurrentHashMap<String, Long> dernieresEcritures = new ConcurrentHashMap<>();
+    /**
+     * Dernier retard mesuré de la réplique (en millisecondes), -1 si elle n'a pas pu être lue
+     */
+    private volatile long retardMs;
+
+    // Statistiques
+    private final LongAdder lecturesReplique = new LongAdder();
+    private final LongAdder replisEcritureRecente = new LongAdder();
+    private final LongAdder replisRetard = new LongAdder();
+    private final LongAdder replisIndisponible = new LongAdder();
+
+    /**
+     * Constructeur du routage
+     * @param principal le pool de la base principale
+     * @param lecture le pool de lecture (en lecture seule)
+     * @param replique true si le pool de lecture vise une réplique
+     * @param retardMaxMs le retard maximal accepté de la réplique (en millisecondes)
+     * @param periodeBattementMs la période de mesure du retard de la réplique (en millisecondes)
+     */
+    public RoutageLectures(PoolConnexions principal, PoolConnexions lecture, boolean replique, long retardMaxMs, long periodeBattementMs) {
+        this.principal = principal;
+        this.lecture = lecture;
+        this.replique = replique;
+        this.retardMaxMs = retardMaxMs;
+        this.periodeBattementMs = periodeBattementMs;
+        // Tant que le retard n'a pas été mesuré, la réplique n'est pas utilisée
+        this.retardMs = replique ? -1 : 0;
+        this.battement = replique ? Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "battement-replique");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+    }
+
+    /**
+     * Crée le routage à partir du fichier de configuration (resources/db.conf).
+     * Clés : lecture.taille (0 par défaut : pas de pool de lecture), lecture.attente en ms (200 par défaut, au-delà on lit la base principale),
+     * lecture.hostname, lecture.port, lecture.database, lecture.login, lecture.password (ceux de la base principale par défaut),
+     * lecture.retardMax en ms (2000 par défaut), lecture.battement en ms (500 par défaut)
+     * @param config la configuration chargée par DBConfig
+     * @param principal le pool de la base principale
+     * @return le routage, null si la clé lecture.taille est absente ou nulle
+     */
+    public static RoutageLectures depuisConfig(Properties config, PoolConnexions principal) {
+        int taille = Integer.parseInt(config.getProperty("lecture.taille", "0"));
+        if (taille <= 0) return null;
+        boolean replique = !config.getProperty("lecture.hostname", "").isBlank();
+        String url = "jdbc:oracle:thin:@" + config.getProperty("lecture.hostname", config.getProperty("hostname")) + ":"
+                + config.getProperty("lecture.port", config.getProperty("port")) + ":"
+                + config.getProperty("lecture.database", config.getProperty("database"));
+        PoolConnexions lecture = new PoolConnexions(url,
+                config.getProperty("lecture.login", config.getProperty("login")),
+                config.getProperty("lecture.password", config.getProperty("password")),
+                taille,
+                Long.parseLong(config.getProperty("lecture.attente", "200")),
+                Long.parseLong(config.getProperty("pool.validation", "30000")),
+                Integer.parseInt(config.getProperty("pool.cacheRequetes", String.valueOf(CacheRequetes.CAPACITE_PAR_DEFAUT))),
+                true);
+        return new RoutageLectures(principal, lecture, replique,
+                Long.parseLong(config.getProperty("lecture.retardMax", "2000")),
+                Long.parseLong(config.getProperty("lecture.battement", "500")));
+    }
+
+    /**
+     * Démarre la mesure du retard de la réplique en arrière-plan (sans effet si le pool de lecture vise la base principale)
+     */
+    public void demarrer() {
+        if (battement != null) battement.scheduleWithFixedDelay(this::battre, 0, periodeBattementMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Emprunte une connexion pour une consultation (à fermer pour la rendre, par exemple avec try-with-resources)
+     * @param numserv le serveur qui consulte, null s'il n'est pas encore connecté
+     * @return une connexion du pool de lecture, ou de la base principale si la consultation doit voir des écritures récentes
+     * @throws SQLException si aucune connexion n'a pu être obtenue
+     */
+    public Connection connexion(String numserv) throws SQLException {
+        if (replique) {
+            Long derniereEcriture = numserv != null ? dernieresEcritures.get(numserv) : null;
+            long retard = retardMs;
+            if (derniereEcriture != null && System.currentTimeMillis() - derniereEcriture < retardMaxMs) {
+                replisEcritureRecente.increment();
+                return principal.getConnection();
+            }
+            if (retard < 0) {
+                replisIndisponible.increment();
+                return principal.getConnection();
+            }
+            if (retard > retardMaxMs) {
+                replisRetard.increment();
+                return principal.getConnection();
+            }
+        }
+        try {
+            Connection conn = lecture.getConnection();
+            lecturesReplique.increment();
+            return conn;
+        } catch (SQLException e) {
+            // Pool de lecture saturé ou base injoignable : la consultation passe par la base principale
+            replisIndisponible.increment();
+            return principal.getConnection();
+        }
+    }
+
+    /**
+     * Note qu'un serveur vient de valider une écriture : ses consultations lisent la base principale pendant lecture.retardMax
+     * @param numserv le numéro du serveur
+     */
+    public void ecritureValidee(String numserv) {
+        if (replique && numserv != null) dernieresEcritures.put(numserv, System.currentTimeMillis());
+    }
+
+    /**
+     * Écrit l'heure sur la base principale puis mesure le retard de la réplique en la relisant
+     */
+    private void battre() {
+        try (Connection conn = principal.getConnection()) {
+            PreparedStatement pstmt = CacheRequetes.de(conn).preparer("UPDATE battement SET instant = ? WHERE id = 1");
+            pstmt.setLong(1, System.currentTimeMillis());
+            pstmt.executeUpdate();
+            conn.commit();
+        } catch (SQLException e) {
+            // La base principale est injoignable : la prochaine mesure le dira
+            e.printStackTrace();
+        }
+        try (Connection conn = lecture.getConnection();
+             ResultSet rs = CacheRequetes.de(conn).preparer("SELECT instant FROM battement WHERE id = 1").executeQuery()) {
+            retardMs = rs.next() ? Math.max(0, System.currentTimeMillis() - rs.getLong("instant")) : -1;
+        } catch (SQLException e) {
+            retardMs = -1;
+        }
+    }
+
+    /**
+     * Arrête la mesure du retard et ferme le pool de lecture
+     */
+    @Override
+    public void close() {
+        if (battement != null) {
+            battement.shutdown();
+            try {
+                battement.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lecture.close();
+    }
+
+    /**
+     * @return le pool de lecture
+     */
+    public PoolConnexions getPoolLecture() {
+        return lecture;
+    }
+
+    /**
+     * @return true si le pool de lecture vise une réplique
+     */
+    public boolean isReplique() {
+        return replique;
+    }
+
+    /**
+     * @return le retard maximal d'une consultation (en millisecondes) : lecture.retardMax avec une réplique, 0 sinon
+     */
+    public long getRetardMaxGaranti() {
+        return replique ? retardMaxMs : 0;
+    }
+
+    /**
+     * @return le dernier retard mesuré de la réplique (en millisecondes), -1 si elle n'a pas pu être lue
+     */
+    public long getRetardMs() {
+        return retardMs;
+    }
+
+    /**
+     * @return le nombre de consultations servies par le pool de lecture
+     */
+    public long getLecturesReplique() {
+        return lecturesReplique.sum();
+    }
+
+    /**
+     * @return le nombre de consultations passées par la base principale car le serveur venait d'écrire
+     */
+    public long getReplisEcritureRecente() {
+        return replisEcritureRecente.sum();
+    }
+
+    /**
+     * @return le nombre de consultations passées par la base principale car la réplique avait trop de retard
+     */
+    public long getReplisRetard() {
+        return replisRetard.sum();
+    }
+
+    /**
+     * @return le nombre de consultations passées par la base principale car le pool de lecture n'a pas fourni de connexion
+     */
+    public long getReplisIndisponible() {
+        return replisIndisponible.sum();
+    }
+
+    /**
+     * @return les statistiques du routage sous forme lisible
+     */
+    public String getStatistiques() {
+        return "Routage des lectures (" + (replique ? "réplique, retard " + getRetardMs() + " ms / " + retardMaxMs + " ms max" : "base principale") + ") : "
+                + getLecturesReplique() + " lecture(s) sur le pool de lecture, " + getReplisEcritureRecente() + " repli(s) après écriture, "
+                + getReplisRetard() + " repli(s) pour retard, " + getReplisIndisponible() + " repli(s) pour indisponibilité\n"
+                + lecture.getStatistiques();
+    }
+}
@@ -1,7 +1,11 @@
+import java.io.PrintStream;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
 
 /**
  * Classe Serveur qui réalise les opérations courantes d'un serveur
@@ -19,6 +23,26 @@ public class Serveur {
      * nom du serveur
      */
     private String nom;
+    /**
+     * sortie sur laquelle on affiche les résultats (le terminal de la session du serveur)
+     */
+    protected PrintStream sortie = System.out;
+    /**
+     * sortie sur laquelle on affiche les erreurs (le terminal de la session du serveur)
+     */
+    protected PrintStream erreurs = System.err;
+    /**
+     * ressources partagées de l'application (null si le serveur travaille uniquement avec la base de données)
+     */
+    protected final Restaurant restaurant;
+    /**
+     * stockage des données (celui du restaurant, sinon la base de données de la connexion passée à chaque méthode)
+     */
+    protected final Stockage stockage;
+    /**
+     * exécution des transactions qui verrouillent des lignes (attente maximale des verrous et nouvelles tentatives)
+     */
+    protected final ExecuteurTransactions executeur;
 
     /**
      * Constructeur de la classe Serveur
@@ -27,9 +51,23 @@ public class Serveur {
      * @param nom nom du serveur
      */
     public Serveur(String numserv, String email, String nom) {
+        this(numserv, email, nom, null);
+    }
+
+    /**
+     * Constructeur de la classe Serveur
+     * @param numserv numéro du serveur
+     * @param email email du serveur
+     * @param nom nom du serveur
+     * @param restaurant ressources partagées de l'application (index des disponibilités...)
+     */
+    public Serveur(String numserv, String email, String nom, Restaurant restaurant) {
         this.numserv = numserv;
         this.email = email;
         this.nom = nom;
+        this.restaurant = restaurant;
+        this.stockage = restaurant != null ? restaurant.getStockage() : new StockageJdbc(null);
+        this.executeur = restaurant != null ? restaurant.getExecuteurTransactions() : new ExecuteurTransactions(new Properties());
     }
 
 
@@ -47,85 +85,255 @@ public class Serveur {
      * @throws SQLException si une erreur survient lors de la requête SQL
      */
     public List<Integer> consulterTablesDispos(Connection conn, String date, int nbPers, boolean affichage) throws SQLException{
-        conn.setAutoCommit(false);
-
-        // Convertir la date en Timestamp
-        Timestamp timestamp = Timestamp.valueOf(date);
-
-        // Calculer les timestamps pour 2 heures avant et après
-        Timestamp twoHoursBefore = new Timestamp(timestamp.getTime() - 2 * 60 * 60 * 1000);
-        Timestamp twoHoursAfter = new Timestamp(timestamp.getTime() + 2 * 60 * 60 * 1000);
-
-        String sql = "SELECT numtab FROM tabl WHERE nbplace >= ? AND numtab NOT IN (SELECT numtab FROM reservation WHERE datres BETWEEN ? AND ?)";
-        PreparedStatement pstmt = conn.prepareStatement(sql);
-
-        pstmt.setInt(1, nbPers);
-        pstmt.setTimestamp(2, twoHoursBefore);
-        pstmt.setTimestamp(3, twoHoursAfter);
+        long debut = System.nanoTime();
+        try {
+            // Convertir la date en Timestamp
+            Timestamp timestamp = Timestamp.valueOf(date);
 
-        ResultSet rs = pstmt.executeQuery();
+            List<Integer> numsTablesDispos;
+            if (restaurant != null) {
+                // Les disponibilités sont tenues à jour en mémoire : pas besoin d'interroger la base de données
+                numsTablesDispos = restaurant.getIndexDisponibilites().tablesDisponibles(timestamp, nbPers);
+            } else {
+                numsTablesDispos = stockage.tables().tablesLibres(conn, timestamp, nbPers);
+            }
 
-        // On stocke les numéros des tables disponibles dans une liste
-        ArrayList<Integer> numsTablesDispos = new ArrayList<>();
-        while (rs.next()) {
-            numsTablesDispos.add(rs.getInt("numtab"));
-            if(affichage) System.out.println("Table disponible : " + rs.getInt("numtab"));
+            if (affichage) {
+                StringBuilder affichageTables = new StringBuilder();
+                for (int numtab : numsTablesDispos) affichageTables.append("Table disponible : ").append(numtab).append('\n');
+                sortie.print(affichageTables);
+            }
+            return numsTablesDispos;
+        } finally {
+            Metriques.operation("consulterTablesDispos", debut);
         }
-
-        rs.close();
-        pstmt.close();
-
-        return numsTablesDispos;
     }
 
+    /**
+     * Nombre de tentatives d'une réservation qui perd la course contre une autre réservation de la même table (si la clé reservation.tentatives est absente)
+     */
+    public static final int TENTATIVES_RESERVATION = 5;
+
     /**
      * Réserver une table pour une date donnée
-     * Je privilégie le verrouillage pessimiste pour la réservation d'une table (ce qui est possible car on peut vérifier si une réservation a été faite par quelqu'un d'autre avec la clé primaire numres)
-     * La probabilité qu'il y ait une collision est faible car la probabilité que l'insert d'un autre serveur se fasse entre la vérification (consultation) et l'insertion est faible notamment car le nombre de serveurs dans un restaurant est faible théoriquement (pas plus de 10-20 en général)
+     * Garantie : une table n'est jamais réservée deux fois à moins de 2 heures d'intervalle, même par plusieurs instances de l'application, sans verrou global.
+     * Chaque table a un numéro de version (tabl.version). Une réservation lit la version de la table, vérifie qu'il n'y a pas déjà de réservation dans les 2 heures,
+     * puis incrémente la version seulement si elle n'a pas changé (UPDATE ... WHERE version = ?) avant d'insérer la réservation.
+     * Si une autre réservation de la même table a été validée entre la lecture et la mise à jour, la mise à jour ne touche aucune ligne : on annule et on recommence
+     * après une attente aléatoire (de plus en plus longue) pour ne pas retomber sur le même conflit. Les réservations de tables différentes ne se bloquent jamais.
      * @param conn connexion à la base de données (que je mets volontairement en paramètre plutôt qu'en attribut si jamais on veut changer de connexion)
      * @param date date de réservation
+     * @param nbPers nombre de personnes
      * @param numtab numéro de la table
-     * @return true si la réservation a été effectuée avec succès, false sinon
+     * @return le résultat de la réservation
      */
-    public boolean reserverTable(Connection conn, String date, int nbPers, int numtab) {
+    public ResultatReservation reserverTable(Connection conn, String date, int nbPers, int numtab) {
+        long debut = System.nanoTime();
         try {
-            conn.setAutoCommit(false);
+            ResultatReservation resultat = reserverTables(conn, Timestamp.valueOf(date), Map.of(numtab, nbPers));
+            switch (resultat) {
+                case RESERVEE, RESERVEE_APRES_CONFLIT -> sortie.println("La table " + numtab + " a été réservée avec succès pour la date " + date + ".");
+                case INDISPONIBLE -> {
+                    erreurs.println("Soit il n'y a pas assez de places à cette table, soit la table " + numtab + " n'est pas disponible pour la date " + date + ".");
+                    erreurs.println("On ne prend qu'une réservation qu'à intervalle de 2h. (Repas + nettoyage + dressage)");
+                }
+                case ECHEC -> erreurs.println("Désolé, la réservation de la table " + numtab + " pour la date " + date + " a échoué.");
+            }
+            return resultat;
+        } finally {
+            Metriques.operation("reserverTable", debut);
+        }
+    }
 
-            // On vérifie si la table est disponible pour la date donnée
-            if(!consulterTablesDispos(conn, date, nbPers,false).contains(numtab)) {
-                System.err.println("Soit il n'y a pas assez de places à cette table, soit la table " + numtab + " n'est pas disponible pour la date " + date + ".");
-                System.err.println("On ne prend qu'une réservation qu'à intervalle de 2h. (Repas + nettoyage + dressage)");
-                return false;
+    /**
+     * Proposer les tables pour une date : la plus petite table libre qui convient (ou la plus petite réunion de tables si combiner est vrai et qu'aucune ne suffit),
+     * ou, si l'heure demandée est complète, les créneaux libres les plus proches dans la même journée.
+     * Les disponibilités de la journée sont lues une seule fois (dans l'index en mémoire, sinon par une seule requête) puis tous les créneaux sont évalués en mémoire.
+     * @param conn connexion à la base de données
+     * @param date date de réservation souhaitée
+     * @param nbPers nombre de personnes
+     * @param combiner true pour accepter de réunir plusieurs tables
+     * @param affichage true pour afficher les propositions
+     * @return les propositions, la première à la date demandée si une table y est libre
+     * @throws SQLException si une erreur survient lors des requêtes SQL
+     */
+    public List<AllocateurTables.Proposition> proposerTables(Connection conn, String date, int nbPers, boolean combiner, boolean affichage) throws SQLException {
+        long debut = System.nanoTime();
+        try {
+            List<AllocateurTables.Proposition> propositions = proposer(conn, Timestamp.valueOf(date), nbPers, combiner, restaurant == null);
+            if (affichage) sortie.print(afficherPropositions(propositions));
+            return propositions;
+        } finally {
+            Metriques.operation("proposerTables", debut);
+        }
+    }
+
+    /**
+     * Réserver la plus petite table libre qui convient (ou la plus petite réunion de tables si combiner est vrai et qu'aucune ne suffit), sans choisir la table à la main.
+     * Si l'heure demandée est complète, rien n'est réservé et les créneaux libres les plus proches sont proposés.
+     * @param conn connexion à la base de données
+     * @param date date de réservation
+     * @param nbPers nombre de personnes
+     * @param combiner true pour accepter de réunir plusieurs tables
+     * @return le résultat de la réservation, avec les tables réservées ou les créneaux proposés à la place
+     */
+    public AllocateurTables.Allocation reserverMeilleureTable(Connection conn, String date, int nbPers, boolean combiner) {
+        long debut = System.nanoTime();
+        try {
+            Timestamp timestamp = Timestamp.valueOf(date);
+            // Si une autre réservation prend la table choisie entre la proposition et l'enregistrement, on recalcule les propositions.
+            // La première fois, elles viennent de l'index en mémoire ; ensuite de la base de données, car la réservation qui a pris la table
+            // peut venir d'une autre instance de l'application (que l'index ne connaît pas)
+            int tentatives = restaurant != null ? restaurant.getTentativesReservation() : TENTATIVES_RESERVATION;
+            for (int essai = 0; essai < tentatives; essai++) {
+                List<AllocateurTables.Proposition> propositions;
+                try {
+                    propositions = proposer(conn, timestamp, nbPers, combiner, restaurant == null || essai > 0);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                    erreurs.println("Désolé, la réservation pour la date " + date + " a échoué.");
+                    return new AllocateurTables.Allocation(ResultatReservation.ECHEC, null, List.of());
+                }
+
+                if (propositions.isEmpty() || !propositions.get(0).date().equals(timestamp)) {
+                    StringBuilder message = new StringBuilder("Aucune table ne convient pour " + nbPers + " personnes à la date " + date + ".\n");
+                    if (!propositions.isEmpty()) message.append("Créneaux libres les plus proches :\n").append(afficherPropositions(propositions));
+                    erreurs.print(message);
+                    return new AllocateurTables.Allocation(ResultatReservation.INDISPONIBLE, null, propositions);
+                }
+
+                AllocateurTables.Proposition proposition = propositions.get(0);
+                ResultatReservation resultat = reserverTables(conn, timestamp, proposition.repartition(nbPers));
+                if (resultat == ResultatReservation.INDISPONIBLE) continue;
+                if (resultat.estReservee()) {
+                    sortie.println((proposition.tables().size() == 1 ? "La table " + proposition.tables().get(0) + " a été réservée"
+                            : "Les tables " + joindre(proposition.tables()) + " ont été réunies et réservées") + " avec succès pour la date " + date + ".");
+                } else {
+                    erreurs.println("Désolé, la réservation pour la date " + date + " a échoué.");
+                }
+                return new AllocateurTables.Allocation(resultat, resultat.estReservee() ? proposition : null, List.of());
             }
+            erreurs.println("Désolé, la réservation pour la date " + date + " a échoué.");
+            return new AllocateurTables.Allocation(ResultatReservation.ECHEC, null, List.of());
+        } finally {
+            Metriques.operation("reserverMeilleureTable", debut);
+        }
+    }
 
-            // Pas besoin de spécifier un numres (on utilise IDENTITY pour l'auto-incrémentation) pour faire l'équivalent de AUTO_INCREMENT avec une BD Oracle
-            String sql = "INSERT INTO reservation (numtab, datres, nbpers) VALUES (?, ?, ?)";
-            PreparedStatement pstmt = conn.prepareStatement(sql);
+    /**
+     * @param enBase true pour lire les disponibilités de la journée dans la base de données plutôt que dans l'index en mémoire
+     * @return les propositions de tables pour la date, la première à la date demandée si une table y est libre
+     */
+    private List<AllocateurTables.Proposition> proposer(Connection conn, Timestamp date, int nbPers, boolean combiner, boolean enBase) throws SQLException {
+        AllocateurTables allocateur = enBase
+                ? AllocateurTables.depuisBase(stockage, conn, date.toLocalDateTime().toLocalDate())
+                : AllocateurTables.depuisIndex(restaurant.getIndexDisponibilites(), date.toLocalDateTime().toLocalDate());
+        return allocateur.proposer(date.getTime(), nbPers, combiner ? tablesMaxReunies() : 1, fenetreAllocation(), pasAllocation(), AllocateurTables.NB_PROPOSITIONS);
+    }
 
-            pstmt.setInt(1, numtab);
-            pstmt.setTimestamp(2, Timestamp.valueOf(date));
-            pstmt.setInt(3, nbPers);
+    private int tablesMaxReunies() {
+        return restaurant != null ? restaurant.getTablesMaxReunies() : AllocateurTables.TABLES_MAX;
+    }
 
-            int rowsAffected = pstmt.executeUpdate();
+    private long fenetreAllocation() {
+        return restaurant != null ? restaurant.getFenetreAllocation() : AllocateurTables.FENETRE_MS;
+    }
 
-            if (rowsAffected > 0) {
-                System.out.println("La table " + numtab + " a été réservée avec succès pour la date " + date + ".");
-            } else {
-                System.out.println("Désolé, la réservation de la table " + numtab + " pour la date " + date + " a échoué.");
+    private long pasAllocation() {
+        return restaurant != null ? restaurant.getPasAllocation() : AllocateurTables.PAS_MS;
+    }
+
+    private static String afficherPropositions(List<AllocateurTables.Proposition> propositions) {
+        StringBuilder affichage = new StringBuilder();
+        for (AllocateurTables.Proposition proposition : propositions) {
+            affichage.append(proposition.date().toLocalDateTime().toLocalTime())
+                    .append(proposition.tables().size() == 1 ? " : table " : " : tables réunies ").append(joindre(proposition.tables()))
+                    .append(" (").append(proposition.totalPlaces()).append(" places)\n");
+        }
+        return affichage.toString();
+    }
+
+    private static String joindre(List<Integer> tables) {
+        StringBuilder sb = new StringBuilder();
+        for (int numtab : tables) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(numtab);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Réserve une ou plusieurs tables (réunies pour un même groupe) dans une seule transaction, et publie un événement par table réservée
+     * @param conn connexion à la base de données
+     * @param date date de réservation
+     * @param repartition nombre de personnes de chaque table
+     * @return le résultat de la réservation
+     */
+    private ResultatReservation reserverTables(Connection conn, Timestamp date, Map<Integer, Integer> repartition) {
+        IndexDisponibilites index = restaurant != null ? restaurant.getIndexDisponibilites() : null;
+
+        // Avec l'index en mémoire, la vérification prend le créneau en même temps : deux sessions de l'application ne peuvent plus réserver la même table au même moment,
+        // et une table déjà prise est refusée sans aller-retour avec la base de données
+        List<Integer> prises = new ArrayList<>();
+        ResultatReservation resultat = null;
+        if (index != null) {
+            for (Map.Entry<Integer, Integer> table : repartition.entrySet()) {
+                if (!index.reserver(table.getKey(), table.getValue(), date)) {
+                    resultat = ResultatReservation.INDISPONIBLE;
+                    break;
+                }
+                prises.add(table.getKey());
             }
+        }
+        if (resultat == null) resultat = enregistrerReservation(conn, date, repartition);
+        // La réservation n'a pas été enregistrée : on libère les créneaux pris dans l'index
+        if (!resultat.estReservee()) {
+            for (int numtab : prises) index.annuler(numtab, date);
+            return resultat;
+        }
 
-            conn.commit(); // Commit explicite pour valider la réservation (l'insert donc)
-            pstmt.close();
-            return true;
-        } catch (SQLException e) {
+        ecritureValidee();
+        for (Map.Entry<Integer, Integer> table : repartition.entrySet()) {
+            if (restaurant != null) restaurant.getPlanSalle().reservationCreee(table.getKey(), date);
+            publier(JournalEvenements.Type.RESERVATION_CREEE, 0, table.getKey(), 0, date.toLocalDateTime() + ", " + table.getValue() + " personnes");
+        }
+        return resultat;
+    }
+
+    /**
+     * Enregistre une réservation dans la base de données, en recommençant tant qu'elle perd la course contre une autre réservation d'une de ses tables.
+     * Les tables sont traitées par numéro croissant : deux réunions de tables qui se chevauchent attendent dans le même ordre, sans interblocage.
+     * @param conn connexion à la base de données
+     * @param date date de réservation
+     * @param repartition nombre de personnes de chaque table (une seule table, sauf si plusieurs tables sont réunies)
+     * @return le résultat de la réservation
+     */
+    private ResultatReservation enregistrerReservation(Connection conn, Timestamp date, Map<Integer, Integer> repartition) {
+        int tentatives = restaurant != null ? restaurant.getTentativesReservation() : TENTATIVES_RESERVATION;
+        for (int tentative = 0; tentative < tentatives; tentative++) {
+            if (tentative > 0 && !ExecuteurTransactions.attendreAvantNouvelleTentative(tentative)) break;
             try {
-                conn.rollback(); // Rollback explicite pour annuler la réservation et relâcher le verrou sur la table tabl
-            } catch (SQLException e1) {
-                e1.printStackTrace();
+                switch (stockage.reservations().reserver(conn, date, repartition)) {
+                    case INDISPONIBLE:
+                        return ResultatReservation.INDISPONIBLE;
+                    case CONFLIT:
+                        Metriques.conflitReservation();
+                        continue;
+                    default:
+                        return tentative == 0 ? ResultatReservation.RESERVEE : ResultatReservation.RESERVEE_APRES_CONFLIT;
+                }
+            } catch (SQLException e) {
+                try {
+                    if (conn != null) conn.rollback(); // Rollback explicite pour annuler la réservation et relâcher les verrous sur les lignes des tables
+                } catch (SQLException e1) {
+                    e1.printStackTrace();
+                }
+                publier(JournalEvenements.Type.ROLLBACK, 0, repartition.size() == 1 ? repartition.keySet().iterator().next() : 0, 0, "reserverTable : " + e.getMessage());
+                e.printStackTrace();
+                return ResultatReservation.ECHEC;
             }
-            e.printStackTrace();
-            return false;
         }
+        return ResultatReservation.ECHEC;
     }
 
     /**
@@ -133,98 +341,294 @@ public class Serveur {
      * @param conn connexion à la base de données (que je mets volontairement en paramètre plutôt qu'en attribut si jamais on veut changer de connexion)
      */
     public void consulterPlatsDispos(Connection conn) {
+        long debut = System.nanoTime();
         try {
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT * FROM plat WHERE qteservie > 0");
+            if (restaurant != null) {
+                // La carte est gardée en mémoire et déjà mise en forme : pas de requête tant qu'elle n'a pas changé
+                try {
+                    sortie.print(restaurant.getCarteMenu().get(conn).affichage());
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+                return;
+            }
 
-            while(rs.next()) {
-                System.out.println("Numéro du plat: " + rs.getInt("numplat") + ", Nom du plat: " + rs.getString("libelle") + ", Type: " + rs.getString("type") + ", Prix unitaire : " + rs.getDouble("prixunit") + ", Quantité servie: " + rs.getInt("qteservie"));
+            StringBuilder affichagePlats = new StringBuilder();
+            try {
+                for (CarteMenu.PlatCarte plat : stockage.plats().lister(conn)) {
+                    if (plat.qteservie() <= 0) continue;
+                    affichagePlats.append("Numéro du plat: " + plat.numplat() + ", Nom du plat: " + plat.libelle() + ", Type: " + plat.type() + ", Prix unitaire : " + plat.prixunit() + ", Quantité servie: " + plat.qteservie()).append('\n');
+                }
+                sortie.print(affichagePlats);
+            } catch(SQLException e) {
+                e.printStackTrace();
             }
-        } catch(SQLException e) {
-            e.printStackTrace();
+        } finally {
+            Metriques.operation("consulterPlatsDispos", debut);
         }
     }
 
     // Verouillage pessimiste pour commander un plat, car nous ne pouvons pas identifier les commandes (lignes) ajoutées par quelqu'un d'autre (pas de clé primaire numcommande, seulement des clés étrangères)
     public void commanderPlat(Connection conn, int numres, int numplat, int quantite) {
+        commanderPlats(conn, numres, List.of(new LigneCommande(numplat, quantite)));
+    }
+
+    /**
+     * Commander plusieurs plats pour une réservation en une seule transaction (tout ou rien).
+     * Avec la base de données, le nombre d'allers-retours ne dépend pas du nombre de plats (voir DepotCommandesJdbc).
+     * @param conn connexion à la base de données (que je mets volontairement en paramètre plutôt qu'en attribut si jamais on veut changer de connexion)
+     * @param numres numéro de la réservation
+     * @param lignes les plats et quantités commandés (un même plat peut apparaître plusieurs fois, les quantités sont additionnées)
+     * @return true si toute la commande a été enregistrée, false sinon (rien n'a été enregistré)
+     */
+    public boolean commanderPlats(Connection conn, int numres, List<LigneCommande> lignes) {
+        long debut = System.nanoTime();
         try {
-            conn.setAutoCommit(false);
+            // Quantité par plat, triée par numéro de plat : les deux stockages verrouillent les plats dans cet ordre, ce qui évite les interblocages
+            TreeMap<Integer, Integer> quantites = new TreeMap<>();
+            for (LigneCommande ligne : lignes) {
+                if (ligne.quantite() <= 0) {
+                    erreurs.println("La quantité doit être positive. Commande n'a pas été effectuée.");
+                    return false;
+                }
+                quantites.merge(ligne.numplat(), ligne.quantite(), Integer::sum);
+            }
+            if (quantites.isEmpty()) {
+                erreurs.println("Aucun plat à commander.");
+                return false;
+            }
 
-            // Si le montant de la commande est déjà calculé (ce qui indique que la réservation a été déjà encaissée), on ne peut pas commander de nouveaux plats
-            PreparedStatement pstmtCheck = conn.prepareStatement("SELECT montcom FROM reservation WHERE numres = ?");
-            pstmtCheck.setInt(1, numres);
-            ResultSet rs = pstmtCheck.executeQuery();
+            RegistreStocks registre = restaurant != null ? restaurant.getRegistreStocks() : null;
+            if (registre != null) return commanderPlatsAvecRegistre(conn, numres, quantites, registre);
 
-            if(rs.next() && rs.getDouble("montcom") != 0) {
-                System.err.println("Cette réservation a été cloturée. Le montant total a déjà été calculé et payé pour cette réservation. Veuillez refaire une nouvelle réservation.");
-            } else {
-                // Verrou sur la ligne du plat qu'on veut commander (Row Share). Si quelqu'un d'autre a déjà verrouillé cette ligne, on attendra jusqu'à ce que son verrou soit relâché (Oracle le fait automatiquement).
-                PreparedStatement pstmtLock = conn.prepareStatement("SELECT * FROM plat WHERE numplat = ? FOR UPDATE");
-                pstmtLock.setInt(1, numplat);
-                rs = pstmtLock.executeQuery();
-
-                if (rs.next()) {
-                    int qteServie = rs.getInt("qteservie");
-
-                    // On vérifie qu'il y a assez de quantité pour notre commande
-                    if (qteServie >= quantite) {
-
-                        /*
-                            On vérifie si une commande existe déjà avec ce plat-là. Si oui, on va additionner la quantité à la quantité déjà commandée
-                            Exemple :
-                                Client 1 : Je veux 1 assiette de crudités (le serveur valide 1 assiette de crudité).
-                                Plus tard pendant la réservation, il reveut une autre assiette de crudités (pas de nouvelle commande, on ajoute juste 1 à la quantité commandée du plat)
-                         */
-                        PreparedStatement pstmtCommandCheck = conn.prepareStatement("SELECT * FROM commande WHERE numres = ? AND numplat = ?");
-                        pstmtCommandCheck.setInt(1, numres);
-                        pstmtCommandCheck.setInt(2, numplat);
-                        ResultSet rsCommand = pstmtCommandCheck.executeQuery();
-
-                        if(rsCommand.next()) {
-                            // Si une commande existe déjà, on va ajouter la quantité à la quantité déjà commandée
-                            PreparedStatement pstmtUpdateCommand = conn.prepareStatement("UPDATE commande SET quantite = quantite + ? WHERE numres = ? AND numplat = ?");
-                            pstmtUpdateCommand.setInt(1, quantite);
-                            pstmtUpdateCommand.setInt(2, numres);
-                            pstmtUpdateCommand.setInt(3, numplat);
-                            pstmtUpdateCommand.executeUpdate();
-                        } else {
-                            // On ajoute notre nouvelle commande dans la table commande
-                            PreparedStatement pstmtOrder = conn.prepareStatement("INSERT INTO commande (numres, numplat, quantite) VALUES (?, ?, ?)");
-                            pstmtOrder.setInt(1, numres);
-                            pstmtOrder.setInt(2, numplat);
-                            pstmtOrder.setInt(3, quantite);
-                            pstmtOrder.executeUpdate();
-                        }
-
-                        // On met à jour la quantité servie dans la table plat
-                        PreparedStatement pstmtUpdate = conn.prepareStatement("UPDATE plat SET qteservie = qteservie - ? WHERE numplat = ?");
-                        pstmtUpdate.setInt(1, quantite);
-                        pstmtUpdate.setInt(2, numplat);
-                        pstmtUpdate.executeUpdate();
-
-                        // On ne valide que si l'insertion ET la mise à jour ont été faites avec succès (si on ne le faisait pas, on aurait des incohérences dans la BD)
-                        conn.commit();
-
-                        System.out.println("Commande effectuée avec succès !");
-                    } else {
-                        System.err.println("Quantité insuffisante. Commande n'a pas été effectuée.");
-                    }
+            try {
+                DepotCommandes.Resultat resultat = executeur.executer(conn, "commander", attente -> stockage.commandes().commander(conn, numres, quantites, attente));
+                if (resultat.etat() != DepotCommandes.Etat.ENREGISTREE) {
+                    erreurs.println(messageRefus(resultat.etat(), resultat.numplat()));
+                    return false;
                 }
-                System.err.println("Numéro de réservation, ou numéro de plat invalide. Commande n'a pas été effectuée.");
+
+                // Un plat en rupture de stock disparaît de la carte
+                if (resultat.rupture()) invaliderCarte();
+
+                ecritureValidee();
+                publier(JournalEvenements.Type.COMMANDE_PASSEE, numres, 0, resultat.montant(), quantites.toString());
+                sortie.println("Commande effectuée avec succès !");
+                return true;
+            } catch(SQLException e) {
+                // S'il y a une erreur, on annule toute la commande et on relâche les verrous sur les lignes des plats (rollback lache les verrous implicitement)
+                annuler(conn, "commanderPlats : " + e.getMessage());
+                erreurs.println("Erreur lors de la communication avec la base de données");
+                return false;
             }
+        } finally {
+            Metriques.operation("commanderPlats", debut);
+        }
+    }
 
-        } catch(SQLException e) {
-            // S'il y a une erreur, on annule la commande et on relâche le verrou sur la ligne du plat (rollback lache le verrou implicitement)
+    /**
+     * Commander des plats en mode registre des stocks : le stock est retiré en mémoire (sans verrou sur les lignes de la table plat),
+     * puis la commande et ses mouvements de stock sont enregistrés dans une seule transaction. Si la transaction échoue, le stock est remis.
+     * @param conn connexion à la base de données
+     * @param numres numéro de la réservation
+     * @param quantites quantité par plat
+     * @param registre le registre des stocks
+     * @return true si toute la commande a été enregistrée, false sinon
+     */
+    private boolean commanderPlatsAvecRegistre(Connection conn, int numres, Map<Integer, Integer> quantites, RegistreStocks registre) {
+        // Avec le journal des commandes, la base ne voit la commande qu'à son application : la réservation est vérifiée en mémoire avant de l'acquitter.
+        // Une réservation inconnue du journal (créée depuis le démarrage, ou ancienne) est lue une fois dans la base de données
+        JournalCommandes journalCommandes = restaurant.getJournalCommandes();
+        if (journalCommandes != null && !journalCommandes.reservationConnue(numres)) {
             try {
-                System.err.println("Annulation de la transaction (rollback)");
-                conn.rollback();
-            } catch (SQLException e1) {
-                e1.printStackTrace();
+                if (!reservationOuverte(conn, numres)) {
+                    erreurs.println("Numéro de réservation invalide ou réservation déjà encaissée. Commande n'a pas été effectuée.");
+                    return false;
+                }
+                journalCommandes.reservationOuverte(numres);
+            } catch (SQLException e) {
+                // Base injoignable : la commande est quand même journalisée, et rejetée à l'application (événement ROLLBACK) si la réservation n'est pas ouverte
+            }
+        }
+
+        Integer platRefuse = registre.retirer(quantites);
+        if (platRefuse != null) {
+            if (registre.contient(platRefuse)) {
+                erreurs.println("Quantité insuffisante pour le plat " + platRefuse + ". Commande n'a pas été effectuée.");
+            } else {
+                erreurs.println("Numéro de plat " + platRefuse + " invalide. Commande n'a pas été effectuée.");
+            }
+            return false;
+        }
+
+        Map<Integer, Double> prix = new HashMap<>();
+        for (int numplat : quantites.keySet()) prix.put(numplat, registre.getPrix(numplat));
+
+        // Avec le journal des commandes, la commande est acquittée dès qu'elle est sur le disque : elle sera appliquée à la base de données en arrière-plan
+        if (journalCommandes != null && journalCommandes.ajouter(numres, quantites, prix) >= 0) {
+            commandeEnregistree(numres, quantites, prix, registre);
+            return true;
+        }
+        // Sinon (pas de journal, ou journal plein) la commande est enregistrée directement
+
+        try {
+            DepotCommandes.Etat etat = executeur.executer(conn, "commander", attente -> stockage.commandes().enregistrer(conn, numres, quantites, montant(quantites, prix), attente));
+            if (etat != DepotCommandes.Etat.ENREGISTREE) {
+                registre.remettre(quantites);
+                erreurs.println(messageRefus(etat, 0));
+                return false;
             }
-            System.err.println("Erreur lors de la communication avec la base de données");
+
+            commandeEnregistree(numres, quantites, prix, registre);
+            return true;
+        } catch (SQLException e) {
+            registre.remettre(quantites);
+            annuler(conn, "commanderPlats : " + e.getMessage());
+            erreurs.println("Erreur lors de la communication avec la base de données");
+            return false;
         }
     }
 
+    /**
+     * Vérifie qu'une réservation peut recevoir des commandes, sur le pool de lecture s'il y en a un (jamais une deuxième connexion
+     * du pool principal : on en tient déjà une). La réplique peut ne pas encore avoir reçu une réservation toute récente :
+     * un refus y est confirmé sur la base principale. Une réservation encaissée entre cette vérification et l'application
+     * de la commande est rejetée à l'application (voir JournalCommandes).
+     * @param conn connexion à la base de données principale
+     * @param numres numéro de la réservation
+     * @return true si la réservation existe et n'a pas encore été encaissée
+     * @throws SQLException si une erreur survient lors de la lecture sur la base principale
+     */
+    private boolean reservationOuverte(Connection conn, int numres) throws SQLException {
+        RoutageLectures routage = stockage.getRoutageLectures();
+        if (routage != null) {
+            try (Connection lecture = routage.getPoolLecture().getConnection()) {
+                if (stockage.reservations().ouverte(lecture, numres)) return true;
+            } catch (SQLException e) {
+                // Pool de lecture saturé ou réplique injoignable : la vérification passe par la base principale
+            }
+        }
+        return stockage.reservations().ouverte(conn, numres);
+    }
+
+    /**
+     * Fin d'une commande en mode registre des stocks, une fois enregistrée (dans la base de données ou dans le journal des commandes)
+     * @param numres numéro de la réservation
+     * @param quantites quantité par plat
+     * @param prix prix unitaire par plat
+     * @param registre le registre des stocks
+     */
+    private void commandeEnregistree(int numres, Map<Integer, Integer> quantites, Map<Integer, Double> prix, RegistreStocks registre) {
+        // Un plat en rupture de stock disparaît de la carte
+        for (int numplat : quantites.keySet()) {
+            if (registre.getStock(numplat) == 0) {
+                invaliderCarte();
+                break;
+            }
+        }
+
+        ecritureValidee();
+        publier(JournalEvenements.Type.COMMANDE_PASSEE, numres, 0, montant(quantites, prix), quantites.toString());
+        sortie.println("Commande effectuée avec succès !");
+    }
+
+    /**
+     * Applique à la base de données les commandes du journal des commandes qui ne l'ont pas encore été,
+     * pour que le montant cumulé des réservations soit complet (à appeler avant un encaissement, hors transaction)
+     * @param conn connexion à la base de données
+     * @return true si toutes les commandes ont été appliquées (ou s'il n'y a pas de journal des commandes), false sinon
+     */
+    protected boolean appliquerCommandesJournalisees(Connection conn) {
+        JournalCommandes journalCommandes = restaurant != null ? restaurant.getJournalCommandes() : null;
+        if (journalCommandes == null) return true;
+        try {
+            journalCommandes.appliquer(conn);
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            erreurs.println("Les commandes en attente n'ont pas pu être enregistrées dans la base de données");
+            return false;
+        }
+    }
+
+    /**
+     * Signale au journal des commandes qu'une réservation a été encaissée : ses commandes suivantes ne sont plus acquittées sans lecture
+     * @param numres numéro de la réservation
+     */
+    protected void reservationEncaissee(int numres) {
+        JournalCommandes journalCommandes = restaurant != null ? restaurant.getJournalCommandes() : null;
+        if (journalCommandes != null) journalCommandes.reservationFermee(numres);
+    }
+
+    /**
+     * Invalide la carte des plats gardée en mémoire (rupture de stock ou réapprovisionnement)
+     */
+    protected void invaliderCarte() {
+        if (restaurant != null) restaurant.getCarteMenu().invalider();
+    }
+
+    /**
+     * Signale une écriture validée du serveur : ses consultations suivantes lisent la base principale tant que la réplique peut ne pas l'avoir reçue
+     */
+    protected void ecritureValidee() {
+        RoutageLectures routage = stockage.getRoutageLectures();
+        if (routage != null) routage.ecritureValidee(numserv);
+    }
+
+    /**
+     * Publie un événement dans le journal des événements (sans attendre son écriture).
+     * À appeler après le commit ou le rollback, jamais pendant que la transaction tient des verrous.
+     * @param type type de l'événement
+     * @param numres numéro de la réservation concernée (0 si aucune)
+     * @param numtab numéro de la table concernée (0 si aucune)
+     * @param montant montant concerné (0 si aucun)
+     * @param detail précisions, null si aucune
+     */
+    protected void publier(JournalEvenements.Type type, int numres, int numtab, double montant, String detail) {
+        JournalEvenements journal = restaurant != null ? restaurant.getJournal() : null;
+        if (journal != null) journal.publier(new JournalEvenements.Evenement(System.currentTimeMillis(), type, numserv, numres, numtab, montant, detail));
+    }
+
+    /**
+     * Annule la transaction en cours, puis le signale (l'affichage et le journal ne sont faits qu'une fois les verrous relâchés)
+     * @param conn connexion à la base de données
+     * @param raison raison de l'annulation
+     */
+    protected void annuler(Connection conn, String raison) {
+        try {
+            if (conn != null) conn.rollback();
+        } catch (SQLException e1) {
+            e1.printStackTrace();
+        }
+        erreurs.println("Annulation de la transaction (rollback)");
+        publier(JournalEvenements.Type.ROLLBACK, 0, 0, 0, raison);
+    }
+
+    /**
+     * @param etat état d'une commande refusée
+     * @param numplat plat inconnu ou en quantité insuffisante
+     * @return le message expliquant pourquoi la commande n'a pas été effectuée
+     */
+    private static String messageRefus(DepotCommandes.Etat etat, int numplat) {
+        return switch (etat) {
+            case PLAT_INCONNU -> "Numéro de plat " + numplat + " invalide. Commande n'a pas été effectuée.";
+            case STOCK_INSUFFISANT -> "Quantité insuffisante pour le plat " + numplat + ". Commande n'a pas été effectuée.";
+            case RESERVATION_CLOTUREE -> "Cette réservation a été cloturée. Le montant total a déjà été calculé et payé pour cette réservation. Veuillez refaire une nouvelle réservation.";
+            default -> "Numéro de réservation invalide. Commande n'a pas été effectuée.";
+        };
+    }
+
+    /**
+     * @param quantites quantité commandée par plat
+     * @param prix prix unitaire par plat
+     * @return le montant de la commande
+     */
+    protected static double montant(Map<Integer, Integer> quantites, Map<Integer, Double> prix) {
+        double montant = 0;
+        for (Map.Entry<Integer, Integer> e : quantites.entrySet()) montant += prix.get(e.getKey()) * e.getValue();
+        return montant;
+    }
+
     /**
      * @return le menu de fonctionnalités du serveur
      */
@@ -239,10 +643,45 @@ public class Serveur {
         return res;
     }
 
+    /**
+     * Redirige les affichages du serveur vers le terminal de sa session
+     * @param sortie sortie des résultats
+     * @param erreurs sortie des erreurs
+     */
+    public void setSorties(PrintStream sortie, PrintStream erreurs) {
+        this.sortie = sortie;
+        this.erreurs = erreurs;
+    }
+
     /**
      * @return le numéro du serveur
      */
     public String getNom() {
         return nom;
     }
+
+    /**
+     * @return le numéro du serveur
+     */
+    public String getNumserv() {
+        return numserv;
+    }
+
+    /**
+     * @return l'email du serveur
+     */
+    public String getEmail() {
+        return email;
+    }
+
+    /**
+     * Crée le Serveur ou le Gestionnaire (en fonction du grade) d'un serveur connecté
+     * @param identite l'identité du serveur, gardée par sa session
+     * @param restaurant ressources partagées de l'application
+     * @return le Serveur ou le Gestionnaire
+     */
+    public static Serveur depuis(Authentification.Identite identite, Restaurant restaurant) {
+        if (identite.estGestionnaire()) return new Gestionnaire(identite.numserv(), identite.email(), identite.nom(), restaurant);
+        return new Serveur(identite.numserv(), identite.email(), identite.nom(), restaurant);
+    }
 }
@@ -0,0 +1,309 @@
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+/**
+ * Session d'un serveur sur un terminal : authentification puis boucle du menu.
+ * Chaque session tourne dans son propre thread virtuel et emprunte une connexion au pool le temps d'une opération.
+ */
+public class Session implements Runnable {
+    /**
+     * Premier choix du menu réservé aux gestionnaires
+     */
+    private static final int CHOIX_GESTIONNAIRE = 5;
+    /**
+     * Ressources partagées par toutes les sessions
+     */
+    private final Restaurant restaurant;
+    private final Scanner sc;
+    private final PrintStream out;
+    private final PrintStream err;
+
+    /**
+     * Constructeur de la session
+     * @param restaurant les ressources partagées (pool de connexions, index...)
+     * @param in l'entrée du terminal
+     * @param out la sortie du terminal
+     * @param err la sortie d'erreur du terminal
+     */
+    public Session(Restaurant restaurant, InputStream in, PrintStream out, PrintStream err) {
+        this.restaurant = restaurant;
+        this.sc = new Scanner(in);
+        this.out = out;
+        this.err = err;
+    }
+
+    @Override
+    public void run() {
+        Authentification.SessionOuverte session = null;
+        try {
+            session = authentifier();
+            if (session == null) {
+                err.println("Login ou mot de passe incorrect");
+            } else {
+                boucleMenu(session);
+            }
+        } catch (SQLException e) {
+            err.println("Erreur de communication avec la base de données");
+        } catch (NoSuchElementException e) {
+            // Le terminal a été fermé (fin de l'entrée)
+        } finally {
+            if (session != null) restaurant.getAuthentification().fermer(session.jeton());
+        }
+        out.println("Fermeture de la fenêtre...");
+    }
+
+    /**
+     * Authentification du serveur (login/mot de passe)
+     * @return la session ouverte, null si le login ou le mot de passe est incorrect
+     * @throws SQLException si une erreur survient lors de la requête SQL
+     */
+    private Authentification.SessionOuverte authentifier() throws SQLException {
+        // Exemple de login pour un gestionnaire
+        // email = "user1@mail.com";
+        // password = "serveur0";
+
+        // Exemple de login pour un serveur
+        // email : user2@mail.com
+        // password : serveur1
+
+        out.println("Veuillez entrer votre login :");
+        String email = sc.nextLine();
+        email = email.replaceAll("[\r\n]+", "");
+
+        out.println("Veuillez entrer votre mot de passe :");
+        String password = sc.nextLine();
+        password = password.replaceAll("[\r\n]+", "");
+
+        Authentification.SessionOuverte session;
+        try (Connection conn = restaurant.connexionLecture(null)) {
+            session = restaurant.getAuthentification().ouvrir(conn, email, password);
+        }
+        if (session == null) return null;
+
+        Authentification.Identite identite = session.identite();
+        if (identite.estGestionnaire()) {
+            out.println("Bonjour " + identite.nom() + ", vous êtes connecté en tant que gestionnaire.");
+        } else {
+            out.println("Bonjour " + identite.nom() + ", vous êtes connecté en tant que serveur.");
+        }
+        return session;
+    }
+
+    /**
+     * Affichage du menu et exécution des opérations choisies jusqu'à ce que le serveur quitte (choix 0) ou que sa session expire
+     * @param session la session du serveur connecté
+     */
+    private void boucleMenu(Authentification.SessionOuverte session) {
+        Serveur serveur = Serveur.depuis(session.identite(), restaurant);
+        serveur.setSorties(out, err);
+        out.println(serveur.getMenu());
+        int choix = sc.nextInt();
+        sc.nextLine(); // On doit consommer le retour à la ligne après le nextInt pour éviter qu'il ne soit consommé par le nextLine suivant et on aura une entrée vide.
+        while (choix != 0) {
+            // L'identité et le grade sont gardés par la session : pas de requête pour vérifier les droits
+            Authentification.Identite identite = restaurant.getAuthentification().identite(session.jeton());
+            if (identite == null) {
+                err.println("Votre session a expiré, veuillez vous reconnecter.");
+                return;
+            }
+            if (choix >= CHOIX_GESTIONNAIRE && !identite.estGestionnaire()) {
+                err.println("Vous n'avez pas les permissions d'utiliser cette fonctionnalité");
+            } else {
+                try {
+                    executer(serveur, choix);
+                } catch (IllegalArgumentException | InputMismatchException | DateTimeException e) {
+                    err.println("Veuillez vérifier vos entrées (leur type et leur format)");
+                } catch (SQLException e) {
+                    err.println("Erreur de communication avec la base de données");
+                } catch (NoSuchElementException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    err.println("Erreur interne, l'opération n'a pas été effectuée");
+                }
+            }
+
+            try {
+                out.println(serveur.getMenu());
+                sc.nextLine();
+                choix = sc.nextInt();
+                sc.nextLine(); // On doit consommer le retour à la ligne après le nextInt pour éviter qu'il ne soit consommé par le nextLine suivant et on aura donc une entrée vide.
+            } catch (InputMismatchException e) {
+                err.println("Votre choix doit être un nombre allant de 0 à 12 selon votre rôle.");
+            }
+        }
+    }
+
+    /**
+     * Exécute une opération du menu. La connexion n'est empruntée au pool qu'une fois les entrées saisies,
+     * pour ne pas la monopoliser pendant que le serveur tape au clavier. Les consultations l'empruntent au pool de lecture.
+     * @param serveur le serveur connecté
+     * @param choix le numéro de l'opération
+     * @throws SQLException si aucune connexion n'est disponible ou si une erreur survient lors de la requête SQL
+     */
+    private void executer(Serveur serveur, int choix) throws SQLException {
+        String date;
+        int nbPers;
+        int numtab;
+        int numres;
+        switch (choix) {
+            case 1:
+                out.println("Veuillez entrer la date de réservation (format : yyyy-mm-dd hh:mm:ss) :");
+                date = sc.nextLine();
+
+                out.println("Veuillez entrer le nombre de personnes :");
+                nbPers = sc.nextInt();
+
+                try (Connection conn = restaurant.connexionLecture(serveur.getNumserv())) {
+                    serveur.consulterTablesDispos(conn, date, nbPers, true);
+                }
+                break;
+            case 2:
+                out.println("Veuillez entrer la date de réservation (format : yyyy-mm-dd hh:mm:ss) :");
+                date = sc.nextLine();
+
+                out.println("Veuillez entrer le nombre de personnes :");
+                nbPers = sc.nextInt();
+
+                out.println("Veuillez entrer le numéro de la table (0 pour prendre automatiquement la plus petite table qui convient) :");
+                numtab = sc.nextInt();
+
+                if (numtab == 0) {
+                    out.println("Accepter de réunir plusieurs tables si aucune ne suffit ? (o/n) :");
+                    boolean combiner = sc.next().equalsIgnoreCase("o");
+                    try (Connection conn = restaurant.connexion()) {
+                        serveur.reserverMeilleureTable(conn, date, nbPers, combiner);
+                    }
+                    break;
+                }
+                try (Connection conn = restaurant.connexion()) {
+                    serveur.reserverTable(conn, date, nbPers, numtab);
+                }
+                break;
+            case 3:
+                try (Connection conn = restaurant.connexionLecture(serveur.getNumserv())) {
+                    serveur.consulterPlatsDispos(conn);
+                }
+                break;
+            case 4:
+                out.println("Veuillez entrer le numéro de la réservation :");
+                numres = sc.nextInt();
+
+                // On saisit tous les plats de la table, puis on les commande en une seule transaction
+                List<LigneCommande> lignes = new ArrayList<>();
+                while (true) {
+                    out.println("Veuillez entrer le numéro du plat (0 pour valider la commande) :");
+                    int numplat = sc.nextInt();
+                    if (numplat == 0) break;
+
+                    out.println("Veuillez entrer la quantité :");
+                    int quantite = sc.nextInt();
+                    lignes.add(new LigneCommande(numplat, quantite));
+                }
+
+                try (Connection conn = restaurant.connexion()) {
+                    serveur.commanderPlats(conn, numres, lignes);
+                }
+                break;
+            case 5:
+                Gestionnaire gestionnaire = (Gestionnaire) serveur; // grade vérifié par boucleMenu
+                out.println("Veuillez entrer le numéro du serveur (0 pour tous les serveurs) :");
+                int numservConsulte = sc.nextInt();
+
+                // L'historique est affiché page par page : chaque page reprend après la dernière affectation affichée
+                Affectation suivante = null;
+                do {
+                    try (Connection conn = restaurant.connexionLecture(serveur.getNumserv())) {
+                        suivante = gestionnaire.consulterAffectations(conn, numservConsulte == 0 ? null : numservConsulte, suivante);
+                    }
+                    if (suivante == null) break;
+                    out.println("Afficher la page suivante ? (o/n) :");
+                } while (sc.next().equalsIgnoreCase("o"));
+                break;
+            case 6:
+                gestionnaire = (Gestionnaire) serveur;
+                out.println("Veuillez entrer le numéro du serveur :");
+                int numservAffectation = sc.nextInt();
+
+                out.println("Veuillez entrer le numéro de la table :");
+                numtab = sc.nextInt();
+
+                try (Connection conn = restaurant.connexion()) {
+                    gestionnaire.affecterServeurTable(conn, numtab, numservAffectation);
+                }
+                break;
+            case 7:
+                gestionnaire = (Gestionnaire) serveur;
+                out.println("Veuillez entrer le numéro de la réservation :");
+                numres = sc.nextInt();
+
+                try (Connection conn = restaurant.connexion()) {
+                    gestionnaire.calculerMontantTotalCommandeEtMajReservation(conn, numres);
+                }
+                break;
+            case 8:
+                gestionnaire = (Gestionnaire) serveur;
+                try (Connection conn = restaurant.connexion()) {
+                    gestionnaire.verifierMontantsCumules(conn);
+                }
+                break;
+            case 9:
+                gestionnaire = (Gestionnaire) serveur;
+                out.println("Veuillez entrer le numéro du plat :");
+                int numplat = sc.nextInt();
+
+                out.println("Veuillez entrer la quantité ajoutée :");
+                int quantite = sc.nextInt();
+
+                try (Connection conn = restaurant.connexion()) {
+                    gestionnaire.reapprovisionnerPlat(conn, numplat, quantite);
+                }
+                break;
+            case 10:
+                gestionnaire = (Gestionnaire) serveur;
+                out.println("Simulation sans rien enregistrer ? (o/n) :");
+                boolean simulation = sc.nextLine().trim().equalsIgnoreCase("o");
+
+                try (Connection conn = restaurant.connexion()) {
+                    gestionnaire.facturerReservationsOuvertes(conn, restaurant.getNbPartitionsFacturation(), simulation);
+                }
+                break;
+            case 11:
+                gestionnaire = (Gestionnaire) serveur;
+                try (Connection conn = restaurant.connexionLecture(serveur.getNumserv())) {
+                    gestionnaire.afficherRapports(conn);
+                }
+                break;
+            case 12:
+                gestionnaire = (Gestionnaire) serveur;
+                out.println("Veuillez entrer le jour (format : yyyy-mm-dd) :");
+                LocalDate jour = LocalDate.parse(sc.nextLine().trim());
+
+                out.println("Veuillez entrer l'heure de début (format : hh:mm) :");
+                LocalTime de = LocalTime.parse(sc.nextLine().trim());
+
+                out.println("Veuillez entrer l'heure de fin (format : hh:mm, 00:00 pour minuit) :");
+                LocalTime a = LocalTime.parse(sc.nextLine().trim());
+
+                out.println("Veuillez entrer le nombre de personnes pour chercher une table libre sur toute la période (0 pour aucune recherche) :");
+                nbPers = sc.nextInt();
+
+                try (Connection conn = restaurant.connexionLecture(serveur.getNumserv())) {
+                    gestionnaire.afficherPlanSalle(conn, jour, de, a, nbPers);
+                }
+                break;
+            default:
+                err.println("Choix invalide. Veillez entrer un nombre entre 0 et 12.");
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Stockage des données du restaurant : un dépôt par agrégat (tables, plats, réservations, commandes, affectations, serveurs).
+ * Deux implémentations, choisies par la clé stockage de db.conf : la base de données Oracle (jdbc, par défaut)
+ * et un moteur en mémoire (memoire) pour les bornes de démonstration, les tests de charge et le mode local.
+ * <p>
+ * Les méthodes des dépôts prennent la connexion en paramètre, comme le reste de l'application : en mémoire, elle vaut null et n'est pas utilisée.
+ * Chaque méthode qui modifie des données est une transaction (tout ou rien) ; elle est validée avant de rendre la main.
+ */
+public interface Stockage extends AutoCloseable {
+    /**
+     * @return le dépôt des tables
+     */
+    DepotTables tables();
+
+    /**
+     * @return le dépôt des plats
+     */
+    DepotPlats plats();
+
+    /**
+     * @return le dépôt des réservations
+     */
+    DepotReservations reservations();
+
+    /**
+     * @return le dépôt des commandes
+     */
+    DepotCommandes commandes();
+
+    /**
+     * @return le dépôt des affectations des serveurs aux tables
+     */
+    DepotAffectations affectations();
+
+    /**
+     * @return le dépôt des serveurs
+     */
+    DepotServeurs serveurs();
+
+    /**
+     * Emprunte une connexion pour une opération (à fermer à la fin de l'opération, avec try-with-resources)
+     * @return la connexion, null pour le stockage en mémoire
+     * @throws SQLException si aucune connexion n'est disponible
+     */
+    Connection connexion() throws SQLException;
+
+    /**
+     * Emprunte une connexion pour une consultation (à fermer à la fin de l'opération, avec try-with-resources).
+     * Elle vient du pool de lecture s'il y en a un, sauf si la consultation doit voir des écritures récentes du serveur.
+     * @param numserv le serveur qui consulte, null s'il n'est pas encore connecté
+     * @return la connexion, null pour le stockage en mémoire
+     * @throws SQLException si aucune connexion n'est disponible
+     */
+    default Connection connexionLecture(String numserv) throws SQLException {
+        return connexion();
+    }
+
+    /**
+     * @return le routage des consultations vers le pool de lecture, null s'il n'y en a pas
+     */
+    default RoutageLectures getRoutageLectures() {
+        return null;
+    }
+
+    /**
+     * @return le pool de connexions, null pour le stockage en mémoire (les traitements propres à la base de données sont alors désactivés)
+     */
+    PoolConnexions getPool();
+
+    @Override
+    void close();
+
+    /**
+     * Crée le stockage à partir du fichier de configuration (resources/db.conf).
+     * Clés : stockage (jdbc par défaut, ou memoire), stockage.script (pour le stockage en mémoire : script SQL dont les INSERT forment le jeu de données initial,
+     * resources/bd.sql par défaut), et celles de {@link PoolConnexions#depuisConfig} et de {@link RoutageLectures#depuisConfig} pour la base de données
+     * @param config la configuration chargée par DBConfig
+     * @return le stockage
+     * @throws IOException si le script du stockage en mémoire ne peut pas être lu
+     */
+    static Stockage depuisConfig(Properties config) throws IOException {
+        String type = config.getProperty("stockage", "jdbc");
+        return switch (type) {
+            case "jdbc" -> {
+                PoolConnexions pool = PoolConnexions.depuisConfig(config);
+                yield new StockageJdbc(pool, RoutageLectures.depuisConfig(config, pool));
+            }
+            case "memoire" -> StockageMemoire.depuisScript(Path.of(config.getProperty("stockage.script", "resources/bd.sql")));
+            default -> throw new IllegalArgumentException("Stockage inconnu : " + type + " (jdbc ou memoire)");
+        };
+    }
+}
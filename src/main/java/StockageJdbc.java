@@ -0,0 +1,94 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Stockage dans la base de données Oracle, par le pool de connexions
+ */
+public class StockageJdbc implements Stockage {
+    private final PoolConnexions pool;
+    private final RoutageLectures routage;
+    private final DepotTables tables = new DepotTablesJdbc();
+    private final DepotPlats plats = new DepotPlatsJdbc();
+    private final DepotReservations reservations = new DepotReservationsJdbc();
+    private final DepotCommandes commandes = new DepotCommandesJdbc();
+    private final DepotAffectations affectations = new DepotAffectationsJdbc();
+    private final DepotServeurs serveurs = new DepotServeursJdbc();
+
+    /**
+     * Constructeur du stockage
+     * @param pool le pool de connexions (null si les connexions sont toujours passées par l'appelant)
+     */
+    public StockageJdbc(PoolConnexions pool) {
+        this(pool, null);
+    }
+
+    /**
+     * Constructeur du stockage
+     * @param pool le pool de connexions
+     * @param routage le routage des consultations vers le pool de lecture (null : les consultations utilisent le pool principal)
+     */
+    public StockageJdbc(PoolConnexions pool, RoutageLectures routage) {
+        this.pool = pool;
+        this.routage = routage;
+    }
+
+    @Override
+    public DepotTables tables() {
+        return tables;
+    }
+
+    @Override
+    public DepotPlats plats() {
+        return plats;
+    }
+
+    @Override
+    public DepotReservations reservations() {
+        return reservations;
+    }
+
+    @Override
+    public DepotCommandes commandes() {
+        return commandes;
+    }
+
+    @Override
+    public DepotAffectations affectations() {
+        return affectations;
+    }
+
+    @Override
+    public DepotServeurs serveurs() {
+        return serveurs;
+    }
+
+    @Override
+    public Connection connexion() throws SQLException {
+        return pool.getConnection();
+    }
+
+    @Override
+    public Connection connexionLecture(String numserv) throws SQLException {
+        if (routage == null) return connexion();
+        return routage.connexion(numserv);
+    }
+
+    @Override
+    public RoutageLectures getRoutageLectures() {
+        return routage;
+    }
+
+    @Override
+    public PoolConnexions getPool() {
+        return pool;
+    }
+
+    /**
+     * Ferme le pool de lecture puis le pool de connexions
+     */
+    @Override
+    public void close() {
+        if (routage != null) routage.close();
+        if (pool != null) pool.close();
+    }
+}
@@ -0,0 +1,620 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stockage en mémoire (clé stockage=memoire de db.conf), sans base de données : pour les bornes de démonstration, les tests de charge et le mode local.
+ * Les données sont perdues à l'arrêt ; le jeu de données initial est lu dans les INSERT d'un script SQL (resources/bd.sql par défaut).
+ * <p>
+ * Mêmes garanties que la base de données, avec des verrous par ligne au lieu de verrous par table :
+ * <ul>
+ *     <li>une réservation verrouille ses tables par numéro croissant, vérifie qu'elles sont libres puis les réserve : une table n'est jamais réservée deux fois ;</li>
+ *     <li>une commande verrouille ses plats par numéro croissant (comme les lignes de la table plat) et vérifie tous leurs stocks,
+ *     puis verrouille sa réservation (comme la mise à jour de montcours) avant de retirer les stocks : tout ou rien, et aucune autre commande
+ *     ne voit un stock retiré puis remis ;</li>
+ *     <li>un encaissement verrouille la réservation : une commande en cours se termine avant, et les commandes suivantes sont refusées.</li>
+ * </ul>
+ * Les lectures (tables libres, carte, plan de salle) ne prennent pas de verrou : les dates de réservation de chaque table sont un tableau trié remplacé à chaque réservation.
+ */
+public class StockageMemoire implements Stockage {
+    private final ConcurrentSkipListMap<Integer, TableMemoire> tables = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Integer, PlatMemoire> plats = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Integer, ReservationMemoire> reservations = new ConcurrentSkipListMap<>();
+    /**
+     * Affectation courante (la plus récente) de chaque table
+     */
+    private final ConcurrentHashMap<Integer, Affectation> affectations = new ConcurrentHashMap<>();
+    /**
+     * Toutes les affectations, une par table et par jour, dans l'ordre de l'historique (les plus récentes d'abord)
+     */
+    private final ConcurrentSkipListSet<Affectation> historiqueAffectations = new ConcurrentSkipListSet<>(Affectation.HISTORIQUE);
+    /**
+     * Verrou des écritures d'affectations : l'historique et l'affectation courante sont modifiés ensemble
+     */
+    private final ReentrantLock verrouAffectations = new ReentrantLock();
+    /**
+     * Compte et mot de passe de chaque serveur, par email
+     */
+    private final ConcurrentHashMap<String, DepotServeurs.Identifiants> comptes = new ConcurrentHashMap<>();
+    /**
+     * Nom de chaque serveur, par numéro
+     */
+    private final ConcurrentHashMap<Integer, String> nomsServeurs = new ConcurrentHashMap<>();
+    /**
+     * Prochain numéro de réservation (équivalent de la colonne IDENTITY)
+     */
+    private final AtomicInteger prochainNumres = new AtomicInteger(1);
+
+    private final DepotTables depotTables = new Tables();
+    private final DepotPlats depotPlats = new Plats();
+    private final DepotReservations depotReservations = new Reservations();
+    private final DepotCommandes depotCommandes = new Commandes();
+    private final DepotAffectations depotAffectations = new Affectations();
+    private final DepotServeurs depotServeurs = new Serveurs();
+
+    /**
+     * Table du restaurant et dates de ses réservations
+     */
+    private static class TableMemoire {
+        final int numtab;
+        final int nbplace;
+        /**
+         * Pris par une réservation (une seule écriture à la fois), jamais par une lecture
+         */
+        final ReentrantLock verrou = new ReentrantLock();
+        /**
+         * Dates des réservations (en millisecondes), triées. Tableau jamais modifié : une réservation le remplace par une copie (lectures sans verrou)
+         */
+        volatile long[] dates = new long[0];
+
+        TableMemoire(int numtab, int nbplace) {
+            this.numtab = numtab;
+            this.nbplace = nbplace;
+        }
+
+        /**
+         * @return true s'il n'y a aucune réservation de la table dans les 2 heures avant ou après la date (bornes comprises)
+         */
+        boolean estLibre(long date) {
+            long[] d = dates;
+            int i = Arrays.binarySearch(d, date - IndexDisponibilites.DUREE_REPAS_MS);
+            if (i < 0) i = -i - 1;
+            return i >= d.length || d[i] > date + IndexDisponibilites.DUREE_REPAS_MS;
+        }
+
+        /**
+         * Ajoute une date (verrou de la table pris)
+         */
+        void ajouter(long date) {
+            long[] d = dates;
+            int i = Arrays.binarySearch(d, date);
+            if (i < 0) i = -i - 1;
+            long[] copie = new long[d.length + 1];
+            System.arraycopy(d, 0, copie, 0, i);
+            copie[i] = date;
+            System.arraycopy(d, i, copie, i + 1, d.length - i);
+            dates = copie;
+        }
+    }
+
+    /**
+     * Plat de la carte et son stock : le stock est modifié sous le verrou du plat (comme la ligne de la table plat) et lu sans verrou
+     */
+    private record PlatMemoire(int numplat, String libelle, String type, double prixunit, AtomicInteger stock, ReentrantLock verrou) {
+        PlatMemoire(int numplat, String libelle, String type, double prixunit, int stock) {
+            this(numplat, libelle, type, prixunit, new AtomicInteger(stock), new ReentrantLock());
+        }
+    }
+
+    /**
+     * Réservation : le montant cumulé, le montant encaissé et les lignes de commande sont modifiés sous le verrou de la réservation
+     */
+    private static class ReservationMemoire {
+        final int numres;
+        final int numtab;
+        final long datres;
+        final int nbpers;
+        final ReentrantLock verrou = new ReentrantLock();
+        double montcours;
+        /**
+         * 0 tant que la réservation n'a pas été encaissée
+         */
+        double montcom;
+        /**
+         * Quantité commandée par plat
+         */
+        final TreeMap<Integer, Integer> lignes = new TreeMap<>();
+
+        ReservationMemoire(int numres, int numtab, long datres, int nbpers) {
+            this.numres = numres;
+            this.numtab = numtab;
+            this.datres = datres;
+            this.nbpers = nbpers;
+        }
+    }
+
+    @Override
+    public DepotTables tables() {
+        return depotTables;
+    }
+
+    @Override
+    public DepotPlats plats() {
+        return depotPlats;
+    }
+
+    @Override
+    public DepotReservations reservations() {
+        return depotReservations;
+    }
+
+    @Override
+    public DepotCommandes commandes() {
+        return depotCommandes;
+    }
+
+    @Override
+    public DepotAffectations affectations() {
+        return depotAffectations;
+    }
+
+    @Override
+    public DepotServeurs serveurs() {
+        return depotServeurs;
+    }
+
+    /**
+     * @return null : le stockage en mémoire n'utilise pas de connexion
+     */
+    @Override
+    public Connection connexion() {
+        return null;
+    }
+
+    @Override
+    public PoolConnexions getPool() {
+        return null;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private class Tables implements DepotTables {
+        @Override
+        public Map<Integer, Integer> placesParTable(Connection conn) {
+            Map<Integer, Integer> places = new TreeMap<>();
+            for (TableMemoire table : tables.values()) places.put(table.numtab, table.nbplace);
+            return places;
+        }
+
+        @Override
+        public List<Integer> tablesLibres(Connection conn, Timestamp date, int nbPers) {
+            List<Integer> libres = new ArrayList<>();
+            for (TableMemoire table : tables.values()) {
+                if (table.nbplace >= nbPers && table.estLibre(date.getTime())) libres.add(table.numtab);
+            }
+            return libres;
+        }
+    }
+
+    private class Plats implements DepotPlats {
+        @Override
+        public List<CarteMenu.PlatCarte> lister(Connection conn) {
+            List<CarteMenu.PlatCarte> liste = new ArrayList<>();
+            for (PlatMemoire plat : plats.values()) {
+                liste.add(new CarteMenu.PlatCarte(plat.numplat(), plat.libelle(), plat.type(), plat.prixunit(), plat.stock().get()));
+            }
+            return liste;
+        }
+
+        @Override
+        public boolean reapprovisionner(Connection conn, int numplat, int quantite, AttenteVerrou attente) throws SQLException {
+            PlatMemoire plat = plats.get(numplat);
+            if (plat == null) return false;
+            attente.verrouiller(plat.verrou());
+            try {
+                plat.stock().addAndGet(quantite);
+            } finally {
+                plat.verrou().unlock();
+            }
+            return true;
+        }
+    }
+
+    private class Reservations implements DepotReservations {
+        @Override
+        public Issue reserver(Connection conn, Timestamp date, Map<Integer, Integer> repartition) {
+            // Verrous pris par numéro de table croissant : deux réunions de tables qui se chevauchent attendent dans le même ordre, sans interblocage
+            List<TableMemoire> verrouillees = new ArrayList<>();
+            try {
+                for (Map.Entry<Integer, Integer> e : new TreeMap<>(repartition).entrySet()) {
+                    TableMemoire table = tables.get(e.getKey());
+                    if (table == null || table.nbplace < e.getValue()) return Issue.INDISPONIBLE;
+                    table.verrou.lock();
+                    verrouillees.add(table);
+                    if (!table.estLibre(date.getTime())) return Issue.INDISPONIBLE;
+                }
+                for (TableMemoire table : verrouillees) {
+                    int numres = prochainNumres.getAndIncrement();
+                    reservations.put(numres, new ReservationMemoire(numres, table.numtab, date.getTime(), repartition.get(table.numtab)));
+                    table.ajouter(date.getTime());
+                }
+                return Issue.RESERVEE;
+            } finally {
+                for (TableMemoire table : verrouillees) table.verrou.unlock();
+            }
+        }
+
+        @Override
+        public Map<Integer, long[]> datesParTable(Connection conn, Timestamp debut, Timestamp fin) {
+            Map<Integer, long[]> datesParTable = new HashMap<>();
+            for (TableMemoire table : tables.values()) {
+                long[] dates = table.dates;
+                if (debut != null) {
+                    int de = Arrays.binarySearch(dates, debut.getTime());
+                    if (de < 0) de = -de - 1;
+                    else while (de > 0 && dates[de - 1] == debut.getTime()) de--;
+                    int a = Arrays.binarySearch(dates, fin.getTime());
+                    if (a < 0) a = -a - 1;
+                    else while (a > 0 && dates[a - 1] == fin.getTime()) a--;
+                    dates = Arrays.copyOfRange(dates, de, Math.max(de, a));
+                }
+                if (dates.length > 0) datesParTable.put(table.numtab, dates);
+            }
+            return datesParTable;
+        }
+
+        @Override
+        public Encaissement encaisser(Connection conn, int numres, boolean verification, AttenteVerrou attente) throws SQLException {
+            ReservationMemoire reservation = reservations.get(numres);
+            if (reservation == null) return new Encaissement(EtatEncaissement.INTROUVABLE, 0, 0);
+            attente.verrouiller(reservation.verrou);
+            try {
+                if (reservation.montcom != 0) return new Encaissement(EtatEncaissement.DEJA_ENCAISSEE, reservation.montcom, reservation.montcours);
+                double total = reservation.montcours;
+                if (verification) {
+                    double recalcule = somme(reservation);
+                    if (Math.abs(recalcule - total) > 0.005) total = recalcule;
+                }
+                reservation.montcom = total;
+                return new Encaissement(EtatEncaissement.ENCAISSEE, total, reservation.montcours);
+            } finally {
+                reservation.verrou.unlock();
+            }
+        }
+
+        @Override
+        public boolean ouverte(Connection conn, int numres) {
+            ReservationMemoire reservation = reservations.get(numres);
+            if (reservation == null) return false;
+            reservation.verrou.lock();
+            try {
+                return reservation.montcom == 0;
+            } finally {
+                reservation.verrou.unlock();
+            }
+        }
+
+        @Override
+        public List<Integer> ouvertesAvecCommandes(Connection conn) {
+            List<Integer> numeros = new ArrayList<>();
+            for (ReservationMemoire reservation : reservations.values()) {
+                reservation.verrou.lock();
+                try {
+                    if (reservation.montcom == 0 && !reservation.lignes.isEmpty()) numeros.add(reservation.numres);
+                } finally {
+                    reservation.verrou.unlock();
+                }
+            }
+            return numeros;
+        }
+
+        @Override
+        public Facturation facturer(Connection conn, int min, int max, boolean verification, boolean simulation, AttenteVerrou attente) throws SQLException {
+            Map<Integer, Double> montants = new TreeMap<>();
+            List<Integer> ecarts = new ArrayList<>();
+            // Comme le SELECT ... FOR UPDATE de la base de données : toutes les réservations de la plage sont verrouillées (par numéro croissant) jusqu'à la fin
+            List<ReservationMemoire> verrouillees = new ArrayList<>();
+            try {
+                for (ReservationMemoire reservation : reservations.subMap(min, true, max, true).values()) {
+                    attente.verrouiller(reservation.verrou);
+                    verrouillees.add(reservation);
+                    if (reservation.montcom != 0 || reservation.lignes.isEmpty()) continue;
+                    double total = reservation.montcours;
+                    if (verification) {
+                        double recalcule = somme(reservation);
+                        if (Math.abs(recalcule - total) > 0.005) {
+                            ecarts.add(reservation.numres);
+                            total = recalcule;
+                        }
+                    }
+                    montants.put(reservation.numres, total);
+                }
+                if (!simulation) {
+                    for (ReservationMemoire reservation : verrouillees) {
+                        Double total = montants.get(reservation.numres);
+                        if (total != null) reservation.montcom = total;
+                    }
+                }
+                return new Facturation(montants, ecarts);
+            } finally {
+                for (ReservationMemoire reservation : verrouillees) reservation.verrou.unlock();
+            }
+        }
+    }
+
+    private class Commandes implements DepotCommandes {
+        @Override
+        public Resultat commander(Connection conn, int numres, SortedMap<Integer, Integer> quantites, AttenteVerrou attente) throws SQLException {
+            ReservationMemoire reservation = reservations.get(numres);
+            if (reservation == null) return new Resultat(Etat.RESERVATION_INCONNUE, 0, 0, false);
+            // Même ordre que le moteur JDBC : les plats par numéro croissant (quantites est trié), puis la réservation.
+            // Tous les stocks sont vérifiés avant d'en retirer un seul : rien n'est retiré si un plat manque.
+            List<PlatMemoire> verrouilles = new ArrayList<>();
+            try {
+                for (Map.Entry<Integer, Integer> e : quantites.entrySet()) {
+                    PlatMemoire plat = plats.get(e.getKey());
+                    if (plat == null) return new Resultat(Etat.PLAT_INCONNU, e.getKey(), 0, false);
+                    attente.verrouiller(plat.verrou());
+                    verrouilles.add(plat);
+                    if (plat.stock().get() < e.getValue()) return new Resultat(Etat.STOCK_INSUFFISANT, e.getKey(), 0, false);
+                }
+
+                attente.verrouiller(reservation.verrou);
+                try {
+                    if (reservation.montcom != 0) return new Resultat(Etat.RESERVATION_CLOTUREE, 0, 0, false);
+                    double montant = 0;
+                    boolean rupture = false;
+                    for (PlatMemoire plat : verrouilles) {
+                        int quantite = quantites.get(plat.numplat());
+                        if (plat.stock().addAndGet(-quantite) == 0) rupture = true;
+                        montant += plat.prixunit() * quantite;
+                    }
+                    ajouter(reservation, quantites, montant);
+                    return new Resultat(Etat.ENREGISTREE, 0, montant, rupture);
+                } finally {
+                    reservation.verrou.unlock();
+                }
+            } finally {
+                for (PlatMemoire plat : verrouilles) plat.verrou().unlock();
+            }
+        }
+
+        @Override
+        public Etat enregistrer(Connection conn, int numres, Map<Integer, Integer> quantites, double montant, AttenteVerrou attente) throws SQLException {
+            ReservationMemoire reservation = reservations.get(numres);
+            if (reservation == null) return Etat.RESERVATION_INCONNUE;
+            attente.verrouiller(reservation.verrou);
+            try {
+                if (reservation.montcom != 0) return Etat.RESERVATION_CLOTUREE;
+                ajouter(reservation, quantites, montant);
+                return Etat.ENREGISTREE;
+            } finally {
+                reservation.verrou.unlock();
+            }
+        }
+
+        private void ajouter(ReservationMemoire reservation, Map<Integer, Integer> quantites, double montant) {
+            for (Map.Entry<Integer, Integer> e : quantites.entrySet()) reservation.lignes.merge(e.getKey(), e.getValue(), Integer::sum);
+            reservation.montcours += montant;
+        }
+
+        @Override
+        public List<Ecart> montantsIncoherents(Connection conn) {
+            List<Ecart> ecarts = new ArrayList<>();
+            for (ReservationMemoire reservation : reservations.values()) {
+                reservation.verrou.lock();
+                try {
+                    double somme = somme(reservation);
+                    if (Math.abs(somme - reservation.montcours) > 0.005) ecarts.add(new Ecart(reservation.numres, reservation.montcours, somme));
+                } finally {
+                    reservation.verrou.unlock();
+                }
+            }
+            return ecarts;
+        }
+    }
+
+    /**
+     * @return la somme des commandes de la réservation, recalculée avec les prix des plats (verrou de la réservation pris)
+     */
+    private double somme(ReservationMemoire reservation) {
+        double somme = 0;
+        for (Map.Entry<Integer, Integer> e : reservation.lignes.entrySet()) somme += plats.get(e.getKey()).prixunit() * e.getValue();
+        return somme;
+    }
+
+    private class Affectations implements DepotAffectations {
+        @Override
+        public List<Affectation> courantes(Connection conn) {
+            return new ArrayList<>(affectations.values());
+        }
+
+        @Override
+        public List<Affectation> historique(Connection conn, Integer numserv, Affectation apres, int taille) {
+            List<Affectation> page = new ArrayList<>();
+            for (Affectation a : apres == null ? historiqueAffectations : historiqueAffectations.tailSet(apres, false)) {
+                if (page.size() >= taille) break;
+                if (numserv == null || a.numserv() == numserv) page.add(a);
+            }
+            return page;
+        }
+
+        @Override
+        public void affecter(Connection conn, Affectation affectation) throws SQLException {
+            // Mêmes contraintes que les clés étrangères de la table affecter
+            if (!tables.containsKey(affectation.numtab()) || !nomsServeurs.containsKey(affectation.numserv())) {
+                throw new SQLIntegrityConstraintViolationException("Table " + affectation.numtab() + " ou serveur " + affectation.numserv() + " inexistant");
+            }
+            verrouAffectations.lock();
+            try {
+                ajouterAffectation(affectation);
+            } finally {
+                verrouAffectations.unlock();
+            }
+        }
+
+        @Override
+        public Map<Integer, String> nomsServeursParTable(Connection conn) {
+            Map<Integer, String> noms = new HashMap<>();
+            for (Affectation a : affectations.values()) noms.put(a.numtab(), nomsServeurs.get(a.numserv()));
+            return Collections.unmodifiableMap(noms);
+        }
+    }
+
+    private class Serveurs implements DepotServeurs {
+        @Override
+        public Identifiants trouver(Connection conn, String email) {
+            return comptes.get(email);
+        }
+
+        @Override
+        public void changerMotDePasse(Connection conn, String numserv, String passwd) {
+            comptes.replaceAll((email, i) -> i.compte().numserv().equals(numserv) ? new Identifiants(i.compte(), passwd) : i);
+        }
+    }
+
+    /**
+     * Ajoute une affectation à l'historique (à la place de celle de la table à la même date) et met à jour l'affectation courante de la table
+     * si c'est la plus récente (verrou des affectations pris, ou chargement du script)
+     */
+    private void ajouterAffectation(Affectation affectation) {
+        historiqueAffectations.remove(affectation);
+        historiqueAffectations.add(affectation);
+        affectations.merge(affectation.numtab(), affectation, (ancienne, nouvelle) -> ancienne.dataff().after(nouvelle.dataff()) ? ancienne : nouvelle);
+    }
+
+    /**
+     * Crée le stockage en mémoire avec le jeu de données d'un script SQL : seules les instructions "insert into ... values(...)" des tables
+     * tabl, plat, serveur, reservation, commande et affecter sont lues (valeurs dans l'ordre des colonnes de resources/bd.sql), le reste est ignoré.
+     * Le montant cumulé de chaque réservation est recalculé à partir de ses commandes.
+     * @param script le chemin du script
+     * @return le stockage
+     * @throws IOException si le script ne peut pas être lu
+     */
+    public static StockageMemoire depuisScript(Path script) throws IOException {
+        StockageMemoire stockage = new StockageMemoire();
+        Pattern insert = Pattern.compile("(?is)^insert\\s+into\\s+(\\w+)\\s+values\\s*\\((.*)\\)$");
+        for (String instruction : instructions(Files.readString(script, StandardCharsets.UTF_8))) {
+            Matcher m = insert.matcher(instruction);
+            if (m.matches()) stockage.inserer(m.group(1).toLowerCase(), valeurs(m.group(2)));
+        }
+        for (ReservationMemoire reservation : stockage.reservations.values()) reservation.montcours = stockage.somme(reservation);
+        return stockage;
+    }
+
+    private void inserer(String table, List<Object> v) {
+        switch (table) {
+            case "tabl" -> tables.put(entier(v.get(0)), new TableMemoire(entier(v.get(0)), entier(v.get(1))));
+            case "plat" -> plats.put(entier(v.get(0)), new PlatMemoire(entier(v.get(0)), (String) v.get(1), (String) v.get(2),
+                    ((Number) v.get(3)).doubleValue(), entier(v.get(4))));
+            case "serveur" -> {
+                comptes.put((String) v.get(1), new DepotServeurs.Identifiants(
+                        new DepotServeurs.Compte(String.valueOf(entier(v.get(0))), (String) v.get(3), (String) v.get(4)), (String) v.get(2)));
+                nomsServeurs.put(entier(v.get(0)), (String) v.get(3));
+            }
+            case "reservation" -> {
+                int numres = entier(v.get(0));
+                long datres = ((LocalDateTime) v.get(2)).atZone(java.time.ZoneId.systemDefault()).toInstant().toEpochMilli();
+                ReservationMemoire reservation = new ReservationMemoire(numres, entier(v.get(1)), datres, entier(v.get(3)));
+                if (v.size() > 6 && v.get(6) != null) reservation.montcom = ((Number) v.get(6)).doubleValue();
+                reservations.put(numres, reservation);
+                TableMemoire t = tables.get(reservation.numtab);
+                if (t != null) t.ajouter(datres);
+                prochainNumres.accumulateAndGet(numres + 1, Math::max);
+            }
+            case "commande" -> {
+                ReservationMemoire reservation = reservations.get(entier(v.get(0)));
+                if (reservation != null) reservation.lignes.merge(entier(v.get(1)), entier(v.get(2)), Integer::sum);
+            }
+            case "affecter" -> ajouterAffectation(new Affectation(entier(v.get(0)),
+                    Date.valueOf(((LocalDateTime) v.get(1)).toLocalDate()), entier(v.get(2))));
+            default -> {
+            }
+        }
+    }
+
+    private static int entier(Object valeur) {
+        return ((Number) valeur).intValue();
+    }
+
+    /**
+     * Découpe un script SQL en instructions (séparées par des points-virgules) en retirant les commentaires (--) en dehors des chaînes
+     */
+    private static List<String> instructions(String script) {
+        StringBuilder sansCommentaires = new StringBuilder();
+        for (String ligne : script.split("\n")) {
+            boolean dansChaine = false;
+            int fin = ligne.length();
+            for (int i = 0; i < ligne.length() - 1; i++) {
+                char c = ligne.charAt(i);
+                if (c == '\'') dansChaine = !dansChaine;
+                else if (!dansChaine && c == '-' && ligne.charAt(i + 1) == '-') {
+                    fin = i;
+                    break;
+                }
+            }
+            sansCommentaires.append(ligne, 0, fin).append('\n');
+        }
+        List<String> instructions = new ArrayList<>();
+        for (String instruction : sansCommentaires.toString().split(";")) {
+            if (!instruction.isBlank()) instructions.add(instruction.strip());
+        }
+        return instructions;
+    }
+
+    /**
+     * Lit les valeurs d'un INSERT : nombres, chaînes entre apostrophes, null et to_date('...', 'format Oracle')
+     */
+    private static List<Object> valeurs(String liste) {
+        List<Object> valeurs = new ArrayList<>();
+        Pattern valeur = Pattern.compile("(?is)\\s*(?:'((?:[^']|'')*)'|(null)|to_date\\s*\\(\\s*'([^']*)'\\s*,\\s*'([^']*)'\\s*\\)|([-+0-9.]+))\\s*(?:,|$)");
+        Matcher m = valeur.matcher(liste);
+        int position = 0;
+        while (position < liste.length() && m.find(position) && m.start() == position) {
+            if (m.group(1) != null) valeurs.add(m.group(1).replace("''", "'"));
+            else if (m.group(2) != null) valeurs.add(null);
+            else if (m.group(3) != null) valeurs.add(date(m.group(3), m.group(4)));
+            else valeurs.add(m.group(5).contains(".") ? (Object) Double.parseDouble(m.group(5)) : (Object) Long.parseLong(m.group(5)));
+            position = m.end();
+        }
+        if (position < liste.length()) throw new IllegalArgumentException("Valeur non reconnue dans le script : " + liste.substring(position));
+        return valeurs;
+    }
+
+    /**
+     * @param texte la date
+     * @param formatOracle le format de to_date (dd, mm, yyyy, hh24, mi, ss)
+     * @return la date et l'heure (minuit si le format n'a pas d'heure)
+     */
+    private static LocalDateTime date(String texte, String formatOracle) {
+        String format = formatOracle.toLowerCase().replace("mm", "MM").replace("mi", "mm").replace("hh24", "HH");
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(format);
+        return format.contains("HH") ? LocalDateTime.parse(texte, formatter) : LocalDate.parse(texte, formatter).atStartOfDay();
+    }
+}